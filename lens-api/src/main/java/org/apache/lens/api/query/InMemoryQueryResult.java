@@ -24,6 +24,7 @@ package org.apache.lens.api.query;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -41,6 +42,8 @@ import lombok.NoArgsConstructor;
  *
  * @param rows
  *          the rows
+ * @param moreRowsAvailable
+ *          whether more rows are available
  */
 @AllArgsConstructor
 /**
@@ -55,4 +58,21 @@ public class InMemoryQueryResult extends QueryResult {
   @XmlElementWrapper
   @Getter
   private List<ResultRow> rows = new ArrayList<ResultRow>();
+
+  /**
+   * Whether more rows are available after the rows of this result.
+   */
+  @XmlElement
+  @Getter
+  private boolean moreRowsAvailable;
+
+  /**
+   * Instantiates a new in memory query result, with no more rows available after the given rows.
+   *
+   * @param rows
+   *          the rows
+   */
+  public InMemoryQueryResult(List<ResultRow> rows) {
+    this(rows, false);
+  }
 }
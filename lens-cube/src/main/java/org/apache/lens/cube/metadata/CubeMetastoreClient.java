@@ -21,19 +21,23 @@ package org.apache.lens.cube.metadata;
 
 import java.text.ParseException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lens.cube.metadata.Storage.LatestInfo;
 import org.apache.lens.cube.metadata.Storage.LatestPartColumnInfo;
 import org.apache.lens.cube.metadata.timeline.PartitionTimeline;
 import org.apache.lens.cube.metadata.timeline.PartitionTimelineFactory;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.Warehouse;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.InvalidOperationException;
+import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.ql.metadata.Hive;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.metadata.Partition;
@@ -41,6 +45,10 @@ import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.thrift.TException;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -51,16 +59,69 @@ import lombok.extern.apachecommons.CommonsLog;
  */
 @CommonsLog
 public class CubeMetastoreClient {
+  /** Counter of tables loaded by warm up */
+  public static final String WARM_UP_TABLES_LOADED = "warm-up-tables-loaded";
+  /** Counter of fact storage tables whose partition timelines are loaded by warm up */
+  public static final String WARM_UP_TIMELINES_LOADED = "warm-up-timelines-loaded";
+  /** Histogram of time taken by warm up in milliseconds */
+  public static final String WARM_UP_TIME_MILLIS = "warm-up-time-millis";
+
+  private final String dbName;
   private final HiveConf config;
   private final boolean enableCaching;
 
-  private CubeMetastoreClient(HiveConf conf) {
+  private final long timelineFlushDelayMillis;
+  // flushes changed partition timelines to table properties, null if they are stored right away
+  private final ScheduledExecutorService timelineFlusher;
+  // attempts made to store the partition timelines of a storage table before they are reloaded from its partitions
+  private static final int MAX_TIMELINE_FLUSH_ATTEMPTS = 5;
+  // storage tables whose partition timelines changed since they were last stored
+  private final Set<String> dirtyTimelineTables = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  // recently looked up existence of partitions by lower cased storage table name, null if not cached
+  private final Cache<String, PartitionExistence> partitionExistenceCache;
+
+  private CubeMetastoreClient(String dbName, HiveConf conf) {
+    this.dbName = dbName;
     this.config = new HiveConf(conf);
     this.enableCaching = conf.getBoolean(MetastoreConstants.METASTORE_ENABLE_CACHING, true);
+    long existenceTtlMillis = conf.getLong(MetastoreConstants.METASTORE_PARTITION_EXISTENCE_CACHE_TTL_MILLIS,
+      MetastoreConstants.DEFAULT_METASTORE_PARTITION_EXISTENCE_CACHE_TTL_MILLIS);
+    if (enableCaching && existenceTtlMillis > 0) {
+      this.partitionExistenceCache = CacheBuilder.newBuilder().expireAfterWrite(existenceTtlMillis,
+        TimeUnit.MILLISECONDS).build();
+    } else {
+      this.partitionExistenceCache = null;
+    }
+    this.timelineFlushDelayMillis = conf.getLong(MetastoreConstants.METASTORE_TIMELINE_FLUSH_DELAY_MILLIS,
+      MetastoreConstants.DEFAULT_METASTORE_TIMELINE_FLUSH_DELAY_MILLIS);
+    if (timelineFlushDelayMillis > 0) {
+      final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+      this.timelineFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          Thread thread = defaultFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+              // the flusher doesn't belong to any user session, give it one on the database of the client
+              SessionState sessionState = new SessionState(new HiveConf(config));
+              sessionState.setCurrentDatabase(CubeMetastoreClient.this.dbName);
+              SessionState.setCurrentSessionState(sessionState);
+              r.run();
+            }
+          });
+          thread.setName("partition-timeline-flusher-" + CubeMetastoreClient.this.dbName);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      this.timelineFlusher = null;
+    }
   }
 
   // map from table name to Table
-  private final Map<String, Table> allHiveTables = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, Table> allHiveTables = Maps.newConcurrentMap();
   private volatile boolean allTablesPopulated = false;
   // map from dimension name to Dimension
   private final Map<String, Dimension> allDims = Maps.newConcurrentMap();
@@ -81,6 +142,12 @@ public class CubeMetastoreClient {
   PartitionTimelineCache partitionTimelineCache = new PartitionTimelineCache();
   // dbname to client mapping
   private static final Map<String, CubeMetastoreClient> CLIENT_MAPPING = Maps.newConcurrentMap();
+  // incremented on every change of tables or partitions through any client
+  private static final AtomicLong METASTORE_VERSION = new AtomicLong();
+  // metastore version at the last change of each table, by lower case qualified table name
+  private static final Map<String, Long> TABLE_VERSIONS = Maps.newConcurrentMap();
+  // metastore version at the last refresh of all tables
+  private static volatile long allTablesVersion = 0;
   private SchemaGraph schemaGraph;
   // Set of all storage table names for which latest partitions exist
   private final Set<String> latestLookupCache = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
@@ -132,6 +199,37 @@ public class CubeMetastoreClient {
   /** clear hive table cache */
   public void clearHiveTableCache() {
     allHiveTables.clear();
+    allTablesVersion = METASTORE_VERSION.incrementAndGet();
+  }
+
+  /**
+   * Get the version stamp of the metastore. The version changes whenever tables or partitions are created, altered or
+   * dropped through any client, so anything derived from metastore state can be cached against it.
+   *
+   * @return the metastore version
+   */
+  public static long getMetastoreVersion() {
+    return METASTORE_VERSION.get();
+  }
+
+  /**
+   * Get the version stamp of a table. The version changes whenever the table or its partitions are created, altered
+   * or dropped through any client, and is never less than the metastore version read before the change. Changes made
+   * outside lens are not tracked.
+   *
+   * @param qualifiedTableName table name qualified with the database name
+   * @return the table version
+   */
+  public static long getTableVersion(String qualifiedTableName) {
+    Long version = TABLE_VERSIONS.get(qualifiedTableName.trim().toLowerCase());
+    return Math.max(version == null ? 0 : version, allTablesVersion);
+  }
+
+  /**
+   * Moves the metastore version and the version of the given table ahead, after a change of the table.
+   */
+  private void tableChanged(String table) {
+    TABLE_VERSIONS.put((dbName + "." + table.trim()).toLowerCase(), METASTORE_VERSION.incrementAndGet());
   }
 
   public List<PartitionTimeline> getTimelines(String factName, String storage, String updatePeriodStr,
@@ -176,11 +274,39 @@ public class CubeMetastoreClient {
    * In-memory storage of {@link PartitionTimeline} objects for each valid
    * storagetable-updateperiod-partitioncolumn tuple. also simultaneously stored in metastore table of the
    * storagetable.
+   * <p></p>
+   * Timelines of a storage table are loaded at most once, by the first caller needing them, while loads of different
+   * storage tables go on in parallel. Loaded timelines are published as snapshots which are never modified, changes
+   * are made on copies which then replace the published snapshot. So readers never block, and changes to the
+   * timelines of a storage table are serialized on its lock.
+   *
+   * @see #getLock(String)
    */
-  class PartitionTimelineCache extends CaseInsensitiveStringHashMap<// storage table
-    TreeMap<UpdatePeriod,
-      CaseInsensitiveStringHashMap<// partition column
-        PartitionTimeline>>> {
+  class PartitionTimelineCache {
+    /**
+     * Published timelines by lower cased storage table name.
+     */
+    private final ConcurrentMap<String, TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>
+      timelines = Maps.newConcurrentMap();
+
+    /**
+     * Loads in progress by lower cased storage table name.
+     */
+    private final ConcurrentMap<String,
+      FutureTask<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>> loads
+      = Maps.newConcurrentMap();
+
+    /**
+     * Locks for changing timelines by lower cased storage table name.
+     */
+    private final ConcurrentMap<String, Object> locks = Maps.newConcurrentMap();
+
+    /**
+     * Number of times the timelines have been changed or invalidated, by lower cased storage table name. Changed only
+     * under the lock of the storage table. A load publishes its timelines only if this hasn't changed since it started.
+     */
+    private final ConcurrentMap<String, Long> generations = Maps.newConcurrentMap();
+
     /**
      * Returns true if all the timelines for fact-storage table are empty for all valid update periods.
      *
@@ -193,11 +319,12 @@ public class CubeMetastoreClient {
      */
     public boolean noPartitionsExist(String fact, String storage, String partCol)
       throws HiveException, LensException {
-      if (get(fact, storage) == null) {
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> storageTimelines = get(fact, storage);
+      if (storageTimelines == null) {
         return true;
       }
-      for (UpdatePeriod updatePeriod : get(fact, storage).keySet()) {
-        PartitionTimeline timeline = get(fact, storage, updatePeriod, partCol);
+      for (CaseInsensitiveStringHashMap<PartitionTimeline> periodTimelines : storageTimelines.values()) {
+        PartitionTimeline timeline = periodTimelines.get(partCol);
         if (timeline != null && !timeline.isEmpty()) {
           return false;
         }
@@ -209,7 +336,8 @@ public class CubeMetastoreClient {
      * get all timelines for all update periods and partition columns for the given fact-storage pair. If already loaded
      * in memory, it'll return that. If not, it'll first try to load it from table properties. If not found in table
      * properties, it'll get all partitions, compute timelines in memory, write back all loads timelines to table
-     * properties for further usage and return them.
+     * properties for further usage and return them. Concurrent callers for the same fact-storage pair wait for a
+     * single load. The returned timelines must not be modified.
      *
      * @param fact
      * @param storage
@@ -217,48 +345,160 @@ public class CubeMetastoreClient {
      * @throws HiveException
      * @throws LensException
      */
-    public TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> get(String fact, String storage)
-      throws HiveException, LensException {
-      // SUSPEND CHECKSTYLE CHECK DoubleCheckedLockingCheck
-      String storageTableName = MetastoreUtil.getStorageTableName(fact, Storage.getPrefix(storage));
-      if (get(storageTableName) == null) {
-        synchronized (this) {
-          if (get(storageTableName) == null) {
-            Table storageTable = getTable(storageTableName);
-            if ("true".equalsIgnoreCase(storageTable.getParameters().get(
-              MetastoreUtil.getPartitionTimelineCachePresenceKey()))) {
-              try {
-                loadTimelinesFromTableProperties(fact, storage);
-              } catch (Exception e) {
-                // Ideally this should never come. But since we have another source,
-                // let's piggyback on that for loading timeline
-                log.error("Error while loading timelines from table properties.", e);
-                loadTimelinesFromAllPartitions(fact, storage);
-              }
-            } else {
-              loadTimelinesFromAllPartitions(fact, storage);
-            }
+    public TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> get(final String fact,
+      final String storage) throws HiveException, LensException {
+      final String storageTableName = MetastoreUtil.getStorageTableName(fact, Storage.getPrefix(storage))
+        .toLowerCase();
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded = timelines.get(storageTableName);
+      if (loaded != null) {
+        return loaded;
+      }
+      FutureTask<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>> load = new FutureTask<
+        TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>(
+        new Callable<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>() {
+          @Override
+          public TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> call() throws Exception {
+            return loadTimelines(fact, storage, storageTableName);
           }
+        });
+      FutureTask<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>> existing = loads.putIfAbsent(
+        storageTableName, load);
+      try {
+        if (existing == null) {
+          load.run();
+          existing = load;
+        }
+        return existing.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HiveException("Interrupted while loading timelines of " + storageTableName, e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), HiveException.class);
+        Throwables.propagateIfInstanceOf(e.getCause(), LensException.class);
+        throw Throwables.propagate(e.getCause());
+      } finally {
+        // a failed load is retried by the next caller
+        loads.remove(storageTableName, load);
+      }
+    }
+
+    /**
+     * Timelines of the storage table if they have been loaded, null otherwise. The returned timelines must not be
+     * modified.
+     *
+     * @param storageTableName
+     * @return timelines of the storage table
+     */
+    public TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> getLoaded(String storageTableName) {
+      return timelines.get(storageTableName.toLowerCase());
+    }
+
+    /**
+     * Drop the timelines of the storage table from memory, along with any pending store of them, so that they are
+     * loaded again when next needed.
+     *
+     * @param storageTableName
+     */
+    public void invalidate(String storageTableName) {
+      String key = storageTableName.toLowerCase();
+      synchronized (getLock(storageTableName)) {
+        changed(key);
+        dirtyTimelineTables.remove(key);
+        timelines.remove(key);
+        // callers waiting for a load in progress still get its timelines, but later callers load again
+        loads.remove(key);
+      }
+    }
+
+    private long generation(String key) {
+      Long generation = generations.get(key);
+      return generation == null ? 0 : generation;
+    }
+
+    /** Marks the timelines of the storage table as changed. Must be called holding the lock of the storage table. */
+    private void changed(String key) {
+      generations.put(key, generation(key) + 1);
+    }
+
+    /**
+     * Timelines of the storage table, loading them in the calling thread if they are not loaded. Must be called holding
+     * the lock of the storage table, so doesn't wait for loads in other threads, which publish under the lock.
+     */
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> getHoldingLock(String fact,
+      String storage, String key) throws HiveException, LensException {
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> published = timelines.get(key);
+      return published != null ? published : loadTimelines(fact, storage, key);
+    }
+
+    /**
+     * Lock on which changes to the timelines of the storage table, and to its partitions, are to be serialized.
+     *
+     * @param storageTableName
+     * @return the lock
+     */
+    public Object getLock(String storageTableName) {
+      String key = storageTableName.toLowerCase();
+      Object lock = locks.get(key);
+      if (lock == null) {
+        Object newLock = new Object();
+        lock = locks.putIfAbsent(key, newLock);
+        if (lock == null) {
+          lock = newLock;
+        }
+      }
+      return lock;
+    }
+
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loadTimelines(String fact,
+      String storage, String storageTableName) throws HiveException, LensException {
+      // generation is read before reading the metastore, so that a change during the load keeps it from publishing
+      long generation = generation(storageTableName);
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded = timelines.get(storageTableName);
+      if (loaded != null) {
+        // published by a load which finished after the caller looked up
+        return loaded;
+      }
+      Table storageTable = getTable(storageTableName);
+      // timelines stored by servers writing another format are loaded from partitions, and stored again
+      if (MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION.equals(storageTable.getParameters().get(
+        MetastoreUtil.getPartitionTimelineCachePresenceKey()))) {
+        try {
+          loaded = loadTimelinesFromTableProperties(fact, storage);
+        } catch (Exception e) {
+          // Ideally this should never come. But since we have another source,
+          // let's piggyback on that for loading timeline
+          log.error("Error while loading timelines from table properties.", e);
+          loaded = loadTimelinesFromAllPartitions(fact, storage);
+        }
+      } else {
+        loaded = loadTimelinesFromAllPartitions(fact, storage);
+      }
+      log.info("timeline for " + storageTableName + " is: " + loaded);
+      synchronized (getLock(storageTableName)) {
+        if (generation(storageTableName) == generation) {
+          timelines.put(storageTableName, loaded);
+        } else {
+          log.info("Not publishing timelines of " + storageTableName + ", which changed while loading");
         }
-        log.info("timeline for " + storageTableName + " is: " + get(storageTableName));
       }
-      // return the final value from memory
-      return get(storageTableName);
-      // RESUME CHECKSTYLE CHECK DoubleCheckedLockingCheck
+      return loaded;
     }
 
-    private void loadTimelinesFromAllPartitions(String fact, String storage) throws HiveException, LensException {
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loadTimelinesFromAllPartitions(
+      String fact, String storage) throws HiveException, LensException {
       // Not found in table properties either, compute from all partitions of the fact-storage table.
       // First make sure all combinations of update period and partition column have an entry even
       // if no partitions exist
       String storageTableName = MetastoreUtil.getStorageTableName(fact, Storage.getPrefix(storage));
       log.info("loading from all partitions: " + storageTableName);
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded
+        = new TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>();
       Table storageTable = getTable(storageTableName);
       if (getCubeFact(fact).getUpdatePeriods() != null && getCubeFact(fact).getUpdatePeriods().get(
         storage) != null) {
         for (UpdatePeriod updatePeriod : getCubeFact(fact).getUpdatePeriods().get(storage)) {
           for (String partCol : getTimePartsOfTable(storageTable)) {
-            ensureEntry(storageTableName, updatePeriod, partCol);
+            ensureEntry(loaded, storageTableName, updatePeriod, partCol);
           }
         }
       }
@@ -272,44 +512,51 @@ public class CubeMetastoreClient {
           log.info("dropping latest partition from fact storage table: " + storageTableName
             + ". Spec: " + partition.getSpec());
           getClient().dropPartition(storageTableName, values, false);
+          invalidatePartitionExistence(storageTableName);
           continue;
         }
         for (int i = 0; i < partCols.size(); i++) {
           if (timeParts.contains(partCols.get(i).getName())) {
-            addForBatchAddition(storageTableName, period, partCols.get(i).getName(), values.get(i));
+            addForBatchAddition(loaded, storageTableName, period, partCols.get(i).getName(), values.get(i));
           }
         }
       }
       // commit all batch addition for the storage table,
       // which will in-turn commit all batch additions in all it's timelines.
-      commitAllBatchAdditions(storageTableName);
+      commitAllBatchAdditions(loaded, storageTableName);
+      return loaded;
     }
 
-    private void loadTimelinesFromTableProperties(String fact, String storage) throws HiveException, LensException {
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loadTimelinesFromTableProperties(
+      String fact, String storage) throws HiveException, LensException {
       // found in table properties, load from there.
       String storageTableName = MetastoreUtil.getStorageTableName(fact, Storage.getPrefix(storage));
       log.info("loading from table properties: " + storageTableName);
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded
+        = new TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>();
       for (UpdatePeriod updatePeriod : getCubeFact(fact).getUpdatePeriods().get(storage)) {
         for (String partCol : getTimePartsOfTable(storageTableName)) {
-          ensureEntry(storageTableName, updatePeriod, partCol).init(getTable(storageTableName));
+          ensureEntry(loaded, storageTableName, updatePeriod, partCol).init(getTable(storageTableName));
         }
       }
+      return loaded;
     }
 
     /**
      * Adds given partition(for storageTable, updatePeriod, partitionColum=partition) for batch addition in an
-     * appropriate timeline object. Ignore if partition is not valid.
+     * appropriate timeline object of the timelines being loaded. Ignore if partition is not valid.
      *
+     * @param loaded
      * @param storageTable
      * @param updatePeriod
      * @param partitionColumn
      * @param partition
      */
-    public void addForBatchAddition(String storageTable, UpdatePeriod updatePeriod, String partitionColumn,
-      String partition) {
+    private void addForBatchAddition(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded,
+      String storageTable, UpdatePeriod updatePeriod, String partitionColumn, String partition) {
       try {
-        ensureEntry(storageTable, updatePeriod, partitionColumn).addForBatchAddition(TimePartition.of(updatePeriod,
-          partition));
+        ensureEntry(loaded, storageTable, updatePeriod, partitionColumn).addForBatchAddition(
+          TimePartition.of(updatePeriod, partition));
       } catch (LensException e) {
         // to take care of the case where partition name is something like `latest`
         log.error("Couldn't parse partition: " + partition + " with update period: " + updatePeriod + ", skipping.", e);
@@ -317,89 +564,139 @@ public class CubeMetastoreClient {
     }
 
     /**
-     * helper method for ensuring get(storageTable).get(updatePeriod).get(partitionColumn) gives a non-null object.
+     * helper method for ensuring loaded.get(updatePeriod).get(partitionColumn) gives a non-null object.
      * <p></p>
      * kind of like mkdir -p
      *
+     * @param loaded
      * @param storageTable
      * @param updatePeriod
      * @param partitionColumn
      * @return timeline if already exists, or puts a new timeline and returns.
      */
-    public PartitionTimeline ensureEntry(String storageTable, UpdatePeriod updatePeriod, String partitionColumn) {
-      if (get(storageTable) == null) {
-        put(storageTable, new TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>());
+    private PartitionTimeline ensureEntry(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded,
+      String storageTable, UpdatePeriod updatePeriod, String partitionColumn) {
+      if (loaded.get(updatePeriod) == null) {
+        loaded.put(updatePeriod, new CaseInsensitiveStringHashMap<PartitionTimeline>());
       }
-      if (get(storageTable).get(updatePeriod) == null) {
-        get(storageTable).put(updatePeriod, new CaseInsensitiveStringHashMap<PartitionTimeline>());
-      }
-      if (get(storageTable).get(updatePeriod).get(partitionColumn) == null) {
-        get(storageTable).get(updatePeriod).put(partitionColumn, PartitionTimelineFactory.get(
+      if (loaded.get(updatePeriod).get(partitionColumn) == null) {
+        loaded.get(updatePeriod).put(partitionColumn, PartitionTimelineFactory.get(
           CubeMetastoreClient.this, storageTable, updatePeriod, partitionColumn));
       }
-      return get(storageTable).get(updatePeriod).get(partitionColumn);
+      return loaded.get(updatePeriod).get(partitionColumn);
     }
 
     /**
-     * commit all batch addition for all its timelines.
+     * commit all batch addition for all the timelines being loaded, and store them in the storage table.
      *
+     * @param loaded
      * @param storageTable
      * @throws HiveException
      * @throws LensException
      */
-    public void commitAllBatchAdditions(String storageTable) throws HiveException, LensException {
-      if (get(storageTable) != null) {
-        for (UpdatePeriod updatePeriod : get(storageTable).keySet()) {
-          for (String partCol : get(storageTable).get(updatePeriod).keySet()) {
-            PartitionTimeline timeline = get(storageTable).get(updatePeriod).get(partCol);
-            timeline.commitBatchAdditions();
-          }
+    private void commitAllBatchAdditions(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded,
+      String storageTable) throws HiveException, LensException {
+      for (CaseInsensitiveStringHashMap<PartitionTimeline> periodTimelines : loaded.values()) {
+        for (PartitionTimeline timeline : periodTimelines.values()) {
+          timeline.commitBatchAdditions();
         }
-        alterTablePartitionCache(storageTable);
       }
+      alterTablePartitionCache(storageTable, loaded);
     }
 
     /** check partition existence in the appropriate timeline if it exists */
     public boolean partitionTimeExists(String name, String storage, UpdatePeriod period, String partCol, Date partSpec)
       throws HiveException, LensException {
-      return get(name, storage, period, partCol) != null && get(name, storage, period, partCol).exists(TimePartition.of(
-        period, partSpec));
+      PartitionTimeline timeline = get(name, storage, period, partCol);
+      return timeline != null && timeline.exists(TimePartition.of(period, partSpec));
     }
 
     /**
      * returns the timeline corresponding to fact-storage table, updatePeriod, partCol. null if doesn't exist, which
-     * would only happen if the combination is not valid/supported
+     * would only happen if the combination is not valid/supported. The returned timeline must not be modified.
      */
     public PartitionTimeline get(String fact, String storage, UpdatePeriod updatePeriod, String partCol)
       throws HiveException, LensException {
-      return get(fact, storage) != null && get(fact, storage).get(updatePeriod) != null && get(fact, storage).get(
-        updatePeriod).get(partCol) != null ? get(fact, storage).get(updatePeriod).get(partCol) : null;
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> storageTimelines = get(fact, storage);
+      if (storageTimelines == null || storageTimelines.get(updatePeriod) == null) {
+        return null;
+      }
+      return storageTimelines.get(updatePeriod).get(partCol);
     }
 
-    /** update partition timeline cache for addition of time partition */
+    /**
+     * update partition timeline cache for addition of time partition. Publishes updated copies of the changed
+     * timelines, under the lock of the storage table.
+     */
     public void updateForAddition(String cubeTableName, String storageName, UpdatePeriod updatePeriod,
       Map<String, TreeSet<Date>> timePartSpec) throws HiveException, LensException {
-      for (Map.Entry<String, TreeSet<Date>> entry : timePartSpec.entrySet()) {
-        //Assume timelines has all the time part columns.
-        for (Date dt : entry.getValue()) {
-          get(cubeTableName, storageName, updatePeriod, entry.getKey()).add(TimePartition.of(updatePeriod, dt));
+      String storageTableName = MetastoreUtil.getStorageTableName(cubeTableName, Storage.getPrefix(storageName));
+      String key = storageTableName.toLowerCase();
+      synchronized (getLock(storageTableName)) {
+        TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> updated = copyOf(getHoldingLock(
+          cubeTableName, storageName, key));
+        for (Map.Entry<String, TreeSet<Date>> entry : timePartSpec.entrySet()) {
+          //Assume timelines has all the time part columns.
+          PartitionTimeline timeline = copyForUpdate(updated, updatePeriod, entry.getKey());
+          for (Date dt : entry.getValue()) {
+            timeline.add(TimePartition.of(updatePeriod, dt));
+          }
         }
+        changed(key);
+        timelines.put(key, updated);
       }
     }
 
-    /** update partition timeline cache for deletion of time partition */
+    /**
+     * update partition timeline cache for deletion of time partition. Publishes updated copies of the changed
+     * timelines, under the lock of the storage table.
+     */
     public boolean updateForDeletion(String cubeTableName, String storageName, UpdatePeriod updatePeriod,
       Map<String, Date> timePartSpec) throws HiveException, LensException {
-      boolean updated = false;
-      for (Map.Entry<String, Date> entry : timePartSpec.entrySet()) {
-        TimePartition part = TimePartition.of(updatePeriod, entry.getValue());
-        if (!partitionExistsByFilter(cubeTableName, storageName, StorageConstants.getPartFilter(entry.getKey(),
-          part.getDateString()))) {
-          get(cubeTableName, storageName, updatePeriod, entry.getKey()).drop(part);
-          updated = true;
+      String storageTableName = MetastoreUtil.getStorageTableName(cubeTableName, Storage.getPrefix(storageName));
+      String key = storageTableName.toLowerCase();
+      synchronized (getLock(storageTableName)) {
+        TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> updated = copyOf(getHoldingLock(
+          cubeTableName, storageName, key));
+        boolean changed = false;
+        for (Map.Entry<String, Date> entry : timePartSpec.entrySet()) {
+          TimePartition part = TimePartition.of(updatePeriod, entry.getValue());
+          if (!partitionExistsByFilter(cubeTableName, storageName, StorageConstants.getPartFilter(entry.getKey(),
+            part.getDateString()))) {
+            copyForUpdate(updated, updatePeriod, entry.getKey()).drop(part);
+            changed = true;
+          }
+        }
+        if (changed) {
+          changed(key);
+          timelines.put(key, updated);
         }
+        return changed;
       }
-      return updated;
+    }
+
+    /** copy of the maps of published timelines, sharing the timelines themselves */
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> copyOf(
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> published) {
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> copy
+        = new TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>();
+      if (published != null) {
+        for (Map.Entry<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> entry : published.entrySet()) {
+          CaseInsensitiveStringHashMap<PartitionTimeline> periodTimelines
+            = new CaseInsensitiveStringHashMap<PartitionTimeline>();
+          periodTimelines.putAll(entry.getValue());
+          copy.put(entry.getKey(), periodTimelines);
+        }
+      }
+      return copy;
+    }
+
+    /** replace the shared timeline in the copied maps by a copy of it, which can then be modified */
+    private PartitionTimeline copyForUpdate(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>
+      updated, UpdatePeriod updatePeriod, String partCol) throws LensException {
+      PartitionTimeline copy = updated.get(updatePeriod).get(partCol).copy();
+      updated.get(updatePeriod).put(partCol, copy);
+      return copy;
     }
   }
 
@@ -414,7 +711,7 @@ public class CubeMetastoreClient {
   public static CubeMetastoreClient getInstance(HiveConf conf) throws HiveException {
     String currentdb = SessionState.get().getCurrentDatabase();
     if (CLIENT_MAPPING.get(currentdb) == null) {
-      CLIENT_MAPPING.put(currentdb, new CubeMetastoreClient(conf));
+      CLIENT_MAPPING.put(currentdb, new CubeMetastoreClient(currentdb, conf));
     }
     return CLIENT_MAPPING.get(currentdb);
   }
@@ -448,6 +745,7 @@ public class CubeMetastoreClient {
         alterHiveTable(tbl.getTableName(), tbl);
       } else {
         getClient().createTable(tbl);
+        tableChanged(tbl.getTableName());
         // do get to update cache
         getTable(tbl.getTableName());
       }
@@ -463,6 +761,7 @@ public class CubeMetastoreClient {
       tbl.getTTable().getSd().setCols(table.getColumns());
       tbl.getTTable().getParameters().putAll(table.getProperties());
       getClient().createTable(tbl);
+      tableChanged(tbl.getTableName());
       // do get to update cache
       getTable(tbl.getTableName());
       return tbl;
@@ -486,7 +785,7 @@ public class CubeMetastoreClient {
   public void createCube(CubeInterface cube) throws HiveException {
     createCubeHiveTable((AbstractCubeTable) cube);
     // do a get to update cache
-    getCube(cube.getName());
+    updateSchemaGraphForCube(cube.getName(), getCube(cube.getName()));
   }
 
   /**
@@ -575,6 +874,7 @@ public class CubeMetastoreClient {
     createCubeHiveTable(dim);
     // do a get to update cache
     getDimension(dim.getName());
+    updateSchemaGraphForDimension(dim.getName());
   }
 
   /**
@@ -670,6 +970,12 @@ public class CubeMetastoreClient {
     throws HiveException {
     // create virtual cube table in metastore
     Table cTable = createCubeHiveTable(cubeTable);
+    // a new fact or dimension table changes the candidates of its cube or dimension
+    if (cubeTable instanceof CubeFactTable) {
+      tableChanged(((CubeFactTable) cubeTable).getCubeName());
+    } else if (cubeTable instanceof CubeDimensionTable) {
+      tableChanged(((CubeDimensionTable) cubeTable).getDimName());
+    }
 
     if (storageTableDescs != null) {
       // create tables for each storage
@@ -742,25 +1048,33 @@ public class CubeMetastoreClient {
     List<StoragePartitionDesc> storagePartitionDescs) throws HiveException, LensException {
     String storageTableName = MetastoreUtil.getStorageTableName(factOrDimTable.trim(),
       Storage.getPrefix(storageName.trim())).toLowerCase();
-    if (getDimensionTable(factOrDimTable) != null) {
-      // Adding partition in dimension table.
-      Map<Map<String, String>, LatestInfo> latestInfos = Maps.newHashMap();
-      for (Map.Entry<Map<String, String>, List<StoragePartitionDesc>> entry : groupByNonTimePartitions(
-        storagePartitionDescs).entrySet()) {
-        latestInfos.put(entry.getKey(),
-          getDimTableLatestInfo(storageTableName, entry.getKey(), getTimePartSpecs(entry.getValue()), updatePeriod));
-      }
-      getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod, storagePartitionDescs,
-        latestInfos);
-      latestLookupCache.add(storageTableName);
-    } else {
-      // first update in memory, then add to hive table's partitions. delete is reverse.
-      partitionTimelineCache.updateForAddition(factOrDimTable, storageName, updatePeriod,
-        getTimePartSpecs(storagePartitionDescs));
-      // Adding partition in fact table.
-      getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod, storagePartitionDescs, null);
-      // update hive table
-      alterTablePartitionCache(MetastoreUtil.getStorageTableName(factOrDimTable, Storage.getPrefix(storageName)));
+    try {
+      if (getDimensionTable(factOrDimTable) != null) {
+        // Adding partition in dimension table.
+        Map<Map<String, String>, LatestInfo> latestInfos = Maps.newHashMap();
+        for (Map.Entry<Map<String, String>, List<StoragePartitionDesc>> entry : groupByNonTimePartitions(
+          storagePartitionDescs).entrySet()) {
+          latestInfos.put(entry.getKey(),
+            getDimTableLatestInfo(storageTableName, entry.getKey(), getTimePartSpecs(entry.getValue()), updatePeriod));
+        }
+        getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod, storagePartitionDescs,
+          latestInfos);
+        invalidatePartitionExistence(storageTableName);
+        latestLookupCache.add(storageTableName);
+      } else {
+        // first update in memory, then add to hive table's partitions. delete is reverse.
+        synchronized (partitionTimelineCache.getLock(storageTableName)) {
+          partitionTimelineCache.updateForAddition(factOrDimTable, storageName, updatePeriod,
+            getTimePartSpecs(storagePartitionDescs));
+          // Adding partition in fact table.
+          getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod, storagePartitionDescs, null);
+          invalidatePartitionExistence(storageTableName);
+          // update hive table
+          alterTablePartitionCache(storageTableName);
+        }
+      }
+    } finally {
+      tableChanged(storageTableName);
     }
   }
 
@@ -794,23 +1108,173 @@ public class CubeMetastoreClient {
   }
 
   /**
-   * store back all timelines of given storage table to table properties
+   * store back all timelines of given storage table to table properties. If storing is delayed, the table is marked
+   * for the next flush instead, and timelines stored in it are marked stale till then, so that they are loaded from
+   * partitions if needed meanwhile. Callers should hold the lock of the storage table.
    *
    * @param storageTableName
    * @throws HiveException
+   * @see MetastoreConstants#METASTORE_TIMELINE_FLUSH_DELAY_MILLIS
    */
   private void alterTablePartitionCache(String storageTableName) throws HiveException {
-    Table table = getTable(storageTableName);
-    Map<String, String> params = table.getParameters();
-    if (partitionTimelineCache.get(storageTableName) != null) {
-      for (UpdatePeriod updatePeriod : partitionTimelineCache.get(storageTableName).keySet()) {
-        for (Map.Entry<String, PartitionTimeline> entry : partitionTimelineCache.get(storageTableName)
-          .get(updatePeriod).entrySet()) {
-          entry.getValue().updateTableParams(table);
+    if (timelineFlusher == null) {
+      alterTablePartitionCache(storageTableName, partitionTimelineCache.getLoaded(storageTableName));
+    } else if (dirtyTimelineTables.add(storageTableName.toLowerCase())) {
+      Table table = getTable(storageTableName);
+      if (table.getParameters().remove(MetastoreUtil.getPartitionTimelineCachePresenceKey()) != null) {
+        alterHiveTable(storageTableName, table);
+      }
+      scheduleTimelineFlush(storageTableName);
+    }
+  }
+
+  /**
+   * store back given timelines of the storage table to table properties. Only params which changed are written, and
+   * the table is not altered if none changed.
+   *
+   * @param storageTableName
+   * @param timelines        timelines of the storage table, nothing is stored if null
+   * @throws HiveException
+   */
+  private void alterTablePartitionCache(String storageTableName,
+    Map<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timelines) throws HiveException {
+    if (timelines != null) {
+      Table table = getTable(storageTableName);
+      if (updateTimelineParams(table, timelines)) {
+        alterHiveTable(storageTableName, table);
+      }
+    }
+  }
+
+  /**
+   * put the params of given timelines, and the presence key with the format version, in the properties of the
+   * storage table.
+   *
+   * @param table     storage table
+   * @param timelines timelines of the storage table
+   * @return true if any param changed
+   */
+  private boolean updateTimelineParams(Table table,
+    Map<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timelines) throws HiveException {
+    boolean changed = false;
+    for (CaseInsensitiveStringHashMap<PartitionTimeline> periodTimelines : timelines.values()) {
+      for (PartitionTimeline timeline : periodTimelines.values()) {
+        changed |= timeline.updateTableParams(table);
+      }
+    }
+    String version = MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION;
+    changed |= !version.equals(table.getParameters().put(MetastoreUtil.getPartitionTimelineCachePresenceKey(),
+      version));
+    return changed;
+  }
+
+  private void scheduleTimelineFlush(final String storageTableName) {
+    scheduleTimelineFlush(storageTableName, 1);
+  }
+
+  /**
+   * schedule storing the timelines of the storage table. Failed attempts are retried with exponential backoff, and
+   * after {@link #MAX_TIMELINE_FLUSH_ATTEMPTS} the timelines are dropped from memory. The presence key being removed
+   * from the table, they are then reloaded from partitions, and stored, when next needed.
+   *
+   * @param storageTableName
+   * @param attempt          number of the attempt, starting from 1
+   */
+  private void scheduleTimelineFlush(final String storageTableName, final int attempt) {
+    timelineFlusher.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flushPartitionTimelines(storageTableName);
+        } catch (Exception e) {
+          if (attempt < MAX_TIMELINE_FLUSH_ATTEMPTS) {
+            log.error("Error storing partition timelines of " + storageTableName + ", will retry", e);
+            if (dirtyTimelineTables.add(storageTableName.toLowerCase())) {
+              scheduleTimelineFlush(storageTableName, attempt + 1);
+            }
+          } else {
+            log.error("Error storing partition timelines of " + storageTableName + " after " + attempt
+              + " attempts, they will be reloaded from partitions", e);
+            partitionTimelineCache.invalidate(storageTableName);
+          }
+        }
+      }
+    }, timelineFlushDelayMillis << (attempt - 1), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * store the timelines of the storage table if they changed since they were last stored. Table names are qualified
+   * with the database of the client, since the calling thread may have another current database.
+   *
+   * @param storageTableName
+   * @throws HiveException
+   */
+  private void flushPartitionTimelines(String storageTableName) throws HiveException {
+    synchronized (partitionTimelineCache.getLock(storageTableName)) {
+      if (dirtyTimelineTables.remove(storageTableName.toLowerCase())) {
+        Map<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timelines
+          = partitionTimelineCache.getLoaded(storageTableName);
+        if (timelines == null) {
+          return;
+        }
+        Table table = getClient().getTable(dbName, storageTableName);
+        if (updateTimelineParams(table, timelines)) {
+          try {
+            getClient().getMSC().alter_table(dbName, table.getTableName(), table.getTTable());
+          } catch (TException e) {
+            throw new HiveException("Could not store partition timelines of " + dbName + "." + storageTableName, e);
+          } finally {
+            tableChanged(storageTableName);
+          }
+          if (enableCaching) {
+            allHiveTables.put(storageTableName.trim().toLowerCase(), table);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Store the partition timelines changed since they were last stored, for all storage tables. Is a no-op unless
+   * storing timelines is delayed. Can be called at the end of a batch of partition changes, to not wait for the delay.
+   * Timelines are stored by the flusher thread, the call returns once they are stored.
+   *
+   * @throws HiveException
+   * @see MetastoreConstants#METASTORE_TIMELINE_FLUSH_DELAY_MILLIS
+   */
+  public void flushPartitionTimelines() throws HiveException {
+    if (timelineFlusher == null) {
+      return;
+    }
+    Future<Void> flush = timelineFlusher.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws HiveException {
+        for (String storageTableName : new ArrayList<String>(dirtyTimelineTables)) {
+          flushPartitionTimelines(storageTableName);
         }
+        return null;
       }
-      params.put(MetastoreUtil.getPartitionTimelineCachePresenceKey(), "true");
-      alterHiveTable(storageTableName, table);
+    });
+    try {
+      flush.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveException("Interrupted while storing partition timelines of " + dbName, e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), HiveException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Store changed partition timelines of all clients.
+   *
+   * @throws HiveException
+   * @see #flushPartitionTimelines()
+   */
+  public static void flushAllPartitionTimelines() throws HiveException {
+    for (CubeMetastoreClient client : CLIENT_MAPPING.values()) {
+      client.flushPartitionTimelines();
     }
   }
 
@@ -1012,17 +1476,22 @@ public class CubeMetastoreClient {
         }
       }
       getStorage(storageName).dropPartition(getClient(), storageTableName, partVals, latest, nonTimePartSpec);
+      invalidatePartitionExistence(storageTableName);
       if (!latestAvailable) {
         // dropping latest and could not find latest, removing the entry from latest lookup cache
         latestLookupCache.remove(storageTableName);
       }
     } else {
       // dropping fact partition
-      getStorage(storageName).dropPartition(getClient(), storageTableName, partVals, null, null);
-      if (partitionTimelineCache.updateForDeletion(cubeTableName, storageName, updatePeriod, timePartSpec)) {
-        this.alterTablePartitionCache(storageTableName);
+      synchronized (partitionTimelineCache.getLock(storageTableName)) {
+        getStorage(storageName).dropPartition(getClient(), storageTableName, partVals, null, null);
+        invalidatePartitionExistence(storageTableName);
+        if (partitionTimelineCache.updateForDeletion(cubeTableName, storageName, updatePeriod, timePartSpec)) {
+          this.alterTablePartitionCache(storageTableName);
+        }
       }
     }
+    tableChanged(storageTableName);
   }
 
   private Map<String, String> getPartitionSpec(UpdatePeriod updatePeriod, Map<String, Date> partitionTimestamps) {
@@ -1050,6 +1519,31 @@ public class CubeMetastoreClient {
       part.getPartSpec());
   }
 
+  /**
+   * Get sub ranges of [from, to) in which all partitions of the update period exist in the fact storage table, from the
+   * partition timeline of the storage table.
+   *
+   * @param fact             the fact
+   * @param storageTableName the storage table name
+   * @param updatePeriod     the update period
+   * @param partCol          the time partition column
+   * @param from             begin of the range, inclusive
+   * @param to               end of the range, exclusive
+   * @return covered sub ranges in increasing order, empty if the storage table has no timeline for the partition column
+   * @throws HiveException
+   * @throws LensException
+   */
+  public TimePartitionRangeList getFactPartitionRanges(CubeFactTable fact, String storageTableName,
+    UpdatePeriod updatePeriod, String partCol, Date from, Date to) throws HiveException, LensException {
+    String storage = extractStorageName(fact, storageTableName);
+    PartitionTimeline timeline = partitionTimelineCache.get(fact.getName(), storage, updatePeriod, partCol);
+    if (timeline == null) {
+      return new TimePartitionRangeList();
+    }
+    return timeline.getCoveredRanges(TimePartition.of(updatePeriod, from).rangeUpto(TimePartition.of(updatePeriod,
+      to)));
+  }
+
   public boolean factPartitionExists(String factName, String storageName, UpdatePeriod updatePeriod,
     Map<String, Date> partitionTimestamp, Map<String, String> partSpec) throws HiveException {
     String storageTableName = MetastoreUtil.getFactStorageTableName(factName, storageName);
@@ -1074,14 +1568,120 @@ public class CubeMetastoreClient {
     } catch (Exception e) {
       return false;
     }
+    PartitionExistence existence = getPartitionExistence(storageTableName);
+    Boolean exists = existence == null ? null : existence.byFilter.get(filter);
+    if (exists != null) {
+      return exists;
+    }
     try {
       parts = getClient().getNumPartitionsByFilter(tbl, filter);
     } catch (Exception e) {
       throw new HiveException("Could not find partitions for given filter", e);
     }
+    if (existence != null) {
+      existence.byFilter.put(filter, parts > 0);
+    }
     return parts > 0;
   }
 
+  /**
+   * Find which of the given partitions of the storage table exist, looking up all of them in one metastore call.
+   * Existence can be cached for a short while, and is then invalidated on changes of the table through any client in
+   * this server.
+   *
+   * @param storageTableName the storage table name
+   * @param partSpecs        partition specs, each having values of all partition columns of the table
+   * @return the partition specs which exist
+   * @throws HiveException
+   * @see MetastoreConstants#METASTORE_PARTITION_EXISTENCE_CACHE_TTL_MILLIS
+   */
+  public Set<Map<String, String>> getExistingPartitions(String storageTableName,
+    Collection<Map<String, String>> partSpecs) throws HiveException {
+    Table storageTbl = getTable(storageTableName);
+    PartitionExistence existence = getPartitionExistence(storageTableName);
+    Set<Map<String, String>> existing = Sets.newHashSet();
+    Map<String, Map<String, String>> toLookUp = Maps.newHashMap();
+    for (Map<String, String> partSpec : partSpecs) {
+      String partName = getPartitionName(storageTbl, partSpec);
+      Boolean exists = existence == null ? null : existence.byName.get(partName);
+      if (exists == null) {
+        toLookUp.put(partName, partSpec);
+      } else if (exists) {
+        existing.add(partSpec);
+      }
+    }
+    if (!toLookUp.isEmpty()) {
+      Set<String> found = Sets.newHashSet();
+      for (Partition partition : getClient().getPartitionsByNames(storageTbl,
+        new ArrayList<String>(toLookUp.keySet()))) {
+        found.add(getPartitionName(storageTbl, partition.getSpec()));
+      }
+      for (Map.Entry<String, Map<String, String>> entry : toLookUp.entrySet()) {
+        boolean exists = found.contains(entry.getKey());
+        if (existence != null) {
+          existence.byName.put(entry.getKey(), exists);
+        }
+        if (exists) {
+          existing.add(entry.getValue());
+        }
+      }
+    }
+    return existing;
+  }
+
+  private static String getPartitionName(Table table, Map<String, String> partSpec) throws HiveException {
+    List<String> values = new ArrayList<String>(table.getPartCols().size());
+    for (FieldSchema partCol : table.getPartCols()) {
+      String value = partSpec.get(partCol.getName());
+      if (StringUtils.isEmpty(value)) {
+        throw new HiveException("Value for partition column " + partCol.getName() + " of " + table.getTableName()
+          + " is missing in " + partSpec);
+      }
+      values.add(value);
+    }
+    try {
+      return Warehouse.makePartName(table.getPartCols(), values);
+    } catch (MetaException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  /**
+   * Recently looked up existence of partitions of a storage table, by partition name and by filter, along with the
+   * version of the table it was looked up at
+   */
+  private static class PartitionExistence {
+    private final long tableVersion;
+    private final ConcurrentMap<String, Boolean> byName = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Boolean> byFilter = Maps.newConcurrentMap();
+
+    PartitionExistence(long tableVersion) {
+      this.tableVersion = tableVersion;
+    }
+  }
+
+  private PartitionExistence getPartitionExistence(String storageTableName) {
+    if (partitionExistenceCache == null) {
+      return null;
+    }
+    String key = storageTableName.trim().toLowerCase();
+    // changes through any client in this server move the table version, dropping what was looked up before
+    long tableVersion = getTableVersion(dbName + "." + key);
+    PartitionExistence existence = partitionExistenceCache.getIfPresent(key);
+    if (existence == null || existence.tableVersion != tableVersion) {
+      // a racing lookup can replace this one, which only costs a few cache misses
+      existence = new PartitionExistence(tableVersion);
+      partitionExistenceCache.put(key, existence);
+    }
+    return existence;
+  }
+
+  private void invalidatePartitionExistence(String storageTableName) {
+    if (partitionExistenceCache != null) {
+      partitionExistenceCache.invalidate(storageTableName.trim().toLowerCase());
+    }
+  }
+
   public List<Partition> getAllParts(String storageTableName) throws HiveException {
     return getClient().getPartitions(getHiveTable(storageTableName));
   }
@@ -1106,9 +1706,7 @@ public class CubeMetastoreClient {
 
   private boolean partitionExists(String storageTableName, Map<String, String> partSpec) throws HiveException {
     try {
-      Table storageTbl = getTable(storageTableName);
-      Partition p = getClient().getPartition(storageTbl, partSpec, false);
-      return (p != null && p.getTPartition() != null);
+      return !getExistingPartitions(storageTableName, Collections.singletonList(partSpec)).isEmpty();
     } catch (HiveException e) {
       throw new HiveException("Could not check whether table exists", e);
     }
@@ -1139,6 +1737,67 @@ public class CubeMetastoreClient {
     return latestLookupCache.contains(storageTableName.trim().toLowerCase());
   }
 
+  /**
+   * Find which of the given dimension storage tables have latest partitions. Known from the lookup cache of latest
+   * partitions if caching is enabled, otherwise looked up in the metastore.
+   *
+   * @param storageTableNames dimension storage table names
+   * @param timedDimension    time partition column of the dimension
+   * @return lower cased names of the storage tables having latest partitions
+   * @throws HiveException
+   */
+  public Set<String> getDimTablesWithLatestPartitions(Collection<String> storageTableNames, String timedDimension)
+    throws HiveException {
+    Set<String> ret = Sets.newHashSet();
+    List<String> toLookUp = Lists.newArrayList();
+    for (String storageTableName : storageTableNames) {
+      String key = storageTableName.trim().toLowerCase();
+      if (latestLookupCache.contains(key)) {
+        ret.add(key);
+      } else if (!enableCaching && timedDimension != null) {
+        toLookUp.add(key);
+      }
+    }
+    ret.addAll(lookUpDimTablesWithLatestPartitions(toLookUp, timedDimension));
+    return ret;
+  }
+
+  /**
+   * Look up in the metastore which of the given dimension storage tables have latest partitions. Latest partitions of
+   * tables partitioned only by the time partition column are looked up by name, others by filter. The metastore has
+   * no lookup spanning tables, so each table not found in the partition existence cache costs one call.
+   *
+   * @param storageTableNames lower cased dimension storage table names
+   * @param latestPartCol     time partition column of the dimension
+   * @return the storage tables having latest partitions
+   * @throws HiveException
+   */
+  private Set<String> lookUpDimTablesWithLatestPartitions(Collection<String> storageTableNames, String latestPartCol)
+    throws HiveException {
+    Set<String> ret = Sets.newHashSet();
+    Map<String, String> latestPartSpec = Collections.singletonMap(latestPartCol,
+      StorageConstants.LATEST_PARTITION_VALUE);
+    for (String storageTableName : storageTableNames) {
+      List<FieldSchema> partCols;
+      try {
+        partCols = getTable(storageTableName).getPartCols();
+      } catch (Exception e) {
+        // as in partitionExistsByFilter, a table which can't be found has no partitions
+        continue;
+      }
+      boolean exists;
+      if (partCols.size() == 1 && partCols.get(0).getName().equalsIgnoreCase(latestPartCol)) {
+        exists = partitionExists(storageTableName, latestPartSpec);
+      } else {
+        exists = dimLatestPartitionExists(storageTableName, latestPartCol);
+      }
+      if (exists) {
+        ret.add(storageTableName);
+      }
+    }
+    return ret;
+  }
+
   Partition getLatestPart(String storageTableName, String latestPartCol) throws HiveException {
     return getLatestPart(storageTableName, latestPartCol, null);
   }
@@ -1213,6 +1872,7 @@ public class CubeMetastoreClient {
   public void dropHiveTable(String table) throws HiveException {
     getClient().dropTable(table);
     allHiveTables.remove(table.trim().toLowerCase());
+    tableChanged(table);
   }
 
   /**
@@ -1378,15 +2038,15 @@ public class CubeMetastoreClient {
               allDimTables.put(tableName, dimTable);
               // update latest partition cache for all storages
               if (dimTable.getStorages() != null && !dimTable.getStorages().isEmpty()) {
+                List<String> snapshotTables = Lists.newArrayList();
                 for (String storageName : dimTable.getStorages()) {
                   if (dimTable.hasStorageSnapshots(storageName)) {
-                    String storageTableName = MetastoreUtil.getDimStorageTableName(dimTable.getName(), storageName);
-                    if (dimLatestPartitionExists(storageTableName,
-                      getDimension(dimTable.getDimName()).getTimedDimension())) {
-                      latestLookupCache.add(storageTableName.trim().toLowerCase());
-                    }
+                    snapshotTables.add(MetastoreUtil.getDimStorageTableName(dimTable.getName(), storageName)
+                      .trim().toLowerCase());
                   }
                 }
+                latestLookupCache.addAll(lookUpDimTablesWithLatestPartitions(snapshotTables,
+                  getDimension(dimTable.getDimName()).getTimedDimension()));
               }
             }
           }
@@ -1667,9 +2327,10 @@ public class CubeMetastoreClient {
   private Collection<String> getAllHiveTableNames() throws HiveException {
     if (!allTablesPopulated) {
       List<String> allTables = getClient().getAllTables();
-      for (String tblName : allTables) {
-        // getTable call here would add the table to allHiveTables
-        getTable(tblName);
+      if (enableCaching) {
+        int batchSize = config.getInt(MetastoreConstants.METASTORE_TABLE_FETCH_BATCH_SIZE,
+          MetastoreConstants.DEFAULT_METASTORE_TABLE_FETCH_BATCH_SIZE);
+        loadTables(SessionState.get().getCurrentDatabase(), allTables, batchSize, null);
       }
       allTablesPopulated = enableCaching;
       return allTables;
@@ -1678,6 +2339,145 @@ public class CubeMetastoreClient {
     }
   }
 
+  /**
+   * Fetch the tables which are not cached yet, in batches of table objects. Tables which got cached meanwhile, by a
+   * get or an alter, are left as they are.
+   *
+   * @param dbName    database of the tables
+   * @param names     table names
+   * @param batchSize number of tables fetched in one metastore call
+   * @param executor  executor to fetch the batches in parallel, null to fetch them in the calling thread
+   * @throws HiveException
+   */
+  private void loadTables(final String dbName, List<String> names, int batchSize, ExecutorService executor)
+    throws HiveException {
+    List<String> missing = Lists.newArrayList();
+    for (String name : names) {
+      if (!allHiveTables.containsKey(name.trim().toLowerCase())) {
+        missing.add(name);
+      }
+    }
+    final SessionState sessionState = SessionState.get();
+    List<Future<Integer>> futures = Lists.newArrayList();
+    for (final List<String> batch : Lists.partition(missing, Math.max(batchSize, 1))) {
+      if (executor == null) {
+        loadTables(getClient(), dbName, batch);
+      } else {
+        futures.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws HiveException {
+            SessionState.setCurrentSessionState(sessionState);
+            try {
+              return loadTables(getClient(), dbName, batch);
+            } finally {
+              // pool threads don't outlive the warm up, release their metastore connections
+              Hive.closeCurrent();
+            }
+          }
+        }));
+      }
+    }
+    int loaded = 0;
+    for (Future<Integer> future : futures) {
+      try {
+        loaded += future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HiveException("Interrupted while loading tables of " + dbName, e);
+      } catch (ExecutionException e) {
+        throw new HiveException("Could not load tables of " + dbName, e.getCause());
+      }
+      log.info("Loaded " + loaded + " of " + missing.size() + " tables of " + dbName);
+    }
+  }
+
+  private int loadTables(Hive client, String dbName, List<String> batch) throws HiveException {
+    List<org.apache.hadoop.hive.metastore.api.Table> tables;
+    try {
+      tables = client.getMSC().getTableObjectsByName(dbName, batch);
+    } catch (TException e) {
+      throw new HiveException("Could not get tables: " + batch, e);
+    }
+    for (org.apache.hadoop.hive.metastore.api.Table table : tables) {
+      allHiveTables.putIfAbsent(table.getTableName().trim().toLowerCase(), new Table(table));
+    }
+    LensMetricsRegistry.getStaticRegistry().counter(MetricRegistry.name(CubeMetastoreClient.class,
+      WARM_UP_TABLES_LOADED)).inc(tables.size());
+    return tables.size();
+  }
+
+  /**
+   * Warm up the caches of the client: fetch all tables of the current database in parallel batches, build the maps of
+   * cubes, dimensions, facts, dimension tables and storages from them, and load the partition timelines of all
+   * storage tables of the given facts. Progress and time taken are reported as metrics. Nothing is done if caching is
+   * disabled.
+   *
+   * @param executor      executor for fetching batches of tables and loading timelines
+   * @param batchSize     number of tables fetched in one metastore call
+   * @param timelineFacts facts whose partition timelines are loaded
+   * @throws HiveException
+   * @throws LensException
+   */
+  public void warmUp(ExecutorService executor, int batchSize, Collection<String> timelineFacts)
+    throws HiveException, LensException {
+    if (!enableCaching) {
+      return;
+    }
+    long startTime = System.currentTimeMillis();
+    String dbName = SessionState.get().getCurrentDatabase();
+    loadTables(dbName, getClient().getAllTables(dbName), batchSize, executor);
+    allTablesPopulated = true;
+    // all tables are in memory, these don't go to the metastore anymore
+    getAllStorages();
+    getAllCubes();
+    getAllDimensions();
+    getAllFacts();
+    getAllDimensionTables();
+    log.info("Loaded " + allHiveTables.size() + " tables of " + dbName + " in "
+      + (System.currentTimeMillis() - startTime) + " millis");
+
+    final SessionState sessionState = SessionState.get();
+    List<Future<?>> futures = Lists.newArrayList();
+    for (String factName : timelineFacts) {
+      final CubeFactTable fact = allFactTables.get(factName.trim().toLowerCase());
+      if (fact == null) {
+        log.warn("Not loading timelines of " + factName + " in " + dbName + ", it is not a fact");
+        continue;
+      }
+      for (final String storage : fact.getStorages()) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws HiveException, LensException {
+            SessionState.setCurrentSessionState(sessionState);
+            try {
+              partitionTimelineCache.get(fact.getName(), storage);
+              LensMetricsRegistry.getStaticRegistry().counter(MetricRegistry.name(CubeMetastoreClient.class,
+                WARM_UP_TIMELINES_LOADED)).inc();
+              return null;
+            } finally {
+              Hive.closeCurrent();
+            }
+          }
+        }));
+      }
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new LensException("Interrupted while loading timelines of " + dbName, e);
+      } catch (ExecutionException e) {
+        // a broken storage table shouldn't stop the rest, it'll be loaded again on use
+        log.warn("Could not load timelines of a storage table in " + dbName, e.getCause());
+      }
+    }
+    long timeTaken = System.currentTimeMillis() - startTime;
+    LensMetricsRegistry.getStaticRegistry().histogram(MetricRegistry.name(CubeMetastoreClient.class,
+      WARM_UP_TIME_MILLIS)).update(timeTaken);
+    log.info("Warmed up metastore client of " + dbName + " in " + timeTaken + " millis");
+  }
+
   /**
    * Get all fact tables of the cube.
    *
@@ -1796,6 +2596,47 @@ public class CubeMetastoreClient {
     return schemaGraph;
   }
 
+  /**
+   * Update the schema graph, if built already, for a created, altered or dropped cube. If the graph can't be updated,
+   * it is built again on next use.
+   *
+   * @param cubeName the cube name
+   * @param cube     the cube, null if the cube is dropped
+   */
+  private synchronized void updateSchemaGraphForCube(String cubeName, CubeInterface cube) {
+    if (schemaGraph == null) {
+      return;
+    }
+    try {
+      if (cube == null) {
+        schemaGraph.removeCube(cubeName);
+      } else {
+        schemaGraph.updateCube(cube);
+      }
+    } catch (HiveException e) {
+      log.warn("Could not update schema graph for cube " + cubeName + ", it will be built again", e);
+      schemaGraph = null;
+    }
+  }
+
+  /**
+   * Update the schema graph, if built already, for a created, altered or dropped dimension. If the graph can't be
+   * updated, it is built again on next use.
+   *
+   * @param dimName the dimension name
+   */
+  private synchronized void updateSchemaGraphForDimension(String dimName) {
+    if (schemaGraph == null) {
+      return;
+    }
+    try {
+      schemaGraph.updateDimension(dimName);
+    } catch (HiveException e) {
+      log.warn("Could not update schema graph for dimension " + dimName + ", it will be built again", e);
+      schemaGraph = null;
+    }
+  }
+
   /**
    * Returns true if columns changed
    *
@@ -1815,6 +2656,8 @@ public class CubeMetastoreClient {
       getClient().alterTable(table, hiveTable);
     } catch (InvalidOperationException e) {
       throw new HiveException(e);
+    } finally {
+      tableChanged(table);
     }
     return columnsChanged;
   }
@@ -1828,6 +2671,8 @@ public class CubeMetastoreClient {
       getClient().alterTable(table, hiveTable);
     } catch (InvalidOperationException e) {
       throw new HiveException(e);
+    } finally {
+      tableChanged(table);
     }
     if (enableCaching) {
       // refresh the table in cache
@@ -1854,6 +2699,7 @@ public class CubeMetastoreClient {
       if (enableCaching) {
         allCubes.put(cubeName.trim().toLowerCase(), getCube(refreshTable(cubeName)));
       }
+      updateSchemaGraphForCube(cubeName, getCube(cubeName));
     } else {
       throw new HiveException(cubeName + " is not a cube");
     }
@@ -1873,6 +2719,7 @@ public class CubeMetastoreClient {
       if (enableCaching) {
         allDims.put(dimName.trim().toLowerCase(), getDimension(refreshTable(dimName)));
       }
+      updateSchemaGraphForDimension(dimName);
     } else {
       throw new HiveException(dimName + " is not a dimension");
     }
@@ -1923,6 +2770,7 @@ public class CubeMetastoreClient {
     if (isCube(tbl)) {
       allCubes.remove(cubeName.trim().toLowerCase());
       dropHiveTable(cubeName);
+      updateSchemaGraphForCube(cubeName, null);
     } else {
       throw new HiveException(cubeName + " is not a cube");
     }
@@ -1939,6 +2787,7 @@ public class CubeMetastoreClient {
     if (isDimension(tbl)) {
       allDims.remove(dimName.trim().toLowerCase());
       dropHiveTable(dimName);
+      updateSchemaGraphForDimension(dimName);
     } else {
       throw new HiveException(dimName + " is not a dimension");
     }
@@ -95,6 +95,18 @@ public final class MetastoreConstants {
   public static final String HIERARCHY_SFX = ".hierarchy.";
   public static final String CLASS_SFX = ".class";
   public static final String METASTORE_ENABLE_CACHING = "cube.metastore.enable.cache";
+  public static final String METASTORE_TABLE_FETCH_BATCH_SIZE = "cube.metastore.table.fetch.batch.size";
+  public static final int DEFAULT_METASTORE_TABLE_FETCH_BATCH_SIZE = 100;
+  // Delay in millis after which changed partition timelines of a fact storage table are stored in its properties,
+  // all changes in the meantime being stored together. Zero stores them right away on each change.
+  public static final String METASTORE_TIMELINE_FLUSH_DELAY_MILLIS = "cube.metastore.timeline.flush.delay.millis";
+  public static final long DEFAULT_METASTORE_TIMELINE_FLUSH_DELAY_MILLIS = 0;
+  // Time in millis for which looked up existence of partitions is cached, unless the table or its partitions are
+  // changed through a client in the same server. Partitions added by other servers or outside lens are seen only
+  // once the cached existence expires, so caching is off by default. Zero disables caching.
+  public static final String METASTORE_PARTITION_EXISTENCE_CACHE_TTL_MILLIS =
+    "cube.metastore.partition.existence.cache.ttl.millis";
+  public static final long DEFAULT_METASTORE_PARTITION_EXISTENCE_CACHE_TTL_MILLIS = 0;
 
   // join chain constants
   public static final String JOIN_CHAIN_KEY = "joinchain.";
@@ -105,6 +117,9 @@ public final class MetastoreConstants {
   public static final String STORAGE_ENTITY_PFX = "storage.";
   public static final String STORAGE_PFX = "cube.storagetable.";
   public static final String PARTITION_TIMELINE_CACHE = "partition.timeline.cache.";
+  // Value of the partition timeline cache presence key, the version of the format in which timelines are stored.
+  // Servers which only know the older format look for "true", and load timelines from partitions instead.
+  public static final String PARTITION_TIMELINE_CACHE_FORMAT_VERSION = "2";
   public static final String STORAGE_CLASS = "storage.class";
   public static final String TIME_PART_COLUMNS = "cube.storagetable.time.partcols";
   public static final String LATEST_PART_TIMESTAMP_SFX = ".latest.part.timestamp";
@@ -372,29 +372,40 @@ public class MetastoreUtil {
   }
 
   static <E extends Named> List<String> getNamedStrs(Collection<E> set, int maxLength) {
-    List<String> namedStrings = new ArrayList<String>();
-    if (set == null || set.isEmpty()) {
-      return namedStrings;
+    if (set == null) {
+      return new ArrayList<String>();
+    }
+    List<String> names = new ArrayList<String>(set.size());
+    for (E named : set) {
+      names.add(named.getName());
+    }
+    return getJoinedStrs(names, maxLength);
+  }
+
+  static List<String> getJoinedStrs(Collection<String> values, int maxLength) {
+    List<String> joinedStrings = new ArrayList<String>();
+    if (values == null || values.isEmpty()) {
+      return joinedStrings;
     }
     StringBuilder valueStr = new StringBuilder();
-    Iterator<E> it = set.iterator();
-    for (int i = 0; i < (set.size() - 1); i++) {
-      E next = it.next();
-      if (valueStr.length() + next.getName().length() >= maxLength) {
-        namedStrings.add(valueStr.toString());
+    Iterator<String> it = values.iterator();
+    for (int i = 0; i < (values.size() - 1); i++) {
+      String next = it.next();
+      if (valueStr.length() + next.length() >= maxLength) {
+        joinedStrings.add(valueStr.toString());
         valueStr.setLength(0);
       }
-      valueStr.append(next.getName());
+      valueStr.append(next);
       valueStr.append(",");
     }
-    E next = it.next();
-    if (valueStr.length() + next.getName().length() >= maxLength) {
-      namedStrings.add(valueStr.toString());
+    String next = it.next();
+    if (valueStr.length() + next.length() >= maxLength) {
+      joinedStrings.add(valueStr.toString());
       valueStr.setLength(0);
     }
-    valueStr.append(next.getName());
-    namedStrings.add(valueStr.toString());
-    return namedStrings;
+    valueStr.append(next);
+    joinedStrings.add(valueStr.toString());
+    return joinedStrings;
   }
 
   private static int maxParamLength = 3999;
@@ -412,6 +423,19 @@ public class MetastoreUtil {
     }
   }
 
+  /**
+   * Puts the values joined with commas in the properties, split across properties like
+   * {@link #addNameStrings(java.util.Map, String, java.util.Collection)} if longer than the maximum parameter length.
+   * Read back with {@link #getNamedStringValue(java.util.Map, String)}.
+   */
+  public static void addJoinedStrings(Map<String, String> props, String key, Collection<String> values) {
+    List<String> joinedStrings = getJoinedStrs(values, maxParamLength);
+    props.put(key + ".size", String.valueOf(joinedStrings.size()));
+    for (int i = 0; i < joinedStrings.size(); i++) {
+      props.put(key + i, joinedStrings.get(i));
+    }
+  }
+
   public static String getNamedStringValue(Map<String, String> props, String key) {
     if (props.containsKey(key + ".size")) {
       int size = Integer.parseInt(props.get(key + ".size"));
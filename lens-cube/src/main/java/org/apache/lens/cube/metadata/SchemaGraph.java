@@ -19,6 +19,8 @@
 package org.apache.lens.cube.metadata;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 
@@ -218,19 +220,31 @@ public class SchemaGraph {
 
   /**
    * Graph of tables in the cube metastore. Links between the tables are relationships in the cube.
+   * <p/>
+   * Join paths from each dimension to each cube are searched when the graph is built, and paths to other targets are
+   * searched on first use. Path lists are unmodifiable and shared across queries. Changes to a cube or a dimension
+   * rebuild the affected graphs and drop only the path lists which can be affected by the change.
    */
   private final CubeMetastoreClient metastore;
-  // Graph for each cube
+  // Graph for each cube, by lower case cube name
   // graph with out going edges
-  private Map<CubeInterface, Map<AbstractCubeTable, Set<TableRelationship>>> cubeOutGraph;
+  private final Map<String, Map<AbstractCubeTable, Set<TableRelationship>>> cubeOutGraph =
+    new ConcurrentHashMap<String, Map<AbstractCubeTable, Set<TableRelationship>>>();
   // graph with incoming edges
-  private Map<CubeInterface, Map<AbstractCubeTable, Set<TableRelationship>>> cubeInGraph;
+  private final Map<String, Map<AbstractCubeTable, Set<TableRelationship>>> cubeInGraph =
+    new ConcurrentHashMap<String, Map<AbstractCubeTable, Set<TableRelationship>>>();
 
   // sub graph that contains only dimensions, mainly used while checking connectivity between a set of dimensions
   // graph with out going edges
-  private Map<AbstractCubeTable, Set<TableRelationship>> dimOnlyOutGraph;
+  private volatile Map<AbstractCubeTable, Set<TableRelationship>> dimOnlyOutGraph;
   // graph with incoming edges
-  private Map<AbstractCubeTable, Set<TableRelationship>> dimOnlyInGraph;
+  private volatile Map<AbstractCubeTable, Set<TableRelationship>> dimOnlyInGraph;
+
+  // join paths by lower case target name and lower case source name
+  private final ConcurrentMap<String, ConcurrentMap<String, List<JoinPath>>> joinPaths =
+    new ConcurrentHashMap<String, ConcurrentMap<String, List<JoinPath>>>();
+  // incremented on every change of the graph, so that paths searched on an older graph are not memoized
+  private long version;
 
   public SchemaGraph(CubeMetastoreClient metastore) throws HiveException {
     this.metastore = metastore;
@@ -238,7 +252,7 @@ public class SchemaGraph {
   }
 
   public Map<AbstractCubeTable, Set<TableRelationship>> getCubeGraph(CubeInterface cube) {
-    return cubeOutGraph.get(cube);
+    return cubeOutGraph.get(getKey(cube.getName()));
   }
 
   public Map<AbstractCubeTable, Set<TableRelationship>> getDimOnlyGraph() {
@@ -246,13 +260,58 @@ public class SchemaGraph {
   }
 
   public Map<AbstractCubeTable, Set<TableRelationship>> getCubeInGraph(CubeInterface cube) {
-    return cubeInGraph.get(cube);
+    return cubeInGraph.get(getKey(cube.getName()));
   }
 
   public Map<AbstractCubeTable, Set<TableRelationship>> getDimOnlyInGraph() {
     return dimOnlyInGraph;
   }
 
+  /**
+   * Get all join paths from the source to the target. Paths are searched once and memoized till the cube or
+   * dimensions they depend on change.
+   *
+   * @param source the source dimension
+   * @param target the target cube or dimension
+   * @return unmodifiable list of join paths
+   */
+  public List<JoinPath> getJoinPaths(AbstractCubeTable source, AbstractCubeTable target) {
+    String targetKey = getKey(target.getName());
+    String sourceKey = getKey(source.getName());
+    ConcurrentMap<String, List<JoinPath>> pathsToTarget = joinPaths.get(targetKey);
+    if (pathsToTarget == null) {
+      pathsToTarget = new ConcurrentHashMap<String, List<JoinPath>>();
+      ConcurrentMap<String, List<JoinPath>> existing = joinPaths.putIfAbsent(targetKey, pathsToTarget);
+      if (existing != null) {
+        pathsToTarget = existing;
+      }
+    }
+    List<JoinPath> paths = pathsToTarget.get(sourceKey);
+    if (paths == null) {
+      long searchVersion = getVersion();
+      List<JoinPath> found = new GraphSearch(source, target, this).findAllPathsToTarget();
+      for (JoinPath path : found) {
+        // done before sharing, so that the paths are not modified later
+        path.initColumnsForTable();
+      }
+      paths = Collections.unmodifiableList(found);
+      synchronized (this) {
+        if (searchVersion == version) {
+          pathsToTarget.put(sourceKey, paths);
+        }
+      }
+    }
+    return paths;
+  }
+
+  private synchronized long getVersion() {
+    return version;
+  }
+
+  private static String getKey(String tableName) {
+    return tableName.trim().toLowerCase();
+  }
+
   /**
    * Build the schema graph for all cubes and dimensions
    *
@@ -260,28 +319,140 @@ public class SchemaGraph {
    * @throws org.apache.hadoop.hive.ql.metadata.HiveException
    */
   private void buildSchemaGraph() throws HiveException {
-    cubeOutGraph = new HashMap<CubeInterface, Map<AbstractCubeTable, Set<TableRelationship>>>();
-    cubeInGraph = new HashMap<CubeInterface, Map<AbstractCubeTable, Set<TableRelationship>>>();
+    buildDimensionGraphs();
+    // precompute paths from all dimensions to cubes, which are needed by most queries
     for (CubeInterface cube : metastore.getAllCubes()) {
-      Map<AbstractCubeTable, Set<TableRelationship>> outGraph
-        = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
-      Map<AbstractCubeTable, Set<TableRelationship>> inGraph
-        = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
-      buildGraph((AbstractCubeTable) cube, outGraph, inGraph);
-
       for (Dimension dim : metastore.getAllDimensions()) {
-        buildGraph(dim, outGraph, inGraph);
+        getJoinPaths(dim, (AbstractCubeTable) cube);
       }
+    }
+  }
+
+  // Build dimension only graph and graphs of all cubes, since every cube graph has all dimensions
+  private void buildDimensionGraphs() throws HiveException {
+    Map<AbstractCubeTable, Set<TableRelationship>> outGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
+    Map<AbstractCubeTable, Set<TableRelationship>> inGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
+    for (Dimension dim : metastore.getAllDimensions()) {
+      buildGraph(dim, outGraph, inGraph);
+    }
+    dimOnlyOutGraph = outGraph;
+    dimOnlyInGraph = inGraph;
 
-      cubeOutGraph.put(cube, outGraph);
-      cubeInGraph.put(cube, inGraph);
+    Set<String> cubes = new HashSet<String>();
+    for (CubeInterface cube : metastore.getAllCubes()) {
+      buildCubeGraph(cube);
+      cubes.add(getKey(cube.getName()));
     }
+    cubeOutGraph.keySet().retainAll(cubes);
+    cubeInGraph.keySet().retainAll(cubes);
+  }
+
+  private void buildCubeGraph(CubeInterface cube) throws HiveException {
+    Map<AbstractCubeTable, Set<TableRelationship>> outGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
+    Map<AbstractCubeTable, Set<TableRelationship>> inGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
+    buildGraph((AbstractCubeTable) cube, outGraph, inGraph);
 
-    dimOnlyOutGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
-    dimOnlyInGraph = new HashMap<AbstractCubeTable, Set<TableRelationship>>();
     for (Dimension dim : metastore.getAllDimensions()) {
-      buildGraph(dim, dimOnlyOutGraph, dimOnlyInGraph);
+      buildGraph(dim, outGraph, inGraph);
+    }
+
+    cubeOutGraph.put(getKey(cube.getName()), outGraph);
+    cubeInGraph.put(getKey(cube.getName()), inGraph);
+  }
+
+  /**
+   * Update the graph of a created or altered cube. Only join paths to the cube are searched again.
+   *
+   * @param cube the cube
+   * @throws HiveException
+   */
+  public synchronized void updateCube(CubeInterface cube) throws HiveException {
+    version++;
+    clearJoinPathsTo(getKey(cube.getName()));
+    buildCubeGraph(cube);
+  }
+
+  /**
+   * Remove a dropped cube from the graph.
+   *
+   * @param cubeName the cube name
+   */
+  public synchronized void removeCube(String cubeName) {
+    version++;
+    clearJoinPathsTo(getKey(cubeName));
+    cubeOutGraph.remove(getKey(cubeName));
+    cubeInGraph.remove(getKey(cubeName));
+  }
+
+  /**
+   * Update the graph for a created, altered or dropped dimension. Join paths are searched again only for targets
+   * which can reach the dimension, or which had paths through the dimension.
+   *
+   * @param dimName the dimension name
+   * @throws HiveException
+   */
+  public synchronized void updateDimension(String dimName) throws HiveException {
+    version++;
+    String dimKey = getKey(dimName);
+    buildDimensionGraphs();
+    for (Map.Entry<String, ConcurrentMap<String, List<JoinPath>>> entry : joinPaths.entrySet()) {
+      String targetKey = entry.getKey();
+      // targets other than cubes are dimensions
+      Map<AbstractCubeTable, Set<TableRelationship>> outGraph = cubeOutGraph.get(targetKey);
+      if (targetKey.equals(dimKey) || isReachable(outGraph == null ? dimOnlyOutGraph : outGraph, targetKey, dimKey)) {
+        entry.getValue().clear();
+        continue;
+      }
+      Iterator<Map.Entry<String, List<JoinPath>>> iter = entry.getValue().entrySet().iterator();
+      while (iter.hasNext()) {
+        Map.Entry<String, List<JoinPath>> paths = iter.next();
+        if (paths.getKey().equals(dimKey) || hasTable(paths.getValue(), dimKey)) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
+  private void clearJoinPathsTo(String targetKey) {
+    ConcurrentMap<String, List<JoinPath>> pathsToTarget = joinPaths.get(targetKey);
+    if (pathsToTarget != null) {
+      pathsToTarget.clear();
+    }
+  }
+
+  private static boolean hasTable(List<JoinPath> paths, String tableKey) {
+    for (JoinPath path : paths) {
+      for (AbstractCubeTable table : path.getAllTables()) {
+        if (getKey(table.getName()).equals(tableKey)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // Whether the destination can be reached from the source following references in the graph
+  private static boolean isReachable(Map<AbstractCubeTable, Set<TableRelationship>> outGraph, String sourceKey,
+    String destKey) {
+    Map<String, Set<TableRelationship>> edgesByTable = new HashMap<String, Set<TableRelationship>>();
+    for (Map.Entry<AbstractCubeTable, Set<TableRelationship>> entry : outGraph.entrySet()) {
+      edgesByTable.put(getKey(entry.getKey().getName()), entry.getValue());
+    }
+    Set<String> visited = new HashSet<String>();
+    LinkedList<String> toVisit = new LinkedList<String>();
+    toVisit.add(sourceKey);
+    while (!toVisit.isEmpty()) {
+      String table = toVisit.removeFirst();
+      if (table.equals(destKey)) {
+        return true;
+      }
+      if (visited.add(table) && edgesByTable.get(table) != null) {
+        for (TableRelationship edge : edgesByTable.get(table)) {
+          toVisit.add(getKey(edge.getToTable().getName()));
+        }
+      }
     }
+    return false;
   }
 
   private List<CubeDimAttribute> getRefDimensions(AbstractCubeTable cube) throws HiveException {
@@ -364,9 +535,9 @@ public class SchemaGraph {
   }
 
   public void print() {
-    for (CubeInterface cube : cubeOutGraph.keySet()) {
+    for (String cube : cubeOutGraph.keySet()) {
       Map<AbstractCubeTable, Set<TableRelationship>> graph = cubeOutGraph.get(cube);
-      System.out.println("**Cube " + cube.getName() + " Out egdes");
+      System.out.println("**Cube " + cube + " Out egdes");
       System.out.println("--Out Graph-Nodes=" + graph.size());
       for (AbstractCubeTable tab : graph.keySet()) {
         System.out.println(tab.getName() + "::" + graph.get(tab));
@@ -378,9 +549,9 @@ public class SchemaGraph {
       System.out.println(tab.getName() + "::" + dimOnlyOutGraph.get(tab));
     }
 
-    for (CubeInterface cube : cubeInGraph.keySet()) {
+    for (String cube : cubeInGraph.keySet()) {
       Map<AbstractCubeTable, Set<TableRelationship>> graph = cubeInGraph.get(cube);
-      System.out.println("**Cube " + cube.getName() + " In egdes");
+      System.out.println("**Cube " + cube + " In egdes");
       System.out.println("--In Graph-Nodes=" + graph.size());
       for (AbstractCubeTable tab : graph.keySet()) {
         System.out.println(tab.getName() + "::" + graph.get(tab));
@@ -24,25 +24,28 @@ import java.util.Date;
 
 import org.apache.lens.server.api.error.LensException;
 
-import org.apache.commons.lang3.time.DateUtils;
-
 import lombok.Data;
 import lombok.NonNull;
 
-/** stores a partition's update period, date and string representation. Provides some utility methods around it */
+/**
+ * stores a partition's update period, date, string representation and ordinal of the partition in its update period.
+ * Provides some utility methods around it
+ *
+ * @see UpdatePeriod#toOrdinal(java.util.Date)
+ */
 @Data
 public class TimePartition implements Comparable<TimePartition>, Named {
   private static final String UPDATE_PERIOD_WRONG_ERROR_MESSAGE = "Update period %s not correct for parsing %s";
   private final UpdatePeriod updatePeriod;
   private final Date date;
   private final String dateString;
+  private final long ordinal;
 
   private TimePartition(@NonNull UpdatePeriod updatePeriod, @NonNull Date date) {
     this.updatePeriod = updatePeriod;
-    Calendar cal = Calendar.getInstance();
-    cal.setTime(date);
-    this.date = truncate(date, updatePeriod);
+    this.date = updatePeriod.truncate(date);
     this.dateString = updatePeriod.format().format(this.date);
+    this.ordinal = updatePeriod.toOrdinal(this.date);
   }
 
   public static TimePartition of(UpdatePeriod updatePeriod, Date date) throws LensException {
@@ -52,6 +55,10 @@ public class TimePartition implements Comparable<TimePartition>, Named {
     return new TimePartition(updatePeriod, date);
   }
 
+  public static TimePartition ofOrdinal(@NonNull UpdatePeriod updatePeriod, long ordinal) {
+    return new TimePartition(updatePeriod, updatePeriod.fromOrdinal(ordinal));
+  }
+
   public static TimePartition of(UpdatePeriod updatePeriod, String dateString) throws LensException {
     if (dateString == null || dateString.isEmpty()) {
       throw new LensException("time parition date string is null or blank");
@@ -109,22 +116,6 @@ public class TimePartition implements Comparable<TimePartition>, Named {
     return this.date.after(when.date);
   }
 
-  private Date truncate(Date date, UpdatePeriod updatePeriod) {
-    if (updatePeriod.equals(UpdatePeriod.WEEKLY)) {
-      Date truncDate = DateUtils.truncate(date, Calendar.DAY_OF_MONTH);
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(truncDate);
-      cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
-      return cal.getTime();
-    } else if (updatePeriod.equals(UpdatePeriod.QUARTERLY)) {
-      Date dt = DateUtils.truncate(date, updatePeriod.calendarField());
-      dt.setMonth(dt.getMonth() - dt.getMonth() % 3);
-      return dt;
-    } else {
-      return DateUtils.truncate(date, updatePeriod.calendarField());
-    }
-  }
-
   protected static String getWrongUpdatePeriodMessage(UpdatePeriod up, String dateString) {
     return String.format(UPDATE_PERIOD_WRONG_ERROR_MESSAGE, up, dateString);
   }
@@ -33,6 +33,9 @@ public class TimePartitionRange implements Iterable<TimePartition>, Named {
   private TimePartition begin;
   private TimePartition end;
 
+  private TimePartitionRange() {
+  }
+
   public TimePartitionRange(TimePartition begin, TimePartition end) throws LensException {
     if (end.before(begin)) {
       throw new LensException("condition of creation of timepartition failed: end>=begin");
@@ -98,6 +101,25 @@ public class TimePartitionRange implements Iterable<TimePartition>, Named {
     return toString();
   }
 
+  /**
+   * Range of partitions of the update period with ordinals in [begin, end).
+   *
+   * @param updatePeriod
+   * @param begin        ordinal of the first partition
+   * @param end          ordinal of the partition after the last one
+   * @return the range
+   * @see UpdatePeriod#toOrdinal(java.util.Date)
+   */
+  public static TimePartitionRange ofOrdinals(UpdatePeriod updatePeriod, long begin, long end) {
+    if (end < begin) {
+      throw new IllegalArgumentException("condition of creation of timepartition failed: end>=begin");
+    }
+    TimePartitionRange range = new TimePartitionRange();
+    range.begin = TimePartition.ofOrdinal(updatePeriod, begin);
+    range.end = TimePartition.ofOrdinal(updatePeriod, end);
+    return range;
+  }
+
   public static TimePartitionRange parseFrom(UpdatePeriod updatePeriod, String from, String to) throws LensException {
     boolean incrementFrom = false;
     boolean incrementTo = false;
@@ -19,6 +19,7 @@
 package org.apache.lens.cube.metadata;
 
 import java.util.ArrayList;
+import java.util.Date;
 
 public class TimePartitionRangeList extends ArrayList<TimePartitionRange> {
   @Override
@@ -35,4 +36,27 @@ public class TimePartitionRangeList extends ArrayList<TimePartitionRange> {
   public TimePartitionRange last() {
     return get(size() - 1);
   }
+
+  /**
+   * Checks whether the date falls in any of the ranges. Assumes ranges are disjoint and in increasing order.
+   *
+   * @param date
+   * @return true if some range contains the date
+   */
+  public boolean contains(Date date) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      TimePartitionRange range = get(mid);
+      if (date.before(range.getBegin().getDate())) {
+        high = mid - 1;
+      } else if (!date.before(range.getEnd().getDate())) {
+        low = mid + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -23,11 +23,15 @@ import static java.util.Calendar.*;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.TimeZone;
 
 import org.apache.lens.cube.parse.DateUtil;
 
+import org.apache.commons.lang3.time.DateUtils;
+
 public enum UpdatePeriod implements Named {
   SECONDLY(SECOND, 1000, 1.4f, "yyyy-MM-dd-HH-mm-ss"),
   MINUTELY(MINUTE, 60 * SECONDLY.weight(), 1.35f, "yyyy-MM-dd-HH-mm"),
@@ -39,6 +43,7 @@ public enum UpdatePeriod implements Named {
   YEARLY(YEAR, 12 * MONTHLY.weight(), 0.52f, "yyyy");
 
   public static final long MIN_INTERVAL = values()[0].weight();
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
   private final int calendarField;
   private final long weight;
   /**
@@ -174,6 +179,113 @@ public enum UpdatePeriod implements Named {
     return DateUtil.getNumberofDaysInMonth(date) * DAILY.weight();
   }
 
+  /**
+   * Truncates the date to the beginning of the period containing it.
+   *
+   * @param date
+   * @return beginning of the period
+   */
+  public Date truncate(Date date) {
+    if (this.equals(WEEKLY)) {
+      Date truncDate = DateUtils.truncate(date, Calendar.DAY_OF_MONTH);
+      Calendar cal = Calendar.getInstance();
+      cal.setTime(truncDate);
+      cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
+      return cal.getTime();
+    } else if (this.equals(QUARTERLY)) {
+      Date dt = DateUtils.truncate(date, calendarField());
+      dt.setMonth(dt.getMonth() - dt.getMonth() % 3);
+      return dt;
+    } else {
+      return DateUtils.truncate(date, calendarField());
+    }
+  }
+
+  /**
+   * Ordinal of the period beginning at the given date, counted from the period containing the epoch. Ordinals of
+   * consecutive periods differ by one, so partitions can be kept and compared as plain longs. The date is expected to
+   * be the beginning of a period, as returned by {@link #truncate(java.util.Date)}.
+   *
+   * @param date beginning of the period
+   * @return ordinal of the period
+   * @see #fromOrdinal(long)
+   */
+  public long toOrdinal(Date date) {
+    long millis = date.getTime();
+    switch (this) {
+    case SECONDLY:
+    case MINUTELY:
+    case HOURLY:
+      // periods are of fixed length, beginning at the same offset from multiples of the length
+      return floorDiv(millis, weight);
+    case DAILY:
+      return epochDay(millis);
+    case WEEKLY:
+      // weeks begin at epoch days congruent modulo 7
+      return floorDiv(epochDay(millis), 7);
+    default:
+      Calendar cal = Calendar.getInstance();
+      cal.setTime(date);
+      long year = cal.get(YEAR);
+      if (this.equals(YEARLY)) {
+        return year;
+      }
+      long month = year * 12 + cal.get(MONTH);
+      return this.equals(QUARTERLY) ? floorDiv(month, 3) : month;
+    }
+  }
+
+  /**
+   * Beginning of the period with the given ordinal.
+   *
+   * @param ordinal
+   * @return beginning of the period
+   * @see #toOrdinal(java.util.Date)
+   */
+  public Date fromOrdinal(long ordinal) {
+    switch (this) {
+    case SECONDLY:
+    case MINUTELY:
+    case HOURLY:
+      // the period may begin after the multiple of its length in this time zone, but always ends after it
+      return truncate(new Date(ordinal * weight + weight - 1));
+    case DAILY:
+      return truncate(middleOfDay(ordinal));
+    case WEEKLY:
+      // week with the ordinal covers epoch days 7 * ordinal + k to 7 * ordinal + k + 6, for some k from 0 to 6
+      return truncate(middleOfDay(ordinal * 7 + 6));
+    default:
+      long month = ordinal;
+      if (this.equals(YEARLY)) {
+        month = ordinal * 12;
+      } else if (this.equals(QUARTERLY)) {
+        month = ordinal * 3;
+      }
+      long year = floorDiv(month, 12);
+      Calendar cal = Calendar.getInstance();
+      cal.clear();
+      cal.set((int) year, (int) (month - year * 12), 1);
+      return truncate(cal.getTime());
+    }
+  }
+
+  private static long epochDay(long millis) {
+    return floorDiv(millis + TimeZone.getDefault().getOffset(millis), DAY_MILLIS);
+  }
+
+  private static Date middleOfDay(long epochDay) {
+    long noon = epochDay * DAY_MILLIS + DAY_MILLIS / 2;
+    return new Date(noon - TimeZone.getDefault().getOffset(noon));
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if (x % y != 0 && (x ^ y) < 0) {
+      q--;
+    }
+    return q;
+  }
+
   public DateFormat format() {
     switch (this) {
     case SECONDLY:
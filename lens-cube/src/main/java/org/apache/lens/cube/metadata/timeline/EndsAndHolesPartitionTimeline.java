@@ -23,30 +23,35 @@ import java.util.*;
 
 import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.metadata.TimePartition;
+import org.apache.lens.cube.metadata.TimePartitionRange;
+import org.apache.lens.cube.metadata.TimePartitionRangeList;
 import org.apache.lens.cube.metadata.UpdatePeriod;
-import org.apache.lens.cube.parse.TimeRange;
 import org.apache.lens.server.api.error.LensException;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
-import lombok.ToString;
 
 /**
  * One implementation of PartitionTimeline that stores first partition, latest partition and a collection of holes in
  * between them, excluding the edges(start and end values).  This is the default Timeline for tables that don't specify
- * which Timeline Class to use in it's params.
+ * which Timeline Class to use in it's params. Partitions are kept as their ordinals in the update period, with holes
+ * in a sorted array of longs.
+ *
+ * @see UpdatePeriod#toOrdinal(java.util.Date)
  */
-@Data
 @EqualsAndHashCode(callSuper = true)
-@ToString(callSuper = true)
 public class EndsAndHolesPartitionTimeline extends PartitionTimeline {
-  private TimePartition first;
-  private TreeSet<TimePartition> holes = Sets.newTreeSet();
-  private TimePartition latest;
+  /** Marker for first or latest partition not being there */
+  private static final long NONE = Long.MIN_VALUE;
+  private static final long[] NO_HOLES = new long[0];
+  /** Property of holes encoded as ordinal ranges */
+  private static final String ENCODED_HOLES = "encodedHoles";
+  private long first = NONE;
+  private long[] holes = NO_HOLES;
+  private long latest = NONE;
 
   public EndsAndHolesPartitionTimeline(String storageTableName, UpdatePeriod updatePeriod,
     String partCol) {
@@ -55,123 +60,227 @@ public class EndsAndHolesPartitionTimeline extends PartitionTimeline {
 
   @Override
   public boolean add(@NonNull TimePartition partition) throws LensException {
+    long ordinal = partition.getOrdinal();
     if (isEmpty()) {
       // First partition being added
-      first = partition;
-      latest = partition;
+      first = ordinal;
+      latest = ordinal;
       return true;
     }
-    if (partition.before(first)) {
-      addHolesBetween(partition, first, partition.getUpdatePeriod());
-      first = partition;
+    if (ordinal < first) {
+      holes = concat(range(ordinal + 1, first), holes);
+      first = ordinal;
       return true;
-    } else if (partition.after(latest)) {
-      addHolesBetween(latest, partition, partition.getUpdatePeriod());
-      latest = partition;
+    } else if (ordinal > latest) {
+      holes = concat(holes, range(latest + 1, ordinal));
+      latest = ordinal;
       return true;
     } else {
-      return holes.remove(partition);
+      return removeHoles(Arrays.binarySearch(holes, ordinal), 1);
     }
   }
 
   @Override
   public boolean drop(@NonNull TimePartition toDrop) throws LensException {
-    if (first.equals(latest) && first.equals(toDrop)) {
-      this.first = null;
-      this.latest = null;
-      this.holes.clear();
+    long ordinal = toDrop.getOrdinal();
+    if (first == latest && first == ordinal) {
+      this.first = NONE;
+      this.latest = NONE;
+      this.holes = NO_HOLES;
       return true;
-    } else if (first.equals(toDrop)) {
-      this.first = this.getNextPartition(first, latest, 1);
+    } else if (first == ordinal) {
+      // holes right after first are not holes anymore
+      int count = 0;
+      while (count < holes.length && holes[count] == first + 1 + count) {
+        count++;
+      }
+      removeHoles(0, count);
+      this.first = first + 1 + count;
       return true;
-    } else if (latest.equals(toDrop)) {
-      this.latest = this.getNextPartition(latest, first, -1);
+    } else if (latest == ordinal) {
+      int count = 0;
+      while (count < holes.length && holes[holes.length - 1 - count] == latest - 1 - count) {
+        count++;
+      }
+      removeHoles(holes.length - count, count);
+      this.latest = latest - 1 - count;
       return true;
+    } else if (ordinal < first || ordinal > latest) {
+      return false;
     } else {
-      return addHole(toDrop);
+      int ind = Arrays.binarySearch(holes, ordinal);
+      if (ind >= 0) {
+        return false;
+      }
+      holes = concat(Arrays.copyOfRange(holes, 0, -ind - 1), new long[]{ordinal},
+        Arrays.copyOfRange(holes, -ind - 1, holes.length));
+      return true;
+    }
+  }
+
+  private boolean removeHoles(int from, int count) {
+    if (from < 0) {
+      return false;
+    }
+    if (count > 0) {
+      holes = concat(Arrays.copyOfRange(holes, 0, from), Arrays.copyOfRange(holes, from + count, holes.length));
+    }
+    return true;
+  }
+
+  /**
+   * @return ordinals from begin to end, exclusive
+   */
+  private static long[] range(long begin, long end) {
+    long[] ret = new long[(int) Math.max(end - begin, 0)];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = begin + i;
+    }
+    return ret;
+  }
+
+  private static long[] concat(long[]... arrays) {
+    int length = 0;
+    for (long[] array : arrays) {
+      length += array.length;
+    }
+    if (length == 0) {
+      return NO_HOLES;
     }
+    long[] ret = new long[length];
+    int pos = 0;
+    for (long[] array : arrays) {
+      System.arraycopy(array, 0, ret, pos, array.length);
+      pos += array.length;
+    }
+    return ret;
+  }
+
+  private TimePartition toPartition(long ordinal) {
+    return ordinal == NONE ? null : TimePartition.ofOrdinal(getUpdatePeriod(), ordinal);
+  }
+
+  private static long toOrdinal(TimePartition partition) {
+    return partition == null ? NONE : partition.getOrdinal();
+  }
+
+  public TimePartition getFirst() {
+    return toPartition(first);
+  }
+
+  public void setFirst(TimePartition first) {
+    this.first = toOrdinal(first);
+  }
+
+  public TimePartition getLatest() {
+    return toPartition(latest);
+  }
+
+  public void setLatest(TimePartition latest) {
+    this.latest = toOrdinal(latest);
+  }
+
+  /**
+   * @return holes in increasing order
+   */
+  public TreeSet<TimePartition> getHoles() {
+    TreeSet<TimePartition> ret = Sets.newTreeSet();
+    for (long hole : holes) {
+      ret.add(TimePartition.ofOrdinal(getUpdatePeriod(), hole));
+    }
+    return ret;
   }
 
   @Override
   public TimePartition latest() {
-    return latest;
+    return getLatest();
   }
 
+  /**
+   * Holes are written as ranges of consecutive holes, encoded relative to the first partition.
+   *
+   * @see OrdinalRangesEncoding
+   */
   @Override
   public Map<String, String> toProperties() {
     HashMap<String, String> ret = Maps.newHashMap();
     ret.put("first", "");
     ret.put("latest", "");
-    MetastoreUtil.addNameStrings(ret, "holes", holes);
+    MetastoreUtil.addJoinedStrings(ret, ENCODED_HOLES, OrdinalRangesEncoding.encode(first,
+      OrdinalRangesEncoding.toRanges(holes)));
     if (isEmpty()) {
       return ret;
     }
-    ret.put("first", first.getDateString());
-    ret.put("latest", latest.getDateString());
+    ret.put("first", getFirst().getDateString());
+    ret.put("latest", getLatest().getDateString());
     return ret;
   }
 
+  @Override
+  public EndsAndHolesPartitionTimeline copy() {
+    EndsAndHolesPartitionTimeline copy = new EndsAndHolesPartitionTimeline(getStorageTableName(), getUpdatePeriod(),
+      getPartCol());
+    copy.first = first;
+    copy.holes = holes.length == 0 ? NO_HOLES : holes.clone();
+    copy.latest = latest;
+    return copy;
+  }
+
   @Override
   public boolean initFromProperties(Map<String, String> properties) throws LensException {
-    first = null;
-    latest = null;
-    holes.clear();
+    first = NONE;
+    latest = NONE;
+    holes = NO_HOLES;
     String firstStr = properties.get("first");
     String latestStr = properties.get("latest");
-    String holesStr = MetastoreUtil.getNamedStringValue(properties, "holes");
     if (!Strings.isNullOrEmpty(firstStr)) {
-      first = TimePartition.of(getUpdatePeriod(), firstStr);
+      first = TimePartition.of(getUpdatePeriod(), firstStr).getOrdinal();
     }
     if (!Strings.isNullOrEmpty(latestStr)) {
-      latest = TimePartition.of(getUpdatePeriod(), latestStr);
+      latest = TimePartition.of(getUpdatePeriod(), latestStr).getOrdinal();
     }
-    holes = Sets.newTreeSet();
-    if (!Strings.isNullOrEmpty(holesStr)) {
-      for (String hole : holesStr.split("\\s*,\\s*")) {
-        holes.add(TimePartition.of(getUpdatePeriod(), hole));
+    String encodedHoles = MetastoreUtil.getNamedStringValue(properties, ENCODED_HOLES);
+    if (encodedHoles != null) {
+      holes = OrdinalRangesEncoding.toOrdinals(OrdinalRangesEncoding.decode(first, encodedHoles));
+      if (holes.length == 0) {
+        holes = NO_HOLES;
       }
+      return isConsistent();
     }
-    return isConsistent();
-  }
-
-  private boolean addHole(TimePartition toDrop) {
-    return holes.add(toDrop);
-  }
-
-  private void addHolesBetween(TimePartition begin, TimePartition end, UpdatePeriod updatePeriod) throws LensException {
-    for (Date date : TimeRange.iterable(begin.next().getDate(), end.getDate(), updatePeriod, 1)) {
-      addHole(TimePartition.of(updatePeriod, date));
-    }
-  }
-
-  private TimePartition getNextPartition(TimePartition begin, TimePartition end, int increment) throws LensException {
-    for (Date date : TimeRange.iterable(begin.partitionAtDiff(increment).getDate(),
-      end.partitionAtDiff(increment).getDate(), begin.getUpdatePeriod(), increment)) {
-      TimePartition value = TimePartition.of(begin.getUpdatePeriod(), date);
-      if (!holes.contains(value)) {
-        return value;
-      } else {
-        holes.remove(value);
+    // holes as comma separated partition strings, as written before encoding was introduced
+    String holesStr = MetastoreUtil.getNamedStringValue(properties, "holes");
+    if (!Strings.isNullOrEmpty(holesStr)) {
+      String[] split = holesStr.split("\\s*,\\s*");
+      long[] parsed = new long[split.length];
+      for (int i = 0; i < split.length; i++) {
+        parsed[i] = TimePartition.of(getUpdatePeriod(), split[i]).getOrdinal();
       }
+      Arrays.sort(parsed);
+      int count = 0;
+      for (int i = 0; i < parsed.length; i++) {
+        if (i == 0 || parsed[i] != parsed[i - 1]) {
+          parsed[count++] = parsed[i];
+        }
+      }
+      holes = Arrays.copyOf(parsed, count);
     }
-    return null;
+    return isConsistent();
   }
 
-
   public boolean isEmpty() {
-    return first == null && latest == null && holes.isEmpty();
+    return first == NONE && latest == NONE && holes.length == 0;
   }
 
   @Override
   public boolean isConsistent() {
-    if (first == null && latest != null) {
+    if (first == NONE && latest != NONE) {
       return false;
     }
-    if (latest == null && first != null) {
+    if (latest == NONE && first != NONE) {
       return false;
     }
-    for (TimePartition hole : holes) {
-      if (!hole.after(first) || !hole.before(latest)) {
+    for (int i = 0; i < holes.length; i++) {
+      if (holes[i] <= first || holes[i] >= latest) {
         return false;
       }
     }
@@ -180,27 +289,59 @@ public class EndsAndHolesPartitionTimeline extends PartitionTimeline {
 
   @Override
   public boolean exists(TimePartition toCheck) {
-    return !isEmpty() && !toCheck.before(first) && !toCheck.after(latest) && !holes.contains(toCheck);
+    long ordinal = toCheck.getOrdinal();
+    return !isEmpty() && ordinal >= first && ordinal <= latest && Arrays.binarySearch(holes, ordinal) < 0;
+  }
+
+  @Override
+  public TimePartitionRangeList getCoveredRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList covered = new TimePartitionRangeList();
+    if (isEmpty()) {
+      return covered;
+    }
+    long begin = Math.max(first, range.getBegin().getOrdinal());
+    long end = Math.min(latest + 1, range.getEnd().getOrdinal());
+    if (begin >= end) {
+      return covered;
+    }
+    int ind = Arrays.binarySearch(holes, begin);
+    if (ind < 0) {
+      ind = -ind - 1;
+    }
+    for (; ind < holes.length && holes[ind] < end; ind++) {
+      if (begin < holes[ind]) {
+        covered.add(TimePartitionRange.ofOrdinals(getUpdatePeriod(), begin, holes[ind]));
+      }
+      begin = holes[ind] + 1;
+    }
+    if (begin < end) {
+      covered.add(TimePartitionRange.ofOrdinals(getUpdatePeriod(), begin, end));
+    }
+    return covered;
   }
 
   @Override
   public Iterator<TimePartition> iterator() {
 
     return new Iterator<TimePartition>() {
-      TimePartition cur = getFirst();
+      long cur = first;
+      int holeInd = 0;
 
       @Override
       public boolean hasNext() {
-        return cur != null && getLatest() != null && !cur.after(getLatest());
+        return cur != NONE && latest != NONE && cur <= latest;
       }
 
       @Override
       public TimePartition next() {
-        while (holes.contains(cur)) {
-          cur = cur.next();
+        while (holeInd < holes.length && holes[holeInd] <= cur) {
+          if (holes[holeInd] == cur) {
+            cur++;
+          }
+          holeInd++;
         }
-        TimePartition toReturn = cur;
-        cur = cur.next();
+        TimePartition toReturn = TimePartition.ofOrdinal(getUpdatePeriod(), cur);
+        cur++;
         return toReturn;
       }
 
@@ -210,4 +351,10 @@ public class EndsAndHolesPartitionTimeline extends PartitionTimeline {
       }
     };
   }
+
+  @Override
+  public String toString() {
+    return "EndsAndHolesPartitionTimeline(super=" + super.toString() + ", first=" + getFirst() + ", holes="
+      + getHoles() + ", latest=" + getLatest() + ")";
+  }
 }
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.metadata.timeline;
+
+import java.util.List;
+
+import org.apache.lens.server.api.error.LensException;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * Compact encoding of partition ordinals for timeline properties. Sorted disjoint ranges [begin, end) of ordinals are
+ * written relative to a base ordinal, as the gap from the end of the previous range (or from the base) followed by the
+ * length of the range, in radix 36. For example ranges [base + 2, base + 5) and [base + 40, base + 41) are encoded as
+ * "2,3,z,1". Timelines persist the base as a partition string, so an hourly timeline with scattered holes takes a few
+ * characters per hole instead of a full date string.
+ */
+final class OrdinalRangesEncoding {
+  private static final int RADIX = Character.MAX_RADIX;
+  private static final long[] EMPTY = new long[0];
+
+  private OrdinalRangesEncoding() {
+  }
+
+  /**
+   * @param base   ordinal before or at the begin of the first range
+   * @param ranges begin and end of each range one after another, in increasing order
+   * @return encoded tokens, to be joined with commas
+   */
+  static List<String> encode(long base, long[] ranges) {
+    List<String> tokens = Lists.newArrayListWithCapacity(ranges.length);
+    long previousEnd = base;
+    for (int i = 0; i < ranges.length; i += 2) {
+      tokens.add(Long.toString(ranges[i] - previousEnd, RADIX));
+      tokens.add(Long.toString(ranges[i + 1] - ranges[i], RADIX));
+      previousEnd = ranges[i + 1];
+    }
+    return tokens;
+  }
+
+  /**
+   * @param base    the base with which the ranges were encoded
+   * @param encoded comma separated tokens
+   * @return begin and end of each range one after another
+   * @throws LensException if the string is not a valid encoding
+   * @see #encode(long, long[])
+   */
+  static long[] decode(long base, String encoded) throws LensException {
+    if (Strings.isNullOrEmpty(encoded)) {
+      return EMPTY;
+    }
+    String[] split = encoded.split("\\s*,\\s*");
+    if (split.length % 2 == 1) {
+      throw new LensException("Ranges incomplete: " + encoded);
+    }
+    long[] ranges = new long[split.length];
+    long previousEnd = base;
+    try {
+      for (int i = 0; i < split.length; i += 2) {
+        ranges[i] = previousEnd + Long.parseLong(split[i], RADIX);
+        ranges[i + 1] = ranges[i] + Long.parseLong(split[i + 1], RADIX);
+        previousEnd = ranges[i + 1];
+      }
+    } catch (NumberFormatException e) {
+      throw new LensException("Couldn't decode ranges: " + encoded, e);
+    }
+    return ranges;
+  }
+
+  /**
+   * @param ordinals distinct ordinals in increasing order
+   * @return ranges of consecutive ordinals, begin and end of each range one after another
+   */
+  static long[] toRanges(long[] ordinals) {
+    int count = 0;
+    for (int i = 0; i < ordinals.length; i++) {
+      if (i == 0 || ordinals[i] != ordinals[i - 1] + 1) {
+        count++;
+      }
+    }
+    long[] ranges = new long[2 * count];
+    int ind = -1;
+    for (int i = 0; i < ordinals.length; i++) {
+      if (i == 0 || ordinals[i] != ordinals[i - 1] + 1) {
+        ranges[++ind] = ordinals[i];
+        ++ind;
+      }
+      ranges[ind] = ordinals[i] + 1;
+    }
+    return ranges;
+  }
+
+  /**
+   * @param ranges begin and end of each range one after another, in increasing order
+   * @return all ordinals in the ranges, in increasing order
+   */
+  static long[] toOrdinals(long[] ranges) {
+    long count = 0;
+    for (int i = 0; i < ranges.length; i += 2) {
+      count += ranges[i + 1] - ranges[i];
+    }
+    long[] ordinals = new long[(int) count];
+    int ind = 0;
+    for (int i = 0; i < ranges.length; i += 2) {
+      for (long ordinal = ranges[i]; ordinal < ranges[i + 1]; ordinal++) {
+        ordinals[ind++] = ordinal;
+      }
+    }
+    return ordinals;
+  }
+}
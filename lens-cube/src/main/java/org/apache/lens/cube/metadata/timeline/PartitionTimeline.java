@@ -24,6 +24,7 @@ import java.util.*;
 import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.metadata.TimePartition;
 import org.apache.lens.cube.metadata.TimePartitionRange;
+import org.apache.lens.cube.metadata.TimePartitionRangeList;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.server.api.error.LensException;
 
@@ -56,19 +57,34 @@ public abstract class PartitionTimeline implements Iterable<TimePartition> {
   }
 
   /**
-   * Sets PartitionTimeline implementation class's name and specific params in table param.
+   * Sets PartitionTimeline implementation class's name and specific params in table param. Params of the timeline
+   * which are no longer written, like parts of a value which got shorter, are removed.
    *
    * @param table
+   * @return whether any param of the table changed
    * @see #init(org.apache.hadoop.hive.ql.metadata.Table)
    */
-  public void updateTableParams(Table table) {
+  public boolean updateTableParams(Table table) {
     String prefix = MetastoreUtil.getPartitionInfoKeyPrefix(getUpdatePeriod(), getPartCol());
     String storageClass = MetastoreUtil.getPartitionTimelineStorageClassKey(getUpdatePeriod(), getPartCol());
-    table.getParameters().put(storageClass, this.getClass().getCanonicalName());
+    Map<String, String> params = Maps.newHashMap();
+    params.put(storageClass, this.getClass().getCanonicalName());
     for (Map.Entry<String, String> entry : toProperties().entrySet()) {
-      table.getParameters().put(prefix + entry
-        .getKey(), entry.getValue());
+      params.put(prefix + entry.getKey(), entry.getValue());
     }
+    boolean changed = false;
+    Iterator<Map.Entry<String, String>> iter = table.getParameters().entrySet().iterator();
+    while (iter.hasNext()) {
+      String key = iter.next().getKey();
+      if (key.startsWith(prefix) && !params.containsKey(key)) {
+        iter.remove();
+        changed = true;
+      }
+    }
+    for (Map.Entry<String, String> entry : params.entrySet()) {
+      changed |= !entry.getValue().equals(table.getParameters().put(entry.getKey(), entry.getValue()));
+    }
+    return changed;
   }
 
   /**
@@ -198,6 +214,26 @@ public abstract class PartitionTimeline implements Iterable<TimePartition> {
    */
   public abstract boolean initFromProperties(Map<String, String> properties) throws LensException;
 
+  /**
+   * Copy of this timeline, of the same implementation and with the same partitions. Partitions added for batch
+   * addition are not copied. Default implementation goes through the properties of the timeline. Implementing classes
+   * should override with a direct copy of their members.
+   *
+   * @return the copy
+   * @throws LensException
+   */
+  public PartitionTimeline copy() throws LensException {
+    PartitionTimeline copy;
+    try {
+      copy = getClass().getConstructor(String.class, UpdatePeriod.class, String.class).newInstance(
+        getStorageTableName(), getUpdatePeriod(), getPartCol());
+    } catch (ReflectiveOperationException e) {
+      throw new LensException("Couldn't copy timeline of " + getClass().getName(), e);
+    }
+    copy.initFromProperties(toProperties());
+    return copy;
+  }
+
   /**
    * Whether No partitions have been registered
    *
@@ -219,4 +255,53 @@ public abstract class PartitionTimeline implements Iterable<TimePartition> {
    * @return
    */
   public abstract boolean exists(TimePartition partition);
+
+  /**
+   * Sub ranges of the given range in which all partitions exist, in increasing order. Default implementation checks
+   * existence of each partition in the range. Implementing classes can override.
+   *
+   * @param range
+   * @return covered sub ranges
+   * @throws LensException
+   */
+  public TimePartitionRangeList getCoveredRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList covered = new TimePartitionRangeList();
+    TimePartition begin = null;
+    for (TimePartition partition : range) {
+      if (exists(partition)) {
+        if (begin == null) {
+          begin = partition;
+        }
+      } else if (begin != null) {
+        covered.add(begin.rangeUpto(partition));
+        begin = null;
+      }
+    }
+    if (begin != null) {
+      covered.add(begin.rangeUpto(range.getEnd()));
+    }
+    return covered;
+  }
+
+  /**
+   * Sub ranges of the given range in which no partitions exist, in increasing order.
+   *
+   * @param range
+   * @return holes in the range
+   * @throws LensException
+   */
+  public TimePartitionRangeList getHoles(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList holes = new TimePartitionRangeList();
+    TimePartition begin = range.getBegin();
+    for (TimePartitionRange covered : getCoveredRanges(range)) {
+      if (begin.before(covered.getBegin())) {
+        holes.add(begin.rangeUpto(covered.getBegin()));
+      }
+      begin = covered.getEnd();
+    }
+    if (begin.before(range.getEnd())) {
+      holes.add(begin.rangeUpto(range.getEnd()));
+    }
+    return holes;
+  }
 }
@@ -19,29 +19,35 @@
 package org.apache.lens.cube.metadata.timeline;
 
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.lens.cube.metadata.*;
 import org.apache.lens.server.api.error.LensException;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
-import lombok.Data;
 import lombok.EqualsAndHashCode;
-import lombok.ToString;
 
 /**
  * One implementation of PartitionTimeline that stores ranges of partition presence, Basically a list of tuples each
  * tuple represents a range of presence. range is of the form [from, end) i.e. including the first element and excluding
- * the second element of the tuple
+ * the second element of the tuple. Ranges are kept as ordinals of the partitions in the update period, in a sorted
+ * array of longs holding begin and end of each range one after another.
+ *
+ * @see UpdatePeriod#toOrdinal(java.util.Date)
  */
-@Data
 @EqualsAndHashCode(callSuper = true)
-@ToString(callSuper = true)
 public class RangesPartitionTimeline extends PartitionTimeline {
-  private TimePartitionRangeList ranges = new TimePartitionRangeList();
+  private static final long[] NO_RANGES = new long[0];
+  /** Property of the partition string of the begin of the first range */
+  private static final String BASE = "base";
+  /** Property of ranges encoded relative to the base */
+  private static final String ENCODED_RANGES = "encodedRanges";
+  private long[] ranges = NO_RANGES;
 
   public RangesPartitionTimeline(String storageTableName, UpdatePeriod updatePeriod,
     String partCol) {
@@ -50,78 +56,70 @@ public class RangesPartitionTimeline extends PartitionTimeline {
 
   @Override
   public boolean add(TimePartition partition) throws LensException {
-    int ind = getStrictlyAfterIndex(partition);
-    int added = 0;
-    if (ind > 0) {
-      if (ranges.get(ind - 1).contains(partition)) {
-        return true;
-      }
-      if (ranges.get(ind - 1).getEnd().equals(partition)) {
-        added++;
-        ranges.get(ind - 1).setEnd(partition.next());
-      }
-    }
-    if (ind < ranges.size()) {
-      if (partition.equals(ranges.get(ind).getBegin().previous())) {
-        added++;
-        ranges.get(ind).setBegin(partition);
-      }
+    long ordinal = partition.getOrdinal();
+    int ind = getStrictlyAfterIndex(ordinal);
+    if (ind > 0 && ordinal < end(ind - 1)) {
+      return true;
     }
-    switch (added) {
-    case 0:
-      ranges.add(ind, partition.singletonRange());
-      break;
-    case 2:
-      ranges.get(ind - 1).setEnd(ranges.get(ind).getEnd());
-      ranges.remove(ind);
-      break;
-    case 1:
-      // Nothing needs to be done.
-    default:
-      break;
-
+    boolean extendsPrevious = ind > 0 && end(ind - 1) == ordinal;
+    boolean extendsNext = ind < numRanges() && begin(ind) == ordinal + 1;
+    if (extendsPrevious && extendsNext) {
+      ranges[2 * ind - 1] = end(ind);
+      replaceRanges(ind, ind + 1);
+    } else if (extendsPrevious) {
+      ranges[2 * ind - 1] = ordinal + 1;
+    } else if (extendsNext) {
+      ranges[2 * ind] = ordinal;
+    } else {
+      replaceRanges(ind, ind, ordinal, ordinal + 1);
     }
     return true;
   }
 
   @Override
   public boolean add(TimePartitionRange partitionRange) throws LensException {
-    // Adding partition range to the timeline. Will have to find if any of the sub ranges
-    // intersects. If yes, add only remaining sub ranges, else add the given range as a new sub range.
-    int strictlyAfterIndex = getStrictlyAfterIndex(partitionRange.getBegin());
-    while (strictlyAfterIndex < ranges.size() && partitionRange.isValidAndNonEmpty()) {
-      if (partitionRange.getEnd().before(ranges.get(strictlyAfterIndex).getBegin())) {
-        // partition begin and end both are strictly before ranges[strictlyAfterIndex]. Add as new sub range.
-        ranges.add(strictlyAfterIndex, partitionRange);
-        partitionRange = partitionRange.getEnd().emptyRange();
-        break;
-      } else {
-        // begin is before ranges[strictlyAfterIndex], end is not.
-        // extend ranges[strictlyAfterIndex] and add remaining range, if any.
-        ranges.get(strictlyAfterIndex).setBegin(partitionRange.getBegin());
-        if (ranges.get(strictlyAfterIndex).getEnd().before(partitionRange.getEnd())) {
-          partitionRange = ranges.get(strictlyAfterIndex).getEnd().rangeUpto(partitionRange.getEnd());
-        } else {
-          // No remaining range, end was before ranges[strictlyAfterIndex].end
-          partitionRange = ranges.get(strictlyAfterIndex).getEnd().emptyRange();
-        }
-        strictlyAfterIndex++;
-      }
+    long begin = partitionRange.getBegin().getOrdinal();
+    long end = partitionRange.getEnd().getOrdinal();
+    if (begin >= end) {
+      return true;
     }
-    if (strictlyAfterIndex == ranges.size() && partitionRange.isValidAndNonEmpty()) {
-      ranges.add(partitionRange);
+    // ranges from first to last intersect or touch the given range, all of them are merged with it.
+    int first = getStrictlyAfterIndex(begin);
+    if (first > 0 && end(first - 1) >= begin) {
+      first--;
     }
-    mergeRanges();
+    int last = getStrictlyAfterIndex(end) - 1;
+    if (first <= last) {
+      begin = Math.min(begin, begin(first));
+      end = Math.max(end, end(last));
+    }
+    replaceRanges(first, last + 1, begin, end);
     return true;
   }
 
-  private int getStrictlyAfterIndex(TimePartition part) {
+  private int numRanges() {
+    return ranges.length / 2;
+  }
+
+  private long begin(int ind) {
+    return ranges[2 * ind];
+  }
+
+  private long end(int ind) {
+    return ranges[2 * ind + 1];
+  }
+
+  /**
+   * @param ordinal
+   * @return number of ranges beginning at or before the ordinal
+   */
+  private int getStrictlyAfterIndex(long ordinal) {
     int start = 0;
-    int end = getRanges().size();
+    int end = numRanges();
     int mid;
     while (end - start > 0) {
       mid = (start + end) / 2;
-      if (ranges.get(mid).getBegin().after(part)) {
+      if (begin(mid) > ordinal) {
         end = mid;
       } else {
         start = mid + 1;
@@ -130,36 +128,34 @@ public class RangesPartitionTimeline extends PartitionTimeline {
     return end;
   }
 
-  private void mergeRanges() {
-    for (int i = 0; i < ranges.size() - 1; i++) {
-      if (ranges.get(i).getEnd().equals(ranges.get(i + 1).getBegin())) {
-        TimePartitionRange removed = ranges.remove(i + 1);
-        ranges.get(i).setEnd(removed.getEnd());
-        i--; // check again at same index
-      } else if (ranges.get(i).isEmpty()) {
-        ranges.remove(i);
-        i--;
-      }
-    }
+  /**
+   * Replaces ranges from index {@code from} to index {@code to}, exclusive, with the given begin and end pairs.
+   */
+  private void replaceRanges(int from, int to, long... replacement) {
+    long[] updated = new long[ranges.length - 2 * (to - from) + replacement.length];
+    System.arraycopy(ranges, 0, updated, 0, 2 * from);
+    System.arraycopy(replacement, 0, updated, 2 * from, replacement.length);
+    System.arraycopy(ranges, 2 * to, updated, 2 * from + replacement.length, ranges.length - 2 * to);
+    ranges = updated;
   }
 
   @Override
   public boolean drop(TimePartition toDrop) throws LensException {
-    int ind = getStrictlyAfterIndex(toDrop);
-    if (ind == 0) {
+    long ordinal = toDrop.getOrdinal();
+    int ind = getStrictlyAfterIndex(ordinal);
+    if (ind == 0 || ordinal >= end(ind - 1)) {
       return true; // nothing to do
     }
-    if (ranges.get(ind - 1).getBegin().equals(toDrop)) {
-      ranges.get(ind - 1).setBegin(toDrop.next());
-    } else if (ranges.get(ind - 1).getEnd().previous().equals(toDrop)) {
-      ranges.get(ind - 1).setEnd(toDrop);
+    long begin = begin(ind - 1);
+    long end = end(ind - 1);
+    if (begin == ordinal && end == ordinal + 1) {
+      replaceRanges(ind - 1, ind);
+    } else if (begin == ordinal) {
+      ranges[2 * ind - 2] = ordinal + 1;
+    } else if (end == ordinal + 1) {
+      ranges[2 * ind - 1] = ordinal;
     } else {
-      TimePartition end = ranges.get(ind - 1).getEnd();
-      ranges.get(ind - 1).setEnd(toDrop);
-      ranges.add(ind, toDrop.next().rangeUpto(end));
-    }
-    if (ranges.get(ind - 1).isEmpty()) {
-      ranges.remove(ind - 1);
+      replaceRanges(ind - 1, ind, begin, ordinal, ordinal + 1, end);
     }
     return true;
   }
@@ -170,50 +166,81 @@ public class RangesPartitionTimeline extends PartitionTimeline {
     if (isEmpty()) {
       return null;
     }
-    return ranges.get(ranges.size() - 1).getEnd().previous();
+    return TimePartition.ofOrdinal(getUpdatePeriod(), end(numRanges() - 1) - 1);
   }
 
+  /**
+   * Ranges are written encoded relative to the begin of the first range, which is written as a partition string.
+   *
+   * @see OrdinalRangesEncoding
+   */
   @Override
   public Map<String, String> toProperties() {
     HashMap<String, String> ret = Maps.newHashMap();
-    MetastoreUtil.addNameStrings(ret, "ranges", ranges);
+    long base = isEmpty() ? 0 : begin(0);
+    ret.put(BASE, isEmpty() ? "" : TimePartition.ofOrdinal(getUpdatePeriod(), base).getDateString());
+    MetastoreUtil.addJoinedStrings(ret, ENCODED_RANGES, OrdinalRangesEncoding.encode(base, ranges));
     return ret;
   }
 
+  @Override
+  public RangesPartitionTimeline copy() {
+    RangesPartitionTimeline copy = new RangesPartitionTimeline(getStorageTableName(), getUpdatePeriod(), getPartCol());
+    copy.ranges = ranges.length == 0 ? NO_RANGES : ranges.clone();
+    return copy;
+  }
+
   @Override
   public boolean initFromProperties(Map<String, String> properties) throws LensException {
-    ranges.clear();
+    ranges = NO_RANGES;
+    if (properties.containsKey(BASE)) {
+      String baseStr = properties.get(BASE);
+      if (!Strings.isNullOrEmpty(baseStr)) {
+        long base = TimePartition.of(getUpdatePeriod(), baseStr).getOrdinal();
+        ranges = OrdinalRangesEncoding.decode(base, MetastoreUtil.getNamedStringValue(properties, ENCODED_RANGES));
+      }
+      return isConsistent();
+    }
+    // ranges as comma separated partition strings, as written before encoding was introduced
     String rangesStr = MetastoreUtil.getNamedStringValue(properties, "ranges");
     if (!Strings.isNullOrEmpty(rangesStr)) {
       String[] split = rangesStr.split("\\s*,\\s*");
       if (split.length % 2 == 1) {
         throw new LensException("Ranges incomplete");
       }
+      long[] parsed = new long[split.length];
       for (int i = 0; i < split.length; i += 2) {
-        ranges.add(TimePartitionRange.parseFrom(getUpdatePeriod(), split[i], split[i + 1]));
+        TimePartitionRange range = TimePartitionRange.parseFrom(getUpdatePeriod(), split[i], split[i + 1]);
+        parsed[i] = range.getBegin().getOrdinal();
+        parsed[i + 1] = range.getEnd().getOrdinal();
       }
+      ranges = parsed;
     }
     return isConsistent();
   }
 
+  /**
+   * @return ranges of partition presence, in increasing order
+   */
+  public TimePartitionRangeList getRanges() {
+    TimePartitionRangeList ret = new TimePartitionRangeList();
+    for (int i = 0; i < numRanges(); i++) {
+      ret.add(TimePartitionRange.ofOrdinals(getUpdatePeriod(), begin(i), end(i)));
+    }
+    return ret;
+  }
 
   public boolean isEmpty() {
-    return ranges.isEmpty();
+    return ranges.length == 0;
   }
 
   @Override
   public boolean isConsistent() {
-    if (isEmpty()) {
-      return true;
-    }
-    if (!ranges.get(0).getBegin().before(ranges.get(0).getEnd())) {
-      return false;
-    }
-    for (int i = 0; i < ranges.size() - 1; i++) {
-      if (!ranges.get(i).getEnd().before(ranges.get(i + 1).getBegin())) {
+    for (int i = 0; i < numRanges(); i++) {
+      if (begin(i) >= end(i)) {
         return false;
       }
-      if (!ranges.get(i + 1).getBegin().before(ranges.get(i + 1).getEnd())) {
+      if (i > 0 && end(i - 1) >= begin(i)) {
         return false;
       }
     }
@@ -222,38 +249,53 @@ public class RangesPartitionTimeline extends PartitionTimeline {
 
   @Override
   public boolean exists(TimePartition toCheck) {
-    if (isEmpty()) {
-      return false;
-    }
-    for (TimePartitionRange range : ranges) {
-      if (range.contains(toCheck)) {
-        return true;
+    long ordinal = toCheck.getOrdinal();
+    int ind = getStrictlyAfterIndex(ordinal);
+    return ind > 0 && ordinal < end(ind - 1);
+  }
+
+  @Override
+  public TimePartitionRangeList getCoveredRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList covered = new TimePartitionRangeList();
+    long rangeBegin = range.getBegin().getOrdinal();
+    long rangeEnd = range.getEnd().getOrdinal();
+    // first range which can contain begin of the given range
+    int ind = Math.max(getStrictlyAfterIndex(rangeBegin) - 1, 0);
+    for (; ind < numRanges() && begin(ind) < rangeEnd; ind++) {
+      long begin = Math.max(begin(ind), rangeBegin);
+      long end = Math.min(end(ind), rangeEnd);
+      if (begin < end) {
+        covered.add(TimePartitionRange.ofOrdinals(getUpdatePeriod(), begin, end));
       }
     }
-    return false;
+    return covered;
   }
 
   @Override
   public Iterator<TimePartition> iterator() {
 
     return new Iterator<TimePartition>() {
-      Iterator<TimePartitionRange> uber = ranges.iterator();
-      Iterator<TimePartition> cur = null;
+      int ind = 0;
+      long cur = isEmpty() ? 0 : begin(0);
 
       @Override
       public boolean hasNext() {
-        if (cur == null || !cur.hasNext()) {
-          if (!uber.hasNext()) {
-            return false;
-          }
-          cur = uber.next().iterator();
-        }
-        return cur.hasNext();
+        return ind < numRanges();
       }
 
       @Override
       public TimePartition next() {
-        return cur.next();
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        TimePartition toReturn = TimePartition.ofOrdinal(getUpdatePeriod(), cur++);
+        if (cur == end(ind)) {
+          ind++;
+          if (ind < numRanges()) {
+            cur = begin(ind);
+          }
+        }
+        return toReturn;
       }
 
       @Override
@@ -266,9 +308,14 @@ public class RangesPartitionTimeline extends PartitionTimeline {
 
   public long getTimeCovered() {
     long t = 0;
-    for (TimePartitionRange range : ranges) {
-      t += (range.getEnd().getDate().getTime() - range.getBegin().getDate().getTime());
+    for (int i = 0; i < numRanges(); i++) {
+      t += getUpdatePeriod().fromOrdinal(end(i)).getTime() - getUpdatePeriod().fromOrdinal(begin(i)).getTime();
     }
     return t;
   }
+
+  @Override
+  public String toString() {
+    return "RangesPartitionTimeline(super=" + super.toString() + ", ranges=" + getRanges() + ")";
+  }
 }
@@ -22,6 +22,8 @@ import java.util.*;
 
 import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.metadata.TimePartition;
+import org.apache.lens.cube.metadata.TimePartitionRange;
+import org.apache.lens.cube.metadata.TimePartitionRangeList;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.server.api.error.LensException;
 
@@ -91,6 +93,14 @@ public class StoreAllPartitionTimeline extends PartitionTimeline {
     return ret;
   }
 
+  @Override
+  public StoreAllPartitionTimeline copy() {
+    StoreAllPartitionTimeline copy = new StoreAllPartitionTimeline(getStorageTableName(), getUpdatePeriod(),
+      getPartCol());
+    copy.allPartitions = new TreeSet<TimePartition>(allPartitions);
+    return copy;
+  }
+
   @Override
   public boolean isEmpty() {
     return allPartitions.isEmpty();
@@ -106,6 +116,19 @@ public class StoreAllPartitionTimeline extends PartitionTimeline {
     return allPartitions.contains(partition);
   }
 
+  @Override
+  public TimePartitionRangeList getCoveredRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList covered = new TimePartitionRangeList();
+    for (TimePartition partition : allPartitions.subSet(range.getBegin(), true, range.getEnd(), false)) {
+      if (!covered.isEmpty() && covered.last().getEnd().equals(partition)) {
+        covered.last().setEnd(partition.next());
+      } else {
+        covered.add(partition.singletonRange());
+      }
+    }
+    return covered;
+  }
+
   @Override
   public Iterator<TimePartition> iterator() {
     return getAllPartitions().iterator();
@@ -96,6 +96,8 @@ public final class CubeQueryConfUtil {
   public static final String DISABLE_AUTO_JOINS = "lens.cube.query.disable.auto.join";
   public static final boolean DEFAULT_DISABLE_AUTO_JOINS = true;
   public static final String JOIN_TYPE_KEY = "lens.cube.query.join.type";
+  public static final String JOIN_PATH_SEARCH_BUDGET = "lens.cube.query.join.path.search.budget";
+  public static final long DEFAULT_JOIN_PATH_SEARCH_BUDGET = 100000;
   public static final String DISABLE_AGGREGATE_RESOLVER = "lens.cube.query.disable.aggregate.resolver";
   public static final boolean DEFAULT_DISABLE_AGGREGATE_RESOLVER = true;
   public static final String LIGHTEST_FACT_FIRST = "lens.cube.query.pick.lightest.fact.first";
@@ -104,4 +106,10 @@ public final class CubeQueryConfUtil {
   public static final Class<? extends TimeRangeWriter> DEFAULT_TIME_RANGE_WRITER = ORTimeRangeWriter.class
     .asSubclass(TimeRangeWriter.class);
   public static final String PART_WHERE_CLAUSE_DATE_FORMAT = "lens.cube.query.partition.where.clause.format";
+  public static final String ENABLE_REWRITE_CACHE = "lens.cube.query.rewrite.cache.enabled";
+  public static final boolean DEFAULT_ENABLE_REWRITE_CACHE = true;
+  public static final String REWRITE_CACHE_SIZE = "lens.cube.query.rewrite.cache.size";
+  public static final int DEFAULT_REWRITE_CACHE_SIZE = 1000;
+  public static final String REWRITE_CACHE_EXPIRY_SECS = "lens.cube.query.rewrite.cache.expiry.secs";
+  public static final long DEFAULT_REWRITE_CACHE_EXPIRY_SECS = 600;
 }
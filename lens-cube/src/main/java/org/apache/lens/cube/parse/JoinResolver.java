@@ -26,6 +26,7 @@ import org.apache.lens.cube.metadata.*;
 import org.apache.lens.cube.metadata.SchemaGraph.TableRelationship;
 import org.apache.lens.cube.parse.CandidateTablePruneCause.CandidateTablePruneCode;
 import org.apache.lens.cube.parse.CubeQueryContext.OptionalDimCtx;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -35,6 +36,8 @@ import org.apache.hadoop.hive.ql.ErrorMsg;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.*;
 
+import com.codahale.metrics.MetricRegistry;
+
 import lombok.*;
 
 /**
@@ -44,6 +47,12 @@ class JoinResolver implements ContextRewriter {
 
   private static final Log LOG = LogFactory.getLog(JoinResolver.class);
 
+  /** Histogram of partial join clauses explored while searching for the min cost join clause. */
+  public static final String JOIN_PATHS_EXPLORED = "join-paths-explored";
+
+  /** Histogram of partial join clauses pruned while searching for the min cost join clause. */
+  public static final String JOIN_PATHS_PRUNED = "join-paths-pruned";
+
   @ToString
   public static class JoinClause implements Comparable<JoinClause> {
     private final int cost;
@@ -289,6 +298,144 @@ class JoinResolver implements ContextRewriter {
     }
   }
 
+  /**
+   * Branch and bound search for the min cost selection of one join path per dimension. Cost of a selection is the
+   * number of edges in the join tree merged from the selected paths, which is the number of distinct prefixes of the
+   * paths from the target. Paths are picked for one dimension at a time, in the given order of dimensions and paths,
+   * and a partial selection is pruned when its lower bound can't beat the cheapest selection found so far, so the
+   * selection found is the first min cost selection of the cartesian product, same as costing the whole product.
+   * <p/>
+   * Once the exploration budget is spent, the search stops at the cheapest selection found so far, or completes the
+   * current selection greedily if none is found yet.
+   */
+  static class JoinPathSearch {
+    // ids of join tree nodes on each path of each dimension
+    private final int[][][] pathNodes;
+    // number of selected paths passing through each node
+    private final int[] nodeUsage;
+    private final int[] selection;
+    private int[] bestSelection;
+    private int cost;
+    private int bestCost = Integer.MAX_VALUE;
+    private final long budget;
+    long explored;
+    long pruned;
+
+    JoinPathSearch(List<List<SchemaGraph.JoinPath>> pathSets, long budget) {
+      this.budget = budget;
+      Map<List<TableRelationship>, Integer> nodeIds = new HashMap<List<TableRelationship>, Integer>();
+      pathNodes = new int[pathSets.size()][][];
+      for (int dim = 0; dim < pathNodes.length; dim++) {
+        List<SchemaGraph.JoinPath> paths = pathSets.get(dim);
+        pathNodes[dim] = new int[paths.size()][];
+        for (int p = 0; p < paths.size(); p++) {
+          // Last element in the edges is link from target, so a node is identified by a suffix of the edges
+          List<TableRelationship> edges = paths.get(p).getEdges();
+          int[] nodes = new int[edges.size()];
+          for (int i = 0; i < edges.size(); i++) {
+            List<TableRelationship> node = edges.subList(i, edges.size());
+            Integer id = nodeIds.get(node);
+            if (id == null) {
+              id = nodeIds.size();
+              nodeIds.put(new ArrayList<TableRelationship>(node), id);
+            }
+            nodes[i] = id;
+          }
+          pathNodes[dim][p] = nodes;
+        }
+      }
+      nodeUsage = new int[nodeIds.size()];
+      selection = new int[pathNodes.length];
+    }
+
+    /**
+     * @return index of the selected path for each dimension, null if some dimension has no paths
+     */
+    int[] search() {
+      search(0);
+      return bestSelection;
+    }
+
+    private void search(int dim) {
+      if (dim == pathNodes.length) {
+        if (cost < bestCost) {
+          bestCost = cost;
+          bestSelection = selection.clone();
+        }
+        return;
+      }
+      if (explored >= budget) {
+        if (bestSelection == null && pathNodes[dim].length > 0) {
+          int p = cheapestPath(dim);
+          select(dim, p);
+          search(dim + 1);
+          deselect(dim, p);
+        }
+        return;
+      }
+      for (int p = 0; p < pathNodes[dim].length && (explored < budget || bestSelection == null); p++) {
+        explored++;
+        select(dim, p);
+        if (lowerBound(dim + 1) < bestCost) {
+          search(dim + 1);
+        } else {
+          pruned++;
+        }
+        deselect(dim, p);
+      }
+    }
+
+    private void select(int dim, int p) {
+      selection[dim] = p;
+      for (int node : pathNodes[dim][p]) {
+        if (nodeUsage[node]++ == 0) {
+          cost++;
+        }
+      }
+    }
+
+    private void deselect(int dim, int p) {
+      for (int node : pathNodes[dim][p]) {
+        if (--nodeUsage[node] == 0) {
+          cost--;
+        }
+      }
+    }
+
+    private int newNodes(int dim, int p) {
+      int count = 0;
+      for (int node : pathNodes[dim][p]) {
+        if (nodeUsage[node] == 0) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private int cheapestPath(int dim) {
+      int cheapest = 0;
+      for (int p = 1; p < pathNodes[dim].length; p++) {
+        if (newNodes(dim, p) < newNodes(dim, cheapest)) {
+          cheapest = p;
+        }
+      }
+      return cheapest;
+    }
+
+    // Each remaining dimension adds at least the fewest new nodes among its paths. Dimensions can share the nodes
+    // they add, so only the largest of them is a safe bound.
+    private int lowerBound(int fromDim) {
+      int maxNewNodes = 0;
+      for (int dim = fromDim; dim < pathNodes.length; dim++) {
+        if (pathNodes[dim].length == 0) {
+          return Integer.MAX_VALUE;
+        }
+        maxNewNodes = Math.max(maxNewNodes, newNodes(dim, cheapestPath(dim)));
+      }
+      return cost + maxNewNodes;
+    }
+  }
+
   /**
    * Store join chain information resolved by join resolver
    */
@@ -740,10 +887,13 @@ class JoinResolver implements ContextRewriter {
 
     /**
      * There can be multiple join paths between a dimension and the target. Set of all possible join clauses is the
-     * cartesian product of join paths of all dimensions
+     * cartesian product of join paths of all dimensions. Instead of costing every element of the product, the product
+     * is searched with branch and bound, see {@link JoinPathSearch}.
+     *
+     * @return the min cost join clause
      */
-    private Iterator<JoinClause> getJoinClausesForAllPaths(final CandidateFact fact,
-      final Set<Dimension> qdims, final CubeQueryContext cubeql) {
+    private JoinClause getMinCostJoinClause(final CandidateFact fact, final Set<Dimension> qdims,
+      final CubeQueryContext cubeql) {
       Map<Aliased<Dimension>, List<SchemaGraph.JoinPath>> allPaths;
       // if fact is passed only look at paths possible from fact to dims
       if (fact != null) {
@@ -752,68 +902,39 @@ class JoinResolver implements ContextRewriter {
         allPaths = new LinkedHashMap<Aliased<Dimension>, List<SchemaGraph.JoinPath>>(this.allPaths);
       }
       // prune allPaths with qdims
-      LOG.info("pruning allPaths before generating all permutations.");
+      LOG.info("pruning allPaths before searching join paths.");
       LOG.info("allPaths: " + allPaths);
       LOG.info("qdims: " + qdims);
       pruneAllPathsWithQueriedDims(allPaths, qdims);
 
-      // Number of paths in each path set
-      final int[] groupSizes = new int[allPaths.values().size()];
-      // Total number of elements in the cartesian product
-      int numSamples = 1;
       // All path sets
-      final List<List<SchemaGraph.JoinPath>> pathSets = new ArrayList<List<SchemaGraph.JoinPath>>();
+      List<List<SchemaGraph.JoinPath>> pathSets = new ArrayList<List<SchemaGraph.JoinPath>>(allPaths.size());
       // Dimension corresponding to the path sets
-      final List<Aliased<Dimension>> dimensions = new ArrayList<Aliased<Dimension>>(groupSizes.length);
-
-      int i = 0;
+      List<Aliased<Dimension>> dimensions = new ArrayList<Aliased<Dimension>>(allPaths.size());
       for (Map.Entry<Aliased<Dimension>, List<SchemaGraph.JoinPath>> entry : allPaths.entrySet()) {
         dimensions.add(entry.getKey());
-        List<SchemaGraph.JoinPath> group = entry.getValue();
-        pathSets.add(group);
-        groupSizes[i] = group.size();
-        numSamples *= groupSizes[i];
-        i++;
+        pathSets.add(entry.getValue());
       }
 
-      final int[] selection = new int[groupSizes.length];
-      final int MAX_SAMPLE_COUNT = numSamples;
-
-      // Return a lazy iterator over all possible join chains
-      return new Iterator<JoinClause>() {
-        int sample = 0;
-
-        @Override
-        public boolean hasNext() {
-          return sample < MAX_SAMPLE_COUNT;
-        }
-
-        @Override
-        public JoinClause next() {
-          Map<Aliased<Dimension>, List<TableRelationship>> chain
-            = new LinkedHashMap<Aliased<Dimension>, List<TableRelationship>>();
-          //generate next permutation.
-          for (int i = groupSizes.length - 1, base = sample; i >= 0; base /= groupSizes[i], i--) {
-            selection[i] = base % groupSizes[i];
-          }
-          for (int i = 0; i < selection.length; i++) {
-            int selectedPath = selection[i];
-            List<TableRelationship> path = pathSets.get(i).get(selectedPath).getEdges();
-            chain.put(dimensions.get(i), path);
-          }
-
-          Set<Dimension> dimsOnPath = getDimsOnPath(chain, qdims);
-
-          sample++;
-          // Cost of join = number of tables joined in the clause
-          return new JoinClause(cubeql, chain, dimsOnPath);
-        }
-
-        @Override
-        public void remove() {
-          throw new UnsupportedOperationException("Cannot remove elements!");
-        }
-      };
+      JoinPathSearch search = new JoinPathSearch(pathSets, cubeql.getConf().getLong(
+        CubeQueryConfUtil.JOIN_PATH_SEARCH_BUDGET, CubeQueryConfUtil.DEFAULT_JOIN_PATH_SEARCH_BUDGET));
+      int[] selection = search.search();
+      if (selection == null) {
+        return null;
+      }
+      LOG.info("Join path search explored " + search.explored + " and pruned " + search.pruned
+        + " partial join clauses");
+      MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+      registry.histogram(MetricRegistry.name(JoinResolver.class, JOIN_PATHS_EXPLORED)).update(search.explored);
+      registry.histogram(MetricRegistry.name(JoinResolver.class, JOIN_PATHS_PRUNED)).update(search.pruned);
+
+      Map<Aliased<Dimension>, List<TableRelationship>> chain
+        = new LinkedHashMap<Aliased<Dimension>, List<TableRelationship>>();
+      for (int i = 0; i < selection.length; i++) {
+        chain.put(dimensions.get(i), pathSets.get(i).get(selection[i]).getEdges());
+      }
+      // Cost of join = number of tables joined in the clause
+      return new JoinClause(cubeql, chain, getDimsOnPath(chain, qdims));
     }
 
     /**
@@ -842,14 +963,7 @@ class JoinResolver implements ContextRewriter {
         return joiningOptionalTables;
       }
       // find least cost path
-      Iterator<JoinClause> itr = getJoinClausesForAllPaths(fact, qdims, cubeql);
-      JoinClause minCostClause = null;
-      while (itr.hasNext()) {
-        JoinClause clause = itr.next();
-        if (minCostClause == null || minCostClause.getCost() > clause.getCost()) {
-          minCostClause = clause;
-        }
-      }
+      JoinClause minCostClause = getMinCostJoinClause(fact, qdims, cubeql);
 
       if (minCostClause == null) {
         throw new SemanticException(ErrorMsg.NO_JOIN_PATH, qdims.toString(), autoJoinTarget.getName());
@@ -1037,11 +1151,10 @@ class JoinResolver implements ContextRewriter {
     for (Dimension joinee : dimTables) {
       if (dimensionInJoinChain.get(joinee) == null) {
         // Find all possible join paths
-        SchemaGraph.GraphSearch search = new SchemaGraph.GraphSearch(joinee, target, graph);
-        List<SchemaGraph.JoinPath> joinPaths = search.findAllPathsToTarget();
+        List<SchemaGraph.JoinPath> joinPaths = graph.getJoinPaths(joinee, target);
         if (joinPaths != null && !joinPaths.isEmpty()) {
           Aliased<Dimension> aliasedJoinee = Aliased.create(joinee);
-          multipleJoinPaths.put(aliasedJoinee, new ArrayList<SchemaGraph.JoinPath>(search.findAllPathsToTarget()));
+          multipleJoinPaths.put(aliasedJoinee, new ArrayList<SchemaGraph.JoinPath>(joinPaths));
           addOptionalTables(cubeql, multipleJoinPaths.get(aliasedJoinee), cubeql.getDimensions().contains(joinee));
         } else {
           // No link to cube from this dim, can't proceed with query
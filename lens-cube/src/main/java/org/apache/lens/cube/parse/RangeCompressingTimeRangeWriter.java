@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.parse;
+
+import java.util.*;
+
+import org.apache.lens.cube.metadata.FactPartition;
+import org.apache.lens.cube.metadata.MetastoreUtil;
+import org.apache.lens.cube.metadata.UpdatePeriod;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Writes timerange partitions as ranges. Partitions of the same part column and update period are sorted, and each run
+ * of consecutive partitions is written as a BETWEEN clause, while the partitions not in any run go to an IN clause. A
+ * run is written as BETWEEN only if that is shorter than listing its partitions in the IN clause, so sparse partitions
+ * end up in the IN clause. Partitions having containing parts are written as in
+ * {@link org.apache.lens.cube.parse.ORTimeRangeWriter}.
+ * <p/>
+ * Partitions of all the update periods of a storage table share the part column, and values of finer periods sort in
+ * between those of coarser ones, like '2015-01-02-07' between '2015-01-01' and '2015-01-05'. So runs are written as
+ * BETWEEN only for storage tables having a single update period, and as IN otherwise.
+ * <p/>
+ * The number of characters saved over the clause written by ORTimeRangeWriter is reported in the histogram
+ * {@link #PREDICATE_CHARS_SAVED}.
+ */
+public class RangeCompressingTimeRangeWriter implements TimeRangeWriter {
+
+  public static final String PREDICATE_CHARS_SAVED = "time-range-predicate-chars-saved";
+
+  private static final String OR = " OR ";
+
+  @Override
+  public String getTimeRangeWhereClause(CubeQueryContext cubeQueryContext, String tableName,
+    Set<FactPartition> rangeParts) {
+    if (rangeParts.size() == 0) {
+      return "";
+    }
+    List<String> clauses = new ArrayList<String>();
+    // length of the clause ORTimeRangeWriter would write
+    long orLength = OR.length() * (rangeParts.size() - 1);
+    Map<String, Map<UpdatePeriod, List<FactPartition>>> groups
+      = new TreeMap<String, Map<UpdatePeriod, List<FactPartition>>>();
+    for (FactPartition part : rangeParts) {
+      if (part.hasContainingPart()) {
+        String filter = "(" + TimeRangeUtils.getTimeRangePartitionFilter(part, cubeQueryContext, tableName) + ")";
+        clauses.add(filter);
+        orLength += filter.length();
+        continue;
+      }
+      Map<UpdatePeriod, List<FactPartition>> periodParts = groups.get(part.getPartCol());
+      if (periodParts == null) {
+        periodParts = new TreeMap<UpdatePeriod, List<FactPartition>>();
+        groups.put(part.getPartCol(), periodParts);
+      }
+      List<FactPartition> parts = periodParts.get(part.getPeriod());
+      if (parts == null) {
+        parts = new ArrayList<FactPartition>();
+        periodParts.put(part.getPeriod(), parts);
+      }
+      parts.add(part);
+    }
+    for (Map.Entry<String, Map<UpdatePeriod, List<FactPartition>>> entry : groups.entrySet()) {
+      String column = getColumn(cubeQueryContext, tableName, entry.getKey());
+      for (List<FactPartition> parts : entry.getValue().values()) {
+        orLength += addClauses(column, parts, hasSingleUpdatePeriod(cubeQueryContext, parts), clauses);
+      }
+    }
+    String whereClause = StringUtils.join(clauses, OR);
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    registry.histogram(MetricRegistry.name(RangeCompressingTimeRangeWriter.class, PREDICATE_CHARS_SAVED))
+      .update(orLength - whereClause.length());
+    return whereClause;
+  }
+
+  /**
+   * Adds clauses for partitions of one part column and update period.
+   *
+   * @param column       qualified column to filter on
+   * @param parts        partitions
+   * @param allowBetween whether runs of partitions can be written as BETWEEN
+   * @param clauses      clauses to add to
+   * @return length of the equality filters ORTimeRangeWriter would write for the partitions, without separators
+   */
+  private long addClauses(String column, List<FactPartition> parts, boolean allowBetween, List<String> clauses) {
+    Collections.sort(parts);
+    UpdatePeriod period = parts.get(0).getPeriod();
+    // "(" + column + " = '" + spec + "')" for each partition
+    long orLength = (column.length() + 7) * parts.size();
+    List<String> inValues = new ArrayList<String>();
+    int begin = 0;
+    while (begin < parts.size()) {
+      int end = begin + 1;
+      while (end < parts.size()
+        && period.toOrdinal(parts.get(end).getPartSpec()) == period.toOrdinal(parts.get(end - 1).getPartSpec()) + 1) {
+        end++;
+      }
+      List<String> values = new ArrayList<String>(end - begin);
+      int inLength = 0;
+      for (int i = begin; i < end; i++) {
+        String value = "'" + parts.get(i).getFormattedPartSpec() + "'";
+        values.add(value);
+        inLength += value.length() + 1;
+        orLength += value.length() - 2;
+      }
+      String between = "(" + column + " BETWEEN " + values.get(0) + " AND " + values.get(values.size() - 1) + ")";
+      if (allowBetween && values.size() > 1 && between.length() + OR.length() < inLength) {
+        clauses.add(between);
+      } else {
+        inValues.addAll(values);
+      }
+      begin = end;
+    }
+    if (inValues.size() == 1) {
+      clauses.add("(" + column + " = " + inValues.get(0) + ")");
+    } else if (inValues.size() > 1) {
+      clauses.add("(" + column + " IN (" + StringUtils.join(inValues, ",") + "))");
+    }
+    return orLength;
+  }
+
+  /**
+   * Whether all the storage tables of the partitions are known to have just one update period, so that the part column
+   * doesn't have values of other periods.
+   */
+  private boolean hasSingleUpdatePeriod(CubeQueryContext cubeQueryContext, List<FactPartition> parts) {
+    Set<String> storageTables = new HashSet<String>();
+    for (FactPartition part : parts) {
+      if (part.getStorageTables().isEmpty()) {
+        return false;
+      }
+      storageTables.addAll(part.getStorageTables());
+    }
+    for (String storageTable : storageTables) {
+      Set<UpdatePeriod> periods = getStorageUpdatePeriods(cubeQueryContext, storageTable);
+      if (periods == null || periods.size() != 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the update periods of the storage table, from the candidate facts of the query.
+   *
+   * @param cubeQueryContext the query context
+   * @param storageTable     the storage table
+   * @return the update periods, null if not known
+   */
+  protected Set<UpdatePeriod> getStorageUpdatePeriods(CubeQueryContext cubeQueryContext, String storageTable) {
+    if (cubeQueryContext == null) {
+      return null;
+    }
+    for (CandidateFact cfact : cubeQueryContext.getCandidateFacts()) {
+      Map<String, Set<UpdatePeriod>> updatePeriods = cfact.fact.getUpdatePeriods();
+      if (updatePeriods == null) {
+        continue;
+      }
+      for (Map.Entry<String, Set<UpdatePeriod>> entry : updatePeriods.entrySet()) {
+        if (MetastoreUtil.getFactStorageTableName(cfact.fact.getName(), entry.getKey())
+          .equalsIgnoreCase(storageTable)) {
+          return entry.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String getColumn(CubeQueryContext cubeQueryContext, String tableName, String partCol) {
+    String column = partCol;
+    if (cubeQueryContext != null && !cubeQueryContext.shouldReplaceTimeDimWithPart()) {
+      column = cubeQueryContext.getTimeDimOfPartitionColumn(partCol);
+    }
+    return tableName == null ? column : tableName + "." + column;
+  }
+}
@@ -166,6 +166,7 @@ class StorageTableResolver implements ContextRewriter {
       if (dimTables == null || dimTables.isEmpty()) {
         continue;
       }
+      Set<String> tablesWithLatestPart = getDimTablesWithLatestPartitions(dim, dimTables);
       Iterator<CandidateDim> i = dimTables.iterator();
       while (i.hasNext()) {
         CandidateDim candidate = i.next();
@@ -191,7 +192,7 @@ class StorageTableResolver implements ContextRewriter {
 
             if (dimtable.hasStorageSnapshots(storage)) {
               // check if partition exists
-              foundPart = client.dimTableLatestPartitionExists(tableName);
+              foundPart = tablesWithLatestPart.contains(tableName);
               if (foundPart) {
                 LOG.info("Adding existing partition" + StorageConstants.LATEST_PARTITION_VALUE);
               } else {
@@ -232,6 +233,28 @@ class StorageTableResolver implements ContextRewriter {
     }
   }
 
+  /** look up latest partitions of all snapshot storage tables of the candidate dim tables together */
+  private Set<String> getDimTablesWithLatestPartitions(Dimension dim, Set<CandidateDim> dimTables)
+    throws SemanticException {
+    List<String> snapshotTables = new ArrayList<String>();
+    for (CandidateDim candidate : dimTables) {
+      CubeDimensionTable dimtable = candidate.dimtable;
+      for (String storage : dimtable.getStorages()) {
+        if (isStorageSupported(storage) && dimtable.hasStorageSnapshots(storage)) {
+          snapshotTables.add(MetastoreUtil.getDimStorageTableName(dimtable.getName(), storage));
+        }
+      }
+    }
+    if (snapshotTables.isEmpty()) {
+      return Collections.emptySet();
+    }
+    try {
+      return client.getDimTablesWithLatestPartitions(snapshotTables, dim.getTimedDimension());
+    } catch (HiveException e) {
+      throw new SemanticException(e);
+    }
+  }
+
   // Resolves all the storage table names, which are valid for each updatePeriod
   private void resolveFactStorageTableNames(CubeQueryContext cubeql) throws SemanticException {
     Iterator<CandidateFact> i = cubeql.getCandidateFacts().iterator();
@@ -565,6 +588,18 @@ class StorageTableResolver implements ContextRewriter {
     int lookAheadNumParts =
       conf.getInt(CubeQueryConfUtil.getLookAheadPTPartsKey(interval), CubeQueryConfUtil.DEFAULT_LOOK_AHEAD_PT_PARTS);
 
+    // Existing partitions of each storage table are looked up once for the whole range, as ranges from the
+    // partition timelines. Partitions in the range are then checked against the ranges, without any lookups.
+    Map<String, TimePartitionRangeList> coveredRanges = new LinkedHashMap<String, TimePartitionRangeList>();
+    if (ceilFromDate.before(floorToDate)) {
+      LOG.info("candidate storage tables for searching partitions: " + storageTbls);
+      for (String storageTableName : storageTbls) {
+        coveredRanges.put(storageTableName,
+          client.getFactPartitionRanges(fact, storageTableName, interval, partCol, ceilFromDate, floorToDate));
+      }
+      LOG.info("Existing partition ranges in storage tables: " + coveredRanges);
+    }
+
     TimeRange.Iterable.Iterator iter = TimeRange.iterable(ceilFromDate, floorToDate, interval, 1)
       .iterator();
     // add partitions from ceilFrom to floorTo
@@ -572,22 +607,24 @@ class StorageTableResolver implements ContextRewriter {
       Date dt = iter.next();
       Date nextDt = iter.peekNext();
       FactPartition part = new FactPartition(partCol, dt, interval, null, partWhereClauseFormat);
-      LOG.info("candidate storage tables for searching partitions: " + storageTbls);
-      updateFactPartitionStorageTablesFrom(fact, part, storageTbls);
-      LOG.info("Storage tables containing Partition " + part + " are: " + part.getStorageTables());
+      for (Map.Entry<String, TimePartitionRangeList> entry : coveredRanges.entrySet()) {
+        if (entry.getValue().contains(dt)) {
+          part.getStorageTables().add(entry.getKey());
+          part.setFound(true);
+        }
+      }
       if (part.isFound()) {
-        LOG.info("Adding existing partition" + part);
+        LOG.debug("Adding existing partition" + part);
         partitions.add(part);
-        LOG.info("Looking for look ahead process time partitions for " + part);
         if (processTimePartCol == null) {
-          LOG.info("processTimePartCol is null");
+          LOG.debug("processTimePartCol is null");
         } else if (partCol.equals(processTimePartCol)) {
-          LOG.info("part column is process time col");
+          LOG.debug("part column is process time col");
         } else if (updatePeriods.first().equals(interval)) {
-          LOG.info("Update period is the least update period");
+          LOG.debug("Update period is the least update period");
         } else if ((iter.getNumIters() - iter.getCounter()) > lookAheadNumParts) {
           // see if this is the part of the last-n look ahead partitions
-          LOG.info("Not a look ahead partition");
+          LOG.debug("Not a look ahead partition");
         } else {
           LOG.info("Looking for look ahead process time partitions for " + part);
           // check if finer partitions are required
@@ -637,7 +674,7 @@ class StorageTableResolver implements ContextRewriter {
           }
         }
       } else {
-        LOG.info("Partition:" + part + " does not exist in any storage table");
+        LOG.debug("Partition:" + part + " does not exist in any storage table");
         TreeSet<UpdatePeriod> newset = new TreeSet<UpdatePeriod>();
         newset.addAll(updatePeriods);
         newset.remove(interval);
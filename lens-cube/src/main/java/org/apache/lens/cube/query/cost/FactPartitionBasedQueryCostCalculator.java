@@ -37,6 +37,12 @@ public class FactPartitionBasedQueryCostCalculator implements QueryCostCalculato
 
   public static final String UPDATE_PERIOD_WEIGHT_PREFIX = "update.period.weight.";
 
+  /**
+   * Weight of the driver, by which costs are multiplied. Drivers with a lower weight are preferred when they read the
+   * same partitions as others.
+   */
+  public static final String DRIVER_COST_WEIGHT = "driver.cost.weight";
+
   /**
    * Calculates total cost based on weights of selected tables and their selected partitions
    *
@@ -86,7 +92,8 @@ public class FactPartitionBasedQueryCostCalculator implements QueryCostCalculato
 
   @Override
   public QueryCost calculateCost(final AbstractQueryContext queryContext, LensDriver driver) throws LensException {
-    return new FactPartitionBasedQueryCost(getTotalPartitionCost(queryContext, driver));
+    return new FactPartitionBasedQueryCost(getTotalPartitionCost(queryContext, driver)
+      * driver.getConf().getDouble(DRIVER_COST_WEIGHT, 1));
   }
 
   public Map<String, Set<?>> getAllPartitions(AbstractQueryContext queryContext, LensDriver driver) {
@@ -19,15 +19,33 @@
 package org.apache.lens.driver.cube;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.lens.cube.metadata.CubeDimensionTable;
+import org.apache.lens.cube.metadata.CubeFactTable;
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.cube.metadata.Dimension;
+import org.apache.lens.cube.metadata.MetastoreUtil;
+import org.apache.lens.cube.parse.CandidateDim;
+import org.apache.lens.cube.parse.CandidateFact;
+import org.apache.lens.cube.parse.CubeQueryConfUtil;
 import org.apache.lens.cube.parse.CubeQueryContext;
 import org.apache.lens.cube.parse.CubeQueryRewriter;
 import org.apache.lens.cube.parse.HQLParser;
+import org.apache.lens.cube.parse.PruneCauses;
 import org.apache.lens.server.api.driver.DriverQueryPlan;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.error.LensException;
@@ -40,8 +58,15 @@ import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
 import org.apache.hadoop.hive.ql.parse.HiveParser;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.log4j.Logger;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
 /**
@@ -208,8 +233,287 @@ public final class RewriteUtil {
     return query.replaceAll("[\\n\\r]", " ").replaceAll("&&", " AND ").replaceAll("\\|\\|", " OR ").trim();
   }
 
+  /** Relative time ranges in queries, whose rewrites change with time and cannot be cached. */
+  private static final Pattern RELATIVE_TIME_PATTERN = Pattern.compile("['\"]\\s*now", Pattern.CASE_INSENSITIVE);
+
+  /** Cube conf keys which change the rewritten query. */
+  private static final String CUBE_QUERY_CONF_REGEX = "^lens\\.cube\\.query\\..*";
+
+  /** Rewritten queries and plans, sized from the defaults till initialized from the server conf. */
+  private static volatile Cache<RewriteCacheKey, CachedRewrite> rewriteCache =
+    buildRewriteCache(new Configuration(false));
+
+  /**
+   * Key of a cached rewrite. Rewrites are cached for the whole user query, so the key is made of everything the
+   * rewrite depends on other than the metastore: the driver, the current database, the cube query conf and the parsed
+   * user query.
+   */
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static final class RewriteCacheKey {
+    private final LensDriver driver;
+    private final String database;
+    private final Map<String, String> cubeConf;
+    private final String queryTree;
+  }
+
+  /**
+   * Rewritten query along with the rewriter plan, and the versions of the tables read by the rewrite. Alterations of
+   * the tables or their partitions through this server make the cached rewrite stale. Alterations through other
+   * servers or outside lens are seen only once the cached rewrite expires.
+   */
+  @AllArgsConstructor
+  private static final class CachedRewrite {
+    private final String rewrittenQuery;
+    private final DriverQueryPlan plan;
+    private final Map<String, Long> tableVersions;
+
+    boolean isCurrent() {
+      for (Map.Entry<String, Long> entry : tableVersions.entrySet()) {
+        if (CubeMetastoreClient.getTableVersion(entry.getKey()) != entry.getValue()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Initializes the cache of rewritten queries with the size and expiry in the given server conf, dropping cached
+   * rewrites. Size and expiry in query confs aren't used.
+   *
+   * @param conf the server conf
+   */
+  public static void initRewriteCache(Configuration conf) {
+    rewriteCache = buildRewriteCache(conf);
+  }
+
+  private static Cache<RewriteCacheKey, CachedRewrite> buildRewriteCache(Configuration conf) {
+    return CacheBuilder.newBuilder()
+      .maximumSize(conf.getInt(CubeQueryConfUtil.REWRITE_CACHE_SIZE, CubeQueryConfUtil.DEFAULT_REWRITE_CACHE_SIZE))
+      .expireAfterWrite(conf.getLong(CubeQueryConfUtil.REWRITE_CACHE_EXPIRY_SECS,
+        CubeQueryConfUtil.DEFAULT_REWRITE_CACHE_EXPIRY_SECS), TimeUnit.SECONDS)
+      .build();
+  }
+
+  /**
+   * Gets the key for caching the rewrite of the user query, or null if the rewrite cannot be cached.
+   *
+   * @param driver        the driver
+   * @param conf          the driver conf of the query
+   * @param cubeQueries   the cube queries in the user query
+   * @param replacedQuery the user query
+   * @return the cache key
+   */
+  private static RewriteCacheKey getRewriteCacheKey(LensDriver driver, Configuration conf,
+    List<CubeQueryInfo> cubeQueries, String replacedQuery) {
+    if (cubeQueries.isEmpty()
+      || !conf.getBoolean(CubeQueryConfUtil.ENABLE_REWRITE_CACHE, CubeQueryConfUtil.DEFAULT_ENABLE_REWRITE_CACHE)
+      || RELATIVE_TIME_PATTERN.matcher(replacedQuery).find()) {
+      return null;
+    }
+    ASTNode root = cubeQueries.get(0).cubeAST;
+    while (root.getParent() != null) {
+      root = (ASTNode) root.getParent();
+    }
+    String database = SessionState.get() == null ? null : SessionState.get().getCurrentDatabase();
+    return new RewriteCacheKey(driver, database, new TreeMap<String, String>(conf.getValByRegex(CUBE_QUERY_CONF_REGEX)),
+      root.toStringTree());
+  }
+
+  /**
+   * Gets the versions of the tables read while rewriting the cube queries: the cubes and dimensions queried, the fact
+   * and dimension tables considered for them, and the storage tables of these.
+   *
+   * @param database              the current database
+   * @param cubeQueryCtx          the contexts of the rewritten cube queries
+   * @param versionBeforeRewrite  the metastore version read before the rewrite
+   * @return the table versions, or null if a table changed during the rewrite
+   */
+  private static Map<String, Long> getTableVersions(String database, List<CubeQueryContext> cubeQueryCtx,
+    long versionBeforeRewrite) {
+    Set<String> tables = new HashSet<String>();
+    for (CubeQueryContext cqc : cubeQueryCtx) {
+      if (cqc.getCube() != null) {
+        tables.add(cqc.getCube().getName());
+      }
+      for (Dimension dim : cqc.getDimensions()) {
+        tables.add(dim.getName());
+      }
+      Set<CubeFactTable> facts = new HashSet<CubeFactTable>(cqc.getFactPruningMsgs().keySet());
+      for (CandidateFact cfact : cqc.getCandidateFacts()) {
+        facts.add(cfact.getTable());
+      }
+      if (cqc.getPickedFacts() != null) {
+        for (CandidateFact cfact : cqc.getPickedFacts()) {
+          facts.add(cfact.getTable());
+        }
+      }
+      for (CubeFactTable fact : facts) {
+        tables.add(fact.getName());
+        for (String storage : fact.getStorages()) {
+          tables.add(MetastoreUtil.getFactStorageTableName(fact.getName(), storage));
+        }
+      }
+      Set<CubeDimensionTable> dimTables = new HashSet<CubeDimensionTable>();
+      for (PruneCauses<CubeDimensionTable> pruned : cqc.getDimPruningMsgs().values()) {
+        dimTables.addAll(pruned.keySet());
+      }
+      for (Set<CandidateDim> cdims : cqc.getCandidateDims().values()) {
+        for (CandidateDim cdim : cdims) {
+          dimTables.add(cdim.getTable());
+        }
+      }
+      if (cqc.getPickedDimTables() != null) {
+        for (CandidateDim cdim : cqc.getPickedDimTables()) {
+          dimTables.add(cdim.getTable());
+        }
+      }
+      for (CubeDimensionTable dimTable : dimTables) {
+        tables.add(dimTable.getName());
+        for (String storage : dimTable.getStorages()) {
+          tables.add(MetastoreUtil.getDimStorageTableName(dimTable.getName(), storage));
+        }
+      }
+    }
+    String prefix = (database == null ? "default" : database) + ".";
+    Map<String, Long> tableVersions = new HashMap<String, Long>();
+    for (String table : tables) {
+      String qualifiedName = (prefix + table).toLowerCase();
+      long version = CubeMetastoreClient.getTableVersion(qualifiedName);
+      if (version > versionBeforeRewrite) {
+        return null;
+      }
+      tableVersions.put(qualifiedName, version);
+    }
+    return tableVersions;
+  }
+
   private static final String REWRITE_QUERY_GAUGE = RewriteUtil.class.getSimpleName() + "-rewriteQuery";
   private static final String TOHQL_GAUGE = RewriteUtil.class.getSimpleName() + "-rewriteQuery-toHQL";
+  private static final String SHARED_REWRITE_GAUGE = RewriteUtil.class.getSimpleName() + "-rewriteQuery-shared";
+
+  /**
+   * Rewrite of the cube queries in a user query, shared by the drivers having the same cube query conf. The rewrite
+   * depends only on the cube query conf and not on the driver, so the first of these drivers to rewrite runs it, while
+   * the others wait for it and reuse the rewritten cube queries.
+   */
+  static final class SharedRewrite {
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final FutureTask<SharedRewriteResult> task;
+
+    SharedRewrite(final Configuration conf, final HiveConf hconf, final List<CubeQueryInfo> cubeQueries,
+      final String replacedQuery) {
+      task = new FutureTask<SharedRewriteResult>(new Callable<SharedRewriteResult>() {
+        @Override
+        public SharedRewriteResult call() throws Exception {
+          return rewrite(conf, hconf, cubeQueries, replacedQuery);
+        }
+      });
+    }
+
+    /**
+     * Runs the rewrite if it has not been started yet.
+     *
+     * @return whether the rewrite was run by this call
+     */
+    boolean run() {
+      if (started.compareAndSet(false, true)) {
+        task.run();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Waits for the rewrite.
+     *
+     * @return the rewrite
+     * @throws Exception the exception the rewrite failed with
+     */
+    SharedRewriteResult get() throws Exception {
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), Exception.class);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Rewritten query along with the contexts of the cube queries in it, and the metastore version read before
+   * rewriting.
+   */
+  @AllArgsConstructor
+  private static final class SharedRewriteResult {
+    private final String rewrittenQuery;
+    private final List<CubeQueryContext> cubeQueryCtx;
+    private final long versionBeforeRewrite;
+  }
+
+  /**
+   * Rewrites each cube query in the user query with the given conf.
+   *
+   * @param conf          the driver conf of the query
+   * @param hconf         the hive conf of the query
+   * @param cubeQueries   the cube queries in the user query
+   * @param replacedQuery the user query
+   * @return the rewrite
+   * @throws Exception the exception
+   */
+  private static SharedRewriteResult rewrite(Configuration conf, HiveConf hconf, List<CubeQueryInfo> cubeQueries,
+    String replacedQuery) throws Exception {
+    // version is read before rewriting, so that a change during the rewrite keeps it from being cached
+    long versionBeforeRewrite = CubeMetastoreClient.getMetastoreVersion();
+    StringBuilder builder = new StringBuilder();
+    List<CubeQueryContext> cubeQueryCtx = new ArrayList<CubeQueryContext>(cubeQueries.size());
+    int start = 0;
+    CubeQueryRewriter rewriter = null;
+    try {
+      if (cubeQueries.size() > 0) {
+        // avoid creating rewriter if there are no cube queries
+        rewriter = getCubeRewriter(conf, hconf);
+      }
+
+      // We have to rewrite each sub cube query which might be present in the original
+      // user query. We are looping through all sub queries here.
+      int qIndex = 1;
+      for (RewriteUtil.CubeQueryInfo cqi : cubeQueries) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Rewriting cube query:" + cqi.query);
+        }
+
+        if (start != cqi.startPos) {
+          builder.append(replacedQuery.substring(start, cqi.startPos));
+        }
+
+        // Parse and rewrite individual cube query
+        CubeQueryContext cqc = rewriter.rewrite(cqi.query);
+        MethodMetricsContext toHQLGauge = MethodMetricsFactory
+            .createMethodGauge(conf, true, qIndex + "-" + TOHQL_GAUGE);
+        // toHQL actually generates the rewritten query
+        String hqlQuery = cqc.toHQL();
+        cubeQueryCtx.add(cqc);
+        toHQLGauge.markSuccess();
+        qIndex++;
+
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Rewritten query:" + hqlQuery);
+        }
+
+        builder.append(hqlQuery);
+        start = cqi.endPos;
+      }
+
+      builder.append(replacedQuery.substring(start));
+      return new SharedRewriteResult(builder.toString(), cubeQueryCtx, versionBeforeRewrite);
+    } finally {
+      if (rewriter != null) {
+        rewriter.clear();
+      }
+    }
+  }
 
   /**
    * Rewrite query.
@@ -224,8 +528,17 @@ public final class RewriteUtil {
       Map<LensDriver, DriverRewriterRunnable> runnables = new LinkedHashMap<LensDriver, DriverRewriterRunnable>();
       List<RewriteUtil.CubeQueryInfo> cubeQueries = findCubePositions(replacedQuery, ctx.getHiveConf());
 
+      // drivers with the same cube query conf get the same rewrite, which is run once for all of them
+      Map<Map<String, String>, SharedRewrite> sharedRewrites = new HashMap<Map<String, String>, SharedRewrite>();
       for (LensDriver driver : ctx.getDriverContext().getDrivers()) {
-        runnables.put(driver, new DriverRewriterRunnable(driver, ctx, cubeQueries, replacedQuery));
+        Configuration driverConf = ctx.getDriverContext().getDriverConf(driver);
+        Map<String, String> cubeConf = new TreeMap<String, String>(driverConf.getValByRegex(CUBE_QUERY_CONF_REGEX));
+        SharedRewrite sharedRewrite = sharedRewrites.get(cubeConf);
+        if (sharedRewrite == null) {
+          sharedRewrite = new SharedRewrite(driverConf, ctx.getHiveConf(), cubeQueries, replacedQuery);
+          sharedRewrites.put(cubeConf, sharedRewrite);
+        }
+        runnables.put(driver, new DriverRewriterRunnable(driver, ctx, cubeQueries, replacedQuery, sharedRewrite));
       }
 
       return runnables;
@@ -253,6 +566,7 @@ public final class RewriteUtil {
     private final AbstractQueryContext ctx;
     private final List<CubeQueryInfo> cubeQueries;
     private final String replacedQuery;
+    private final SharedRewrite sharedRewrite;
     /** Cube query context - set after rewriting */
     private List<CubeQueryContext> cubeQueryCtx;
 
@@ -275,10 +589,20 @@ public final class RewriteUtil {
                                   AbstractQueryContext ctx,
                                   List<CubeQueryInfo> cubeQueries,
                                   String replacedQuery) {
+      this(driver, ctx, cubeQueries, replacedQuery,
+        new SharedRewrite(ctx.getDriverContext().getDriverConf(driver), ctx.getHiveConf(), cubeQueries, replacedQuery));
+    }
+
+    DriverRewriterRunnable(LensDriver driver,
+                           AbstractQueryContext ctx,
+                           List<CubeQueryInfo> cubeQueries,
+                           String replacedQuery,
+                           SharedRewrite sharedRewrite) {
       this.driver = driver;
       this.ctx = ctx;
       this.cubeQueries = cubeQueries;
       this.replacedQuery = replacedQuery;
+      this.sharedRewrite = sharedRewrite;
       if (cubeQueries != null) {
         cubeQueryCtx = new ArrayList<CubeQueryContext>(cubeQueries.size());
       }
@@ -294,51 +618,46 @@ public final class RewriteUtil {
 
       MethodMetricsContext rewriteGauge = MethodMetricsFactory
           .createMethodGauge(ctx.getDriverConf(driver), true, REWRITE_QUERY_GAUGE);
-      StringBuilder builder = new StringBuilder();
-      int start = 0;
-      CubeQueryRewriter rewriter = null;
       try {
+        Configuration driverConf = ctx.getDriverContext().getDriverConf(driver);
+        RewriteCacheKey cacheKey = getRewriteCacheKey(driver, driverConf, cubeQueries, replacedQuery);
+        if (cacheKey != null) {
+          CachedRewrite cached = rewriteCache.getIfPresent(cacheKey);
+          if (cached != null && cached.isCurrent()) {
+            ctx.setOlapQuery(true);
+            rewrittenQuery = cached.rewrittenQuery;
+            ctx.getDriverContext().setDriverRewriterPlan(driver, cached.plan);
+            succeeded = true;
+            ctx.setDriverQuery(driver, rewrittenQuery);
+            LOG.info("Cached rewritten query for driver:" + driver + " is: " + rewrittenQuery);
+            return;
+          }
+        }
         if (cubeQueries.size() > 0) {
-          // avoid creating rewriter if there are no cube queries
-          rewriter = getCubeRewriter(ctx.getDriverContext().getDriverConf(driver), ctx.getHiveConf());
           ctx.setOlapQuery(true);
         }
-
-        // We have to rewrite each sub cube query which might be present in the original
-        // user query. We are looping through all sub queries here.
-        int qIndex = 1;
-        for (RewriteUtil.CubeQueryInfo cqi : cubeQueries) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Rewriting cube query:" + cqi.query);
-          }
-
-          if (start != cqi.startPos) {
-            builder.append(replacedQuery.substring(start, cqi.startPos));
-          }
-
-          // Parse and rewrite individual cube query
-          CubeQueryContext cqc = rewriter.rewrite(cqi.query);
-          MethodMetricsContext toHQLGauge = MethodMetricsFactory
-              .createMethodGauge(ctx.getDriverConf(driver), true, qIndex + "-" + TOHQL_GAUGE);
-          // toHQL actually generates the rewritten query
-          String hqlQuery = cqc.toHQL();
-          cubeQueryCtx.add(cqc);
-          toHQLGauge.markSuccess();
-          qIndex++;
-
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Rewritten query:" + hqlQuery);
-          }
-
-          builder.append(hqlQuery);
-          start = cqi.endPos;
+        MethodMetricsContext sharedGauge = null;
+        if (!sharedRewrite.run()) {
+          // rewrite is run by another driver with the same cube query conf, so only wait for it
+          sharedGauge = MethodMetricsFactory.createMethodGauge(driverConf, true, SHARED_REWRITE_GAUGE);
         }
-
-        builder.append(replacedQuery.substring(start));
-
-        rewrittenQuery = builder.toString();
+        SharedRewriteResult result = sharedRewrite.get();
+        if (sharedGauge != null) {
+          sharedGauge.markSuccess();
+          LOG.info("Reusing rewrite of another driver with same cube query conf for driver:" + driver);
+        }
+        rewrittenQuery = result.rewrittenQuery;
+        cubeQueryCtx.addAll(result.cubeQueryCtx);
         // set rewriter plan
-        ctx.getDriverContext().setDriverRewriterPlan(driver, getRewriterPlan(this));
+        DriverQueryPlan plan = getRewriterPlan(this);
+        ctx.getDriverContext().setDriverRewriterPlan(driver, plan);
+        if (cacheKey != null) {
+          Map<String, Long> tableVersions = getTableVersions(cacheKey.database, result.cubeQueryCtx,
+            result.versionBeforeRewrite);
+          if (tableVersions != null) {
+            rewriteCache.put(cacheKey, new CachedRewrite(rewrittenQuery, plan, tableVersions));
+          }
+        }
         succeeded = true;
         ctx.setDriverQuery(driver, rewrittenQuery);
         LOG.info("Final rewritten query for driver:" + driver + " is: " + rewrittenQuery);
@@ -352,9 +671,6 @@ public final class RewriteUtil {
         // we are catching all exceptions sothat other drivers can be picked in case of driver bugs
         captureExceptionInformation(e);
       } finally {
-        if (rewriter != null) {
-          rewriter.clear();
-        }
         rewriteGauge.markSuccess();
       }
     }
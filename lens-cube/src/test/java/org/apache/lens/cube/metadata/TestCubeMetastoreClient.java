@@ -20,13 +20,17 @@
 package org.apache.lens.cube.metadata;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.lens.cube.metadata.ExprColumn.ExprSpec;
 import org.apache.lens.cube.metadata.timeline.EndsAndHolesPartitionTimeline;
 import org.apache.lens.cube.metadata.timeline.PartitionTimeline;
+import org.apache.lens.cube.metadata.timeline.PartitionTimelineFactory;
 import org.apache.lens.cube.metadata.timeline.StoreAllPartitionTimeline;
 import org.apache.lens.cube.parse.TimeRange;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
@@ -48,6 +52,8 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -1165,18 +1171,8 @@ public class TestCubeMetastoreClient {
 
     // same before insertion.
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    EndsAndHolesPartitionTimeline timelineDt = ((EndsAndHolesPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c1, UpdatePeriod.HOURLY, getDatePartitionKey()));
-    EndsAndHolesPartitionTimeline timelineIt = ((EndsAndHolesPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c1, UpdatePeriod.HOURLY, itPart.getName()));
-    EndsAndHolesPartitionTimeline timelineEt = ((EndsAndHolesPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c1, UpdatePeriod.HOURLY, etPart.getName()));
-    StoreAllPartitionTimeline timelineDtC2 = ((StoreAllPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c2, UpdatePeriod.HOURLY, getDatePartitionKey()));
-    StoreAllPartitionTimeline timelineItC2 = ((StoreAllPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c2, UpdatePeriod.HOURLY, itPart.getName()));
-    StoreAllPartitionTimeline timelineEtC2 = ((StoreAllPartitionTimeline) client.partitionTimelineCache.get(
-      factName, c2, UpdatePeriod.HOURLY, etPart.getName()));
+    PartitionTimeline timelineBefore = client.partitionTimelineCache.get(factName, c1, UpdatePeriod.HOURLY,
+      getDatePartitionKey());
 
     Map<String, Date> timeParts1 = new HashMap<String, Date>();
     timeParts1.put(TestCubeMetastoreClient.getDatePartitionKey(), now);
@@ -1201,6 +1197,14 @@ public class TestCubeMetastoreClient {
 
     client.addPartitions(Arrays.asList(partSpec1, partSpec2, partSpec3), c1);
     client.addPartitions(Arrays.asList(partSpec1, partSpec2, partSpec3), c2);
+    Map<String, String> existingSpec = new HashMap<String, String>();
+    for (Map.Entry<String, Date> entry : timeParts1.entrySet()) {
+      existingSpec.put(entry.getKey(), UpdatePeriod.HOURLY.format().format(entry.getValue()));
+    }
+    Map<String, String> missingSpec = new HashMap<String, String>(existingSpec);
+    missingSpec.put(getDatePartitionKey(), UpdatePeriod.HOURLY.format().format(nowMinus5));
+    Assert.assertEquals(client.getExistingPartitions(c1TableName, Arrays.asList(existingSpec, missingSpec)),
+      Collections.singleton(existingSpec));
     PartitionTimeline timeline1Temp = client.partitionTimelineCache.get(factName, c1, UpdatePeriod.HOURLY,
       getDatePartitionKey());
     PartitionTimeline timeline2Temp = client.partitionTimelineCache.get(factName, c2, UpdatePeriod.HOURLY,
@@ -1208,15 +1212,18 @@ public class TestCubeMetastoreClient {
 
     Assert.assertEquals(timeline1Temp.getClass(), EndsAndHolesPartitionTimeline.class);
     Assert.assertEquals(timeline2Temp.getClass(), StoreAllPartitionTimeline.class);
+    // published timelines are not modified, additions are made on copies
+    Assert.assertTrue(timelineBefore.isEmpty());
+    Assert.assertNotSame(timeline1Temp, timelineBefore);
 
     Assert.assertEquals(client.getAllParts(c1TableName).size(), 3);
     Assert.assertEquals(client.getAllParts(c2TableName).size(), 3);
 
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
 
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, now, now);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, now, nowPlus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, now, now);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, now, now);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, now, nowPlus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, now, now);
 
     Assert.assertTrue(client.latestPartitionExists(cubeFact.getName(), c1,
       TestCubeMetastoreClient.getDatePartitionKey()));
@@ -1249,9 +1256,9 @@ public class TestCubeMetastoreClient {
 
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
 
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, now, nowPlus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, now, nowPlus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
 
     Assert.assertTrue(client.latestPartitionExists(cubeFact.getName(), c1,
       TestCubeMetastoreClient.getDatePartitionKey()));
@@ -1273,9 +1280,9 @@ public class TestCubeMetastoreClient {
 
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
 
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus2, nowPlus1, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, nowMinus2, nowPlus1, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
 
     Map<String, Date> timeParts7 = new HashMap<String, Date>();
     timeParts7.put(TestCubeMetastoreClient.getDatePartitionKey(), nowMinus5);
@@ -1292,24 +1299,30 @@ public class TestCubeMetastoreClient {
 
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
 
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus2);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY,
+      nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY,
+      nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus2);
 
     assertNoPartitionNamedLatest(c1TableName, partColNames);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
     Assert.assertEquals(Hive.get(client.getConf()).getTable(c1TableName).getParameters().get(
-      MetastoreUtil.getPartitionTimelineCachePresenceKey()), "true");
+      MetastoreUtil.getPartitionTimelineCachePresenceKey()),
+      MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
     Assert.assertEquals(Hive.get(client.getConf()).getTable(c2TableName).getParameters().get(
-      MetastoreUtil.getPartitionTimelineCachePresenceKey()), "true");
+      MetastoreUtil.getPartitionTimelineCachePresenceKey()),
+      MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
 
     // alter tables and see timeline still exists
     client.alterCubeFactTable(factName, cubeFact, storageTables);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
     Assert.assertEquals(Hive.get(client.getConf()).getTable(c1TableName).getParameters().get(
-      MetastoreUtil.getPartitionTimelineCachePresenceKey()), "true");
+      MetastoreUtil.getPartitionTimelineCachePresenceKey()),
+      MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
     Assert.assertEquals(Hive.get(client.getConf()).getTable(c2TableName).getParameters().get(
-      MetastoreUtil.getPartitionTimelineCachePresenceKey()), "true");
+      MetastoreUtil.getPartitionTimelineCachePresenceKey()),
+      MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
 
 
     client.dropPartition(cubeFact.getName(), c1, timeParts5, null, UpdatePeriod.HOURLY);
@@ -1323,9 +1336,11 @@ public class TestCubeMetastoreClient {
     assertNoPartitionNamedLatest(c1TableName, partColNames);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
 
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus5, now, nowMinus4, nowMinus3, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus2);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY,
+      nowMinus5, now, nowMinus4, nowMinus3, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus5, nowPlus1, nowMinus4, nowMinus3);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY,
+      nowMinus5, nowPlus1, nowMinus4, nowMinus3, nowMinus2);
 
 
     client.dropPartition(cubeFact.getName(), c1, timeParts7, null, UpdatePeriod.HOURLY);
@@ -1338,9 +1353,9 @@ public class TestCubeMetastoreClient {
 
     assertNoPartitionNamedLatest(c1TableName, partColNames);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, nowPlus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
 
 
     client.dropPartition(cubeFact.getName(), c1, timeParts2, nonTimeSpec, UpdatePeriod.HOURLY);
@@ -1353,9 +1368,9 @@ public class TestCubeMetastoreClient {
 
     assertNoPartitionNamedLatest(c1TableName, partColNames);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, now);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, now);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, nowPlus1);
 
     client.dropPartition(cubeFact.getName(), c1, timeParts4, null, UpdatePeriod.HOURLY);
     client.dropPartition(cubeFact.getName(), c2, timeParts4, null, UpdatePeriod.HOURLY);
@@ -1363,34 +1378,39 @@ public class TestCubeMetastoreClient {
 
     assertNoPartitionNamedLatest(c1TableName, partColNames);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, now);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, now);
     client.dropPartition(cubeFact.getName(), c1, timeParts3, nonTimeSpec, UpdatePeriod.HOURLY);
     client.dropPartition(cubeFact.getName(), c2, timeParts3, nonTimeSpec, UpdatePeriod.HOURLY);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, nowMinus1, now);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, nowMinus2, now, nowMinus1);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, nowMinus1, now);
 
     client.dropPartition(cubeFact.getName(), c1, timeParts6, null, UpdatePeriod.HOURLY);
     client.dropPartition(cubeFact.getName(), c2, timeParts6, null, UpdatePeriod.HOURLY);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    assertTimeline(timelineDt, timelineDtC2, UpdatePeriod.HOURLY, now, now);
-    assertTimeline(timelineEt, timelineEtC2, UpdatePeriod.HOURLY, now, now);
-    assertTimeline(timelineIt, timelineItC2, UpdatePeriod.HOURLY, now, now);
+    assertTimeline(factName, getDatePartitionKey(), UpdatePeriod.HOURLY, now, now);
+    assertTimeline(factName, etPart.getName(), UpdatePeriod.HOURLY, now, now);
+    assertTimeline(factName, itPart.getName(), UpdatePeriod.HOURLY, now, now);
     client.dropPartition(cubeFact.getName(), c1, timeParts1, null, UpdatePeriod.HOURLY);
     client.dropPartition(cubeFact.getName(), c2, timeParts1, null, UpdatePeriod.HOURLY);
     assertSameTimelines(factName, storages, UpdatePeriod.HOURLY, partColNames);
-    Assert.assertTrue(timelineDt.isEmpty());
-    Assert.assertTrue(timelineEt.isEmpty());
-    Assert.assertTrue(timelineIt.isEmpty());
+    // cached existence is invalidated by the drop
+    Assert.assertTrue(client.getExistingPartitions(c1TableName, Arrays.asList(existingSpec, missingSpec)).isEmpty());
+    for (String partCol : partColNames) {
+      Assert.assertTrue(client.partitionTimelineCache.get(factName, c1, UpdatePeriod.HOURLY, partCol).isEmpty());
+    }
 
   }
 
-  private void assertTimeline(EndsAndHolesPartitionTimeline endsAndHolesPartitionTimeline,
-    StoreAllPartitionTimeline storeAllPartitionTimeline, UpdatePeriod updatePeriod,
-    Date first, Date latest, Date... holes) throws LensException {
+  private void assertTimeline(String factName, String partCol, UpdatePeriod updatePeriod,
+    Date first, Date latest, Date... holes) throws HiveException, LensException {
+    EndsAndHolesPartitionTimeline endsAndHolesPartitionTimeline = (EndsAndHolesPartitionTimeline) client
+      .partitionTimelineCache.get(factName, c1, updatePeriod, partCol);
+    StoreAllPartitionTimeline storeAllPartitionTimeline = (StoreAllPartitionTimeline) client.partitionTimelineCache
+      .get(factName, c2, updatePeriod, partCol);
     TimePartition firstPart = TimePartition.of(updatePeriod, first);
     TimePartition latestPart = TimePartition.of(updatePeriod, latest);
     Assert.assertEquals(endsAndHolesPartitionTimeline.getFirst(), firstPart);
@@ -2522,6 +2542,35 @@ public class TestCubeMetastoreClient {
     Assert.assertTrue(!client.getHiveTable(storageTableName2).isPartitioned());
   }
 
+  @Test(priority = 3)
+  public void testWarmUp() throws Exception {
+    client = CubeMetastoreClient.getInstance(conf);
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    Counter tablesLoaded = registry.counter(MetricRegistry.name(CubeMetastoreClient.class,
+      CubeMetastoreClient.WARM_UP_TABLES_LOADED));
+    Counter timelinesLoaded = registry.counter(MetricRegistry.name(CubeMetastoreClient.class,
+      CubeMetastoreClient.WARM_UP_TIMELINES_LOADED));
+    List<String> facts = Lists.newArrayList("no_such_fact");
+    int storageTables = 0;
+    for (CubeFactTable fact : client.getAllFacts()) {
+      facts.add(fact.getName());
+      storageTables += fact.getStorages().size();
+    }
+    client.clearHiveTableCache();
+    long tablesBefore = tablesLoaded.getCount();
+    long timelinesBefore = timelinesLoaded.getCount();
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      client.warmUp(pool, 2, facts);
+    } finally {
+      pool.shutdownNow();
+    }
+    // all tables are fetched again in batches, and timelines of all storage tables of the facts are loaded
+    Assert.assertEquals(tablesLoaded.getCount() - tablesBefore, Hive.get(conf).getAllTables().size());
+    Assert.assertEquals(timelinesLoaded.getCount() - timelinesBefore, storageTables);
+    Assert.assertEquals(client.getAllFacts().size(), facts.size() - 1);
+  }
+
   @Test(priority = 3)
   public void testCaching() throws HiveException, ParseException {
     client = CubeMetastoreClient.getInstance(conf);
@@ -2560,4 +2609,83 @@ public class TestCubeMetastoreClient {
     conf.setBoolean(MetastoreConstants.METASTORE_ENABLE_CACHING, true);
     client = CubeMetastoreClient.getInstance(conf);
   }
+
+  @Test(priority = 3)
+  public void testDelayedTimelineFlush() throws Exception {
+    String dbName = TestCubeMetastoreClient.class.getSimpleName() + "Flush";
+    Database database = new Database();
+    database.setName(dbName);
+    Hive.get(conf).createDatabase(database);
+    String currentDb = SessionState.get().getCurrentDatabase();
+    HiveConf flushConf = new HiveConf(conf);
+    flushConf.setLong(MetastoreConstants.METASTORE_TIMELINE_FLUSH_DELAY_MILLIS, 200);
+    try {
+      SessionState.get().setCurrentDatabase(dbName);
+      CubeMetastoreClient flushClient = CubeMetastoreClient.getInstance(flushConf);
+      flushClient.createStorage(new HDFSStorage(c1));
+      String factName = "testDelayedFlushFact";
+      List<FieldSchema> factColumns = Lists.newArrayList(new FieldSchema("msr1", "int", "msr1"));
+      Map<String, Set<UpdatePeriod>> updatePeriods = Maps.newHashMap();
+      updatePeriods.put(c1, new HashSet<UpdatePeriod>(Arrays.asList(UpdatePeriod.HOURLY)));
+      StorageTableDesc s1 = new StorageTableDesc();
+      s1.setInputFormat(TextInputFormat.class.getCanonicalName());
+      s1.setOutputFormat(HiveIgnoreKeyTextOutputFormat.class.getCanonicalName());
+      s1.setPartCols(Lists.newArrayList(getDatePartition()));
+      s1.setTimePartCols(Lists.newArrayList(getDatePartitionKey()));
+      Map<String, StorageTableDesc> storageTables = Maps.newHashMap();
+      storageTables.put(c1, s1);
+      flushClient.createCubeFactTable(CUBE_NAME, factName, factColumns, updatePeriods, 0L, null, storageTables);
+      String storageTableName = MetastoreUtil.getFactStorageTableName(factName, c1);
+      String presenceKey = MetastoreUtil.getPartitionTimelineCachePresenceKey();
+
+      Map<String, Date> timeParts = Maps.newHashMap();
+      timeParts.put(getDatePartitionKey(), now);
+      flushClient.addPartition(new StoragePartitionDesc(factName, timeParts, null, UpdatePeriod.HOURLY), c1);
+      // timelines are stale in the table till the flusher stores them
+      Assert.assertNull(Hive.get(conf).getTable(dbName, storageTableName).getParameters().get(presenceKey));
+
+      // the flusher has no session of the caller, and stores them in the database of the client
+      SessionState.get().setCurrentDatabase(currentDb);
+      long waitUntil = System.currentTimeMillis() + 10000;
+      while (Hive.get(conf).getTable(dbName, storageTableName).getParameters().get(presenceKey) == null
+        && System.currentTimeMillis() < waitUntil) {
+        Thread.sleep(100);
+      }
+      Table storageTable = Hive.get(conf).getTable(dbName, storageTableName);
+      Assert.assertEquals(storageTable.getParameters().get(presenceKey),
+        MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
+      PartitionTimeline stored = PartitionTimelineFactory.get(flushClient, storageTableName, UpdatePeriod.HOURLY,
+        getDatePartitionKey());
+      stored.init(storageTable);
+      Assert.assertTrue(stored.exists(TimePartition.of(UpdatePeriod.HOURLY, now)));
+      Assert.assertNull(Hive.get(conf).getTable(currentDb, storageTableName, false));
+
+      // flushing stores pending changes right away, whatever the session of the caller
+      SessionState.get().setCurrentDatabase(dbName);
+      timeParts.put(getDatePartitionKey(), nowPlus1);
+      flushClient.addPartition(new StoragePartitionDesc(factName, timeParts, null, UpdatePeriod.HOURLY), c1);
+      Assert.assertNull(Hive.get(conf).getTable(dbName, storageTableName).getParameters().get(presenceKey));
+      SessionState.get().setCurrentDatabase(currentDb);
+      CubeMetastoreClient.flushAllPartitionTimelines();
+      Assert.assertEquals(Hive.get(conf).getTable(dbName, storageTableName).getParameters().get(presenceKey),
+        MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
+
+      // timelines marked present by servers which only know the older format are loaded from partitions
+      SessionState.get().setCurrentDatabase(dbName);
+      Table legacy = Hive.get(conf).getTable(dbName, storageTableName);
+      legacy.getParameters().put(presenceKey, "true");
+      legacy.getParameters().put(MetastoreUtil.getPartitionInfoKeyPrefix(UpdatePeriod.HOURLY, getDatePartitionKey())
+        + "first", TimePartition.of(UpdatePeriod.HOURLY, nowPlus1).getDateString());
+      Hive.get(conf).alterTable(storageTableName, legacy);
+      flushClient.clearHiveTableCache();
+      flushClient.partitionTimelineCache.invalidate(storageTableName);
+      Assert.assertTrue(flushClient.partitionTimelineCache.get(factName, c1, UpdatePeriod.HOURLY,
+        getDatePartitionKey()).exists(TimePartition.of(UpdatePeriod.HOURLY, now)));
+      Assert.assertEquals(Hive.get(conf).getTable(dbName, storageTableName).getParameters().get(presenceKey),
+        MetastoreConstants.PARTITION_TIMELINE_CACHE_FORMAT_VERSION);
+    } finally {
+      SessionState.get().setCurrentDatabase(currentDb);
+      Hive.get(conf).dropDatabase(dbName, true, true, true);
+    }
+  }
 }
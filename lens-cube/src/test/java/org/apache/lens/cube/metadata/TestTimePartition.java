@@ -132,6 +132,24 @@ public class TestTimePartition {
     }
   }
 
+  @Test
+  public void testOrdinals() throws LensException {
+    for (UpdatePeriod up : UpdatePeriod.values()) {
+      TimePartition nowPartition = TimePartition.of(up, NOW);
+      assertEquals(TimePartition.ofOrdinal(up, nowPartition.getOrdinal()), nowPartition);
+      // consecutive partitions have consecutive ordinals, over a year where possible to cross daylight saving changes
+      long count = Math.max(100, Math.min(10000, 400 * UpdatePeriod.DAILY.weight() / up.weight()));
+      TimePartition partition = nowPartition;
+      for (int i = 0; i < count; i++) {
+        assertEquals(partition.getOrdinal(), nowPartition.getOrdinal() + i);
+        assertEquals(TimePartition.ofOrdinal(up, partition.getOrdinal()), partition);
+        partition = partition.next();
+      }
+      assertEquals(TimePartitionRange.ofOrdinals(up, nowPartition.getOrdinal(), nowPartition.getOrdinal() + 10),
+        nowPartition.rangeUpto(nowPartition.partitionAtDiff(10)));
+    }
+  }
+
   @Test(expectedExceptions = LensException.class)
   public void testPartitionRangeValidity() throws LensException {
     // begin and end partitions should follow begin <= end
@@ -22,6 +22,8 @@ import java.util.*;
 
 import org.apache.lens.cube.metadata.TestTimePartition;
 import org.apache.lens.cube.metadata.TimePartition;
+import org.apache.lens.cube.metadata.TimePartitionRange;
+import org.apache.lens.cube.metadata.TimePartitionRangeList;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.server.api.error.LensException;
 
@@ -102,6 +104,89 @@ public class TestPartitionTimelines {
   }
 
 
+  @Test
+  public void testCoveredRanges() throws LensException {
+    Random randomGenerator = new Random();
+    List<PartitionTimeline> timelines = Lists.newArrayList();
+    for (Class<? extends PartitionTimeline> clazz : TIMELINE_IMPLEMENTATIONS) {
+      timelines.add(getInstance(clazz));
+    }
+    Set<TimePartition> addedPartitions = new HashSet<TimePartition>();
+    for (int i = 0; i < 50; i++) {
+      TimePartition part = TimePartition.of(PERIOD, TestTimePartition.timeAtDiff(TestTimePartition.NOW, PERIOD,
+        randomGenerator.nextInt(100) - 50));
+      addedPartitions.add(part);
+      for (PartitionTimeline timeline : timelines) {
+        timeline.add(part);
+      }
+    }
+    for (int j = 0; j < 20; j++) {
+      int from = randomGenerator.nextInt(120) - 60;
+      TimePartitionRange range = TimePartition.of(PERIOD, TestTimePartition.timeAtDiff(TestTimePartition.NOW, PERIOD,
+        from)).rangeUpto(TimePartition.of(PERIOD, TestTimePartition.timeAtDiff(TestTimePartition.NOW, PERIOD,
+        from + randomGenerator.nextInt(60))));
+      for (PartitionTimeline timeline : timelines) {
+        TimePartitionRangeList covered = timeline.getCoveredRanges(range);
+        TimePartitionRangeList holes = timeline.getHoles(range);
+        // every partition of the range is either in a covered range or in a hole, never both
+        for (TimePartition part : range) {
+          Assert.assertEquals(covered.contains(part.getDate()), addedPartitions.contains(part),
+            timeline.getClass() + " " + range + " " + part);
+          Assert.assertEquals(holes.contains(part.getDate()), !addedPartitions.contains(part),
+            timeline.getClass() + " " + range + " " + part);
+        }
+        // ranges are maximal, so adjacent ranges never touch
+        for (int i = 1; i < covered.size(); i++) {
+          Assert.assertTrue(covered.get(i - 1).getEnd().before(covered.get(i).getBegin()));
+        }
+        Assert.assertEquals(covered, timelines.get(0).getCoveredRanges(range));
+      }
+    }
+  }
+
+
+  @Test
+  public void testEncoding() throws LensException {
+    long[] ordinals = {3, 4, 7, 40, 41, 42};
+    long[] ranges = OrdinalRangesEncoding.toRanges(ordinals);
+    Assert.assertEquals(ranges, new long[]{3, 5, 7, 8, 40, 43});
+    Assert.assertEquals(OrdinalRangesEncoding.toOrdinals(ranges), ordinals);
+    List<String> encoded = OrdinalRangesEncoding.encode(1, ranges);
+    Assert.assertEquals(encoded, Arrays.asList("2", "2", "2", "1", "w", "3"));
+    Assert.assertEquals(OrdinalRangesEncoding.decode(1, "2,2,2,1,w,3"), ranges);
+    Assert.assertEquals(OrdinalRangesEncoding.decode(1, ""), new long[0]);
+  }
+
+  @Test
+  public void testLegacyProperties() throws LensException {
+    TimePartition first = TimePartition.of(PERIOD, TestTimePartition.NOW);
+    TimePartition hole = first.next();
+    TimePartition latest = hole.next();
+
+    EndsAndHolesPartitionTimeline endsAndHoles = getInstance(EndsAndHolesPartitionTimeline.class);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("first", first.getDateString());
+    props.put("latest", latest.getDateString());
+    props.put("holes.size", "1");
+    props.put("holes0", hole.getDateString());
+    Assert.assertTrue(endsAndHoles.initFromProperties(props));
+    Assert.assertEquals(endsAndHoles.getFirst(), first);
+    Assert.assertEquals(endsAndHoles.getHoles(), Collections.singleton(hole));
+    Assert.assertEquals(endsAndHoles.getLatest(), latest);
+    Assert.assertFalse(endsAndHoles.toProperties().containsKey("holes0"));
+
+    RangesPartitionTimeline ranges = getInstance(RangesPartitionTimeline.class);
+    props = new HashMap<String, String>();
+    props.put("ranges.size", "1");
+    props.put("ranges0", first.getDateString() + "," + hole.getDateString() + "," + latest.getDateString() + ","
+      + latest.next().getDateString());
+    Assert.assertTrue(ranges.initFromProperties(props));
+    Assert.assertTrue(ranges.exists(first));
+    Assert.assertFalse(ranges.exists(hole));
+    Assert.assertTrue(ranges.exists(latest));
+    Assert.assertFalse(ranges.toProperties().containsKey("ranges0"));
+  }
+
   private <T extends PartitionTimeline> T getInstance(Class<T> clz) {
     try {
       return clz.getConstructor(String.class, UpdatePeriod.class, String.class)
@@ -149,5 +234,12 @@ public class TestPartitionTimelines {
     inst2.initFromProperties(inst1.toProperties());
     Assert.assertTrue(inst2.isConsistent());
     Assert.assertEquals(inst1, inst2);
+    // copies are equal, and independent of the original
+    PartitionTimeline copy = inst1.copy();
+    Assert.assertEquals(copy.getClass(), clz);
+    Assert.assertEquals(copy, inst1);
+    Assert.assertTrue(copy.drop(TimePartition.of(PERIOD, TestTimePartition.NOW)));
+    Assert.assertFalse(copy.equals(inst1));
+    Assert.assertEquals(inst1, inst2);
   }
 }
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lens.cube.parse;
+
+import java.util.*;
+
+import org.apache.lens.cube.metadata.AbstractCubeTable;
+import org.apache.lens.cube.metadata.CubeDimAttribute;
+import org.apache.lens.cube.metadata.Dimension;
+import org.apache.lens.cube.metadata.SchemaGraph.JoinPath;
+import org.apache.lens.cube.metadata.SchemaGraph.TableRelationship;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestJoinPathSearch {
+
+  private final Dimension target = new Dimension("target", new HashSet<CubeDimAttribute>());
+  private final Dimension xdim = new Dimension("xdim", new HashSet<CubeDimAttribute>());
+  private final Dimension adim = new Dimension("adim", new HashSet<CubeDimAttribute>());
+  private final Dimension bdim = new Dimension("bdim", new HashSet<CubeDimAttribute>());
+
+  private TableRelationship edge(AbstractCubeTable from, AbstractCubeTable to) {
+    return new TableRelationship(to.getName() + "_id", from, "id", to);
+  }
+
+  // edges are in the order from the joined table to the target
+  private JoinPath path(TableRelationship... edges) {
+    JoinPath path = new JoinPath();
+    for (TableRelationship edge : edges) {
+      path.addEdge(edge);
+    }
+    return path;
+  }
+
+  private List<List<JoinPath>> pathSets() {
+    List<List<JoinPath>> pathSets = new ArrayList<List<JoinPath>>();
+    // adim directly, or through xdim
+    pathSets.add(Arrays.asList(path(edge(target, adim)), path(edge(xdim, adim), edge(target, xdim))));
+    // bdim through xdim, or directly
+    pathSets.add(Arrays.asList(path(edge(xdim, bdim), edge(target, xdim)), path(edge(target, bdim))));
+    return pathSets;
+  }
+
+  @Test
+  public void testMinCostSelection() {
+    JoinResolver.JoinPathSearch search = new JoinResolver.JoinPathSearch(pathSets(), Long.MAX_VALUE);
+    // both dimensions directly from target is the only selection with two edges
+    Assert.assertEquals(search.search(), new int[]{0, 1});
+    // second path of adim can't get below three edges with any path of bdim
+    Assert.assertEquals(search.explored, 3);
+    Assert.assertEquals(search.pruned, 1);
+  }
+
+  @Test
+  public void testSearchBudget() {
+    JoinResolver.JoinPathSearch search = new JoinResolver.JoinPathSearch(pathSets(), 1);
+    // budget is spent on first path of adim, bdim is picked greedily
+    Assert.assertEquals(search.search(), new int[]{0, 1});
+    Assert.assertEquals(search.explored, 1);
+  }
+
+  @Test
+  public void testNoPaths() {
+    List<List<JoinPath>> pathSets = pathSets();
+    pathSets.add(new ArrayList<JoinPath>());
+    Assert.assertNull(new JoinResolver.JoinPathSearch(pathSets, Long.MAX_VALUE).search());
+    Assert.assertEquals(new JoinResolver.JoinPathSearch(new ArrayList<List<JoinPath>>(), Long.MAX_VALUE).search(),
+      new int[0]);
+  }
+}
@@ -136,6 +136,31 @@ public class TestJoinResolver extends TestQueryRewrite {
     validatePath(paths.get(5), zipDim, cityDim, testDim2, (AbstractCubeTable) testCube);
   }
 
+  @Test
+  public void testMemoizedJoinPaths() throws Exception {
+    SchemaGraph schemaGraph = metastore.getSchemaGraph();
+    AbstractCubeTable testCube = (AbstractCubeTable) metastore.getCube("testcube");
+    Dimension zipDim = metastore.getDimension("zipdim");
+    Dimension cityDim = metastore.getDimension("citydim");
+
+    List<SchemaGraph.JoinPath> paths = schemaGraph.getJoinPaths(zipDim, testCube);
+    Assert.assertEquals(paths.size(), 6);
+    Assert.assertSame(schemaGraph.getJoinPaths(zipDim, testCube), paths);
+    try {
+      paths.remove(0);
+      Assert.fail("Memoized join paths should not be modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    // paths through an altered dimension are searched again, with same result for same definition
+    metastore.alterDimension(cityDim.getName(), cityDim);
+    Assert.assertSame(metastore.getSchemaGraph(), schemaGraph);
+    List<SchemaGraph.JoinPath> newPaths = schemaGraph.getJoinPaths(zipDim, testCube);
+    Assert.assertNotSame(newPaths, paths);
+    Assert.assertEquals(newPaths.toString(), paths.toString());
+  }
+
   private void validatePath(SchemaGraph.JoinPath jp, AbstractCubeTable... tables) {
     Assert.assertTrue(!jp.getEdges().isEmpty());
     Set<AbstractCubeTable> expected = new HashSet<AbstractCubeTable>(Arrays.asList(tables));
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.parse;
+
+import java.text.DateFormat;
+import java.util.*;
+
+import org.apache.lens.cube.metadata.FactPartition;
+import org.apache.lens.cube.metadata.UpdatePeriod;
+
+import org.apache.commons.lang.time.DateUtils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRangeCompressingTimeRangeWriter extends TestTimeRangeWriter {
+
+  @Override
+  public TimeRangeWriter getTimerangeWriter() {
+    return new RangeCompressingTimeRangeWriter();
+  }
+
+  @Override
+  public boolean failDisjoint() {
+    return false;
+  }
+
+  @Override
+  public void validateDisjoint(String whereClause, DateFormat format) {
+    // one clause for each update period, in increasing order of update period
+    List<String> parts = new ArrayList<String>();
+    if (format == null) {
+      parts.add(UpdatePeriod.HOURLY.format().format(CubeTestSetup.NOW));
+      parts.add(UpdatePeriod.DAILY.format().format(CubeTestSetup.TWODAYS_BACK));
+      parts.add(UpdatePeriod.MONTHLY.format().format(CubeTestSetup.TWO_MONTHS_BACK));
+    } else {
+      parts.add(format.format(CubeTestSetup.NOW));
+      parts.add(format.format(CubeTestSetup.TWODAYS_BACK));
+      parts.add(format.format(CubeTestSetup.TWO_MONTHS_BACK));
+    }
+    Assert.assertEquals(whereClause, StorageUtil.getWherePartClause("dt", "test", parts));
+  }
+
+  @Override
+  public void validateConsecutive(String whereClause, DateFormat format) {
+    // three days are shorter as an IN clause than as a BETWEEN clause
+    if (format == null) {
+      format = UpdatePeriod.DAILY.format();
+    }
+    List<String> parts = Arrays.asList(format.format(CubeTestSetup.TWODAYS_BACK),
+      format.format(CubeTestSetup.ONE_DAY_BACK), format.format(CubeTestSetup.NOW));
+    Assert.assertEquals(whereClause, "(" + StorageUtil.getWherePartClauseWithIn("dt", "test", parts) + ")");
+  }
+
+  @Override
+  public void validateSingle(String whereClause, DateFormat format) {
+    List<String> parts = new ArrayList<String>();
+    if (format == null) {
+      parts.add(UpdatePeriod.DAILY.format().format(CubeTestSetup.ONE_DAY_BACK));
+    } else {
+      parts.add(format.format(CubeTestSetup.ONE_DAY_BACK));
+    }
+    Assert.assertEquals(whereClause, StorageUtil.getWherePartClause("dt", "test", parts));
+  }
+
+  /**
+   * Writer for which storage table c1_hourly has just the hourly update period, and c1_mixed has hourly and daily.
+   */
+  private static TimeRangeWriter getStorageAwareWriter() {
+    return new RangeCompressingTimeRangeWriter() {
+      @Override
+      protected Set<UpdatePeriod> getStorageUpdatePeriods(CubeQueryContext cubeQueryContext, String storageTable) {
+        if (storageTable.equals("c1_hourly")) {
+          return EnumSet.of(UpdatePeriod.HOURLY);
+        } else if (storageTable.equals("c1_mixed")) {
+          return EnumSet.of(UpdatePeriod.HOURLY, UpdatePeriod.DAILY);
+        }
+        return null;
+      }
+    };
+  }
+
+  private static FactPartition getPart(Date date, UpdatePeriod period, String storageTable) {
+    FactPartition part = new FactPartition("dt", date, period, null, null);
+    part.getStorageTables().add(storageTable);
+    return part;
+  }
+
+  @Test
+  public void testRangesAndSparseParts() {
+    DateFormat format = UpdatePeriod.HOURLY.format();
+    Date start = UpdatePeriod.DAILY.truncate(CubeTestSetup.TWODAYS_BACK);
+    Set<FactPartition> answeringParts = new LinkedHashSet<FactPartition>();
+    // hours 0 to 9 and 12 to 23, and hours 26 and 30 sparsely
+    for (int hour : new int[]{30, 26}) {
+      answeringParts.add(getPart(DateUtils.addHours(start, hour), UpdatePeriod.HOURLY, "c1_hourly"));
+    }
+    for (int hour = 0; hour < 24; hour++) {
+      if (hour != 10 && hour != 11) {
+        answeringParts.add(getPart(DateUtils.addHours(start, hour), UpdatePeriod.HOURLY, "c1_hourly"));
+      }
+    }
+
+    String whereClause = getStorageAwareWriter().getTimeRangeWhereClause(null, "test", answeringParts);
+    String expected = getRange(start, 0, 9, format) + " OR " + getRange(start, 12, 23, format) + " OR "
+      + "(" + StorageUtil.getWherePartClauseWithIn("dt", "test", Arrays.asList(
+      format.format(DateUtils.addHours(start, 26)), format.format(DateUtils.addHours(start, 30)))) + ")";
+    Assert.assertEquals(whereClause, expected);
+    Assert.assertTrue(whereClause.length()
+      < new ORTimeRangeWriter().getTimeRangeWhereClause(null, "test", answeringParts).length());
+  }
+
+  @Test
+  public void testMixedUpdatePeriods() {
+    // daily partitions of days 0 to 9, in a storage table which has hourly partitions too
+    Date start = UpdatePeriod.DAILY.truncate(CubeTestSetup.TWO_MONTHS_BACK);
+    DateFormat format = UpdatePeriod.DAILY.format();
+    Set<FactPartition> answeringParts = new LinkedHashSet<FactPartition>();
+    List<String> days = new ArrayList<String>();
+    for (int day = 0; day < 10; day++) {
+      answeringParts.add(getPart(DateUtils.addDays(start, day), UpdatePeriod.DAILY, "c1_mixed"));
+      days.add(format.format(DateUtils.addDays(start, day)));
+    }
+    String whereClause = getStorageAwareWriter().getTimeRangeWhereClause(null, "test", answeringParts);
+    Assert.assertEquals(whereClause, "(" + StorageUtil.getWherePartClauseWithIn("dt", "test", days) + ")");
+
+    // the predicate doesn't match hourly partitions of the same days
+    String hourlyValue = "'" + UpdatePeriod.HOURLY.format().format(DateUtils.addHours(start, 31)) + "'";
+    Assert.assertFalse(whereClause.contains("BETWEEN"));
+    Assert.assertFalse(whereClause.contains(hourlyValue));
+
+    // nor in a storage table whose update periods are not known
+    answeringParts.clear();
+    for (int day = 0; day < 10; day++) {
+      answeringParts.add(getPart(DateUtils.addDays(start, day), UpdatePeriod.DAILY, "c2_unknown"));
+    }
+    Assert.assertFalse(getStorageAwareWriter().getTimeRangeWhereClause(null, "test", answeringParts)
+      .contains("BETWEEN"));
+  }
+
+  private static String getRange(Date start, int fromHour, int toHour, DateFormat format) {
+    return "(test.dt BETWEEN '" + format.format(DateUtils.addHours(start, fromHour)) + "' AND '"
+      + format.format(DateUtils.addHours(start, toHour)) + "')";
+  }
+}
@@ -49,11 +49,12 @@ public class TestFactPartitionBasedQueryCostCalculator {
   AbstractQueryContext queryContext;
   FactPartitionBasedQueryCostCalculator calculator = new FactPartitionBasedQueryCostCalculator();
   LensDriver driver;
+  Configuration driverConf = new Configuration();
 
   @BeforeTest
   public void setUp() {
     driver = mock(LensDriver.class);
-    when(driver.getConf()).thenReturn(new Configuration());
+    when(driver.getConf()).thenReturn(driverConf);
     queryContext = mock(AbstractQueryContext.class);
 
     ImmutableMap<String, Double> tableWeights = mock(ImmutableMap.class);
@@ -89,6 +90,17 @@ public class TestFactPartitionBasedQueryCostCalculator {
     Assert.assertTrue(cost.getEstimatedResourceUsage() < 19.0);
   }
 
+  @Test
+  public void testDriverWeight() throws Exception {
+    double cost = calculator.calculateCost(queryContext, driver).getEstimatedResourceUsage();
+    driverConf.setDouble(FactPartitionBasedQueryCostCalculator.DRIVER_COST_WEIGHT, 0.5);
+    try {
+      Assert.assertEquals(calculator.calculateCost(queryContext, driver).getEstimatedResourceUsage(), cost / 2, 1e-9);
+    } finally {
+      driverConf.unset(FactPartitionBasedQueryCostCalculator.DRIVER_COST_WEIGHT);
+    }
+  }
+
   @Test
   public void testGetAllPartitions() throws Exception {
 
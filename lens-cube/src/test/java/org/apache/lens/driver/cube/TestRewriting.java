@@ -20,12 +20,19 @@ package org.apache.lens.driver.cube;
 
 import static org.mockito.Matchers.any;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
 import java.util.*;
 
 import org.apache.lens.api.LensConf;
+import org.apache.lens.cube.metadata.CubeFactTable;
+import org.apache.lens.cube.metadata.CubeInterface;
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.cube.parse.CubeQueryConfUtil;
 import org.apache.lens.cube.parse.CubeQueryContext;
 import org.apache.lens.cube.parse.CubeQueryRewriter;
 import org.apache.lens.cube.parse.HQLParser;
+import org.apache.lens.cube.parse.PruneCauses;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.driver.MockDriver;
@@ -58,7 +65,7 @@ import com.codahale.metrics.MetricRegistry;
 /**
  * The Class TestRewriting.
  */
-@PrepareForTest(RewriteUtil.class)
+@PrepareForTest({RewriteUtil.class, CubeMetastoreClient.class})
 @PowerMockIgnore({"org.apache.log4j.*", "javax.management.*", "javax.xml.*",
   "com.sun.org.apache.xerces.internal.jaxp.*", "ch.qos.logback.*", "org.slf4j.*", "org.w3c.dom*"})
 public class TestRewriting {
@@ -117,6 +124,7 @@ public class TestRewriting {
     CubeQueryContext context = Mockito.mock(CubeQueryContext.class);
     Mockito.when(context.toHQL()).thenReturn(query.substring(4));
     Mockito.when(context.toAST(any(Context.class))).thenReturn(HQLParser.parseHQL(query.substring(4), hconf));
+    Mockito.when(context.getFactPruningMsgs()).thenReturn(new PruneCauses<CubeFactTable>());
     return context;
   }
 
@@ -179,6 +187,8 @@ public class TestRewriting {
     MockDriver driver = new MockDriver();
     LensConf lensConf = new LensConf();
     Configuration conf = new Configuration();
+    // mocked rewriter fails after a number of rewrites, so every query has to reach it
+    conf.setBoolean(CubeQueryConfUtil.ENABLE_REWRITE_CACHE, false);
     driver.configure(conf);
     drivers.add(driver);
 
@@ -418,9 +428,11 @@ public class TestRewriting {
     Assert.assertEquals(cubeQueries.get(0).query,
       "cube select name from table where time_range_in('dt', '2014-06-24-23', '2014-06-25-00')");
 
-    // failing query for second driver
+    // failing query for second driver, which has a different cube query conf and so doesn't share the rewrite
     MockDriver driver2 = new MockDriver();
-    driver2.configure(conf);
+    Configuration driver2Conf = new Configuration(conf);
+    driver2Conf.set(CubeQueryConfUtil.DRIVER_SUPPORTED_STORAGES, "C1,C2");
+    driver2.configure(driver2Conf);
     drivers.add(driver2);
 
     Assert.assertEquals(drivers.size(), 2);
@@ -461,4 +473,122 @@ public class TestRewriting {
     Assert.assertNull(runnables.get(driver2).getRewrittenQuery());
     Assert.assertNotNull(ctx.getDriverRewriteError(driver2));
   }
+
+  /**
+   * Test caching of rewritten queries.
+   *
+   * @throws ParseException    the parse exception
+   * @throws SemanticException the semantic exception
+   * @throws LensException     the lens exception
+   */
+  @Test
+  public void testRewriteCache() throws ParseException, SemanticException, LensException {
+    List<LensDriver> drivers = new ArrayList<LensDriver>();
+    MockDriver driver = new MockDriver();
+    LensConf lensConf = new LensConf();
+    Configuration conf = new Configuration();
+    driver.configure(conf);
+    drivers.add(driver);
+
+    final CubeInterface cube = Mockito.mock(CubeInterface.class);
+    Mockito.when(cube.getName()).thenReturn("testcube");
+    CubeQueryRewriter mockWriter = Mockito.mock(CubeQueryRewriter.class);
+    Mockito.when(mockWriter.rewrite(any(String.class))).thenAnswer(new Answer<CubeQueryContext>() {
+      @Override
+      public CubeQueryContext answer(InvocationOnMock invocation) throws Throwable {
+        CubeQueryContext context = getMockedCubeContext((String) invocation.getArguments()[0]);
+        Mockito.when(context.getCube()).thenReturn(cube);
+        return context;
+      }
+    });
+    PowerMockito.stub(PowerMockito.method(RewriteUtil.class, "getCubeRewriter")).toReturn(mockWriter);
+    final Map<String, Long> tableVersions = new HashMap<String, Long>();
+    PowerMockito.replace(PowerMockito.method(CubeMetastoreClient.class, "getTableVersion", String.class))
+      .with(new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          String table = (String) args[0];
+          Long version = tableVersions.get(table.substring(table.indexOf('.') + 1));
+          return version == null ? 0L : version;
+        }
+      });
+
+    String query = "cube select name from table where key = 'cached'";
+    QueryContext ctx = new QueryContext(query, null, lensConf, conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    Assert.assertEquals(ctx.getDriverContext().getDriverQuery(driver), "select name from table where key = 'cached'");
+
+    // same query is served from cache, even when formatted differently
+    ctx = new QueryContext("cube select name   from table where key = 'cached'", null, lensConf, conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    Assert.assertEquals(ctx.getDriverContext().getDriverQuery(driver), "select name from table where key = 'cached'");
+    Assert.assertTrue(ctx.isOlapQuery());
+    Assert.assertNotNull(ctx.getDriverContext().getDriverRewriterPlan(driver));
+    Mockito.verify(mockWriter, Mockito.times(1)).rewrite(any(String.class));
+
+    // a change in cube query conf rewrites again
+    conf.set(CubeQueryConfUtil.DRIVER_SUPPORTED_STORAGES, "C1");
+    ctx = new QueryContext(query, null, lensConf, conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    Mockito.verify(mockWriter, Mockito.times(2)).rewrite(any(String.class));
+
+    // queries with relative time ranges are never cached
+    String relativeQuery = "cube select name from table where time_range_in(dt, 'now.day', 'now')";
+    for (int j = 0; j < 2; j++) {
+      ctx = new QueryContext(relativeQuery, null, lensConf, conf, drivers);
+      runRewrites(RewriteUtil.rewriteQuery(ctx));
+    }
+    Mockito.verify(mockWriter, Mockito.times(4)).rewrite(any(String.class));
+
+    // a change of a table read by the rewrite rewrites again
+    ctx = new QueryContext(query, null, lensConf, conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    Mockito.verify(mockWriter, Mockito.times(4)).rewrite(any(String.class));
+    tableVersions.put("testcube", 1L);
+    ctx = new QueryContext(query, null, lensConf, conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    Mockito.verify(mockWriter, Mockito.times(5)).rewrite(any(String.class));
+  }
+
+  /**
+   * Test sharing of the rewrite across drivers with the same cube query conf.
+   *
+   * @throws ParseException    the parse exception
+   * @throws SemanticException the semantic exception
+   * @throws LensException     the lens exception
+   */
+  @Test
+  public void testSharedRewrite() throws ParseException, SemanticException, LensException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(CubeQueryConfUtil.ENABLE_REWRITE_CACHE, false);
+    conf.set(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY, TestRewriting.class.getSimpleName() + "-shared");
+    List<LensDriver> drivers = new ArrayList<LensDriver>();
+    for (int j = 0; j < 3; j++) {
+      MockDriver driver = new MockDriver();
+      driver.configure(new Configuration(conf));
+      drivers.add(driver);
+    }
+    // third driver has a cube query conf of its own
+    drivers.get(2).getConf().set(CubeQueryConfUtil.DRIVER_SUPPORTED_STORAGES, "C1");
+
+    CubeQueryRewriter mockWriter = Mockito.mock(CubeQueryRewriter.class);
+    Mockito.when(mockWriter.rewrite(any(String.class))).thenAnswer(new Answer<CubeQueryContext>() {
+      @Override
+      public CubeQueryContext answer(InvocationOnMock invocation) throws Throwable {
+        return getMockedCubeContext((String) invocation.getArguments()[0]);
+      }
+    });
+    PowerMockito.stub(PowerMockito.method(RewriteUtil.class, "getCubeRewriter")).toReturn(mockWriter);
+
+    QueryContext ctx = new QueryContext("cube select name from table", null, new LensConf(), conf, drivers);
+    runRewrites(RewriteUtil.rewriteQuery(ctx));
+    for (LensDriver driver : drivers) {
+      Assert.assertEquals(ctx.getDriverContext().getDriverQuery(driver), "select name from table");
+      Assert.assertNotNull(ctx.getDriverContext().getDriverRewriterPlan(driver));
+    }
+    // rewritten once for the first two drivers and once for the third
+    Mockito.verify(mockWriter, Mockito.times(2)).rewrite(any(String.class));
+    Assert.assertTrue(LensMetricsRegistry.getStaticRegistry().getGauges().keySet().contains(
+      "lens.MethodMetricGauge.TestRewriting-shared-MockDriver-RewriteUtil-rewriteQuery-shared"));
+  }
 }
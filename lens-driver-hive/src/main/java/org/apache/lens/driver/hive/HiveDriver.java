@@ -24,17 +24,20 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.LensSessionHandle;
 import org.apache.lens.api.query.QueryHandle;
 import org.apache.lens.api.query.QueryPrepareHandle;
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
 import org.apache.lens.cube.query.cost.FactPartitionBasedQueryCostCalculator;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.events.LensEventListener;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.AbstractQueryContext;
 import org.apache.lens.server.api.query.PreparedQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
@@ -61,6 +64,12 @@ import org.apache.hive.service.cli.thrift.TSessionHandle;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -75,6 +84,10 @@ public class HiveDriver implements LensDriver {
   /** The Constant HS2_CONNECTION_EXPIRY_DELAY. */
   public static final String HS2_CONNECTION_EXPIRY_DELAY = "lens.driver.hive.hs2.connection.expiry.delay";
 
+  /** Config params for the pool of thrift connections of each user */
+  public static final String HS2_CONNECTION_POOL_MAX_SIZE = "lens.driver.hive.hs2.connection.pool.max.size";
+  public static final String HS2_CONNECTION_POOL_WAIT_TIMEOUT = "lens.driver.hive.hs2.connection.pool.wait.timeout";
+
   public static final String HS2_CALCULATE_PRIORITY = "lens.driver.hive.calculate.priority";
   public static final String HS2_COST_CALCULATOR = "lens.driver.hive.cost.calculator.class";
 
@@ -83,10 +96,44 @@ public class HiveDriver implements LensDriver {
    */
   public static final String HS2_PRIORITY_RANGES = "lens.driver.hive.priority.ranges";
 
+  /** Config params for polling queries which are waited upon for completion */
+  public static final String HS2_COMPLETION_POLL_MIN_INTERVAL = "lens.driver.hive.completion.poll.min.interval.millis";
+  public static final String HS2_COMPLETION_POLL_MAX_INTERVAL = "lens.driver.hive.completion.poll.max.interval.millis";
+  public static final String HS2_COMPLETION_CALLBACK_THREADS = "lens.driver.hive.completion.callback.threads";
+
+  /** Config params for prefetching results of in-memory result sets */
+  public static final String HS2_RESULT_PREFETCH_ENABLED = "lens.driver.hive.result.prefetch.enabled";
+  public static final String HS2_RESULT_PREFETCH_MAX_BYTES = "lens.driver.hive.result.prefetch.max.bytes";
+  public static final String HS2_RESULT_PREFETCH_THREADS = "lens.driver.hive.result.prefetch.threads";
+
+  /** Config params for the cache of explain plans */
+  public static final String HS2_PLAN_CACHE_ENABLED = "lens.driver.hive.plan.cache.enabled";
+  public static final String HS2_PLAN_CACHE_MAX_SIZE = "lens.driver.hive.plan.cache.max.size";
+  public static final String HS2_PLAN_CACHE_EXPIRY_SECS = "lens.driver.hive.plan.cache.expiry.secs";
+
+  /** Metric names for the cache of explain plans */
+  public static final String PLAN_CACHE_HITS = "explain-plan-cache-hits";
+  public static final String PLAN_CACHE_MISSES = "explain-plan-cache-misses";
+
+  /** Metric names for queries which are waited upon for completion */
+  public static final String COMPLETION_WATCHES_OUTSTANDING = "completion-watches-outstanding";
+  public static final String COMPLETION_WATCHES_TIMED_OUT = "completion-watches-timed-out";
+
   // Default values of conf params
   public static final long DEFAULT_EXPIRY_DELAY = 600 * 1000;
+  public static final int DEFAULT_CONNECTION_POOL_MAX_SIZE = 25;
+  public static final long DEFAULT_CONNECTION_POOL_WAIT_TIMEOUT = 60 * 1000;
   public static final String HS2_PRIORITY_DEFAULT_RANGES = "VERY_HIGH,7.0,HIGH,30.0,NORMAL,90,LOW";
   public static final String SESSION_KEY_DELIMITER = ".";
+  public static final long DEFAULT_COMPLETION_POLL_MIN_INTERVAL = 100;
+  public static final long DEFAULT_COMPLETION_POLL_MAX_INTERVAL = 5000;
+  public static final int DEFAULT_COMPLETION_CALLBACK_THREADS = 5;
+  public static final boolean DEFAULT_RESULT_PREFETCH_ENABLED = false;
+  public static final long DEFAULT_RESULT_PREFETCH_MAX_BYTES = 16 * 1024 * 1024;
+  public static final int DEFAULT_RESULT_PREFETCH_THREADS = 10;
+  public static final boolean DEFAULT_PLAN_CACHE_ENABLED = true;
+  public static final long DEFAULT_PLAN_CACHE_MAX_SIZE = 1000;
+  public static final long DEFAULT_PLAN_CACHE_EXPIRY_SECS = 600;
 
   /** The driver conf- which will merged with query conf */
   private Configuration driverConf;
@@ -100,20 +147,29 @@ public class HiveDriver implements LensDriver {
   /** The session lock. */
   private final Lock sessionLock;
 
-  // connections need to be separate for each user and each thread
-  /** The thread connections. */
-  private final Map<String, ExpirableConnection> threadConnections =
-    new ConcurrentHashMap<String, ExpirableConnection>();
-
-  /** The thrift conn expiry queue. */
-  private final DelayQueue<ExpirableConnection> thriftConnExpiryQueue = new DelayQueue<ExpirableConnection>();
+  /** The pool of thrift connections, for each user. */
+  private volatile ThriftConnectionPool connectionPool;
 
-  /** The connection expiry thread. */
+  /** The connection expiry thread, evicting idle connections from the pool. */
   private final Thread connectionExpiryThread = new Thread(new ConnectionExpiryRunnable());
 
-  // assigned only in case of embedded connection
-  /** The embedded connection. */
-  private ThriftConnection embeddedConnection;
+  /** Queries waited upon for completion, all polled by the completion poller. */
+  private final Set<CompletionWatch> completionWatches =
+    Collections.newSetFromMap(new ConcurrentHashMap<CompletionWatch, Boolean>());
+
+  /** The completion poller. */
+  private ScheduledExecutorService completionPoller;
+
+  /** The pool calling back completion listeners. */
+  private ExecutorService completionCallbackPool;
+
+  /** The pool prefetching results of in-memory result sets. */
+  private ExecutorService resultPrefetchPool;
+
+  /** The minimum and maximum intervals between polls of a query waited upon. */
+  private long completionPollMinInterval;
+  private long completionPollMaxInterval;
+
   // Store mapping of Lens session ID to Hive session identifier
   /** The lens to hive session. */
   private Map<String, SessionHandle> lensToHiveSession;
@@ -123,6 +179,12 @@ public class HiveDriver implements LensDriver {
   /** The driver listeners. */
   private List<LensEventListener<DriverEvent>> driverListeners;
 
+  /** Plans of queries already explained. */
+  private Cache<PlanCacheKey, CachedPlan> planCache;
+
+  /** The hive conf of the driver, against which hive conf of queries is compared for caching plans. */
+  private Map<String, String> driverHiveConf;
+
   QueryCostCalculator queryCostCalculator;
   QueryPriorityDecider queryPriorityDecider;
   // package-local. Test case can change.
@@ -172,17 +234,10 @@ public class HiveDriver implements LensDriver {
     public void run() {
       try {
         while (true) {
-          ExpirableConnection expired = thriftConnExpiryQueue.take();
-          expired.setExpired();
-          ThriftConnection thConn = expired.getConnection();
-
-          if (thConn != null) {
-            try {
-              log.info("Closed connection:" + expired.getConnId());
-              thConn.close();
-            } catch (IOException e) {
-              log.error("Error closing connection", e);
-            }
+          Thread.sleep(Math.max(connectionExpiryTimeout / 2, 1000));
+          ThriftConnectionPool pool = connectionPool;
+          if (pool != null) {
+            pool.evictIdle();
           }
         }
       } catch (InterruptedException intr) {
@@ -192,99 +247,18 @@ public class HiveDriver implements LensDriver {
     }
   }
 
-  /** The Constant CONNECTION_COUNTER. */
-  private static final AtomicInteger CONNECTION_COUNTER = new AtomicInteger();
-
-  /**
-   * The Class ExpirableConnection.
-   */
-  static class ExpirableConnection implements Delayed {
-
-    /** The access time. */
-    long accessTime;
-
-    /** The conn. */
-    private final ThriftConnection conn;
-
-    /** The timeout. */
-    private final long timeout;
-
-    /** The expired. */
-    private volatile boolean expired;
-
-    /** The conn id. */
-    private final int connId;
-
-    /**
-     * Instantiates a new expirable connection.
-     *
-     * @param conn    the conn
-     * @param timeout the timeout
-     */
-    public ExpirableConnection(ThriftConnection conn, long timeout) {
-      this.conn = conn;
-      this.timeout = timeout;
-      connId = CONNECTION_COUNTER.incrementAndGet();
-      accessTime = System.currentTimeMillis();
-    }
-
-    private ThriftConnection getConnection() {
-      accessTime = System.currentTimeMillis();
-      return conn;
-    }
-
-    private boolean isExpired() {
-      return expired;
-    }
-
-    /**
-     * Sets the expired.
-     */
-    private void setExpired() {
-      expired = true;
-    }
-
-    private int getConnId() {
-      return connId;
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see java.lang.Comparable#compareTo(java.lang.Object)
-     */
-    @Override
-    public int compareTo(Delayed other) {
-      return (int) (this.getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS));
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see java.util.concurrent.Delayed#getDelay(java.util.concurrent.TimeUnit)
-     */
-    @Override
-    public long getDelay(TimeUnit unit) {
-      long age = System.currentTimeMillis() - accessTime;
-      return unit.convert(timeout - age, TimeUnit.MILLISECONDS);
-    }
-  }
-
   /**
    * Open connections.
    *
    * @return the int
    */
   int openConnections() {
-    return thriftConnExpiryQueue.size();
+    return connectionPool.size();
   }
 
   /** The connection class. */
   private Class<? extends ThriftConnection> connectionClass;
 
-  /** The is embedded. */
-  private boolean isEmbedded;
-
   /** The connection expiry timeout. */
   private long connectionExpiryTimeout;
 
@@ -328,8 +302,10 @@ public class HiveDriver implements LensDriver {
 
     connectionClass = this.driverConf.getClass(HIVE_CONNECTION_CLASS, EmbeddedThriftConnection.class,
       ThriftConnection.class);
-    isEmbedded = (connectionClass.getName().equals(EmbeddedThriftConnection.class.getName()));
     connectionExpiryTimeout = this.driverConf.getLong(HS2_CONNECTION_EXPIRY_DELAY, DEFAULT_EXPIRY_DELAY);
+    connectionPool = new ThriftConnectionPool(connectionClass, hiveConf,
+      this.driverConf.getInt(HS2_CONNECTION_POOL_MAX_SIZE, DEFAULT_CONNECTION_POOL_MAX_SIZE), connectionExpiryTimeout,
+      this.driverConf.getLong(HS2_CONNECTION_POOL_WAIT_TIMEOUT, DEFAULT_CONNECTION_POOL_WAIT_TIMEOUT));
     whetherCalculatePriority = this.driverConf.getBoolean(HS2_CALCULATE_PRIORITY, true);
     Class<? extends QueryCostCalculator> queryCostCalculatorClass = this.driverConf.getClass(HS2_COST_CALCULATOR,
       FactPartitionBasedQueryCostCalculator.class, QueryCostCalculator.class);
@@ -341,6 +317,63 @@ public class HiveDriver implements LensDriver {
     queryPriorityDecider = new CostRangePriorityDecider(
       new CostToPriorityRangeConf(driverConf.get(HS2_PRIORITY_RANGES, HS2_PRIORITY_DEFAULT_RANGES))
     );
+    long planCacheExpirySecs = driverConf.getLong(HS2_PLAN_CACHE_EXPIRY_SECS, DEFAULT_PLAN_CACHE_EXPIRY_SECS);
+    planCache = CacheBuilder.newBuilder()
+      .maximumSize(driverConf.getLong(HS2_PLAN_CACHE_MAX_SIZE, DEFAULT_PLAN_CACHE_MAX_SIZE))
+      .expireAfterWrite(planCacheExpirySecs, TimeUnit.SECONDS).build();
+    driverHiveConf = driverConf.getValByRegex(HIVE_CONF_REGEX);
+    startBackgroundThreads();
+  }
+
+  /**
+   * Starts the poller of queries waited upon for completion, the pool calling back their listeners, and the pool
+   * prefetching results.
+   */
+  private synchronized void startBackgroundThreads() {
+    if (completionPoller != null) {
+      return;
+    }
+    completionPollMinInterval = driverConf.getLong(HS2_COMPLETION_POLL_MIN_INTERVAL,
+      DEFAULT_COMPLETION_POLL_MIN_INTERVAL);
+    completionPollMaxInterval = Math.max(completionPollMinInterval,
+      driverConf.getLong(HS2_COMPLETION_POLL_MAX_INTERVAL, DEFAULT_COMPLETION_POLL_MAX_INTERVAL));
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    final AtomicInteger thId = new AtomicInteger();
+    completionPoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread th = defaultFactory.newThread(r);
+        th.setName("HiveDriver-CompletionPoller");
+        th.setDaemon(true);
+        return th;
+      }
+    });
+    completionCallbackPool = Executors.newFixedThreadPool(
+      driverConf.getInt(HS2_COMPLETION_CALLBACK_THREADS, DEFAULT_COMPLETION_CALLBACK_THREADS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread th = defaultFactory.newThread(r);
+          th.setName("HiveDriver-CompletionCallback-" + thId.incrementAndGet());
+          th.setDaemon(true);
+          return th;
+        }
+      });
+    completionPoller.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        pollCompletionWatches();
+      }
+    }, completionPollMinInterval, completionPollMinInterval, TimeUnit.MILLISECONDS);
+    resultPrefetchPool = Executors.newFixedThreadPool(
+      driverConf.getInt(HS2_RESULT_PREFETCH_THREADS, DEFAULT_RESULT_PREFETCH_THREADS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread th = defaultFactory.newThread(r);
+          th.setName("HiveDriver-ResultPrefetch-" + thId.incrementAndGet());
+          th.setDaemon(true);
+          return th;
+        }
+      });
   }
 
   private QueryCost calculateQueryCost(AbstractQueryContext qctx) throws LensException {
@@ -387,6 +420,19 @@ public class HiveDriver implements LensDriver {
       // explain called again and again
       return (HiveQueryPlan) explainCtx.getDriverContext().getDriverQueryPlan(this);
     }
+    PlanCacheKey cacheKey = getPlanCacheKey(explainCtx);
+    // version is read before explaining, so that tables changed during the explain are not cached as unchanged
+    long versionBeforeExplain = CubeMetastoreClient.getMetastoreVersion();
+    if (cacheKey != null) {
+      CachedPlan cached = planCache.getIfPresent(cacheKey);
+      if (cached != null && cached.isCurrent()) {
+        getCounter(PLAN_CACHE_HITS).inc();
+        HiveQueryPlan hqp = cached.plan.copy();
+        explainCtx.getDriverContext().setDriverQueryPlan(this, hqp);
+        return hqp;
+      }
+      getCounter(PLAN_CACHE_MISSES).inc();
+    }
     log.info("Explain: " + explainCtx.getDriverQuery(this));
     Configuration explainConf = new Configuration(explainCtx.getDriverConf(this));
     explainConf.setClassLoader(explainCtx.getConf().getClassLoader());
@@ -407,12 +453,153 @@ public class HiveDriver implements LensDriver {
       hiveConf.setClassLoader(explainCtx.getConf().getClassLoader());
       HiveQueryPlan hqp = new HiveQueryPlan(explainOutput, null, hiveConf, calculateQueryCost(explainCtx));
       explainCtx.getDriverContext().setDriverQueryPlan(this, hqp);
+      if (cacheKey != null) {
+        cachePlan(cacheKey, hqp, versionBeforeExplain);
+      }
       return hqp;
     } catch (HiveException e) {
       throw new LensException("Unable to create hive query plan", e);
     }
   }
 
+  /** Hive conf keys, which are passed on to the hive server with the query and can change its plan. */
+  private static final String HIVE_CONF_REGEX = "^hive\\..*";
+
+  /** Statements which change tables, after which cached plans can be stale. */
+  private static final Pattern DDL_PATTERN = Pattern.compile("^\\s*(CREATE|DROP|ALTER|LOAD|TRUNCATE|MSCK|IMPORT)\\s",
+    Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Key of a cached plan, made of everything the plan depends on apart from the tables it reads: the user, since hive
+   * authorizes the query for the user while explaining it, the current database, the hive conf of the query which
+   * differs from that of the driver, and the query with its formatting normalized.
+   */
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static final class PlanCacheKey {
+    private final String user;
+    private final String database;
+    private final Map<String, String> hiveConfOverrides;
+    private final String query;
+  }
+
+  /**
+   * A cached plan along with the versions of the tables it reads, as of explaining it. The plan is used only while
+   * none of the tables have changed through the cube metastore client. Changes made outside lens, through hive
+   * directly, are not tracked and are seen only once the cached plan expires.
+   */
+  @AllArgsConstructor
+  private static final class CachedPlan {
+    private final HiveQueryPlan plan;
+    private final Map<String, Long> tableVersions;
+
+    boolean isCurrent() {
+      for (Map.Entry<String, Long> entry : tableVersions.entrySet()) {
+        if (CubeMetastoreClient.getTableVersion(entry.getKey()) != entry.getValue()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Gets the key for caching the plan of the query, or null if plans aren't cached for it.
+   *
+   * @param ctx the query context
+   * @return the cache key
+   */
+  private PlanCacheKey getPlanCacheKey(AbstractQueryContext ctx) {
+    Configuration qdconf = ctx.getDriverConf(this);
+    if (planCache == null || !qdconf.getBoolean(HS2_PLAN_CACHE_ENABLED, DEFAULT_PLAN_CACHE_ENABLED)) {
+      return null;
+    }
+    Map<String, String> overrides = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : qdconf.getValByRegex(HIVE_CONF_REGEX).entrySet()) {
+      if (!entry.getValue().equals(driverHiveConf.get(entry.getKey()))) {
+        overrides.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return new PlanCacheKey(ctx.getSubmittedUser(), ctx.getDatabase(), overrides,
+      normalizeQuery(ctx.getDriverQuery(this)));
+  }
+
+  /**
+   * Caches a plan along with the current versions of the tables it reads, unless any of them changed since the given
+   * metastore version, which was read before explaining.
+   *
+   * @param cacheKey             the cache key
+   * @param plan                 the plan
+   * @param versionBeforeExplain metastore version read before explaining
+   */
+  private void cachePlan(PlanCacheKey cacheKey, HiveQueryPlan plan, long versionBeforeExplain) {
+    Map<String, Long> tableVersions = new HashMap<String, Long>();
+    for (String table : plan.getTablesQueried()) {
+      long version = CubeMetastoreClient.getTableVersion(table);
+      if (version > versionBeforeExplain) {
+        return;
+      }
+      tableVersions.put(table, version);
+    }
+    planCache.put(cacheKey, new CachedPlan(plan.copy(), tableVersions));
+  }
+
+  /**
+   * Query with runs of whitespace outside quoted strings collapsed into a single space, so that queries differing only
+   * in formatting share cached plans.
+   *
+   * @param query the query
+   * @return the normalized query
+   */
+  static String normalizeQuery(String query) {
+    StringBuilder normalized = new StringBuilder(query.length());
+    char quote = 0;
+    boolean space = false;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote == 0 && Character.isWhitespace(c)) {
+        space = true;
+        continue;
+      }
+      if (space && normalized.length() > 0) {
+        normalized.append(' ');
+      }
+      space = false;
+      normalized.append(c);
+      if (quote == 0) {
+        if (c == '\'' || c == '"' || c == '`') {
+          quote = c;
+        }
+      } else if (c == '\\' && i + 1 < query.length()) {
+        normalized.append(query.charAt(++i));
+      } else if (c == quote) {
+        quote = 0;
+      }
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Invalidates all cached plans if the query changes tables. Changes made through the cube metastore client are
+   * taken care of by the metastore version in the cache keys, while this catches those made by queries on this driver.
+   *
+   * @param query the driver query
+   */
+  private void invalidatePlansOnDdl(String query) {
+    if (planCache != null && query != null && DDL_PATTERN.matcher(query).find()) {
+      planCache.invalidateAll();
+    }
+  }
+
+  /**
+   * Number of plans cached, used in tests.
+   *
+   * @return the number of cached plans
+   */
+  long getPlanCacheSize() {
+    return planCache.size();
+  }
+
   // this is used for tests
   int getHiveHandleSize() {
     return hiveHandles.size();
@@ -464,13 +651,20 @@ public class HiveDriver implements LensDriver {
       addPersistentPath(ctx);
       Configuration qdconf = ctx.getDriverConf(this);
       qdconf.set("mapred.job.name", ctx.getQueryHandle().toString());
-      OperationHandle op = getClient().executeStatement(getSession(ctx), ctx.getSelectedDriverQuery(),
-        qdconf.getValByRegex(".*"));
+      SessionHandle session = getSession(ctx);
+      OperationHandle op;
+      try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+        op = connection.getClient().executeStatement(session, ctx.getSelectedDriverQuery(),
+          qdconf.getValByRegex(".*"));
+      }
       log.info("The hive operation handle: " + op);
       ctx.setDriverOpHandle(op.toString());
       hiveHandles.put(ctx.getQueryHandle(), op);
       updateStatus(ctx);
-      OperationStatus status = getClient().getOperationStatus(op);
+      OperationStatus status;
+      try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+        status = connection.getClient().getOperationStatus(op);
+      }
 
       if (status.getState() == OperationState.ERROR) {
         throw new LensException("Unknown error while running query " + ctx.getUserQuery());
@@ -523,8 +717,12 @@ public class HiveDriver implements LensDriver {
       if (userConfigLoader != null) {
         userConfigLoader.preSubmit(ctx);
       }
-      OperationHandle op = getClient().executeStatementAsync(getSession(ctx), ctx.getSelectedDriverQuery(),
-        qdconf.getValByRegex(".*"));
+      SessionHandle session = getSession(ctx);
+      OperationHandle op;
+      try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+        op = connection.getClient().executeStatementAsync(session, ctx.getSelectedDriverQuery(),
+          qdconf.getValByRegex(".*"));
+      }
       ctx.setDriverOpHandle(op.toString());
       log.info("QueryHandle: " + ctx.getQueryHandle() + " HiveHandle:" + op);
       hiveHandles.put(ctx.getQueryHandle(), op);
@@ -552,7 +750,10 @@ public class HiveDriver implements LensDriver {
     try {
       // Get operation status from hive server
       log.debug("GetStatus hiveHandle: " + hiveHandle);
-      OperationStatus opStatus = getClient().getOperationStatus(hiveHandle);
+      OperationStatus opStatus;
+      try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+        opStatus = connection.getClient().getOperationStatus(hiveHandle);
+      }
       log.debug("GetStatus on hiveHandle: " + hiveHandle + " returned state:" + opStatus.getState().name());
 
       switch (opStatus.getState()) {
@@ -575,6 +776,7 @@ public class HiveDriver implements LensDriver {
         context.getDriverStatus().setState(DriverQueryState.SUCCESSFUL);
         context.getDriverStatus().setStatusMessage("Query is successful!");
         context.getDriverStatus().setResultSetAvailable(hiveHandle.hasResultSet());
+        invalidatePlansOnDdl(context.getSelectedDriverQuery());
         break;
       case INITIALIZED:
         context.getDriverStatus().setState(DriverQueryState.INITIALIZED);
@@ -694,8 +896,8 @@ public class HiveDriver implements LensDriver {
     OperationHandle opHandle = hiveHandles.remove(handle);
     if (opHandle != null) {
       log.info("CloseQuery: " + opHandle);
-      try {
-        getClient().closeOperation(opHandle);
+      try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+        connection.getClient().closeOperation(opHandle);
       } catch (HiveSQLException e) {
         checkInvalidOperation(handle, e);
         throw new LensException("Unable to close query", e);
@@ -712,9 +914,9 @@ public class HiveDriver implements LensDriver {
   public boolean cancelQuery(QueryHandle handle) throws LensException {
     log.info("CancelQuery: " + handle);
     OperationHandle hiveHandle = getHiveHandle(handle);
-    try {
-      log.info("CancelQuery hiveHandle: " + hiveHandle);
-      getClient().cancelOperation(hiveHandle);
+    log.info("CancelQuery hiveHandle: " + hiveHandle);
+    try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+      connection.getClient().cancelOperation(hiveHandle);
       return true;
     } catch (HiveSQLException e) {
       checkInvalidOperation(handle, e);
@@ -734,8 +936,8 @@ public class HiveDriver implements LensDriver {
     sessionLock.lock();
     try {
       for (String lensSessionDbKey : lensToHiveSession.keySet()) {
-        try {
-          getClient().closeSession(lensToHiveSession.get(lensSessionDbKey));
+        try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+          connection.getClient().closeSession(lensToHiveSession.get(lensSessionDbKey));
         } catch (Exception e) {
           checkInvalidSession(e);
           log.warn("Error closing session for lens session: " + lensSessionDbKey + ", hive session: "
@@ -746,6 +948,16 @@ public class HiveDriver implements LensDriver {
     } finally {
       sessionLock.unlock();
     }
+    if (connectionPool != null) {
+      connectionPool.closeAll();
+    }
+    synchronized (this) {
+      if (completionPoller != null) {
+        completionPoller.shutdownNow();
+        completionCallbackPool.shutdown();
+        resultPrefetchPool.shutdown();
+      }
+    }
   }
 
   /**
@@ -763,48 +975,26 @@ public class HiveDriver implements LensDriver {
     this.userConfigLoader = userConfigLoader;
   }
 
-  protected CLIServiceClient getClient() throws LensException {
-    if (isEmbedded) {
-      if (embeddedConnection == null) {
-        try {
-          embeddedConnection = connectionClass.newInstance();
-          embeddedConnection.init(hiveConf, null);
-        } catch (Exception e) {
-          throw new LensException(e);
-        }
-        log.info("New thrift connection " + connectionClass);
-      }
-      return embeddedConnection.getClient();
-    } else {
-      String user = hiveConf.getVar(HiveConf.ConfVars.HIVE_SERVER2_THRIFT_CLIENT_USER);
-      if (SessionState.get() != null && SessionState.get().getUserName() != null) {
-        user = SessionState.get().getUserName();
-      }
+  /**
+   * Checks out a thrift connection of the current user from the connection pool. The connection has to be closed after
+   * use, which returns it to the pool.
+   *
+   * @return the connection
+   * @throws LensException the lens exception
+   */
+  ThriftConnectionPool.PooledConnection checkoutConnection() throws LensException {
+    return connectionPool.checkout(getConnectionUser());
+  }
 
-      String connectionKey = user.toLowerCase() + Thread.currentThread().getId();
-      ExpirableConnection connection = threadConnections.get(connectionKey);
-      if (connection == null || connection.isExpired()) {
-        try {
-          ThriftConnection tconn = connectionClass.newInstance();
-          tconn.init(hiveConf, user);
-          connection = new ExpirableConnection(tconn, connectionExpiryTimeout);
-          thriftConnExpiryQueue.offer(connection);
-          threadConnections.put(connectionKey, connection);
-          log.info("New thrift connection " + connectionClass + " for thread:" + Thread.currentThread().getId()
-            + " for user:" + user + " connection ID=" + connection.getConnId());
-        } catch (Exception e) {
-          throw new LensException(e);
-        }
-      } else {
-        synchronized (thriftConnExpiryQueue) {
-          thriftConnExpiryQueue.remove(connection);
-          thriftConnExpiryQueue.offer(connection);
-        }
-      }
-      return connection.getConnection().getClient();
+  private String getConnectionUser() {
+    String user = hiveConf.getVar(HiveConf.ConfVars.HIVE_SERVER2_THRIFT_CLIENT_USER);
+    if (SessionState.get() != null && SessionState.get().getUserName() != null) {
+      user = SessionState.get().getUserName();
     }
+    return user;
   }
 
+
   /**
    * Creates the result set.
    *
@@ -818,9 +1008,16 @@ public class HiveDriver implements LensDriver {
     log.info("Creating result set for hiveHandle:" + op);
     try {
       if (context.isDriverPersistent()) {
-        return new HivePersistentResultSet(new Path(context.getHdfsoutPath()), op, getClient());
+        try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+          return new HivePersistentResultSet(new Path(context.getHdfsoutPath()), op, connection.getClient());
+        }
       } else if (op.hasResultSet()) {
-        return new HiveInMemoryResultSet(op, getClient(), closeAfterFetch);
+        Configuration qdconf = context.getDriverConf(this);
+        if (qdconf.getBoolean(HS2_RESULT_PREFETCH_ENABLED, DEFAULT_RESULT_PREFETCH_ENABLED)) {
+          return new HiveInMemoryResultSet(op, connectionPool, getConnectionUser(), closeAfterFetch, resultPrefetchPool,
+            qdconf.getLong(HS2_RESULT_PREFETCH_MAX_BYTES, DEFAULT_RESULT_PREFETCH_MAX_BYTES));
+        }
+        return new HiveInMemoryResultSet(op, connectionPool, getConnectionUser(), closeAfterFetch);
       } else {
         // queries that do not have result
         return null;
@@ -888,8 +1085,8 @@ public class HiveDriver implements LensDriver {
 
       SessionHandle hiveSession;
       if (!lensToHiveSession.containsKey(sessionDbKey)) {
-        try {
-          hiveSession = getClient().openSession(ctx.getClusterUser(), "");
+        try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+          hiveSession = connection.getClient().openSession(ctx.getClusterUser(), "");
           lensToHiveSession.put(sessionDbKey, hiveSession);
           log.info("New hive session for user: " + ctx.getClusterUser() + ", lens session: " + sessionDbKey
             + " hive session handle: " + hiveSession.getHandleIdentifier());
@@ -929,93 +1126,139 @@ public class HiveDriver implements LensDriver {
   }
 
   /**
-   * The Class QueryCompletionNotifier.
+   * A query waited upon for completion. The query is polled with increasing intervals, starting from the minimum poll
+   * interval and doubling up to the maximum, since longer running queries need less frequent polling.
    */
-  private class QueryCompletionNotifier implements Runnable {
+  private static class CompletionWatch {
 
-    /** The poll interval. */
-    long pollInterval;
+    /** The handle. */
+    final QueryHandle handle;
 
-    /** The hive handle. */
-    OperationHandle hiveHandle;
+    /** The listener. */
+    final QueryCompletionListener listener;
 
-    /** The timeout millis. */
-    long timeoutMillis;
+    /** The time after which the watch times out. */
+    final long deadline;
 
-    /** The listener. */
-    QueryCompletionListener listener;
+    /** The current poll interval. */
+    long pollInterval;
 
-    /** The handle. */
-    QueryHandle handle;
+    /** The time of the next poll. */
+    long nextPollTime;
 
-    /**
-     * Instantiates a new query completion notifier.
-     *
-     * @param handle        the handle
-     * @param timeoutMillis the timeout millis
-     * @param listener      the listener
-     * @throws LensException the lens exception
-     */
-    QueryCompletionNotifier(QueryHandle handle, long timeoutMillis, QueryCompletionListener listener)
-      throws LensException {
+    CompletionWatch(QueryHandle handle, long timeoutMillis, QueryCompletionListener listener, long pollInterval) {
       this.handle = handle;
-      this.timeoutMillis = timeoutMillis;
       this.listener = listener;
-      this.pollInterval = timeoutMillis / 10;
+      this.pollInterval = pollInterval;
+      long now = System.currentTimeMillis();
+      this.deadline = now + timeoutMillis;
+      this.nextPollTime = now;
     }
 
-    /*
-     * (non-Javadoc)
-     *
-     * @see java.lang.Runnable#run()
-     */
-    @Override
-    public void run() {
-      // till query is complete or timeout has reached
-      long timeSpent = 0;
-      String error;
-      try {
-        while (timeSpent <= timeoutMillis) {
-          try {
-            hiveHandle = getHiveHandle(handle);
-            if (isFinished(hiveHandle)) {
-              listener.onCompletion(handle);
-              return;
+    void backOff(long now, long maxPollInterval) {
+      nextPollTime = Math.min(now + pollInterval, deadline);
+      pollInterval = Math.min(pollInterval * 2, maxPollInterval);
+    }
+  }
+
+  private static Counter getCounter(String name) {
+    return LensMetricsRegistry.getStaticRegistry().counter(MetricRegistry.name(HiveDriver.class, name));
+  }
+
+  /**
+   * Polls all the queries waited upon which are due for a poll, over a single connection checked out for the pass.
+   * Queries which finished, or timed out, are removed and their listeners are called back from the callback pool.
+   */
+  private void pollCompletionWatches() {
+    long now = System.currentTimeMillis();
+    ThriftConnectionPool.PooledConnection connection = null;
+    try {
+      for (CompletionWatch watch : completionWatches) {
+        if (watch.nextPollTime > now) {
+          continue;
+        }
+        try {
+          OperationHandle hiveHandle = hiveHandles.get(watch.handle);
+          if (hiveHandle == null) {
+            log.debug("query handle: {} Not yet launched on driver", watch.handle);
+          } else {
+            if (connection == null) {
+              connection = checkoutConnection();
+            }
+            if (isFinished(connection.getClient(), hiveHandle)) {
+              notifyCompletion(watch, null);
+              continue;
             }
-          } catch(LensException e) {
-            log.debug("query handle: {} Not yet launched on driver", handle);
           }
-          Thread.sleep(pollInterval);
-          timeSpent += pollInterval;
+        } catch (LensException e) {
+          log.debug("Could not get status of query handle: {}", watch.handle, e);
+        } catch (Exception e) {
+          log.warn("Error while polling for status", e);
+          notifyCompletion(watch, "error polling");
+          continue;
         }
-        error = "timedout";
-      } catch (Exception e) {
-        log.warn("Error while polling for status", e);
-        error = "error polling";
+        if (now >= watch.deadline) {
+          getCounter(COMPLETION_WATCHES_TIMED_OUT).inc();
+          notifyCompletion(watch, "timedout");
+        } else {
+          watch.backOff(now, completionPollMaxInterval);
+        }
+      }
+    } finally {
+      if (connection != null) {
+        connection.close();
       }
-      listener.onError(handle, error);
     }
+  }
 
-    /**
-     * Checks if is finished.
-     *
-     * @param hiveHandle the hive handle
-     * @return true, if is finished
-     * @throws LensException the lens exception
-     */
-    private boolean isFinished(OperationHandle hiveHandle) throws LensException {
-      OperationState state;
-      try {
-        state = getClient().getOperationStatus(hiveHandle).getState();
-      } catch (HiveSQLException e) {
-        throw new LensException("Could not get Status", e);
-      }
-      if (state.equals(OperationState.FINISHED) || state.equals(OperationState.CANCELED)
-        || state.equals(OperationState.ERROR) || state.equals(OperationState.CLOSED)) {
-        return true;
+
+  /**
+   * Removes the watch and calls back its listener.
+   *
+   * @param watch the watch
+   * @param error the error, null if the query finished
+   */
+  private void notifyCompletion(final CompletionWatch watch, final String error) {
+    if (!completionWatches.remove(watch)) {
+      return;
+    }
+    getCounter(COMPLETION_WATCHES_OUTSTANDING).dec();
+    completionCallbackPool.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (error == null) {
+            watch.listener.onCompletion(watch.handle);
+          } else {
+            watch.listener.onError(watch.handle, error);
+          }
+        } catch (Exception e) {
+          log.error("Error notifying completion of query handle: " + watch.handle, e);
+        }
       }
-      return false;
+    });
+  }
+
+  /**
+   * Checks if is finished.
+   *
+   * @param client     the client
+   * @param hiveHandle the hive handle
+   * @return true, if is finished
+   * @throws LensException the lens exception
+   */
+  private boolean isFinished(CLIServiceClient client, OperationHandle hiveHandle) throws LensException {
+    OperationState state;
+    try {
+      state = client.getOperationStatus(hiveHandle).getState();
+    } catch (HiveSQLException e) {
+      throw new LensException("Could not get Status", e);
     }
+    if (state.equals(OperationState.FINISHED) || state.equals(OperationState.CANCELED)
+      || state.equals(OperationState.ERROR) || state.equals(OperationState.CLOSED)) {
+      return true;
+    }
+    return false;
   }
 
   /*
@@ -1029,8 +1272,12 @@ public class HiveDriver implements LensDriver {
   public void registerForCompletionNotification(
     QueryHandle handle, long timeoutMillis, QueryCompletionListener listener)
     throws LensException {
-    Thread th = new Thread(new QueryCompletionNotifier(handle, timeoutMillis, listener));
-    th.start();
+    if (completionPoller == null || completionPoller.isShutdown()) {
+      throw new LensException("Hive driver is not configured, or is closed");
+    }
+    CompletionWatch watch = new CompletionWatch(handle, timeoutMillis, listener, completionPollMinInterval);
+    getCounter(COMPLETION_WATCHES_OUTSTANDING).inc();
+    completionWatches.add(watch);
   }
 
   /*
@@ -1212,8 +1459,8 @@ public class HiveDriver implements LensDriver {
         if (sessionDbKey.startsWith(sessionIdentifier)) {
           SessionHandle hiveSession = lensToHiveSession.remove(sessionDbKey);
           if (hiveSession != null) {
-            try {
-              getClient().closeSession(hiveSession);
+            try (ThriftConnectionPool.PooledConnection connection = checkoutConnection()) {
+              connection.getClient().closeSession(hiveSession);
               log.info("Closed Hive session " + hiveSession.getHandleIdentifier() + " for lens session "
                 + sessionDbKey);
             } catch (Exception e) {
@@ -1233,16 +1480,7 @@ public class HiveDriver implements LensDriver {
    * Close all connections.
    */
   private void closeAllConnections() {
-    synchronized (thriftConnExpiryQueue) {
-      for (ExpirableConnection connection : threadConnections.values()) {
-        try {
-          connection.getConnection().close();
-        } catch (Exception ce) {
-          log.warn("Error closing connection to hive server");
-        }
-      }
-      threadConnections.clear();
-    }
+    connectionPool.closeAll();
   }
 
   // For test
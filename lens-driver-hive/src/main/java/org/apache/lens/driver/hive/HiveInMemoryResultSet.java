@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.*;
 
 import org.apache.lens.api.query.ResultRow;
 import org.apache.lens.server.api.driver.InMemoryResultSet;
@@ -38,8 +39,11 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class HiveInMemoryResultSet extends InMemoryResultSet {
 
-  /** The client. */
-  private final CLIServiceClient client;
+  /** The pool of connections, out of which a connection is checked out for each call. */
+  private final ThriftConnectionPool connectionPool;
+
+  /** The user of the connections. */
+  private final String user;
 
   /** The op handle. */
   private final OperationHandle opHandle;
@@ -66,20 +70,59 @@ public class HiveInMemoryResultSet extends InMemoryResultSet {
   int numColumns;
   private FetchOrientation orientation;
 
+  /** The pool prefetching batches, null if batches are fetched only when needed. */
+  private final ExecutorService prefetchPool;
+
+  /** Maximum size in bytes of the batch being read and the batch prefetched, together. */
+  private final long prefetchMaxBytes;
+
+  /** The batch being prefetched. */
+  private Future<RowSet> prefetchedRowSet;
+
+  /** Number of rows of the next batch, adapted to the row size and fetch latency when prefetching. */
+  private int batchSize;
+
   /**
    * Instantiates a new hive in memory result set.
    *
    * @param hiveHandle      the hive handle
-   * @param client          the client
+   * @param connectionPool  the connection pool
+   * @param user            the user of the connections
    * @param closeAfterFecth the close after fecth
    * @throws HiveSQLException the hive sql exception
+   * @throws LensException    if no connection could be checked out
+   */
+  HiveInMemoryResultSet(OperationHandle hiveHandle, ThriftConnectionPool connectionPool, String user,
+    boolean closeAfterFecth) throws HiveSQLException, LensException {
+    this(hiveHandle, connectionPool, user, closeAfterFecth, null, 0);
+  }
+
+  /**
+   * Instantiates a new hive in memory result set, which fetches the next batch of rows in background while the current
+   * batch is read. Batches are made larger when reads have to wait for the fetch, as long as the two batches fit in
+   * prefetchMaxBytes.
+   *
+   * @param hiveHandle       the hive handle
+   * @param connectionPool   the connection pool
+   * @param user             the user of the connections
+   * @param closeAfterFecth  the close after fecth
+   * @param prefetchPool     the pool prefetching batches, null to fetch batches only when needed
+   * @param prefetchMaxBytes maximum size in bytes of the two batches
+   * @throws HiveSQLException the hive sql exception
+   * @throws LensException    if no connection could be checked out
    */
-  public HiveInMemoryResultSet(OperationHandle hiveHandle, CLIServiceClient client, boolean closeAfterFecth)
-    throws HiveSQLException {
-    this.client = client;
+  HiveInMemoryResultSet(OperationHandle hiveHandle, ThriftConnectionPool connectionPool, String user,
+    boolean closeAfterFecth, ExecutorService prefetchPool, long prefetchMaxBytes)
+    throws HiveSQLException, LensException {
+    this.prefetchPool = prefetchPool;
+    this.prefetchMaxBytes = prefetchMaxBytes;
+    this.connectionPool = connectionPool;
+    this.user = user;
     this.opHandle = hiveHandle;
     this.closeAfterFecth = closeAfterFecth;
-    this.metadata = client.getResultSetMetadata(opHandle);
+    try (ThriftConnectionPool.PooledConnection connection = connectionPool.checkout(user)) {
+      this.metadata = connection.getClient().getResultSetMetadata(opHandle);
+    }
     this.numColumns = metadata.getColumnDescriptors().size();
     this.seekToStart();
   }
@@ -105,7 +148,12 @@ public class HiveInMemoryResultSet extends InMemoryResultSet {
 
   @Override
   public boolean seekToStart() {
+    // wait for the batch being prefetched, so that it doesn't move the cursor after the seek
+    discardPrefetched();
     orientation = FetchOrientation.FETCH_FIRST;
+    batchSize = fetchSize;
+    // discard rows of the batch fetched earlier, so that next fetch starts from first row
+    fetchedRowsItr = null;
     return true;
   }
 
@@ -116,24 +164,144 @@ public class HiveInMemoryResultSet extends InMemoryResultSet {
      */
   @Override
   public boolean hasNext() throws LensException {
+    if (prefetchPool != null) {
+      return hasNextPrefetched();
+    }
     if (fetchedRowsItr == null || !fetchedRowsItr.hasNext()) {
+      rowSet = fetch(orientation, fetchSize);
+      orientation = FetchOrientation.FETCH_NEXT;
+      noMoreResults = rowSet.numRows() == 0;
+      if (noMoreResults) {
+        return false;
+      }
+      fetchedRowsItr = rowSet.iterator();
+    }
+    return fetchedRowsItr.hasNext();
+  }
+
+  /**
+   * Same as {@link #hasNext()}, taking the batch prefetched when the current batch is read, and starting the prefetch
+   * of the batch after it.
+   */
+  private boolean hasNextPrefetched() throws LensException {
+    if (fetchedRowsItr != null && fetchedRowsItr.hasNext()) {
+      return true;
+    }
+    boolean waited = false;
+    if (prefetchedRowSet != null) {
+      waited = !prefetchedRowSet.isDone();
+      rowSet = getPrefetched();
+    } else {
+      rowSet = fetch(orientation, batchSize);
+    }
+    orientation = FetchOrientation.FETCH_NEXT;
+    noMoreResults = rowSet.numRows() == 0;
+    if (noMoreResults) {
+      return false;
+    }
+    fetchedRowsItr = rowSet.iterator();
+    adaptBatchSize(waited);
+    // only an empty batch is the last one, since the server can return fewer rows than requested
+    final int size = batchSize;
+    try {
+      prefetchedRowSet = prefetchPool.submit(new Callable<RowSet>() {
+        @Override
+        public RowSet call() throws Exception {
+          return fetch(FetchOrientation.FETCH_NEXT, size);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // driver is closing, next batch is fetched when needed
+      log.debug("Not prefetching results of " + opHandle, e);
+    }
+    return fetchedRowsItr.hasNext();
+  }
+
+  /**
+   * Fetches a batch of rows, closing the operation after the last batch if asked to.
+   */
+  private RowSet fetch(FetchOrientation fetchOrientation, int size) throws LensException {
+    try (ThriftConnectionPool.PooledConnection connection = connectionPool.checkout(user)) {
+      RowSet fetched = connection.getClient().fetchResults(opHandle, fetchOrientation, size);
+      if (fetched.numRows() == 0 && closeAfterFecth) {
+        log.info("No more results closing the query");
+        connection.getClient().closeOperation(opHandle);
+      }
+      return fetched;
+    } catch (LensException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new LensException(e);
+    }
+  }
+
+  private RowSet getPrefetched() throws LensException {
+    try {
+      return prefetchedRowSet.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new LensException("Interrupted while fetching results", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof LensException) {
+        throw (LensException) e.getCause();
+      }
+      throw new LensException(e.getCause());
+    } finally {
+      prefetchedRowSet = null;
+    }
+  }
+
+  private void discardPrefetched() {
+    if (prefetchedRowSet != null) {
       try {
-        rowSet = client.fetchResults(opHandle, orientation, fetchSize);
-        orientation = FetchOrientation.FETCH_NEXT;
-        noMoreResults = rowSet.numRows() == 0;
-        if (noMoreResults) {
-          if (closeAfterFecth) {
-            log.info("No more results closing the query");
-            client.closeOperation(opHandle);
-          }
-          return false;
+        getPrefetched();
+      } catch (LensException e) {
+        log.warn("Error prefetching results of " + opHandle, e);
+      }
+    }
+  }
+
+  /**
+   * Doubles the batch size if the read had to wait for the batch, since round trips then take longer than reading the
+   * rows. The size is limited so that the batch being read and the one prefetched together fit in the max bytes.
+   *
+   * @param waited whether the read waited for the batch
+   */
+  private void adaptBatchSize(boolean waited) {
+    long maxRows = Math.max(1, prefetchMaxBytes / 2 / estimateRowBytes(rowSet));
+    if (waited) {
+      batchSize = (int) Math.min(Math.min((long) batchSize * 2, maxRows), Integer.MAX_VALUE);
+    } else if (batchSize > maxRows) {
+      batchSize = (int) maxRows;
+    }
+  }
+
+  /** Number of rows sampled for estimating the size of a row. */
+  private static final int ROW_SIZE_SAMPLE = 10;
+
+  /**
+   * Rough size in bytes of a row of the row set, from the first few rows.
+   */
+  private static long estimateRowBytes(RowSet rows) {
+    long bytes = 0;
+    int sampled = 0;
+    for (Object[] row : rows) {
+      if (sampled == ROW_SIZE_SAMPLE) {
+        break;
+      }
+      sampled++;
+      bytes += 16;
+      for (Object value : row) {
+        if (value instanceof String) {
+          bytes += 40 + 2 * ((String) value).length();
+        } else if (value instanceof byte[]) {
+          bytes += 16 + ((byte[]) value).length;
+        } else {
+          bytes += 16;
         }
-        fetchedRowsItr = rowSet.iterator();
-      } catch (Exception e) {
-        throw new LensException(e);
       }
     }
-    return fetchedRowsItr.hasNext();
+    return Math.max(1, bytes / Math.max(1, sampled));
   }
 
   /*
@@ -154,5 +322,6 @@ public class HiveInMemoryResultSet extends InMemoryResultSet {
   public void setFetchSize(int size) throws LensException {
     assert size >= 0;
     fetchSize = size == 0 ? Integer.MAX_VALUE : size;
+    batchSize = fetchSize;
   }
 }
@@ -108,6 +108,33 @@ public class HiveQueryPlan extends DriverQueryPlan {
     extractPlanDetails(explainOutput, metastoreConf);
   }
 
+  /**
+   * Instantiates a copy of the plan.
+   *
+   * @param plan the plan
+   */
+  private HiveQueryPlan(HiveQueryPlan plan) {
+    this.cost = plan.cost;
+    this.explainOutput = plan.explainOutput;
+    setPrepareHandle(plan.getPrepareHandle());
+    setExecMode(plan.getExecMode());
+    setScanMode(plan.getScanMode());
+    setHasSubQuery(plan.hasSubQuery());
+    setResultDestination(plan.getResultDestination());
+    tablesQueried.addAll(plan.tablesQueried);
+    tableWeights.putAll(plan.tableWeights);
+    partitions.putAll(plan.partitions);
+  }
+
+  /**
+   * Copy of the plan, so that a plan cached by the driver isn't changed through the queries it is handed out to.
+   *
+   * @return the copy
+   */
+  HiveQueryPlan copy() {
+    return new HiveQueryPlan(this);
+  }
+
   /**
    * Extract plan details.
    *
@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.hive;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hive.service.cli.CLIServiceClient;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of thrift connections to HiveServer2, kept separately for each user. A connection is checked out for a call, or
+ * a few calls, and returned by closing the {@link PooledConnection}. Each user can have at most a bounded number of
+ * connections checked out, and further checkouts wait for one to be returned.
+ * <p/>
+ * Connections idle for longer than the max idle time are evicted by {@link #evictIdle()}, and are not handed out on
+ * checkout either, since the server or the network may have dropped them by then.
+ * <p/>
+ * Embedded connections each run their own in-process service, which doesn't know sessions opened through other
+ * connections. So a pool of embedded connections has just one connection, shared by all the checkouts.
+ * <p/>
+ * The time spent waiting for a connection is reported in the histogram {@link #POOL_WAIT}.
+ */
+@Slf4j
+class ThriftConnectionPool {
+
+  public static final String POOL_WAIT = "thrift-connection-pool-wait-millis";
+
+  private static final AtomicInteger CONNECTION_COUNTER = new AtomicInteger();
+
+  private final Class<? extends ThriftConnection> connectionClass;
+  private final HiveConf hiveConf;
+  private final int maxConnectionsPerUser;
+  private final long maxIdleMillis;
+  private final long waitTimeoutMillis;
+  private final boolean shared;
+
+  private final ConcurrentMap<String, UserPool> userPools = new ConcurrentHashMap<String, UserPool>();
+
+  /** Number of open connections. */
+  private final AtomicInteger openConnections = new AtomicInteger();
+
+  /** Connections of an older generation are closed when returned. */
+  private volatile int generation;
+
+  /** The connection shared by all checkouts, in case of embedded connections. */
+  private PooledConnection sharedConnection;
+
+  /**
+   * @param connectionClass       class of the connections
+   * @param hiveConf              conf the connections are initialized with
+   * @param maxConnectionsPerUser maximum number of connections of a user
+   * @param maxIdleMillis         time after which idle connections are closed
+   * @param waitTimeoutMillis     maximum time to wait for a connection on checkout
+   */
+  ThriftConnectionPool(Class<? extends ThriftConnection> connectionClass, HiveConf hiveConf,
+    int maxConnectionsPerUser, long maxIdleMillis, long waitTimeoutMillis) {
+    this.connectionClass = connectionClass;
+    this.hiveConf = hiveConf;
+    this.maxConnectionsPerUser = maxConnectionsPerUser;
+    this.maxIdleMillis = maxIdleMillis;
+    this.waitTimeoutMillis = waitTimeoutMillis;
+    this.shared = EmbeddedThriftConnection.class.isAssignableFrom(connectionClass);
+  }
+
+  /**
+   * Connections of a user.
+   */
+  private class UserPool {
+    private final Semaphore permits = new Semaphore(maxConnectionsPerUser, true);
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+  }
+
+  /**
+   * Connection checked out of the pool. Closing it returns the connection to the pool.
+   */
+  class PooledConnection implements Closeable {
+    private final String user;
+    private final ThriftConnection connection;
+    private final int connId;
+    private final int connGeneration;
+    private long returnTime;
+    private boolean checkedOut;
+
+    PooledConnection(String user, ThriftConnection connection, int connGeneration) {
+      this.user = user;
+      this.connection = connection;
+      this.connGeneration = connGeneration;
+      this.connId = CONNECTION_COUNTER.incrementAndGet();
+    }
+
+    CLIServiceClient getClient() throws LensException {
+      return connection.getClient();
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+  private UserPool getUserPool(String user) {
+    UserPool pool = userPools.get(user);
+    if (pool == null) {
+      userPools.putIfAbsent(user, new UserPool());
+      pool = userPools.get(user);
+    }
+    return pool;
+  }
+
+  /**
+   * Checks out a connection of the user, waiting for one to be returned if the user has the maximum number of
+   * connections checked out.
+   *
+   * @param user the user
+   * @return the connection
+   * @throws LensException if no connection could be got in the wait timeout, or opening a connection failed
+   */
+  PooledConnection checkout(String user) throws LensException {
+    if (shared) {
+      return getSharedConnection(user);
+    }
+    UserPool pool = getUserPool(user);
+    long waitStart = System.currentTimeMillis();
+    boolean acquired;
+    try {
+      acquired = pool.permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new LensException("Interrupted while waiting for thrift connection of user " + user, e);
+    }
+    LensMetricsRegistry.getStaticRegistry().histogram(MetricRegistry.name(ThriftConnectionPool.class, POOL_WAIT))
+      .update(System.currentTimeMillis() - waitStart);
+    if (!acquired) {
+      throw new LensException("Timed out waiting for thrift connection of user " + user);
+    }
+    boolean checkedOut = false;
+    try {
+      PooledConnection connection = pollIdle(pool);
+      if (connection == null) {
+        connection = newConnection(user);
+      }
+      synchronized (connection) {
+        connection.checkedOut = true;
+      }
+      checkedOut = true;
+      return connection;
+    } finally {
+      if (!checkedOut) {
+        pool.permits.release();
+      }
+    }
+  }
+
+  /**
+   * Most recently returned idle connection which is still usable, closing the ones which aren't.
+   */
+  private PooledConnection pollIdle(UserPool pool) {
+    long now = System.currentTimeMillis();
+    while (true) {
+      PooledConnection connection;
+      synchronized (pool.idle) {
+        connection = pool.idle.pollFirst();
+      }
+      if (connection == null) {
+        return null;
+      }
+      if (connection.connGeneration == generation && now - connection.returnTime < maxIdleMillis) {
+        return connection;
+      }
+      closeConnection(connection);
+    }
+  }
+
+  private synchronized PooledConnection getSharedConnection(String user) throws LensException {
+    if (sharedConnection == null) {
+      sharedConnection = newConnection(user);
+    }
+    return sharedConnection;
+  }
+
+  private PooledConnection newConnection(String user) throws LensException {
+    try {
+      ThriftConnection tconn = connectionClass.newInstance();
+      tconn.init(hiveConf, user);
+      PooledConnection connection = new PooledConnection(user, tconn, generation);
+      openConnections.incrementAndGet();
+      log.info("New thrift connection " + connectionClass + " for user:" + user + " connection ID="
+        + connection.connId);
+      return connection;
+    } catch (Exception e) {
+      throw new LensException(e);
+    }
+  }
+
+  private void release(PooledConnection connection) {
+    if (shared) {
+      return;
+    }
+    UserPool pool = getUserPool(connection.user);
+    synchronized (connection) {
+      if (!connection.checkedOut) {
+        return;
+      }
+      connection.checkedOut = false;
+    }
+    connection.returnTime = System.currentTimeMillis();
+    if (connection.connGeneration == generation) {
+      synchronized (pool.idle) {
+        pool.idle.offerFirst(connection);
+      }
+    } else {
+      closeConnection(connection);
+    }
+    pool.permits.release();
+  }
+
+  private void closeConnection(PooledConnection connection) {
+    openConnections.decrementAndGet();
+    try {
+      connection.connection.close();
+      log.info("Closed connection:" + connection.connId);
+    } catch (Exception e) {
+      log.warn("Error closing connection " + connection.connId, e);
+    }
+  }
+
+  /**
+   * Closes the connections which have been idle for longer than the max idle time.
+   */
+  void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (UserPool pool : userPools.values()) {
+      synchronized (pool.idle) {
+        Iterator<PooledConnection> iter = pool.idle.iterator();
+        while (iter.hasNext()) {
+          PooledConnection connection = iter.next();
+          if (connection.connGeneration != generation || now - connection.returnTime >= maxIdleMillis) {
+            iter.remove();
+            closeConnection(connection);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes all idle connections. Connections checked out are closed when they are returned.
+   */
+  synchronized void closeAll() {
+    if (sharedConnection != null) {
+      closeConnection(sharedConnection);
+      sharedConnection = null;
+    }
+    generation++;
+    evictIdle();
+  }
+
+  /**
+   * @return number of open connections
+   */
+  int size() {
+    return openConnections.get();
+  }
+}
@@ -26,16 +26,21 @@ import static org.testng.Assert.*;
 import java.io.*;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.Priority;
 import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
 import org.apache.lens.cube.metadata.FactPartition;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.*;
 import org.apache.lens.server.api.query.cost.QueryCost;
 import org.apache.lens.server.api.query.priority.CostRangePriorityDecider;
@@ -56,6 +61,9 @@ import org.apache.hive.service.cli.ColumnDescriptor;
 
 import org.testng.annotations.*;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
 
 /**
  * The Class TestHiveDriver.
@@ -295,6 +303,32 @@ public class TestHiveDriver {
     assertEquals(0, driver.getHiveHandleSize());
   }
 
+  /**
+   * Test reading results prefetched in small batches, and reading them again after seeking to start.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testExecuteQueryPrefetch() throws Exception {
+    createTestTable("test_execute_prefetch");
+    conf.setBoolean(LensConfConstants.QUERY_PERSISTENT_RESULT_INDRIVER, false);
+    conf.setBoolean(HiveDriver.HS2_RESULT_PREFETCH_ENABLED, true);
+    try {
+      QueryContext context = createContext("SELECT ID FROM test_execute_prefetch", conf);
+      driver.executeAsync(context);
+      waitForAsyncQuery(context, driver);
+      LensResultSet resultSet = driver.fetchResultSet(context);
+      ((HiveInMemoryResultSet) resultSet).setFetchSize(1);
+      validateInMemoryResult(resultSet);
+      assertTrue(((HiveInMemoryResultSet) resultSet).seekToStart());
+      validateInMemoryResult(resultSet);
+      driver.closeQuery(context.getQueryHandle());
+    } finally {
+      conf.setBoolean(HiveDriver.HS2_RESULT_PREFETCH_ENABLED, false);
+      conf.setBoolean(LensConfConstants.QUERY_PERSISTENT_RESULT_INDRIVER, true);
+    }
+  }
+
   /**
    * Validate in memory result.
    *
@@ -506,6 +540,42 @@ public class TestHiveDriver {
     }
   }
 
+  /**
+   * Test completion notification of queries.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCompletionNotification() throws Exception {
+    createTestTable("test_completion_notification");
+    conf.setBoolean(LensConfConstants.QUERY_PERSISTENT_RESULT_INDRIVER, false);
+    QueryContext context = createContext("SELECT ID FROM test_completion_notification", conf);
+    driver.executeAsync(context);
+    QueryHandle notLaunched = new QueryHandle(UUID.randomUUID());
+
+    final CountDownLatch latch = new CountDownLatch(2);
+    final Map<QueryHandle, String> results = new ConcurrentHashMap<QueryHandle, String>();
+    QueryCompletionListener listener = new QueryCompletionListener() {
+      @Override
+      public void onCompletion(QueryHandle handle) {
+        results.put(handle, "completed");
+        latch.countDown();
+      }
+
+      @Override
+      public void onError(QueryHandle handle, String error) {
+        results.put(handle, error);
+        latch.countDown();
+      }
+    };
+    driver.registerForCompletionNotification(context.getQueryHandle(), 60000, listener);
+    driver.registerForCompletionNotification(notLaunched, 500, listener);
+    assertTrue(latch.await(60, TimeUnit.SECONDS));
+    assertEquals(results.get(context.getQueryHandle()), "completed");
+    assertEquals(results.get(notLaunched), "timedout");
+    driver.closeQuery(context.getQueryHandle());
+  }
+
   /**
    * Validate persistent result.
    *
@@ -664,6 +734,55 @@ public class TestHiveDriver {
 
   // explain
 
+  /**
+   * Test plans of queries explained earlier are reused for the same user, and dropped once a table they read is
+   * changed.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testExplainPlanCache() throws Exception {
+    SessionState.setCurrentSessionState(ss);
+    SessionState.get().setCurrentDatabase(dataBase);
+    createTestTable("test_plan_cache");
+    createTestTable("test_plan_cache_other");
+    Counter hits = LensMetricsRegistry.getStaticRegistry().counter(
+      MetricRegistry.name(HiveDriver.class, HiveDriver.PLAN_CACHE_HITS));
+    long hitsBefore = hits.getCount();
+
+    DriverQueryPlan plan = driver.explain(createExplainContext("SELECT ID FROM test_plan_cache", conf));
+    assertTrue(driver.getPlanCacheSize() > 0);
+    // differs only in formatting
+    DriverQueryPlan cached = driver.explain(createExplainContext("SELECT  ID\n FROM test_plan_cache", conf));
+    assertEquals(hits.getCount(), hitsBefore + 1);
+    assertNotSame(cached, plan);
+    assertEquals(cached.getPlan(), plan.getPlan());
+    assertEquals(cached.getTableWeight(dataBase + ".test_plan_cache"), 500.0);
+
+    // plans aren't shared across users
+    ExplainQueryContext otherUserCtx = new ExplainQueryContext(UUID.randomUUID().toString(),
+      "SELECT ID FROM test_plan_cache", "otheruser", null, conf, drivers);
+    otherUserCtx.setLensSessionIdentifier(sessionid);
+    driver.explain(otherUserCtx);
+    assertEquals(hits.getCount(), hitsBefore + 1);
+
+    // whitespace in literals is kept
+    assertEquals(HiveDriver.normalizeQuery(" SELECT  ID FROM t WHERE ID = 'a  b' "),
+      "SELECT ID FROM t WHERE ID = 'a  b'");
+
+    // a table not read by the plan is changed through the cube metastore client
+    CubeMetastoreClient client = CubeMetastoreClient.getInstance(conf);
+    client.alterHiveTable("test_plan_cache_other", client.getHiveTable("test_plan_cache_other"));
+    driver.explain(createExplainContext("SELECT ID FROM test_plan_cache", conf));
+    assertEquals(hits.getCount(), hitsBefore + 2);
+
+    // table is changed through the driver
+    createTestTable("test_plan_cache");
+    assertEquals(driver.getPlanCacheSize(), 0);
+    driver.explain(createExplainContext("SELECT ID FROM test_plan_cache", conf));
+    assertEquals(hits.getCount(), hitsBefore + 2);
+  }
+
   /**
    * Test explain.
    *
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.hive;
+
+import static org.testng.Assert.*;
+
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hive.service.cli.CLIServiceClient;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the pool of thrift connections.
+ */
+public class TestThriftConnectionPool {
+
+  /**
+   * Connection which doesn't connect anywhere.
+   */
+  public static class MockThriftConnection implements ThriftConnection {
+    @Override
+    public CLIServiceClient getClient() throws LensException {
+      return null;
+    }
+
+    @Override
+    public void init(HiveConf conf, String user) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testCheckout() throws Exception {
+    ThriftConnectionPool pool = new ThriftConnectionPool(MockThriftConnection.class, new HiveConf(), 2, 60000, 100);
+    ThriftConnectionPool.PooledConnection first = pool.checkout("user1");
+    ThriftConnectionPool.PooledConnection second = pool.checkout("user1");
+    assertNotSame(first, second);
+    assertEquals(pool.size(), 2);
+
+    // user has all the connections checked out
+    try {
+      pool.checkout("user1");
+      fail("Checked out more connections than the max size");
+    } catch (LensException e) {
+      assertTrue(e.getMessage().startsWith("Timed out waiting for thrift connection"));
+    }
+    // other users have their own connections
+    pool.checkout("user2").close();
+    assertEquals(pool.size(), 3);
+
+    // returned connections are reused, and returning twice has no effect
+    second.close();
+    second.close();
+    assertSame(pool.checkout("user1"), second);
+    first.close();
+    assertEquals(pool.size(), 3);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    ThriftConnectionPool pool = new ThriftConnectionPool(MockThriftConnection.class, new HiveConf(), 2, 100, 100);
+    ThriftConnectionPool.PooledConnection connection = pool.checkout("user1");
+    connection.close();
+    pool.evictIdle();
+    assertEquals(pool.size(), 1);
+    Thread.sleep(200);
+    pool.evictIdle();
+    assertEquals(pool.size(), 0);
+    assertNotSame(pool.checkout("user1"), connection);
+
+    // connections checked out when all connections are closed are closed on return
+    ThriftConnectionPool.PooledConnection checkedOut = pool.checkout("user1");
+    pool.closeAll();
+    checkedOut.close();
+    assertEquals(pool.size(), 1);
+  }
+}
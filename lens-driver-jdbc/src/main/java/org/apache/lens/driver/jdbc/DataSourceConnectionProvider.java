@@ -22,32 +22,51 @@ import java.beans.PropertyVetoException;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
 /**
  * The Class DataSourceConnectionProvider.
+ * <p/>
+ * Data sources are created once for each driver config, and connections are got from them without any lock held, so
+ * a caller waiting for a connection of a saturated pool doesn't hold up callers of other pools. Each data source
+ * publishes the gauges {@link #ACTIVE_CONNECTIONS}, {@link #THREADS_AWAITING_CHECKOUT} and {@link #SATURATION}, and
+ * the time spent getting connections in the histogram {@link #CONNECTION_WAIT}, named after the data source.
  */
 public class DataSourceConnectionProvider implements ConnectionProvider {
 
   /** The Constant LOG. */
   public static final Logger LOG = Logger.getLogger(DataSourceConnectionProvider.class);
 
+  /** Metric names of each data source */
+  public static final String ACTIVE_CONNECTIONS = "active-connections";
+  public static final String THREADS_AWAITING_CHECKOUT = "threads-awaiting-checkout";
+  public static final String SATURATION = "saturation";
+  public static final String CONNECTION_WAIT = "connection-wait-millis";
+
+  private static final AtomicInteger DATA_SOURCE_COUNTER = new AtomicInteger();
+
   /** The data source map. */
-  private Map<DriverConfig, ComboPooledDataSource> dataSourceMap;
+  private final ConcurrentMap<DriverConfig, ComboPooledDataSource> dataSourceMap;
 
   /**
    * Instantiates a new data source connection provider.
    */
   public DataSourceConnectionProvider() {
-    dataSourceMap = new HashMap<DriverConfig, ComboPooledDataSource>();
+    dataSourceMap = new ConcurrentHashMap<DriverConfig, ComboPooledDataSource>();
   }
 
   /**
@@ -155,41 +174,118 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
    * @see org.apache.lens.driver.jdbc.ConnectionProvider#getConnection(org.apache.hadoop.conf.Configuration)
    */
   @Override
-  public synchronized Connection getConnection(Configuration conf) throws SQLException {
+  public Connection getConnection(Configuration conf) throws SQLException {
+    ComboPooledDataSource cpds = getOrCreateDataSource(conf);
+    long waitStart = System.currentTimeMillis();
+    try {
+      return cpds.getConnection();
+    } finally {
+      LensMetricsRegistry.getStaticRegistry().histogram(getMetricName(cpds, CONNECTION_WAIT))
+        .update(System.currentTimeMillis() - waitStart);
+    }
+  }
+
+  /**
+   * Gets the data source of the driver config in conf, creating it if this is the first use of the config. Only
+   * creation is serialized, lookups of data sources already created don't lock.
+   *
+   * @param conf the conf
+   * @return the data source
+   */
+  private ComboPooledDataSource getOrCreateDataSource(Configuration conf) {
     DriverConfig config = getDriverConfigfromConf(conf);
-    if (!dataSourceMap.containsKey(config)) {
-      ComboPooledDataSource cpds = new ComboPooledDataSource();
-      try {
-        cpds.setDriverClass(config.driverClass);
-      } catch (PropertyVetoException e) {
-        throw new IllegalArgumentException("Unable to set driver class:" + config.driverClass, e);
+    ComboPooledDataSource cpds = dataSourceMap.get(config);
+    if (cpds != null) {
+      return cpds;
+    }
+    synchronized (this) {
+      cpds = dataSourceMap.get(config);
+      if (cpds == null) {
+        cpds = createDataSource(config, conf);
+        dataSourceMap.put(config, cpds);
+        LOG.info("Created new datasource " + cpds.getDataSourceName() + " for config: " + config);
+      }
+      return cpds;
+    }
+  }
+
+  private ComboPooledDataSource createDataSource(DriverConfig config, Configuration conf) {
+    ComboPooledDataSource cpds = new ComboPooledDataSource();
+    try {
+      cpds.setDriverClass(config.driverClass);
+    } catch (PropertyVetoException e) {
+      throw new IllegalArgumentException("Unable to set driver class:" + config.driverClass, e);
+    }
+    cpds.setDataSourceName("datasource-" + DATA_SOURCE_COUNTER.incrementAndGet());
+    cpds.setJdbcUrl(config.jdbcURI);
+    cpds.setUser(config.user);
+    cpds.setPassword(config.password);
+
+    // Maximum number of connections allowed in the pool
+    cpds.setMaxPoolSize(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_MAX_SIZE,
+      JDBCDriverConfConstants.JDBC_POOL_MAX_SIZE_DEFAULT));
+    // Max idle time before a connection is closed
+    cpds.setMaxIdleTime(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME,
+      JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME_DEFAULT));
+    // Max idle time before connection is closed if
+    // number of connections is > min pool size (default = 3)
+    cpds.setMaxIdleTimeExcessConnections(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME,
+      JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME_DEFAULT));
+    // Maximum number of prepared statements to cache per connection
+    cpds.setMaxStatementsPerConnection(conf.getInt(JDBCDriverConfConstants.JDBC_MAX_STATEMENTS_PER_CONNECTION,
+      JDBCDriverConfConstants.JDBC_MAX_STATEMENTS_PER_CONNECTION_DEFAULT));
+
+    // How many milliseconds should a caller wait when trying to get a connection
+    // If the timeout expires, SQLException will be thrown
+    cpds.setCheckoutTimeout(conf.getInt(JDBCDriverConfConstants.JDBC_GET_CONNECTION_TIMEOUT,
+      JDBCDriverConfConstants.JDBC_GET_CONNECTION_TIMEOUT_DEFAULT));
+    registerGauges(cpds);
+    return cpds;
+  }
+
+  private static String getMetricName(ComboPooledDataSource cpds, String name) {
+    return MetricRegistry.name(DataSourceConnectionProvider.class, cpds.getDataSourceName(), name);
+  }
+
+  private void registerGauges(final ComboPooledDataSource cpds) {
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    registry.register(getMetricName(cpds, ACTIVE_CONNECTIONS), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        try {
+          return cpds.getNumBusyConnectionsDefaultUser();
+        } catch (SQLException e) {
+          return -1;
+        }
+      }
+    });
+    registry.register(getMetricName(cpds, THREADS_AWAITING_CHECKOUT), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        try {
+          return cpds.getNumThreadsAwaitingCheckoutDefaultUser();
+        } catch (SQLException e) {
+          return -1;
+        }
       }
-      cpds.setJdbcUrl(config.jdbcURI);
-      cpds.setUser(config.user);
-      cpds.setPassword(config.password);
-
-      // Maximum number of connections allowed in the pool
-      cpds.setMaxPoolSize(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_MAX_SIZE,
-        JDBCDriverConfConstants.JDBC_POOL_MAX_SIZE_DEFAULT));
-      // Max idle time before a connection is closed
-      cpds.setMaxIdleTime(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME,
-        JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME_DEFAULT));
-      // Max idle time before connection is closed if
-      // number of connections is > min pool size (default = 3)
-      cpds.setMaxIdleTimeExcessConnections(conf.getInt(JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME,
-        JDBCDriverConfConstants.JDBC_POOL_IDLE_TIME_DEFAULT));
-      // Maximum number of prepared statements to cache per connection
-      cpds.setMaxStatementsPerConnection(conf.getInt(JDBCDriverConfConstants.JDBC_MAX_STATEMENTS_PER_CONNECTION,
-        JDBCDriverConfConstants.JDBC_MAX_STATEMENTS_PER_CONNECTION_DEFAULT));
-
-      // How many milliseconds should a caller wait when trying to get a connection
-      // If the timeout expires, SQLException will be thrown
-      cpds.setCheckoutTimeout(conf.getInt(JDBCDriverConfConstants.JDBC_GET_CONNECTION_TIMEOUT,
-        JDBCDriverConfConstants.JDBC_GET_CONNECTION_TIMEOUT_DEFAULT));
-      dataSourceMap.put(config, cpds);
-      LOG.info("Created new datasource for config: " + config);
+    });
+    registry.register(getMetricName(cpds, SATURATION), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        try {
+          return (double) cpds.getNumBusyConnectionsDefaultUser() / cpds.getMaxPoolSize();
+        } catch (SQLException e) {
+          return -1.0;
+        }
+      }
+    });
+  }
+
+  private void removeGauges(ComboPooledDataSource cpds) {
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    for (String name : new String[]{ACTIVE_CONNECTIONS, THREADS_AWAITING_CHECKOUT, SATURATION, CONNECTION_WAIT}) {
+      registry.remove(getMetricName(cpds, name));
     }
-    return dataSourceMap.get(config).getConnection();
   }
 
   /*
@@ -198,8 +294,9 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
    * @see java.io.Closeable#close()
    */
   @Override
-  public void close() throws IOException {
+  public synchronized void close() throws IOException {
     for (Map.Entry<DriverConfig, ComboPooledDataSource> entry : dataSourceMap.entrySet()) {
+      removeGauges(entry.getValue());
       entry.getValue().close();
       LOG.info("Closed datasource: " + entry.getKey());
     }
@@ -28,6 +28,7 @@ import java.io.ObjectOutput;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,6 +36,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.query.*;
 import org.apache.lens.cube.parse.HQLParser;
+import org.apache.lens.cube.query.cost.FactPartitionBasedQueryCostCalculator;
 import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.error.LensException;
@@ -44,6 +46,7 @@ import org.apache.lens.server.api.metrics.MethodMetricsFactory;
 import org.apache.lens.server.api.query.*;
 import org.apache.lens.server.api.query.cost.FactPartitionBasedQueryCost;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.query.cost.QueryCostCalculator;
 import org.apache.lens.server.api.user.UserConfigLoader;
 import org.apache.lens.server.model.LogSegregationContext;
 import org.apache.lens.server.model.MappedDiagnosticLogSegregationContext;
@@ -93,6 +96,13 @@ public class JDBCDriver implements LensDriver {
   private LogSegregationContext logSegregationContext;
   private UserConfigLoader userConfigLoader;
 
+  /** Calculator of costs of cube queries. */
+  private QueryCostCalculator queryCostCalculator;
+
+  /** The driver listeners. */
+  private final List<LensEventListener<DriverEvent>> driverListeners
+    = new CopyOnWriteArrayList<LensEventListener<DriverEvent>>();
+
   /**
    * Data related to a query submitted to JDBCDriver.
    */
@@ -448,6 +458,13 @@ public class JDBCDriver implements LensDriver {
       LOG.error("Error initializing connection provider: " + e.getMessage(), e);
       throw new LensException(e);
     }
+    Class<? extends QueryCostCalculator> costCalculatorClass = conf.getClass(JDBC_COST_CALCULATOR,
+      FactPartitionBasedQueryCostCalculator.class, QueryCostCalculator.class);
+    try {
+      queryCostCalculator = costCalculatorClass.newInstance();
+    } catch (Exception e) {
+      throw new LensException("Can't instantiate query cost calculator of class: " + costCalculatorClass, e);
+    }
     this.logSegregationContext = new MappedDiagnosticLogSegregationContext();
   }
 
@@ -543,21 +560,29 @@ public class JDBCDriver implements LensDriver {
     return rewrittenQuery;
   }
 
+  /** Cost of queries on native tables, which have just DB storage. */
   static final QueryCost JDBC_DRIVER_COST = new FactPartitionBasedQueryCost(0);
 
   /**
-   * Dummy JDBC query Plan class to get min cost selector working.
+   * JDBC query plan, having the output of explain on the database and the cost of the query.
    */
   private static class JDBCQueryPlan extends DriverQueryPlan {
+    private final String plan;
+    private final QueryCost cost;
+
+    JDBCQueryPlan(String plan, QueryCost cost) {
+      this.plan = plan;
+      this.cost = cost;
+    }
+
     @Override
     public String getPlan() {
-      return "";
+      return plan;
     }
 
     @Override
     public QueryCost getCost() {
-      // this means that JDBC driver is only selected for tables with just DB storage.
-      return JDBC_DRIVER_COST;
+      return cost;
     }
   }
 
@@ -566,13 +591,39 @@ public class JDBCDriver implements LensDriver {
   private static final String JDBC_PREPARE_GAUGE = "jdbc-prepare-statement";
   private static final String CHECK_ALLOWED_QUERY = "jdbc-check-allowed-query";
 
+  /**
+   * Cost of the query. Cube queries are costed by the configured {@link QueryCostCalculator}, which by default weighs
+   * the partitions the query reads with the update period weights of this driver, so that costs can be compared with
+   * those of other drivers. The driver cost weight of this driver is higher by default, so that other drivers are
+   * preferred when they read the same partitions. Queries on native tables cost {@link #JDBC_DRIVER_COST}.
+   *
+   * @param qctx the query context
+   * @return the cost
+   * @throws LensException the lens exception
+   */
   @Override
   public QueryCost estimate(AbstractQueryContext qctx) throws LensException {
+    if (qctx.getDriverQuery(this) == null) {
+      throw new NullPointerException("Null driver query for " + qctx.getUserQuery());
+    }
+    if (qctx.getDriverContext().getDriverQueryCost(this) != null) {
+      // estimate called again and again
+      return qctx.getDriverContext().getDriverQueryCost(this);
+    }
+    checkConfigured();
     MethodMetricsContext validateGauge = MethodMetricsFactory.createMethodGauge(qctx.getDriverConf(this), true,
       VALIDATE_GAUGE);
     validate(qctx);
     validateGauge.markSuccess();
-    return JDBC_DRIVER_COST;
+    return calculateQueryCost(qctx);
+  }
+
+  private QueryCost calculateQueryCost(AbstractQueryContext qctx) throws LensException {
+    if (qctx.isOlapQuery()) {
+      return queryCostCalculator.calculateCost(qctx, this);
+    } else {
+      return JDBC_DRIVER_COST;
+    }
   }
 
   /**
@@ -610,17 +661,29 @@ public class JDBCDriver implements LensDriver {
     QueryContext explainQueryCtx = QueryContext.createContextWithSingleDriver(explainQuery, null,
       new LensConf(), explainConf, this, explainCtx.getLensSessionIdentifier(), false);
     QueryResult result = null;
+    StringBuilder plan = new StringBuilder();
     try {
       result = executeInternal(explainQueryCtx, explainQuery);
       if (result.error != null) {
         throw new LensException("Query explain failed!", result.error);
       }
+      if (result.resultSet != null) {
+        int columns = result.resultSet.getMetaData().getColumnCount();
+        while (result.resultSet.next()) {
+          for (int i = 1; i <= columns; i++) {
+            plan.append(i == 1 ? "" : "\t").append(result.resultSet.getString(i));
+          }
+          plan.append("\n");
+        }
+      }
+    } catch (SQLException e) {
+      throw new LensException("Couldn't read query plan", e);
     } finally {
       if (result != null) {
         result.close();
       }
     }
-    JDBCQueryPlan jqp = new JDBCQueryPlan();
+    JDBCQueryPlan jqp = new JDBCQueryPlan(plan.toString(), calculateQueryCost(explainCtx));
     explainCtx.getDriverContext().setDriverQueryPlan(this, jqp);
     return jqp;
   }
@@ -891,15 +954,39 @@ public class JDBCDriver implements LensDriver {
     if (userConfigLoader != null) {
       userConfigLoader.preSubmit(context);
     }
+    final QueryHandle handle = context.getQueryHandle();
+    // listeners are notified once the future is done, so that status update on notification sees the final state
+    FutureTask<QueryResult> future = new FutureTask<QueryResult>(new QueryCallable(jdbcCtx, logSegregationContext)) {
+      @Override
+      protected void done() {
+        notifyQueryFinished(handle);
+      }
+    };
+    jdbcCtx.setResultFuture(future);
+    queryContextMap.put(handle, jdbcCtx);
     try {
-      Future<QueryResult> future = asyncQueryPool.submit(new QueryCallable(jdbcCtx, logSegregationContext));
-      jdbcCtx.setResultFuture(future);
+      asyncQueryPool.execute(future);
     } catch (RejectedExecutionException e) {
-      LOG.error("Query execution rejected: " + context.getQueryHandle() + " reason:" + e.getMessage(), e);
-      throw new LensException("Query execution rejected: " + context.getQueryHandle() + " reason:" + e.getMessage(), e);
+      queryContextMap.remove(handle);
+      LOG.error("Query execution rejected: " + handle + " reason:" + e.getMessage(), e);
+      throw new LensException("Query execution rejected: " + handle + " reason:" + e.getMessage(), e);
+    }
+    LOG.info("ExecuteAsync: " + handle);
+  }
+
+  /**
+   * Notify driver listeners that the query has finished on the driver.
+   *
+   * @param handle the query handle
+   */
+  private void notifyQueryFinished(QueryHandle handle) {
+    for (LensEventListener<DriverEvent> eventListener : driverListeners) {
+      try {
+        eventListener.onEvent(new DriverQueryFinished(System.currentTimeMillis(), this, handle));
+      } catch (Exception e) {
+        LOG.error("Error sending query finished event for " + handle + " to listener " + eventListener, e);
+      }
     }
-    queryContextMap.put(context.getQueryHandle(), jdbcCtx);
-    LOG.info("ExecuteAsync: " + context.getQueryHandle());
   }
 
   /**
@@ -1075,7 +1162,7 @@ public class JDBCDriver implements LensDriver {
    */
   @Override
   public void registerDriverEventListener(LensEventListener<DriverEvent> driverEventListener) {
-
+    driverListeners.add(driverEventListener);
   }
 
 
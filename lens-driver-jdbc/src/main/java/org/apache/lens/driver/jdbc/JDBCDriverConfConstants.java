@@ -94,4 +94,7 @@ public final class JDBCDriverConfConstants {
 
   public static final String JDBC_FETCH_SIZE = JDBC_DRIVER_PFX + "fetch.size";
   public static final int DEFAULT_JDBC_FETCH_SIZE = 1000;
+
+  /** Class of the calculator giving costs of cube queries. */
+  public static final String JDBC_COST_CALCULATOR = JDBC_DRIVER_PFX + "cost.calculator.class";
 }
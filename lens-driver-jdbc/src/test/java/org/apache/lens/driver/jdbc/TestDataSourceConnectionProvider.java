@@ -27,11 +27,15 @@ import java.sql.Statement;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+
 import org.apache.hadoop.conf.Configuration;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -139,10 +143,29 @@ public class TestDataSourceConnectionProvider {
       }
     }
 
+    // pool is saturated
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    String dataSourceName = cp.getDataSource(conf).getDataSourceName();
+    assertEquals(getGaugeValue(registry, dataSourceName, DataSourceConnectionProvider.ACTIVE_CONNECTIONS),
+      MAX_CONNECTIONS);
+    assertEquals(getGaugeValue(registry, dataSourceName, DataSourceConnectionProvider.SATURATION), 1.0);
+    Histogram waits = registry.getHistograms().get(MetricRegistry.name(DataSourceConnectionProvider.class,
+      dataSourceName, DataSourceConnectionProvider.CONNECTION_WAIT));
+    assertEquals(waits.getCount(), MAX_CONNECTIONS + 1);
+    Assert.assertTrue(waits.getSnapshot().getMax() >= 1000);
+
     for (Connection c : connections) {
       if (c != null) {
         c.close();
       }
     }
+    cp.close();
+    Assert.assertFalse(registry.getGauges().containsKey(MetricRegistry.name(DataSourceConnectionProvider.class,
+      dataSourceName, DataSourceConnectionProvider.ACTIVE_CONNECTIONS)));
+  }
+
+  private static Object getGaugeValue(MetricRegistry registry, String dataSourceName, String name) {
+    return registry.getGauges().get(MetricRegistry.name(DataSourceConnectionProvider.class, dataSourceName, name))
+      .getValue();
   }
 }
@@ -31,15 +31,20 @@ import java.util.concurrent.TimeUnit;
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.query.QueryHandle;
 import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.cube.metadata.FactPartition;
+import org.apache.lens.cube.metadata.UpdatePeriod;
+import org.apache.lens.cube.query.cost.FactPartitionBasedQueryCostCalculator;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.events.LensEventListener;
 import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.ExplainQueryContext;
 import org.apache.lens.server.api.query.PreparedQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.query.cost.QueryCostCalculator;
 import org.apache.lens.server.api.user.MockUserConfigLoader;
 import org.apache.lens.server.api.util.LensUtil;
 
@@ -297,6 +302,79 @@ public class TestJdbcDriver {
     }
   }
 
+  /**
+   * Test estimate of a query validates it again
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testEstimateValidatesAgain() throws Exception {
+    createTable("estimate_again_test", driver.getEstimateConnection()); // Create table
+    String query = "SELECT * FROM estimate_again_test";
+    QueryCost cost = driver.estimate(createExplainContext(query, baseConf));
+
+    Connection conn = driver.getEstimateConnection();
+    Statement stmt = conn.createStatement();
+    try {
+      stmt.execute("DROP TABLE estimate_again_test");
+      conn.commit();
+    } finally {
+      stmt.close();
+      conn.close();
+    }
+    // query is validated again even though it was estimated before
+    try {
+      driver.estimate(createExplainContext(query, baseConf));
+      Assert.fail("Estimate succeeded for a query on a dropped table");
+    } catch (LensException e) {
+      // expected
+    }
+
+    createTable("estimate_again_test", driver.getEstimateConnection());
+    ExplainQueryContext ctx = createExplainContext(query, baseConf);
+    Assert.assertEquals(driver.estimate(ctx), cost);
+    Assert.assertNotNull(ctx.getFinalDriverQuery(driver));
+  }
+
+  /**
+   * Test cube queries reading the same partitions through this driver and a driver without cost weight are run on
+   * the other driver.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCostWeight() throws Exception {
+    MockDriver otherDriver = new MockDriver();
+    otherDriver.configure(new Configuration());
+    List<LensDriver> bothDrivers = new ArrayList<LensDriver>();
+    bothDrivers.add(driver);
+    bothDrivers.add(otherDriver);
+    ExplainQueryContext ctx = new ExplainQueryContext(UUID.randomUUID().toString(), "cube select msr from cube",
+      "testuser", null, baseConf, bothDrivers);
+    Set<FactPartition> partitions = new HashSet<FactPartition>();
+    partitions.add(new FactPartition("dt", new java.util.Date(), UpdatePeriod.DAILY, null, null));
+    QueryCostCalculator calculator = new FactPartitionBasedQueryCostCalculator();
+    for (LensDriver d : bothDrivers) {
+      DriverQueryPlan plan = new DriverQueryPlan() {
+        @Override
+        public String getPlan() {
+          return "cube select msr from cube";
+        }
+
+        @Override
+        public QueryCost getCost() {
+          return null;
+        }
+      };
+      plan.getPartitions().put("fact_table", partitions);
+      ctx.getDriverContext().setDriverRewriterPlan(d, plan);
+      ctx.getDriverContext().setDriverCost(d, calculator.calculateCost(ctx, d));
+    }
+    Assert.assertTrue(ctx.getDriverContext().getDriverQueryCost(driver).getEstimatedResourceUsage()
+      > ctx.getDriverContext().getDriverQueryCost(otherDriver).getEstimatedResourceUsage());
+    Assert.assertEquals(new MinQueryCostSelector().select(ctx, baseConf), otherDriver);
+  }
+
   /**
    * Test estimate failing
    *
@@ -363,8 +441,10 @@ public class TestJdbcDriver {
     String query2 = "SELECT * FROM explain_test1"; // Select query against non existing table
     ExplainQueryContext ctx = createExplainContext(query1, baseConf);
     Assert.assertNull(ctx.getFinalDriverQuery(driver));
-    driver.explain(ctx);
+    DriverQueryPlan plan = driver.explain(ctx);
     Assert.assertNotNull(ctx.getFinalDriverQuery(driver));
+    Assert.assertFalse(plan.getPlan().isEmpty());
+    Assert.assertEquals(plan.getCost(), JDBCDriver.JDBC_DRIVER_COST);
 
     try {
       driver.explain(createExplainContext(query2, baseConf));
@@ -612,6 +692,35 @@ public class TestJdbcDriver {
 
   }
 
+  /**
+   * Test that driver notifies its event listeners when an async query finishes.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testQueryFinishedEvent() throws Exception {
+    createTable("query_finished_event_test");
+    insertData("query_finished_event_test");
+    QueryContext context = createQueryContext("SELECT * FROM query_finished_event_test");
+    final QueryHandle handle = context.getQueryHandle();
+    final CountDownLatch eventLatch = new CountDownLatch(1);
+    driver.registerDriverEventListener(new LensEventListener<DriverEvent>() {
+      @Override
+      public void onEvent(DriverEvent event) throws LensException {
+        if (event instanceof DriverQueryFinished && ((DriverQueryFinished) event).getQueryHandle().equals(handle)) {
+          eventLatch.countDown();
+        }
+      }
+    });
+
+    executeAsync(context);
+    assertTrue(eventLatch.await(10, TimeUnit.SECONDS), "Query finished event was not fired");
+    // status is already final when the event is received
+    driver.updateStatus(context);
+    assertEquals(context.getDriverStatus().getState(), DriverQueryState.SUCCESSFUL);
+    driver.closeQuery(handle);
+  }
+
   /**
    * Test connection close for failed queries.
    *
@@ -707,6 +707,37 @@ public final class LensConfConstants {
    */
   public static final String RESULT_FS_READ_URL = QUERY_PFX + "result.fs.read.url";
 
+  /**
+   * Whether to stream in memory results of the query through http result set.
+   */
+  public static final String QUERY_INMEMORY_HTTP_RESULT_STREAMING_ENABLED = QUERY_PFX
+    + "inmemory.http.result.streaming.enabled";
+
+  /**
+   * Default value of QUERY_INMEMORY_HTTP_RESULT_STREAMING_ENABLED.
+   */
+  public static final boolean DEFAULT_INMEMORY_HTTP_RESULT_STREAMING_ENABLED = true;
+
+  /**
+   * Format in which in memory results are streamed through http result set.
+   */
+  public static final String QUERY_INMEMORY_HTTP_RESULT_FORMAT = QUERY_PFX + "inmemory.http.result.format";
+
+  /**
+   * Default value of QUERY_INMEMORY_HTTP_RESULT_FORMAT.
+   */
+  public static final String DEFAULT_INMEMORY_HTTP_RESULT_FORMAT = "csv";
+
+  /**
+   * Number of rows after which the streamed in memory result is flushed to the client.
+   */
+  public static final String QUERY_INMEMORY_HTTP_RESULT_FLUSH_ROWS = QUERY_PFX + "inmemory.http.result.flush.rows";
+
+  /**
+   * Default value of QUERY_INMEMORY_HTTP_RESULT_FLUSH_ROWS.
+   */
+  public static final int DEFAULT_INMEMORY_HTTP_RESULT_FLUSH_ROWS = 1000;
+
   /**
    * The Constant AUX_JARS.
    */
@@ -892,4 +923,82 @@ public final class LensConfConstants {
   public static final String ESTIMATE_POOL_KEEP_ALIVE_MILLIS = SERVER_PFX + "estimate.pool.keepalive.millis";
   public static final int DEFAULT_ESTIMATE_POOL_KEEP_ALIVE_MILLIS = 60000; // 1 minute
 
+  /**
+   * Number of threads in the pool which updates status of launched queries
+   */
+  public static final String STATUS_UPDATE_POOL_THREADS = SERVER_PFX + "status.update.pool.threads";
+  public static final int DEFAULT_STATUS_UPDATE_POOL_THREADS = 10;
+
+  /**
+   * Minimum interval in milliseconds between two status updates of a launched query
+   */
+  public static final String STATUS_UPDATE_MIN_INTERVAL_MILLIS = SERVER_PFX + "status.update.min.interval.millis";
+  public static final long DEFAULT_STATUS_UPDATE_MIN_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Maximum interval in milliseconds between two status updates of a launched query
+   */
+  public static final String STATUS_UPDATE_MAX_INTERVAL_MILLIS = SERVER_PFX + "status.update.max.interval.millis";
+  public static final long DEFAULT_STATUS_UPDATE_MAX_INTERVAL_MILLIS = 30000;
+
+  /**
+   * Fraction of the time elapsed since launch, to wait before next status update of a launched query
+   */
+  public static final String STATUS_UPDATE_BACKOFF_FACTOR = SERVER_PFX + "status.update.backoff.factor";
+  public static final float DEFAULT_STATUS_UPDATE_BACKOFF_FACTOR = 0.1f;
+
+  /**
+   * Number of threads in the pool which rewrites and launches queued queries
+   */
+  public static final String LAUNCHER_POOL_THREADS = SERVER_PFX + "launcher.pool.threads";
+  public static final int DEFAULT_LAUNCHER_POOL_THREADS = 10;
+
+  /**
+   * Maximum number of queries being launched on a driver at a time. Can be overridden in the driver's configuration.
+   */
+  public static final String MAX_CONCURRENT_LAUNCHES_PER_DRIVER = SERVER_PFX + "max.concurrent.launches.per.driver";
+  public static final int DEFAULT_MAX_CONCURRENT_LAUNCHES_PER_DRIVER = 0;
+
+  /**
+   * Maximum number of finished queries inserted into the DB in one batch
+   */
+  public static final String FINISHED_QUERY_INSERT_BATCH_SIZE = SERVER_PFX + "finished.query.insert.batch.size";
+  public static final int DEFAULT_FINISHED_QUERY_INSERT_BATCH_SIZE = 100;
+
+  /**
+   * Maximum time in milliseconds a finished query waits for its batch to fill up, before the batch is inserted
+   */
+  public static final String FINISHED_QUERY_INSERT_FLUSH_INTERVAL_MILLIS = SERVER_PFX
+    + "finished.query.insert.flush.interval.millis";
+  public static final long DEFAULT_FINISHED_QUERY_INSERT_FLUSH_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Whether the cube metastore client caches are warmed up when the server starts
+   */
+  public static final String METASTORE_WARM_UP_ENABLED = SERVER_PFX + "metastore.warm.up.enabled";
+  public static final boolean DEFAULT_METASTORE_WARM_UP_ENABLED = false;
+
+  /**
+   * Comma separated databases whose cube metastore client caches are warmed up
+   */
+  public static final String METASTORE_WARM_UP_DATABASES = SERVER_PFX + "metastore.warm.up.databases";
+  public static final String DEFAULT_METASTORE_WARM_UP_DATABASES = "default";
+
+  /**
+   * Number of threads fetching tables and loading partition timelines during warm up
+   */
+  public static final String METASTORE_WARM_UP_THREADS = SERVER_PFX + "metastore.warm.up.threads";
+  public static final int DEFAULT_METASTORE_WARM_UP_THREADS = 4;
+
+  /**
+   * Number of tables fetched in one metastore call during warm up
+   */
+  public static final String METASTORE_WARM_UP_BATCH_SIZE = SERVER_PFX + "metastore.warm.up.batch.size";
+  public static final int DEFAULT_METASTORE_WARM_UP_BATCH_SIZE = 100;
+
+  /**
+   * Comma separated facts whose partition timelines are loaded during warm up
+   */
+  public static final String METASTORE_WARM_UP_TIMELINE_FACTS = SERVER_PFX + "metastore.warm.up.timeline.facts";
+
 }
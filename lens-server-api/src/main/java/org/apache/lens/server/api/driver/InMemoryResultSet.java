@@ -31,6 +31,22 @@ import org.apache.lens.server.api.error.LensException;
  */
 public abstract class InMemoryResultSet extends LensResultSet {
 
+  /**
+   * Index of the row which will be returned by the next page read.
+   */
+  private long cursorPosition = 0;
+
+  /**
+   * Row read ahead from the driver to find out whether more rows are available. Needed since hasNext() of some
+   * implementations advances the underlying cursor.
+   */
+  private ResultRow lookAheadRow;
+
+  /**
+   * Whether hasNext() has already returned false for the current pass over the result.
+   */
+  private boolean exhausted = false;
+
   public abstract boolean seekToStart() throws LensException;
   /**
    * Whether there is another result row available.
@@ -55,17 +71,90 @@ public abstract class InMemoryResultSet extends LensResultSet {
    */
   public abstract void setFetchSize(int size) throws LensException;
 
+  /**
+   * Seek to start of the result set and reset the paging cursor.
+   *
+   * @return true if seek was successful, false otherwise
+   * @throws LensException the lens exception
+   */
+  public synchronized boolean rewind() throws LensException {
+    cursorPosition = 0;
+    lookAheadRow = null;
+    exhausted = false;
+    return seekToStart();
+  }
+
   /*
    * (non-Javadoc)
    *
    * @see org.apache.lens.server.api.driver.LensResultSet#toQueryResult()
    */
-  public QueryResult toQueryResult() throws LensException {
+  public synchronized QueryResult toQueryResult() throws LensException {
     List<ResultRow> rows = new ArrayList<ResultRow>();
-    while (hasNext()) {
-      rows.add(next());
+    while (hasMoreRows()) {
+      rows.add(readRow());
     }
     return new InMemoryQueryResult(rows);
   }
 
+  /**
+   * Get the rows in the range [startIndex, startIndex + fetchSize) as query result. Rows are read forward from the
+   * current cursor position, the result set is rewound only if startIndex is behind the cursor.
+   *
+   * @param startIndex index of the first row to be returned
+   * @param fetchSize  maximum number of rows to be returned, all remaining rows are returned if not positive
+   * @return {@link InMemoryQueryResult} with the rows of the page
+   * @throws LensException the lens exception
+   */
+  public synchronized InMemoryQueryResult toQueryResult(long startIndex, int fetchSize) throws LensException {
+    if (startIndex < 0) {
+      throw new LensException("Invalid start index " + startIndex);
+    }
+    if (startIndex < cursorPosition && !rewind()) {
+      throw new LensException("Result set cannot be read from index " + startIndex + ", already read till "
+        + cursorPosition);
+    }
+    while (cursorPosition < startIndex && hasMoreRows()) {
+      readRow();
+    }
+    List<ResultRow> rows = new ArrayList<ResultRow>(fetchSize > 0 ? fetchSize : 10);
+    while ((fetchSize <= 0 || rows.size() < fetchSize) && hasMoreRows()) {
+      rows.add(readRow());
+    }
+    return new InMemoryQueryResult(rows, hasMoreRows());
+  }
+
+  /**
+   * Whether a row is available at the cursor position. Reads one row ahead from the driver.
+   *
+   * @return true if row is available
+   * @throws LensException the lens exception
+   */
+  private boolean hasMoreRows() throws LensException {
+    if (lookAheadRow != null) {
+      return true;
+    }
+    if (exhausted) {
+      return false;
+    }
+    if (hasNext()) {
+      lookAheadRow = next();
+      return true;
+    }
+    exhausted = true;
+    return false;
+  }
+
+  /**
+   * Read the row at cursor position and advance the cursor. Should be called only after
+   * {@link #hasMoreRows()} returned true.
+   *
+   * @return the row
+   */
+  private ResultRow readRow() {
+    ResultRow row = lookAheadRow;
+    lookAheadRow = null;
+    cursorPosition++;
+    return row;
+  }
 }
@@ -75,6 +75,19 @@ public interface MetricsService {
    */
   void decrCounter(String counter);
 
+  /**
+   * Update a histogram with the name constructed using given class and histogram name. Actual name of the histogram
+   * will be
+   * <p></p>
+   * <pre>MetricRegistry.name(cls, histogram)</pre>
+   * <p></p>
+   *
+   * @param cls       Class of the histogram for namespacing of histograms
+   * @param histogram the histogram
+   * @param value     the value
+   */
+  void updateHistogram(Class<?> cls, String histogram, long value);
+
   /**
    * Get current value of the counter.
    *
@@ -122,6 +135,21 @@ public interface MetricsService {
    */
   String FINISHED_QUERIES = "finished-queries";
 
+  /**
+   * Query launch histogram names. Time in millis spent by queries in queue before a launcher picks them up.
+   */
+  String QUERY_QUEUE_WAIT_MILLIS = "query-queue-wait-millis";
+
+  /**
+   * Time in millis spent in rewriting queries and selecting the driver while launching them.
+   */
+  String QUERY_REWRITE_MILLIS = "query-rewrite-millis";
+
+  /**
+   * Time in millis spent in launching queries on the selected driver.
+   */
+  String QUERY_LAUNCH_MILLIS = "query-launch-millis";
+
   String OPENED_SESSIONS = "opened-sessions";
 
   String CLOSED_SESSIONS = "closed-sessions";
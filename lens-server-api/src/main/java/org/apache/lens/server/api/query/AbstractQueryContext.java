@@ -32,6 +32,7 @@ import org.apache.lens.server.api.metrics.MethodMetricsContext;
 import org.apache.lens.server.api.metrics.MethodMetricsFactory;
 import org.apache.lens.server.api.query.DriverSelectorQueryContext.DriverQueryContext;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.util.LayeredConfiguration;
 import org.apache.lens.server.api.util.LensUtil;
 
 import org.apache.commons.logging.Log;
@@ -403,7 +404,8 @@ public abstract class AbstractQueryContext implements Serializable {
   /**
    * Gets HiveConf corresponding to query conf.
    *
-   * Should be called judiciously, because constructing HiveConf from conf object is costly.
+   * Should be called judiciously, because constructing HiveConf from conf object is costly. A layered conf is
+   * materialized here, as HiveConf needs all the properties.
    * The field is set to null after query completion. Should not be accessed after completion.
    * @return
    */
@@ -411,7 +413,9 @@ public abstract class AbstractQueryContext implements Serializable {
     hiveConfLock.lock();
     try {
       if (hiveConf == null) {
-        hiveConf = new HiveConf(this.conf, this.getClass());
+        Configuration base = this.conf instanceof LayeredConfiguration
+          ? ((LayeredConfiguration) this.conf).materialize() : this.conf;
+        hiveConf = new HiveConf(base, this.getClass());
         hiveConf.setClassLoader(this.conf.getClassLoader());
       }
     } finally {
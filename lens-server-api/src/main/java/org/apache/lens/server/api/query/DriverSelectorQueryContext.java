@@ -25,6 +25,7 @@ import org.apache.lens.server.api.driver.DriverQueryPlan;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.util.LayeredConfiguration;
 import org.apache.lens.server.api.util.LensUtil;
 
 import org.apache.commons.lang3.StringUtils;
@@ -147,17 +148,14 @@ public class DriverSelectorQueryContext {
   }
 
   /**
-   * Gets the driver query conf.
+   * Gets the driver query conf, which reads through to the query conf and then to the driver conf.
    *
    * @param driver    the driver
    * @param queryConf the query conf
    * @return the final query conf
    */
   private Configuration mergeConf(LensDriver driver, Configuration queryConf) {
-    Configuration conf = new Configuration(driver.getConf());
-    for (Map.Entry<String, String> entry : queryConf) {
-      conf.set(entry.getKey(), entry.getValue());
-    }
+    Configuration conf = new LayeredConfiguration(queryConf, driver.getConf());
     conf.setClassLoader(queryConf.getClassLoader());
     return conf;
   }
@@ -130,15 +130,18 @@ public class PreparedQueryContext extends AbstractQueryContext implements Delaye
   }
 
   /**
-   * Update conf.
+   * Update conf. The conf is replaced with an updated copy instead of being changed, as the confs of queries executed
+   * from this one read through it.
    *
    * @param confoverlay the conf to set
    */
   public void updateConf(Map<String, String> confoverlay) {
     lensConf.getProperties().putAll(confoverlay);
+    Configuration updated = new Configuration(this.conf);
     for (Map.Entry<String, String> prop : confoverlay.entrySet()) {
-      this.conf.set(prop.getKey(), prop.getValue());
+      updated.set(prop.getKey(), prop.getValue());
     }
+    this.conf = updated;
   }
 
   /**
@@ -32,6 +32,7 @@ import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.DriverQueryStatus;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.util.LayeredConfiguration;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -249,21 +250,16 @@ public class QueryContext extends AbstractQueryContext implements Comparable<Que
   }
 
   /**
-   * Merge conf.
+   * Merge conf. The current conf takes precedence over the prepared one. The prepared conf is read through, which is
+   * safe as {@link PreparedQueryContext#updateConf(Map)} replaces the conf of the prepared query instead of changing
+   * it.
    *
    * @param prepared the prepared
    * @param current  the current
    * @return the configuration
    */
   private static Configuration mergeConf(Configuration prepared, Configuration current) {
-    Configuration conf = new Configuration(false);
-    for (Map.Entry<String, String> entry : prepared) {
-      conf.set(entry.getKey(), entry.getValue());
-    }
-    for (Map.Entry<String, String> entry : current) {
-      conf.set(entry.getKey(), entry.getValue());
-    }
-    return conf;
+    return new LayeredConfiguration(current, prepared);
   }
 
   /*
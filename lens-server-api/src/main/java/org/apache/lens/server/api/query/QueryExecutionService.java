@@ -185,7 +185,7 @@ public interface QueryExecutionService {
    * @param sessionHandle the session handle
    * @param queryHandle   The query handle
    * @param startIndex    The start Index from which result rows have to be fetched
-   * @param fetchSize     Number of rows to be fetched
+   * @param fetchSize     Number of rows to be fetched, all the remaining rows are fetched if not positive
    * @return returns the result set
    * @throws LensException the lens exception
    */
@@ -237,6 +237,25 @@ public interface QueryExecutionService {
   List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String state, String user, String queryName,
     long fromDate, long toDate) throws LensException;
 
+  /**
+   * Returns a page of the queries in the specified state, for the given user and matching query name. Queries are
+   * ordered by submission time and handle, and the page starts after the query passed as cursor.
+   *
+   * @param sessionHandle the session handle
+   * @param state         return queries in this state. if null, all queries will be returned
+   * @param user          Get queries submitted by a specific user.
+   *                      If this set to "all", queries of all users are returned
+   * @param queryName     return queries containing the query name. If null, all queries will be returned
+   * @param fromDate      start date of time range interval
+   * @param toDate        end date of the time range interval
+   * @param limit         maximum number of queries to return. If non positive, all queries are returned
+   * @param cursor        handle of the last query returned in the previous page. If null, the first page is returned
+   * @return List of query handles
+   * @throws LensException the lens exception
+   */
+  List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String state, String user, String queryName,
+    long fromDate, long toDate, int limit, String cursor) throws LensException;
+
   /**
    * Returns all the prepared queries for the specified user. If no user is passed, queries of all users will be
    * returned.
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.api.util;
+
+import java.util.*;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Configuration which reads through to parent configurations instead of copying them. Properties set on it are kept in
+ * a layer of its own, which takes precedence over the parents, and parents earlier in the list take precedence over
+ * later ones. So a query conf over a driver conf is <code>new LayeredConfiguration(queryConf, driverConf)</code>,
+ * which costs a few objects where a copy costs a clone of all the properties of the driver.
+ * <p/>
+ * Lookups of single properties, through get and the typed getters, and {@link #getValByRegex(String)} are served from
+ * the layers. Anything else which needs all the properties, like iterating, writing or unsetting, materializes the
+ * merged properties once, after which the configuration behaves like a copy. Parents are read live until then, so they
+ * shouldn't be changed while the configuration is in use.
+ * <p/>
+ * Copies made with the Configuration copy constructor see all the layers. HiveConf however adds hive-site.xml as a
+ * resource, which would take precedence over the layers, so a HiveConf has to be made from {@link #materialize()}.
+ */
+public class LayeredConfiguration extends Configuration {
+
+  private final Configuration[] parents;
+  private final Configuration layer = new Configuration(false);
+  private final Configuration lookup = new LayerLookup();
+  private volatile boolean materialized = false;
+
+  /**
+   * @param parents parent configurations, in decreasing order of precedence
+   */
+  public LayeredConfiguration(Configuration... parents) {
+    super(false);
+    this.parents = parents;
+    // resources are what the merged properties get loaded from, on materializing and in copies
+    addResource(new PropertiesResource(new ParentProperties(parents)));
+    addResource(layer);
+  }
+
+  @Override
+  public String get(String name) {
+    return materialized ? super.get(name) : lookup.get(name);
+  }
+
+  @Override
+  public String get(String name, String defaultValue) {
+    return materialized ? super.get(name, defaultValue) : lookup.get(name, defaultValue);
+  }
+
+  @Override
+  public String getRaw(String name) {
+    return materialized ? super.getRaw(name) : lookup.getRaw(name);
+  }
+
+  /**
+   * Value of the property in the first layer having it, without substituting variables.
+   */
+  private String getLayeredRaw(String name) {
+    String value = layer.getRaw(name);
+    for (int i = 0; value == null && i < parents.length; i++) {
+      value = parents[i].getRaw(name);
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized void set(String name, String value, String source) {
+    layer.set(name, value, source);
+    if (materialized) {
+      super.set(name, value, source);
+    }
+  }
+
+  @Override
+  public synchronized void unset(String name) {
+    layer.unset(name);
+    // the name can be set in the parents too
+    super.unset(name);
+  }
+
+  @Override
+  public Map<String, String> getValByRegex(String regex) {
+    if (materialized) {
+      return super.getValByRegex(regex);
+    }
+    Map<String, String> result = new HashMap<String, String>();
+    for (int i = parents.length - 1; i >= 0; i--) {
+      result.putAll(parents[i].getValByRegex(regex));
+    }
+    result.putAll(layer.getValByRegex(regex));
+    for (Map.Entry<String, String> entry : result.entrySet()) {
+      entry.setValue(lookup.get(entry.getKey()));
+    }
+    return result;
+  }
+
+  @Override
+  protected synchronized Properties getProps() {
+    materialized = true;
+    return super.getProps();
+  }
+
+  /**
+   * Standalone configuration having all the properties of this one set explicitly.
+   *
+   * @return the configuration
+   */
+  public Configuration materialize() {
+    Configuration conf = new Configuration(false);
+    for (Map.Entry<String, String> entry : this) {
+      conf.set(entry.getKey(), entry.getValue());
+    }
+    conf.setClassLoader(getClassLoader());
+    return conf;
+  }
+
+  /**
+   * Configuration doing the lookups of single properties till this one is materialized. Lookups go through
+   * Configuration, for the handling of deprecated keys and the substitution of variables, and the properties are read
+   * from the layers.
+   */
+  private final class LayerLookup extends Configuration {
+    private final Properties properties = new Properties() {
+      @Override
+      public String getProperty(String key) {
+        return getLayeredRaw(key);
+      }
+    };
+
+    LayerLookup() {
+      super(false);
+    }
+
+    @Override
+    protected Properties getProps() {
+      return properties;
+    }
+  }
+
+  /**
+   * Configuration whose properties are the given ones, to add them as a resource without copying.
+   */
+  private static final class PropertiesResource extends Configuration {
+    private final Properties properties;
+
+    PropertiesResource(Properties properties) {
+      super(false);
+      this.properties = properties;
+    }
+
+    @Override
+    protected Properties getProps() {
+      return properties;
+    }
+  }
+
+  /**
+   * Properties of the parents merged, computed when they are loaded as a resource.
+   */
+  private static final class ParentProperties extends Properties {
+    private final Configuration[] parents;
+
+    ParentProperties(Configuration[] parents) {
+      this.parents = parents;
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      Map<Object, Object> merged = new HashMap<Object, Object>();
+      for (int i = parents.length - 1; i >= 0; i--) {
+        for (Map.Entry<String, String> entry : parents[i]) {
+          merged.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return Collections.unmodifiableMap(merged).entrySet();
+    }
+
+    @Override
+    public String toString() {
+      // used as the name of the resource, so not listing all the properties
+      return "parent configurations";
+    }
+  }
+}
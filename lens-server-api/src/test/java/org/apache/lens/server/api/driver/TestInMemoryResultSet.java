@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.api.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lens.api.query.InMemoryQueryResult;
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.server.api.error.LensException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for paged reads of in memory result set
+ */
+public class TestInMemoryResultSet {
+
+  /**
+   * Result set over a list, whose hasNext() advances the cursor like a JDBC result set.
+   */
+  private static class ListResultSet extends InMemoryResultSet {
+    private final List<ResultRow> rows = new ArrayList<ResultRow>();
+    private int current = -1;
+    private int seeks = 0;
+
+    ListResultSet(int numRows) {
+      for (int i = 0; i < numRows; i++) {
+        rows.add(new ResultRow(Arrays.asList((Object) i)));
+      }
+    }
+
+    @Override
+    public boolean seekToStart() throws LensException {
+      current = -1;
+      seeks++;
+      return true;
+    }
+
+    @Override
+    public boolean hasNext() throws LensException {
+      current++;
+      return current < rows.size();
+    }
+
+    @Override
+    public ResultRow next() throws LensException {
+      return rows.get(current);
+    }
+
+    @Override
+    public void setFetchSize(int size) throws LensException {
+    }
+
+    @Override
+    public int size() throws LensException {
+      return rows.size();
+    }
+
+    @Override
+    public LensResultSetMetadata getMetadata() throws LensException {
+      return null;
+    }
+  }
+
+  private void assertPage(InMemoryQueryResult page, int from, int count, boolean moreRows) {
+    Assert.assertEquals(page.getRows().size(), count);
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(page.getRows().get(i).getValues().get(0), from + i);
+    }
+    Assert.assertEquals(page.isMoreRowsAvailable(), moreRows);
+  }
+
+  @Test
+  public void testForwardPages() throws LensException {
+    ListResultSet rs = new ListResultSet(25);
+    assertPage(rs.toQueryResult(0, 10), 0, 10, true);
+    assertPage(rs.toQueryResult(10, 10), 10, 10, true);
+    assertPage(rs.toQueryResult(20, 10), 20, 5, false);
+    assertPage(rs.toQueryResult(30, 10), 30, 0, false);
+    // forward reads should not rewind the result set
+    Assert.assertEquals(rs.seeks, 0);
+  }
+
+  @Test
+  public void testSkipAndRewind() throws LensException {
+    ListResultSet rs = new ListResultSet(25);
+    assertPage(rs.toQueryResult(15, 5), 15, 5, true);
+    assertPage(rs.toQueryResult(5, 5), 5, 5, true);
+    Assert.assertEquals(rs.seeks, 1);
+    assertPage(rs.toQueryResult(10, 0), 10, 15, false);
+  }
+
+  @Test
+  public void testFullReadAfterPage() throws LensException {
+    ListResultSet rs = new ListResultSet(10);
+    assertPage(rs.toQueryResult(0, 4), 0, 4, true);
+    rs.rewind();
+    assertPage((InMemoryQueryResult) rs.toQueryResult(), 0, 10, false);
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.api.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for layered configuration
+ */
+public class TestLayeredConfiguration {
+
+  private Configuration conf(String... keyValues) {
+    Configuration conf = new Configuration(false);
+    for (int i = 0; i < keyValues.length; i += 2) {
+      conf.set(keyValues[i], keyValues[i + 1]);
+    }
+    return conf;
+  }
+
+  private Map<String, String> toMap(Configuration conf) {
+    Map<String, String> map = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : conf) {
+      map.put(entry.getKey(), entry.getValue());
+    }
+    return map;
+  }
+
+  @Test
+  public void testLookups() {
+    Configuration driverConf = conf("a", "driver", "b", "driver", "dir", "/tmp/${b}", "n", "1");
+    Configuration queryConf = conf("b", "query", "x.1", "query");
+    LayeredConfiguration conf = new LayeredConfiguration(queryConf, driverConf);
+    conf.set("c", "own");
+    conf.setInt("n", 2);
+
+    Assert.assertEquals(conf.get("a"), "driver");
+    Assert.assertEquals(conf.get("b"), "query");
+    Assert.assertEquals(conf.get("c"), "own");
+    Assert.assertEquals(conf.getInt("n", 0), 2);
+    Assert.assertNull(conf.get("d"));
+    Assert.assertEquals(conf.get("d", "default"), "default");
+    // variables are substituted across the layers
+    Assert.assertEquals(conf.getRaw("dir"), "/tmp/${b}");
+    Assert.assertEquals(conf.get("dir"), "/tmp/query");
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put("x.1", "query");
+    Assert.assertEquals(conf.getValByRegex("^x\\..*"), expected);
+    // own properties don't go to the parents, and parents are read through
+    Assert.assertNull(queryConf.get("c"));
+    driverConf.set("e", "driver");
+    Assert.assertEquals(conf.get("e"), "driver");
+  }
+
+  @Test
+  public void testDeprecatedKeys() {
+    Configuration.addDeprecation("lens.test.layered.old", "lens.test.layered.new");
+    Configuration driverConf = conf("lens.test.layered.new", "driver");
+    LayeredConfiguration conf = new LayeredConfiguration(conf("b", "query"), driverConf);
+    Assert.assertEquals(conf.get("lens.test.layered.old"), "driver");
+    Assert.assertEquals(conf.get("lens.test.layered.new"), "driver");
+    conf.set("lens.test.layered.old", "own");
+    Assert.assertEquals(conf.get("lens.test.layered.new"), "own");
+    Assert.assertEquals(driverConf.get("lens.test.layered.new"), "driver");
+  }
+
+  @Test
+  public void testMaterializing() {
+    Configuration driverConf = conf("a", "driver", "b", "driver");
+    LayeredConfiguration conf = new LayeredConfiguration(conf("b", "query"), driverConf);
+    conf.set("c", "own");
+
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put("a", "driver");
+    expected.put("b", "query");
+    expected.put("c", "own");
+    // copies see all the layers, without materializing the configuration
+    Assert.assertEquals(toMap(new Configuration(conf)), expected);
+    Assert.assertEquals(toMap(conf.materialize()), expected);
+    Assert.assertEquals(toMap(conf), expected);
+
+    // materialized configuration is a copy
+    driverConf.set("e", "driver");
+    Assert.assertNull(conf.get("e"));
+    conf.set("d", "own");
+    conf.unset("a");
+    Assert.assertEquals(conf.get("d"), "own");
+    Assert.assertNull(conf.get("a"));
+    Assert.assertEquals(driverConf.get("a"), "driver");
+  }
+}
@@ -19,6 +19,10 @@
 package org.apache.lens.server.metastore;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
@@ -29,16 +33,19 @@ import org.apache.lens.cube.metadata.*;
 import org.apache.lens.cube.metadata.Dimension;
 import org.apache.lens.cube.metadata.timeline.PartitionTimeline;
 import org.apache.lens.server.LensService;
+import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.metastore.CubeMetastoreService;
 import org.apache.lens.server.session.LensSessionImpl;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.api.*;
 import org.apache.hadoop.hive.ql.metadata.*;
 import org.apache.hadoop.hive.ql.metadata.Partition;
 import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.hadoop.hive.ql.parse.ParseException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hive.service.cli.CLIService;
 import org.apache.hive.service.cli.HiveSQLException;
 import org.apache.thrift.TException;
@@ -49,10 +56,100 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class CubeMetastoreServiceImpl extends LensService implements CubeMetastoreService {
 
+  /** Thread warming up the metastore client caches after start */
+  private Thread warmUpThread;
+
   public CubeMetastoreServiceImpl(CLIService cliService) {
     super(NAME, cliService);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hive.service.CompositeService#start()
+   */
+  @Override
+  public synchronized void start() {
+    super.start();
+    final HiveConf conf = getHiveConf();
+    if (!conf.getBoolean(LensConfConstants.METASTORE_WARM_UP_ENABLED,
+      LensConfConstants.DEFAULT_METASTORE_WARM_UP_ENABLED)) {
+      return;
+    }
+    // warm up in background, queries coming in meanwhile fill the same caches on their own
+    warmUpThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        warmUp(conf);
+      }
+    }, "metastore-warm-up");
+    warmUpThread.setDaemon(true);
+    warmUpThread.start();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hive.service.CompositeService#stop()
+   */
+  @Override
+  public synchronized void stop() {
+    if (warmUpThread != null) {
+      warmUpThread.interrupt();
+    }
+    try {
+      // partition timelines whose storing is delayed
+      CubeMetastoreClient.flushAllPartitionTimelines();
+    } catch (HiveException e) {
+      log.error("Error storing partition timelines", e);
+    }
+    super.stop();
+  }
+
+  /**
+   * Warm up the cube metastore clients of the configured databases.
+   *
+   * @param conf server configuration
+   */
+  private void warmUp(HiveConf conf) {
+    int poolSize = conf.getInt(LensConfConstants.METASTORE_WARM_UP_THREADS,
+      LensConfConstants.DEFAULT_METASTORE_WARM_UP_THREADS);
+    int batchSize = conf.getInt(LensConfConstants.METASTORE_WARM_UP_BATCH_SIZE,
+      LensConfConstants.DEFAULT_METASTORE_WARM_UP_BATCH_SIZE);
+    List<String> timelineFacts = Arrays.asList(conf.getTrimmedStrings(
+      LensConfConstants.METASTORE_WARM_UP_TIMELINE_FACTS));
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    final AtomicInteger thId = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread th = defaultFactory.newThread(r);
+        th.setName("metastore-warm-up-" + thId.incrementAndGet());
+        th.setDaemon(true);
+        return th;
+      }
+    });
+    try {
+      SessionState.start(new SessionState(conf));
+      for (String database : conf.getTrimmedStrings(LensConfConstants.METASTORE_WARM_UP_DATABASES,
+        LensConfConstants.DEFAULT_METASTORE_WARM_UP_DATABASES)) {
+        if (Thread.currentThread().isInterrupted()) {
+          break;
+        }
+        try {
+          log.info("Warming up metastore client of database " + database);
+          SessionState.get().setCurrentDatabase(database);
+          CubeMetastoreClient.getInstance(conf).warmUp(pool, batchSize, timelineFacts);
+        } catch (Exception e) {
+          log.warn("Could not warm up metastore client of database " + database, e);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      CubeMetastoreClient.close();
+    }
+  }
+
   synchronized CubeMetastoreClient getClient(LensSessionHandle sessionid) throws LensException {
     return ((LensSessionImpl) getSession(sessionid)).getCubeMetastoreClient();
   }
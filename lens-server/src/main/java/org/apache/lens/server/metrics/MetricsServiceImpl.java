@@ -472,6 +472,16 @@ public class MetricsServiceImpl extends AbstractService implements MetricsServic
     metricRegistry.counter(MetricRegistry.name(cls, counter)).dec();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.api.metrics.MetricsService#updateHistogram(java.lang.Class, java.lang.String, long)
+   */
+  @Override
+  public void updateHistogram(Class<?> cls, String histogram, long value) {
+    metricRegistry.histogram(MetricRegistry.name(cls, histogram)).update(value);
+  }
+
   /*
    * (non-Javadoc)
    *
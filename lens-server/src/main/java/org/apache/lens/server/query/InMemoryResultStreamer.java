@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.lens.api.query.InMemoryQueryResult;
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.server.api.driver.InMemoryResultSet;
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hive.service.cli.ColumnDescriptor;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams rows of an in memory result set as CSV or JSON lines. Rows are read in chunks of the configured number of
+ * rows from the position of this stream, and each chunk is written and flushed before the next one is read. The result
+ * set is held only while reading a chunk, so a slow client doesn't block the paged fetches of the same query, and at
+ * most one chunk is kept in memory.
+ */
+@Slf4j
+public class InMemoryResultStreamer implements StreamingOutput {
+
+  /**
+   * Supported formats for streaming.
+   */
+  public enum Format {
+    /**
+     * Comma separated values, with quotes where required.
+     */
+    CSV,
+
+    /**
+     * One JSON array per row.
+     */
+    JSON
+  }
+
+  /**
+   * Size of the buffer between rows and the output stream.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The Constant MAPPER.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /** The result set. */
+  private final InMemoryResultSet resultSet;
+
+  /** The format. */
+  private final Format format;
+
+  /** The charset encoding. */
+  private final String encoding;
+
+  /** Number of rows after which the output is flushed. */
+  private final int flushRows;
+
+  /**
+   * Instantiates a new in memory result streamer.
+   *
+   * @param resultSet the result set
+   * @param format    the format
+   * @param encoding  the charset encoding
+   * @param flushRows number of rows to be written in each chunk
+   */
+  public InMemoryResultStreamer(InMemoryResultSet resultSet, Format format, String encoding, int flushRows) {
+    this.resultSet = resultSet;
+    this.format = format;
+    this.encoding = encoding;
+    this.flushRows = flushRows > 0 ? flushRows : 1;
+  }
+
+  /**
+   * Gets the file extension for the format.
+   *
+   * @return the extension
+   */
+  public String getFileExtension() {
+    return format == Format.CSV ? ".csv" : ".json";
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see javax.ws.rs.core.StreamingOutput#write(java.io.OutputStream)
+   */
+  @Override
+  public void write(OutputStream os) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(os, encoding), BUFFER_SIZE);
+    long numRows = 0;
+    try {
+      List<ColumnDescriptor> columns = resultSet.getMetadata().getColumns();
+      if (columns != null) {
+        List<Object> header = new ArrayList<Object>(columns.size());
+        for (ColumnDescriptor column : columns) {
+          header.add(column.getName());
+        }
+        writeRow(writer, header);
+      }
+      boolean moreRows = true;
+      while (moreRows) {
+        // result set is held only while reading the chunk at this stream's position, and not while writing it
+        InMemoryQueryResult chunk = resultSet.toQueryResult(numRows, flushRows);
+        for (ResultRow row : chunk.getRows()) {
+          writeRow(writer, row.getValues());
+        }
+        numRows += chunk.getRows().size();
+        moreRows = chunk.isMoreRowsAvailable() && !chunk.getRows().isEmpty();
+        writer.flush();
+      }
+    } catch (LensException e) {
+      throw new IOException("Error reading result after " + numRows + " rows", e);
+    }
+    log.info("Streamed " + numRows + " rows as " + format);
+  }
+
+  /**
+   * Write a row in the format.
+   *
+   * @param writer the writer
+   * @param values the values
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void writeRow(Writer writer, List<Object> values) throws IOException {
+    if (format == Format.JSON) {
+      writer.write(MAPPER.writeValueAsString(values));
+    } else {
+      for (int i = 0; i < values.size(); i++) {
+        if (i > 0) {
+          writer.write(',');
+        }
+        writeCSVField(writer, values.get(i));
+      }
+    }
+    writer.write('\n');
+  }
+
+  /**
+   * Write a CSV field, quoting it if it contains separator, quote or new line.
+   *
+   * @param writer the writer
+   * @param value  the value
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static void writeCSVField(Writer writer, Object value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    String str = value.toString();
+    if (str.indexOf(',') < 0 && str.indexOf('"') < 0 && str.indexOf('\n') < 0 && str.indexOf('\r') < 0) {
+      writer.write(str);
+      return;
+    }
+    writer.write('"');
+    writer.write(str.replace("\"", "\"\""));
+    writer.write('"');
+  }
+}
@@ -19,24 +19,34 @@
 package org.apache.lens.server.query;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.FinishedLensQuery;
 import org.apache.lens.server.util.UtilityMethods;
 
+import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.BeanHandler;
+import org.apache.commons.dbutils.handlers.BeanListHandler;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 
+import com.codahale.metrics.MetricRegistry;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -45,9 +55,71 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class LensServerDAO {
 
+  /**
+   * Name of the histogram of number of finished queries inserted in a batch.
+   */
+  public static final String BATCH_SIZE_HISTOGRAM = "finished-query-batch-size";
+
+  /**
+   * Name of the histogram of time in millis taken to insert a batch of finished queries.
+   */
+  public static final String BATCH_FLUSH_MILLIS_HISTOGRAM = "finished-query-batch-flush-millis";
+
+  /** The Constant INSERT_FINISHED_QUERY_SQL. */
+  private static final String INSERT_FINISHED_QUERY_SQL = "insert into finished_queries (handle, userquery,submitter,"
+    + "starttime,endtime,result,status,metadata,rows,"
+    + "errormessage,driverstarttime,driverendtime, metadataclass, queryname, submissiontime)"
+    + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
   /** The ds. */
   private DataSource ds;
 
+  /** Maximum number of finished queries inserted in one batch. */
+  private int batchSize;
+
+  /** Maximum time in millis a finished query waits for its batch to fill up. */
+  private long flushIntervalMillis;
+
+  /** Finished queries waiting to be inserted by the batch writer. */
+  private final BlockingQueue<PendingInsert> pendingInserts = new LinkedBlockingQueue<PendingInsert>();
+
+  /** The batch writer thread. */
+  private Thread batchWriter;
+
+  /** Whether batch writer is stopped. */
+  private volatile boolean batchWriterStopped;
+
+  /**
+   * Callback for the result of an asynchronous insert of a finished query. Callbacks are invoked from the batch writer
+   * thread, so they should hand off any slow work instead of delaying the following batches.
+   */
+  public interface FinishedQueryInsertCallback {
+
+    /**
+     * Called after the finished query is saved in the database.
+     *
+     * @param query the finished query
+     */
+    void onSuccess(FinishedLensQuery query);
+
+    /**
+     * Called if the finished query could not be saved in the database.
+     *
+     * @param query the finished query
+     * @param e     the exception
+     */
+    void onFailure(FinishedLensQuery query, Exception e);
+  }
+
+  /**
+   * A finished query waiting to be inserted, along with its callback.
+   */
+  @AllArgsConstructor
+  private static class PendingInsert {
+    private final FinishedLensQuery query;
+    private final FinishedQueryInsertCallback callback;
+  }
+
   /**
    * Inits the.
    *
@@ -55,6 +127,10 @@ public class LensServerDAO {
    */
   public void init(Configuration conf) {
     ds = UtilityMethods.getDataSourceFromConf(conf);
+    batchSize = Math.max(1, conf.getInt(LensConfConstants.FINISHED_QUERY_INSERT_BATCH_SIZE,
+      LensConfConstants.DEFAULT_FINISHED_QUERY_INSERT_BATCH_SIZE));
+    flushIntervalMillis = conf.getLong(LensConfConstants.FINISHED_QUERY_INSERT_FLUSH_INTERVAL_MILLIS,
+      LensConfConstants.DEFAULT_FINISHED_QUERY_INSERT_FLUSH_INTERVAL_MILLIS);
   }
 
   public Connection getConnection() throws SQLException {
@@ -103,6 +179,24 @@ public class LensServerDAO {
     } catch (SQLException e) {
       log.warn("Unable to create finished queries table", e);
     }
+    createIndex("finished_queries_submitter_time", "submitter, submissiontime");
+    createIndex("finished_queries_status_time", "status, submissiontime");
+  }
+
+  /**
+   * Create index on finished queries table, if it doesn't exist already.
+   *
+   * @param name    the index name
+   * @param columns comma separated columns of the index
+   */
+  private void createIndex(String name, String columns) {
+    try {
+      createTable("CREATE INDEX " + name + " ON finished_queries (" + columns + ")");
+      log.info("Created index " + name + " on finished queries table");
+    } catch (SQLException e) {
+      // most likely the index exists already
+      log.warn("Unable to create index " + name + " on finished queries table: " + e.getMessage());
+    }
   }
 
   /**
@@ -115,15 +209,8 @@ public class LensServerDAO {
     FinishedLensQuery alreadyExisting = getQuery(query.getHandle());
     if (alreadyExisting == null) {
       // The expected case
-      String sql = "insert into finished_queries (handle, userquery,submitter,"
-        + "starttime,endtime,result,status,metadata,rows,"
-        + "errormessage,driverstarttime,driverendtime, metadataclass, queryname, submissiontime)"
-        + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
       QueryRunner runner = new QueryRunner(ds);
-      runner.update(sql, query.getHandle(), query.getUserQuery(), query.getSubmitter(), query.getStartTime(),
-        query.getEndTime(), query.getResult(), query.getStatus(), query.getMetadata(), query.getRows(),
-        query.getErrorMessage(), query.getDriverStartTime(), query.getDriverEndTime(), query.getMetadataClass(),
-        query.getQueryName(), query.getSubmissionTime());
+      runner.update(INSERT_FINISHED_QUERY_SQL, getInsertParams(query));
     } else {
       log.warn("Re insert happening in purge: " + Thread.currentThread().getStackTrace());
       if (alreadyExisting.equals(query)) {
@@ -139,6 +226,196 @@ public class LensServerDAO {
 
   }
 
+  private static Object[] getInsertParams(FinishedLensQuery query) {
+    return new Object[]{query.getHandle(), query.getUserQuery(), query.getSubmitter(), query.getStartTime(),
+      query.getEndTime(), query.getResult(), query.getStatus(), query.getMetadata(), query.getRows(),
+      query.getErrorMessage(), query.getDriverStartTime(), query.getDriverEndTime(), query.getMetadataClass(),
+      query.getQueryName(), query.getSubmissionTime()};
+  }
+
+  /**
+   * Insert finished queries in a single JDBC batch and transaction. Either all or none of the queries are inserted.
+   *
+   * @param queries the queries to be inserted
+   * @throws SQLException the exception
+   */
+  public void insertFinishedQueries(List<FinishedLensQuery> queries) throws SQLException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    boolean autoCommit = true;
+    try {
+      conn = ds.getConnection();
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+      stmt = conn.prepareStatement(INSERT_FINISHED_QUERY_SQL);
+      QueryRunner runner = new QueryRunner();
+      for (FinishedLensQuery query : queries) {
+        runner.fillStatement(stmt, getInsertParams(query));
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+      conn.commit();
+    } catch (SQLException e) {
+      if (conn != null) {
+        DbUtils.rollbackAndCloseQuietly(conn);
+        conn = null;
+      }
+      throw e;
+    } finally {
+      DbUtils.closeQuietly(stmt);
+      if (conn != null) {
+        try {
+          conn.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+          // don't hide the exception of the insert, if any
+          log.warn("Could not restore auto commit of connection", e);
+        }
+        DbUtils.closeQuietly(conn);
+      }
+    }
+  }
+
+  /**
+   * Queue the finished query to be inserted by the batch writer. The callback is invoked from the batch writer thread
+   * once the batch containing the query is written.
+   *
+   * @param query    the finished query
+   * @param callback the callback
+   */
+  public void insertFinishedQueryAsync(FinishedLensQuery query, FinishedQueryInsertCallback callback) {
+    pendingInserts.add(new PendingInsert(query, callback));
+  }
+
+  /**
+   * Start the batch writer, which inserts finished queries queued through
+   * {@link #insertFinishedQueryAsync(FinishedLensQuery, FinishedQueryInsertCallback)}.
+   */
+  public synchronized void startBatchWriter() {
+    if (batchWriter != null) {
+      return;
+    }
+    batchWriterStopped = false;
+    batchWriter = new Thread(new BatchWriter(), "FinishedQueryBatchWriter");
+    batchWriter.start();
+  }
+
+  /**
+   * Stop the batch writer after writing finished queries already queued.
+   */
+  public synchronized void stopBatchWriter() {
+    if (batchWriter == null) {
+      return;
+    }
+    batchWriterStopped = true;
+    try {
+      batchWriter.join();
+    } catch (InterruptedException e) {
+      log.error("Interrupted while waiting for batch writer to stop", e);
+    }
+    batchWriter = null;
+  }
+
+  /**
+   * The Class BatchWriter. Collects queued finished queries till the batch is full or flush interval passes after the
+   * first query of the batch, and inserts them together.
+   */
+  private class BatchWriter implements Runnable {
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      log.info("Starting finished query batch writer");
+      List<PendingInsert> batch = new ArrayList<PendingInsert>(batchSize);
+      while (!batchWriterStopped || !pendingInserts.isEmpty()) {
+        try {
+          PendingInsert first = pendingInserts.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          long flushTime = System.currentTimeMillis() + flushIntervalMillis;
+          while (batch.size() < batchSize) {
+            pendingInserts.drainTo(batch, batchSize - batch.size());
+            long waitTime = flushTime - System.currentTimeMillis();
+            if (batch.size() >= batchSize || waitTime <= 0 || batchWriterStopped) {
+              break;
+            }
+            PendingInsert next = pendingInserts.poll(waitTime, TimeUnit.MILLISECONDS);
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+          }
+          writeBatch(batch);
+        } catch (InterruptedException e) {
+          log.info("Finished query batch writer interrupted");
+          batchWriterStopped = true;
+        } catch (Exception e) {
+          log.error("Error in finished query batch writer", e);
+        } finally {
+          batch.clear();
+        }
+      }
+      log.info("Finished query batch writer exited");
+    }
+  }
+
+  /**
+   * Write the batch of finished queries. If the batch insert fails, queries are inserted one by one, so that a single
+   * bad or already inserted query doesn't fail the others.
+   *
+   * @param batch the batch
+   */
+  private void writeBatch(List<PendingInsert> batch) {
+    List<FinishedLensQuery> queries = new ArrayList<FinishedLensQuery>(batch.size());
+    for (PendingInsert pending : batch) {
+      queries.add(pending.query);
+    }
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    registry.histogram(MetricRegistry.name(LensServerDAO.class, BATCH_SIZE_HISTOGRAM)).update(queries.size());
+    long startTime = System.currentTimeMillis();
+    try {
+      insertFinishedQueries(queries);
+      registry.histogram(MetricRegistry.name(LensServerDAO.class, BATCH_FLUSH_MILLIS_HISTOGRAM))
+        .update(System.currentTimeMillis() - startTime);
+      log.info("Saved " + queries.size() + " finished queries to DB");
+      for (PendingInsert pending : batch) {
+        notifySuccess(pending);
+      }
+    } catch (SQLException e) {
+      log.warn("Batch insert of " + queries.size() + " finished queries failed, inserting one by one", e);
+      for (PendingInsert pending : batch) {
+        try {
+          insertFinishedQuery(pending.query);
+        } catch (Exception exc) {
+          notifyFailure(pending, exc);
+          continue;
+        }
+        notifySuccess(pending);
+      }
+    }
+  }
+
+  private void notifySuccess(PendingInsert pending) {
+    try {
+      pending.callback.onSuccess(pending.query);
+    } catch (Exception e) {
+      log.error("Error in callback for finished query " + pending.query.getHandle(), e);
+    }
+  }
+
+  private void notifyFailure(PendingInsert pending, Exception cause) {
+    try {
+      pending.callback.onFailure(pending.query, cause);
+    } catch (Exception e) {
+      log.error("Error in callback for finished query " + pending.query.getHandle(), e);
+    }
+  }
+
   /**
    * Fetch Finished query from Database.
    *
@@ -175,28 +452,10 @@ public class LensServerDAO {
     StringBuilder builder = new StringBuilder("SELECT handle FROM finished_queries");
     List<Object> params = null;
     if (addFilter) {
-      builder.append(" WHERE ");
       List<String> filters = new ArrayList<String>(3);
       params = new ArrayList<Object>(3);
-
-      if (StringUtils.isNotBlank(state)) {
-        filters.add("status=?");
-        params.add(state);
-      }
-
-      if (StringUtils.isNotBlank(user)) {
-        filters.add("submitter=?");
-        params.add(user);
-      }
-
-      if (StringUtils.isNotBlank(queryName)) {
-        filters.add("queryname like ?");
-        params.add("%" + queryName + "%");
-      }
-
-      filters.add("submissiontime BETWEEN ? AND ?");
-      params.add(fromDate);
-      params.add(toDate);
+      addFilters(filters, params, state, user, queryName, fromDate, toDate);
+      builder.append(" WHERE ");
       builder.append(StringUtils.join(filters, " AND "));
     }
 
@@ -229,4 +488,83 @@ public class LensServerDAO {
     }
   }
 
+  /**
+   * Add filters on state, user, query name and submission time range of finished queries.
+   *
+   * @param filters   the filters to add to
+   * @param params    the params to add to
+   * @param state     the state
+   * @param user      the user
+   * @param queryName the query name
+   * @param fromDate  the from date
+   * @param toDate    the to date
+   */
+  private void addFilters(List<String> filters, List<Object> params, String state, String user, String queryName,
+    long fromDate, long toDate) {
+    if (StringUtils.isNotBlank(state)) {
+      filters.add("status=?");
+      params.add(state);
+    }
+
+    if (StringUtils.isNotBlank(user)) {
+      filters.add("submitter=?");
+      params.add(user);
+    }
+
+    if (StringUtils.isNotBlank(queryName)) {
+      filters.add("queryname like ?");
+      params.add("%" + queryName + "%");
+    }
+
+    filters.add("submissiontime BETWEEN ? AND ?");
+    params.add(fromDate);
+    params.add(toDate);
+  }
+
+  /**
+   * Find a page of finished queries, ordered by submission time and handle. The page starts after the query with given
+   * submission time and handle, so that pages are looked up through the indexes on submission time, instead of
+   * skipping rows from the beginning. Only handle and submission time are populated in the returned queries.
+   *
+   * @param state               the state
+   * @param user                the user
+   * @param queryName           the query name
+   * @param fromDate            the from date
+   * @param toDate              the to date
+   * @param limit               maximum number of queries to return
+   * @param afterSubmissionTime submission time of the last query of previous page, null for the first page
+   * @param afterHandle         handle of the last query of previous page, null for the first page
+   * @return the list
+   * @throws LensException the lens exception
+   */
+  public List<FinishedLensQuery> findFinishedQueries(String state, String user, String queryName, long fromDate,
+    long toDate, final int limit, Long afterSubmissionTime, String afterHandle) throws LensException {
+    List<String> filters = new ArrayList<String>();
+    List<Object> params = new ArrayList<Object>();
+    addFilters(filters, params, state, user, queryName, fromDate, toDate);
+    if (afterSubmissionTime != null) {
+      filters.add("(submissiontime > ? OR (submissiontime = ? AND handle > ?))");
+      params.add(afterSubmissionTime);
+      params.add(afterSubmissionTime);
+      params.add(afterHandle);
+    }
+    String query = "SELECT handle, submissiontime FROM finished_queries WHERE " + StringUtils.join(filters, " AND ")
+      + " ORDER BY submissiontime, handle";
+
+    QueryRunner runner = new QueryRunner(ds) {
+      @Override
+      protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = super.prepareStatement(conn, sql);
+        // limit is not portable across databases as part of sql
+        stmt.setMaxRows(limit);
+        return stmt;
+      }
+    };
+    try {
+      return runner.query(query, new BeanListHandler<FinishedLensQuery>(FinishedLensQuery.class), params.toArray());
+    } catch (SQLException e) {
+      throw new LensException(e);
+    }
+  }
+
 }
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.api.query.QueryStatus.Status;
+import org.apache.lens.server.api.query.QueryContext;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Secondary indexes over the queries held in memory by the query service, by submitted user, by status and by
+ * submission time. The indexes are updated together under a lock on addition, removal and status change of a query,
+ * while lookups don't take the lock and only iterate over the handles matching the most selective filter.
+ */
+class QueryContextIndex {
+
+  /**
+   * Handles of queries by lower cased submitted user.
+   */
+  private final ConcurrentMap<String, Set<QueryHandle>> byUser = new ConcurrentHashMap<String, Set<QueryHandle>>();
+
+  /**
+   * Handles of queries by status.
+   */
+  private final ConcurrentMap<Status, Set<QueryHandle>> byStatus = new ConcurrentHashMap<Status, Set<QueryHandle>>();
+
+  /**
+   * Handles of queries ordered by submission time.
+   */
+  private final ConcurrentSkipListMap<Long, Set<QueryHandle>> bySubmissionTime
+    = new ConcurrentSkipListMap<Long, Set<QueryHandle>>();
+
+  /**
+   * Status with which each query is indexed currently.
+   */
+  private final ConcurrentMap<QueryHandle, Status> indexedStatus = new ConcurrentHashMap<QueryHandle, Status>();
+
+  /**
+   * Add the query to the indexes.
+   *
+   * @param ctx the query context
+   */
+  public synchronized void add(QueryContext ctx) {
+    QueryHandle handle = ctx.getQueryHandle();
+    Status status = ctx.getStatus().getStatus();
+    Status previous = indexedStatus.put(handle, status);
+    if (previous != null) {
+      removeFrom(byStatus, previous, handle);
+    }
+    addTo(byStatus, status, handle);
+    addTo(byUser, userKey(ctx.getSubmittedUser()), handle);
+    addTo(bySubmissionTime, ctx.getSubmissionTime(), handle);
+  }
+
+  /**
+   * Move the query to its current status in the status index. Queries which are not indexed are ignored.
+   *
+   * @param ctx the query context
+   */
+  public synchronized void updateStatus(QueryContext ctx) {
+    QueryHandle handle = ctx.getQueryHandle();
+    Status previous = indexedStatus.get(handle);
+    Status current = ctx.getStatus().getStatus();
+    if (previous == null || previous == current) {
+      return;
+    }
+    indexedStatus.put(handle, current);
+    removeFrom(byStatus, previous, handle);
+    addTo(byStatus, current, handle);
+  }
+
+  /**
+   * Remove the query from the indexes.
+   *
+   * @param ctx the query context
+   */
+  public synchronized void remove(QueryContext ctx) {
+    QueryHandle handle = ctx.getQueryHandle();
+    Status previous = indexedStatus.remove(handle);
+    if (previous == null) {
+      return;
+    }
+    removeFrom(byStatus, previous, handle);
+    removeFrom(byUser, userKey(ctx.getSubmittedUser()), handle);
+    removeFrom(bySubmissionTime, ctx.getSubmissionTime(), handle);
+  }
+
+  /**
+   * Find handles of queries which can match the filters. Candidates are picked from the most selective index among
+   * the filters passed, so callers still need to check the remaining filters against each query.
+   *
+   * @param status   status to filter on, null for any status
+   * @param user     user to filter on, null for any user
+   * @param fromDate submission time lower bound, inclusive
+   * @param toDate   submission time upper bound, inclusive
+   * @return the candidate query handles
+   */
+  public Collection<QueryHandle> findCandidates(Status status, String user, long fromDate, long toDate) {
+    Set<QueryHandle> statusMatches = status == null ? null : get(byStatus, status);
+    Set<QueryHandle> userMatches = user == null ? null : get(byUser, userKey(user));
+    if (statusMatches != null && userMatches != null) {
+      return new ArrayList<QueryHandle>(statusMatches.size() <= userMatches.size() ? statusMatches : userMatches);
+    } else if (statusMatches != null) {
+      return new ArrayList<QueryHandle>(statusMatches);
+    } else if (userMatches != null) {
+      return new ArrayList<QueryHandle>(userMatches);
+    }
+    List<QueryHandle> timeMatches = new ArrayList<QueryHandle>();
+    for (Set<QueryHandle> handles : bySubmissionTime.subMap(fromDate, true, toDate, true).values()) {
+      timeMatches.addAll(handles);
+    }
+    return timeMatches;
+  }
+
+  private static String userKey(String user) {
+    return StringUtils.isBlank(user) ? "" : user.toLowerCase();
+  }
+
+  private static <K> Set<QueryHandle> get(ConcurrentMap<K, Set<QueryHandle>> index, K key) {
+    Set<QueryHandle> handles = index.get(key);
+    return handles == null ? Collections.<QueryHandle>emptySet() : handles;
+  }
+
+  private static <K> void addTo(ConcurrentMap<K, Set<QueryHandle>> index, K key, QueryHandle handle) {
+    Set<QueryHandle> handles = index.get(key);
+    if (handles == null) {
+      handles = Collections.newSetFromMap(new ConcurrentHashMap<QueryHandle, Boolean>());
+      index.put(key, handles);
+    }
+    handles.add(handle);
+  }
+
+  private static <K> void removeFrom(ConcurrentMap<K, Set<QueryHandle>> index, K key, QueryHandle handle) {
+    Set<QueryHandle> handles = index.get(key);
+    if (handles != null) {
+      handles.remove(handle);
+      if (handles.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+}
@@ -138,7 +138,25 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
   /**
    * The launched queries.
    */
-  private List<QueryContext> launchedQueries = new ArrayList<QueryContext>();
+  private Set<QueryContext> launchedQueries = Collections.newSetFromMap(
+    new ConcurrentHashMap<QueryContext, Boolean>());
+
+  /**
+   * Time at which status of a launched query is to be updated next.
+   */
+  private final ConcurrentMap<QueryHandle, Long> nextStatusUpdateTimes = new ConcurrentHashMap<QueryHandle, Long>();
+
+  /**
+   * Queries for which status update is submitted to status update pool and is not yet complete, mapped to whether a
+   * forced update was asked for while it is in progress.
+   */
+  private final ConcurrentMap<QueryHandle, Boolean> statusUpdatesInProgress
+    = new ConcurrentHashMap<QueryHandle, Boolean>();
+
+  /**
+   * Thread pool used for updating status of launched queries in parallel
+   */
+  private ExecutorService statusUpdatePool;
 
   /**
    * The finished queries.
@@ -161,6 +179,11 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
    */
   protected ConcurrentMap<QueryHandle, QueryContext> allQueries = new ConcurrentHashMap<QueryHandle, QueryContext>();
 
+  /**
+   * Indexes over all queries, used for filtering them.
+   */
+  private final QueryContextIndex allQueriesIndex = new QueryContextIndex();
+
   /**
    * The conf.
    */
@@ -176,6 +199,29 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
    */
   protected final Thread querySubmitter = new Thread(querySubmitterRunnable, "QuerySubmitter");
 
+  /**
+   * Thread pool in which queries are rewritten and launched in parallel
+   */
+  private ExecutorService launcherPool;
+
+  /**
+   * Number of free threads in the launcher pool
+   */
+  private Semaphore launcherSlots;
+
+  /**
+   * Permits for concurrent launches on each driver, for drivers which limit concurrent launches
+   */
+  private final ConcurrentMap<LensDriver, Semaphore> driverLaunchPermits =
+    new ConcurrentHashMap<LensDriver, Semaphore>();
+
+  /**
+   * Rewritten queries waiting for a launch permit of their selected driver, launched by the launcher which releases a
+   * permit of the driver
+   */
+  private final ConcurrentMap<LensDriver, PriorityBlockingQueue<QueryContext>> driverWaitingQueries =
+    new ConcurrentHashMap<LensDriver, PriorityBlockingQueue<QueryContext>>();
+
   /**
    * The status poller.
    */
@@ -236,6 +282,11 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
    */
   private ExecutorService estimatePool;
 
+  /**
+   * Thread pool purging finished queries once they are saved in the DB
+   */
+  private ExecutorService finishedQueryPurgePool;
+
   private final LogSegregationContext logSegregationContext;
 
   private final ErrorCollection errorCollection = LensServices.get().getErrorCollection();
@@ -250,6 +301,9 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
       if (event instanceof DriverSessionStarted) {
         log.info("New driver event by driver " + event.getDriver());
         handleDriverSessionStart(event);
+      } else if (event instanceof DriverQueryFinished) {
+        // update status right away, instead of waiting for the next poll
+        submitStatusUpdate(((DriverQueryFinished) event).getQueryHandle(), true);
       }
     }
   };
@@ -378,6 +432,16 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     getMetrics().decrCounter(QueryExecutionService.class, counter);
   }
 
+  /**
+   * Update histogram.
+   *
+   * @param histogram the histogram
+   * @param value     the value
+   */
+  private void updateHistogram(String histogram, long value) {
+    getMetrics().updateHistogram(QueryExecutionService.class, histogram, value);
+  }
+
   /**
    * The Class QueryStatusLogger.
    */
@@ -475,7 +539,9 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
   }
 
   /**
-   * The Class QuerySubmitter.
+   * The Class QuerySubmitter. Takes queued queries in priority order and hands them over to the launcher pool. A query
+   * is taken from the queue only when a launcher is free, so that queries queued later with higher priority are still
+   * launched first.
    */
   private class QuerySubmitter implements Runnable {
 
@@ -499,44 +565,20 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
       log.info("Starting QuerySubmitter thread");
       while (!pausedForTest && !stopped && !querySubmitter.isInterrupted()) {
         try {
-          QueryContext ctx = queuedQueries.take();
-
-          /* Setting log segregation id */
-          logSegregationContext.set(ctx.getQueryHandleString());
-
-          synchronized (ctx) {
-            if (ctx.getStatus().getStatus().equals(QUEUED)) {
-              log.info("Launching query:" + ctx.getUserQuery());
-              try {
-                // acquire session before any query operation.
-                acquire(ctx.getLensSessionIdentifier());
-                // the check to see if the query was already rewritten and selected driver's rewritten query is set
-                if (!ctx.isDriverQueryExplicitlySet()) {
-                  rewriteAndSelect(ctx);
-                } else {
-                  log.info("Submitting to already selected driver");
-                }
-                // Check if we need to pass session's effective resources to selected driver
-                addSessionResourcesToDriver(ctx);
-                ctx.getSelectedDriver().executeAsync(ctx);
-              } catch (LensException e) {
-
-                LOG.error("Error launching query " + ctx.getQueryHandle(), e);
-                String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
-                setFailedStatus(ctx, "Launching query failed", reason, e.buildLensErrorTO(this.errorCollection));
-                continue;
-
-              } catch (Exception e) {
-                log.error("Error launching query " + ctx.getQueryHandle(), e);
-                String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
-                setFailedStatus(ctx, "Launching query failed", reason, null);
-                continue;
-              } finally {
-                release(ctx.getLensSessionIdentifier());
-              }
-              setLaunchedStatus(ctx);
-              log.info("Launched query " + ctx.getQueryHandle());
-            }
+          launcherSlots.acquire();
+          QueryContext ctx;
+          try {
+            ctx = queuedQueries.take();
+          } catch (InterruptedException e) {
+            launcherSlots.release();
+            throw e;
+          }
+          try {
+            launcherPool.execute(new QueryLauncher(ctx, errorCollection));
+          } catch (RejectedExecutionException e) {
+            launcherSlots.release();
+            queuedQueries.add(ctx);
+            throw e;
           }
         } catch (InterruptedException e) {
           log.info("Query Submitter has been interrupted, exiting");
@@ -550,6 +592,187 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     }
   }
 
+  /**
+   * The Class QueryLauncher. Rewrites the query, selects the driver and launches the query on the selected driver.
+   */
+  private class QueryLauncher implements Runnable {
+
+    /**
+     * The query context.
+     */
+    private final QueryContext ctx;
+
+    private final ErrorCollection errorCollection;
+
+    public QueryLauncher(@NonNull final QueryContext ctx, @NonNull final ErrorCollection errorCollection) {
+      this.ctx = ctx;
+      this.errorCollection = errorCollection;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      try {
+        launchQuery();
+      } catch (Exception e) {
+        incrCounter(QUERY_SUBMITTER_COUNTER);
+        log.error("Error in query launcher", e);
+      } finally {
+        launcherSlots.release();
+      }
+    }
+
+    private void launchQuery() throws LensException {
+      /* Setting log segregation id */
+      logSegregationContext.set(ctx.getQueryHandleString());
+
+      if (!rewriteAndSelectDriver()) {
+        return;
+      }
+      LensDriver driver = ctx.getSelectedDriver();
+      Semaphore driverPermits = getDriverLaunchPermits(driver);
+      if (driverPermits == null) {
+        launchOnSelectedDriver();
+        return;
+      }
+      // the query waits for a permit without holding this launcher, so that a driver with the maximum number of
+      // launches in progress doesn't keep the launchers from queries of other drivers
+      PriorityBlockingQueue<QueryContext> waiting = driverWaitingQueries.get(driver);
+      if (waiting == null) {
+        driverWaitingQueries.putIfAbsent(driver, new PriorityBlockingQueue<QueryContext>());
+        waiting = driverWaitingQueries.get(driver);
+      }
+      waiting.add(ctx);
+      launchWaitingQueries(driverPermits, waiting);
+    }
+
+    /**
+     * Launches the queries waiting for the driver, as long as a launch permit is available. A query added after the
+     * permits are released by all launches in progress is launched by the launcher adding it.
+     *
+     * @param driverPermits launch permits of the driver
+     * @param waiting       queries waiting for the driver
+     */
+    private void launchWaitingQueries(Semaphore driverPermits, PriorityBlockingQueue<QueryContext> waiting) {
+      while (!waiting.isEmpty() && driverPermits.tryAcquire()) {
+        try {
+          QueryContext next = waiting.poll();
+          if (next != null) {
+            logSegregationContext.set(next.getQueryHandleString());
+            new QueryLauncher(next, errorCollection).launchOnSelectedDriver();
+          }
+        } catch (Exception e) {
+          incrCounter(QUERY_SUBMITTER_COUNTER);
+          log.error("Error in query launcher", e);
+        } finally {
+          driverPermits.release();
+        }
+      }
+    }
+
+    /**
+     * Rewrites the query and selects the driver, if the query is still queued.
+     *
+     * @return true if the query can be launched on the selected driver
+     * @throws LensException if the query could not be marked failed
+     */
+    private boolean rewriteAndSelectDriver() throws LensException {
+      synchronized (ctx) {
+        if (!ctx.getStatus().getStatus().equals(QUEUED)) {
+          return false;
+        }
+        log.info("Launching query:" + ctx.getUserQuery());
+        updateHistogram(MetricsService.QUERY_QUEUE_WAIT_MILLIS, System.currentTimeMillis() - ctx.getSubmissionTime());
+        try {
+          // acquire session before any query operation.
+          acquire(ctx.getLensSessionIdentifier());
+          // the check to see if the query was already rewritten and selected driver's rewritten query is set
+          if (!ctx.isDriverQueryExplicitlySet()) {
+            long rewriteStartTime = System.currentTimeMillis();
+            try {
+              rewriteAndSelect(ctx);
+            } finally {
+              updateHistogram(MetricsService.QUERY_REWRITE_MILLIS, System.currentTimeMillis() - rewriteStartTime);
+            }
+          } else {
+            log.info("Submitting to already selected driver");
+          }
+          return true;
+        } catch (Exception e) {
+          setLaunchFailedStatus(e);
+          return false;
+        } finally {
+          release(ctx.getLensSessionIdentifier());
+        }
+      }
+    }
+
+    /**
+     * Launches the query on the selected driver, if the query is still queued.
+     *
+     * @throws LensException if the status of the query could not be updated
+     */
+    private void launchOnSelectedDriver() throws LensException {
+      synchronized (ctx) {
+        // the query could have been cancelled while waiting for the launch permit
+        if (!ctx.getStatus().getStatus().equals(QUEUED)) {
+          return;
+        }
+        try {
+          acquire(ctx.getLensSessionIdentifier());
+          long launchStartTime = System.currentTimeMillis();
+          try {
+            // Check if we need to pass session's effective resources to selected driver
+            addSessionResourcesToDriver(ctx);
+            ctx.getSelectedDriver().executeAsync(ctx);
+          } finally {
+            updateHistogram(MetricsService.QUERY_LAUNCH_MILLIS, System.currentTimeMillis() - launchStartTime);
+          }
+        } catch (Exception e) {
+          setLaunchFailedStatus(e);
+          return;
+        } finally {
+          release(ctx.getLensSessionIdentifier());
+        }
+        setLaunchedStatus(ctx);
+        log.info("Launched query " + ctx.getQueryHandle());
+      }
+    }
+
+    private void setLaunchFailedStatus(Exception e) throws LensException {
+      log.error("Error launching query " + ctx.getQueryHandle(), e);
+      String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+      setFailedStatus(ctx, "Launching query failed", reason,
+        e instanceof LensException ? ((LensException) e).buildLensErrorTO(this.errorCollection) : null);
+    }
+  }
+
+  /**
+   * Gets the permits for launching queries on the driver, as many as the configured maximum number of concurrent
+   * launches on the driver.
+   *
+   * @param driver the driver
+   * @return the launch permits, null if launches on the driver are not limited
+   */
+  private Semaphore getDriverLaunchPermits(LensDriver driver) {
+    Semaphore permits = driverLaunchPermits.get(driver);
+    if (permits == null) {
+      int maxLaunches = driver.getConf().getInt(LensConfConstants.MAX_CONCURRENT_LAUNCHES_PER_DRIVER,
+        conf.getInt(LensConfConstants.MAX_CONCURRENT_LAUNCHES_PER_DRIVER,
+          LensConfConstants.DEFAULT_MAX_CONCURRENT_LAUNCHES_PER_DRIVER));
+      if (maxLaunches <= 0) {
+        return null;
+      }
+      Semaphore existing = driverLaunchPermits.putIfAbsent(driver, new Semaphore(maxLaunches, true));
+      permits = existing != null ? existing : driverLaunchPermits.get(driver);
+    }
+    return permits;
+  }
+
   // used in tests
 
   /**
@@ -560,15 +783,11 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
   }
 
   /**
-   * The Class StatusPoller.
+   * The Class StatusPoller. Submits status updates of launched queries to the status update pool, when they are due.
+   * Status of a query is polled less often as it runs longer, and right away when its driver notifies completion.
    */
   private class StatusPoller implements Runnable {
 
-    /**
-     * The poll interval.
-     */
-    long pollInterval = 1000;
-
     /*
      * (non-Javadoc)
      *
@@ -577,6 +796,8 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     @Override
     public void run() {
       log.info("Starting Status poller thread");
+      long pollInterval = conf.getLong(LensConfConstants.STATUS_UPDATE_MIN_INTERVAL_MILLIS,
+        LensConfConstants.DEFAULT_STATUS_UPDATE_MIN_INTERVAL_MILLIS);
       while (!stopped && !statusPoller.isInterrupted()) {
         try {
           List<QueryContext> launched = new ArrayList<QueryContext>();
@@ -585,16 +806,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
             if (stopped || statusPoller.isInterrupted()) {
               return;
             }
-
-            logSegregationContext.set(ctx.getQueryHandleString());
-            log.info("Polling status for " + ctx.getQueryHandle());
-            try {
-              // session is not required to update status of the query
-              // don't need to wrap this with acquire/release
-              updateStatus(ctx.getQueryHandle());
-            } catch (LensException e) {
-              log.error("Error updating status ", e);
-            }
+            submitStatusUpdate(ctx.getQueryHandle(), false);
           }
           Thread.sleep(pollInterval);
         } catch (InterruptedException e) {
@@ -609,6 +821,84 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     }
   }
 
+  /**
+   * Submit status update of the query to status update pool, if it is due or forced and is not already in progress.
+   *
+   * @param handle the query handle
+   * @param force  whether to update irrespective of the next update time
+   */
+  private void submitStatusUpdate(final QueryHandle handle, boolean force) {
+    if (!force) {
+      Long nextUpdateTime = nextStatusUpdateTimes.get(handle);
+      if (nextUpdateTime != null && nextUpdateTime > System.currentTimeMillis()) {
+        return;
+      }
+    }
+    while (statusUpdatesInProgress.putIfAbsent(handle, Boolean.FALSE) != null) {
+      // a forced update asks the update in progress to run again once done, unless that one has just finished
+      if (!force || statusUpdatesInProgress.replace(handle, Boolean.FALSE, Boolean.TRUE)
+        || statusUpdatesInProgress.containsKey(handle)) {
+        return;
+      }
+    }
+    try {
+      statusUpdatePool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            QueryContext ctx = allQueries.get(handle);
+            if (ctx == null) {
+              return;
+            }
+            logSegregationContext.set(ctx.getQueryHandleString());
+            log.info("Polling status for " + handle);
+            // session is not required to update status of the query
+            // don't need to wrap this with acquire/release
+            updateStatus(handle);
+            if (launchedQueries.contains(ctx)) {
+              nextStatusUpdateTimes.put(handle, System.currentTimeMillis() + getStatusUpdateInterval(ctx));
+            } else {
+              nextStatusUpdateTimes.remove(handle);
+            }
+          } catch (LensException e) {
+            incrCounter(STATUS_UPDATE_COUNTER);
+            log.error("Error updating status ", e);
+          } catch (Exception e) {
+            incrCounter(STATUS_UPDATE_COUNTER);
+            log.error("Error in status update of " + handle, e);
+          } finally {
+            if (!statusUpdatesInProgress.remove(handle, Boolean.FALSE)) {
+              // forced update was asked for while this one was in progress
+              statusUpdatesInProgress.remove(handle);
+              submitStatusUpdate(handle, true);
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      statusUpdatesInProgress.remove(handle);
+      log.warn("Status update rejected for " + handle, e);
+    }
+  }
+
+  /**
+   * Gets the interval after which status of the query should be updated again. The interval is the configured fraction
+   * of the time elapsed since launch, bounded by configured min and max intervals.
+   *
+   * @param ctx the query context
+   * @return interval in millis
+   */
+  private long getStatusUpdateInterval(QueryContext ctx) {
+    long minInterval = conf.getLong(LensConfConstants.STATUS_UPDATE_MIN_INTERVAL_MILLIS,
+      LensConfConstants.DEFAULT_STATUS_UPDATE_MIN_INTERVAL_MILLIS);
+    long maxInterval = conf.getLong(LensConfConstants.STATUS_UPDATE_MAX_INTERVAL_MILLIS,
+      LensConfConstants.DEFAULT_STATUS_UPDATE_MAX_INTERVAL_MILLIS);
+    float backoffFactor = conf.getFloat(LensConfConstants.STATUS_UPDATE_BACKOFF_FACTOR,
+      LensConfConstants.DEFAULT_STATUS_UPDATE_BACKOFF_FACTOR);
+    long elapsed = ctx.getLaunchTime() > 0 ? System.currentTimeMillis() - ctx.getLaunchTime() : 0;
+    return Math.max(minInterval, Math.min(maxInterval, (long) (elapsed * backoffFactor)));
+  }
+
   /**
    * Sets the failed status.
    *
@@ -663,6 +953,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
         queuedQueries.remove(ctx);
       } else {
         launchedQueries.remove(ctx);
+        nextStatusUpdateTimes.remove(ctx.getQueryHandle());
       }
     }
     finishedQueries.add(new FinishedQuery(ctx));
@@ -772,6 +1063,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     if (ctx == null || current == null) {
       return;
     }
+    allQueriesIndex.updateStatus(ctx);
 
     QueryStatus.Status prevState = before.getStatus();
     QueryStatus.Status currentStatus = current.getStatus();
@@ -828,32 +1120,27 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
               }
             }
           }
-          try {
-            lensServerDao.insertFinishedQuery(finishedQuery);
-            log.info("Saved query " + finishedQuery.getHandle() + " to DB");
-          } catch (Exception e) {
-            log.warn("Exception while purging query ", e);
-            finishedQueries.add(finished);
-            continue;
-          }
-
-          synchronized (finished.ctx) {
-            finished.ctx.setFinishedQueryPersisted(true);
-            try {
-              if (finished.getCtx().getSelectedDriver() != null) {
-                finished.getCtx().getSelectedDriver().closeQuery(finished.getCtx().getQueryHandle());
-              }
-            } catch (Exception e) {
-              log.warn("Exception while closing query with selected driver.", e);
+          final FinishedQuery toPurge = finished;
+          // the query is purged once it is saved by the batch writer of DAO, so purger doesn't wait on DB inserts
+          lensServerDao.insertFinishedQueryAsync(finishedQuery, new LensServerDAO.FinishedQueryInsertCallback() {
+            @Override
+            public void onSuccess(FinishedLensQuery query) {
+              log.info("Saved query " + query.getHandle() + " to DB");
+              // closing the query on the driver can be slow, so it is not done on the batch writer thread
+              finishedQueryPurgePool.execute(new Runnable() {
+                @Override
+                public void run() {
+                  purgeFinishedQuery(toPurge);
+                }
+              });
             }
-            log.info("Purging: " + finished.getCtx().getQueryHandle());
-            allQueries.remove(finished.getCtx().getQueryHandle());
-            resultSets.remove(finished.getCtx().getQueryHandle());
-          }
-          fireStatusChangeEvent(finished.getCtx(),
-            new QueryStatus(1f, CLOSED, "Query purged", false, null, null, null), finished.getCtx().getStatus());
-          log.info("Query purged: " + finished.getCtx().getQueryHandle());
 
+            @Override
+            public void onFailure(FinishedLensQuery query, Exception e) {
+              log.warn("Exception while purging query ", e);
+              finishedQueries.add(toPurge);
+            }
+          });
         } catch (LensException e) {
           incrCounter(QUERY_PURGER_COUNTER);
           log.error("Error closing  query ", e);
@@ -866,6 +1153,37 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     }
   }
 
+  /**
+   * Close the finished query on the driver and remove it from memory, after it is saved in the DB.
+   *
+   * @param finished the finished query
+   */
+  private void purgeFinishedQuery(FinishedQuery finished) {
+    logSegregationContext.set(finished.getQueryHandleString());
+    try {
+      synchronized (finished.ctx) {
+        finished.ctx.setFinishedQueryPersisted(true);
+        try {
+          if (finished.getCtx().getSelectedDriver() != null) {
+            finished.getCtx().getSelectedDriver().closeQuery(finished.getCtx().getQueryHandle());
+          }
+        } catch (Exception e) {
+          log.warn("Exception while closing query with selected driver.", e);
+        }
+        log.info("Purging: " + finished.getCtx().getQueryHandle());
+        allQueries.remove(finished.getCtx().getQueryHandle());
+        allQueriesIndex.remove(finished.getCtx());
+        resultSets.remove(finished.getCtx().getQueryHandle());
+      }
+      fireStatusChangeEvent(finished.getCtx(),
+        new QueryStatus(1f, CLOSED, "Query purged", false, null, null, null), finished.getCtx().getStatus());
+      log.info("Query purged: " + finished.getCtx().getQueryHandle());
+    } catch (Exception e) {
+      incrCounter(QUERY_PURGER_COUNTER);
+      log.error("Error in query purger", e);
+    }
+  }
+
   /**
    * The Class PreparedQueryPurger.
    */
@@ -920,6 +1238,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
       LOG.error(e);
       throw new IllegalStateException("Could not load drivers", e);
     }
+    RewriteUtil.initRewriteCache(conf);
     maxFinishedQueries = conf.getInt(LensConfConstants.MAX_NUMBER_OF_FINISHED_QUERY,
       LensConfConstants.DEFAULT_FINISHED_QUERIES);
     initalizeFinishedQueryStore(conf);
@@ -995,7 +1314,12 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
       }
     }
 
+    // write the finished queries already handed over by purger, and purge the ones written
+    lensServerDao.stopBatchWriter();
+    finishedQueryPurgePool.shutdown();
     estimatePool.shutdownNow();
+    statusUpdatePool.shutdownNow();
+    launcherPool.shutdownNow();
     log.info("Query execution service stopped");
   }
 
@@ -1026,6 +1350,10 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
       }
     }
     super.start();
+    startStatusUpdatePool();
+    startLauncherPool();
+    startFinishedQueryPurgePool();
+    lensServerDao.startBatchWriter();
     querySubmitter.start();
     statusPoller.start();
     queryPurger.start();
@@ -1034,6 +1362,53 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     startEstimatePool();
   }
 
+  private void startLauncherPool() {
+    int poolSize = conf.getInt(LensConfConstants.LAUNCHER_POOL_THREADS,
+      LensConfConstants.DEFAULT_LAUNCHER_POOL_THREADS);
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    final AtomicInteger thId = new AtomicInteger();
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread th = defaultFactory.newThread(r);
+        th.setName("query-launcher-" + thId.incrementAndGet());
+        return th;
+      }
+    };
+    launcherSlots = new Semaphore(poolSize);
+    launcherPool = Executors.newFixedThreadPool(poolSize, threadFactory);
+  }
+
+  private void startFinishedQueryPurgePool() {
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread th = defaultFactory.newThread(r);
+        th.setName("finished-query-purger");
+        return th;
+      }
+    };
+    finishedQueryPurgePool = Executors.newSingleThreadExecutor(threadFactory);
+  }
+
+  private void startStatusUpdatePool() {
+    int poolSize = conf.getInt(LensConfConstants.STATUS_UPDATE_POOL_THREADS,
+      LensConfConstants.DEFAULT_STATUS_UPDATE_POOL_THREADS);
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    final AtomicInteger thId = new AtomicInteger();
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread th = defaultFactory.newThread(r);
+        th.setName("status-update-" + thId.incrementAndGet());
+        return th;
+      }
+    };
+    // status updates are de-duplicated per query, so the queue is bounded by number of launched queries
+    statusUpdatePool = Executors.newFixedThreadPool(poolSize, threadFactory);
+  }
+
   private void startEstimatePool() {
     int minPoolSize = conf.getInt(LensConfConstants.ESTIMATE_POOL_MIN_THREADS,
       LensConfConstants.DEFAULT_ESTIMATE_POOL_MIN_THREADS);
@@ -1338,9 +1713,6 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
           }
         }
       }
-      if (resultSets.get(queryHandle) instanceof InMemoryResultSet) {
-        ((InMemoryResultSet) resultSets.get(queryHandle)).seekToStart();
-      }
       return resultSets.get(queryHandle);
     }
   }
@@ -1570,6 +1942,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     ctx.setStatus(new QueryStatus(0.0, QUEUED, "Query is queued", false, null, null, null));
     queuedQueries.add(ctx);
     allQueries.put(ctx.getQueryHandle(), ctx);
+    allQueriesIndex.add(ctx);
     fireStatusChangeEvent(ctx, ctx.getStatus(), before);
     log.info("Returning handle " + ctx.getQueryHandle().getHandleId());
     return ctx.getQueryHandle();
@@ -1767,7 +2140,11 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
 
     if (getQueryContext(sessionHandle, handle).getStatus().finished()) {
       if (getQueryContext(sessionHandle, handle).getStatus().isResultSetAvailable()) {
-        result.setResult(getResultset(handle).toQueryResult());
+        LensResultSet resultSet = getResultset(handle);
+        if (resultSet instanceof InMemoryResultSet) {
+          ((InMemoryResultSet) resultSet).rewind();
+        }
+        result.setResult(resultSet.toQueryResult());
       }
     }
     return result;
@@ -1863,9 +2240,15 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
   public QueryResult fetchResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle, long startIndex,
     int fetchSize) throws LensException {
     try {
-      log.info("FetchResultSet:" + sessionHandle.toString() + " query:" + queryHandle);
+      log.info("FetchResultSet:" + sessionHandle.toString() + " query:" + queryHandle + " startIndex:" + startIndex
+        + " fetchSize:" + fetchSize);
       acquire(sessionHandle);
-      return getResultset(queryHandle).toQueryResult();
+      LensResultSet resultSet = getResultset(queryHandle);
+      if (resultSet instanceof InMemoryResultSet) {
+        // result set cached for the handle acts as the server side cursor, pages are read forward from it
+        return ((InMemoryResultSet) resultSet).toQueryResult(startIndex, fetchSize);
+      }
+      return resultSet.toQueryResult();
     } finally {
       release(sessionHandle);
     }
@@ -1931,6 +2314,18 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
   @Override
   public List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String state, String userName,
     String queryName, long fromDate, long toDate) throws LensException {
+    return getAllQueries(sessionHandle, state, userName, queryName, fromDate, toDate, -1, null);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.api.query.QueryExecutionService#getAllQueries(org.apache.lens.api.LensSessionHandle,
+   * java.lang.String, java.lang.String, java.lang.String, long, long, int, java.lang.String)
+   */
+  @Override
+  public List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String state, String userName,
+    String queryName, long fromDate, long toDate, int limit, String cursor) throws LensException {
     validateTimeRange(fromDate, toDate);
     userName = UtilityMethods.removeDomain(userName);
     try {
@@ -1949,22 +2344,35 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
         userName = getSession(sessionHandle).getLoggedInUser();
       }
 
-      List<QueryHandle> all = new ArrayList<QueryHandle>(allQueries.keySet());
+      boolean filterByUser = !"all".equalsIgnoreCase(userName);
+      List<QueryHandle> all = new ArrayList<QueryHandle>(allQueriesIndex.findCandidates(status,
+        filterByUser ? userName : null, fromDate, toDate));
       Iterator<QueryHandle> itr = all.iterator();
       while (itr.hasNext()) {
         QueryHandle q = itr.next();
         QueryContext context = allQueries.get(q);
+        if (context == null) {
+          // purged after the lookup
+          itr.remove();
+          continue;
+        }
         long querySubmitTime = context.getSubmissionTime();
         if ((filterByStatus && status != context.getStatus().getStatus())
           || (filterByQueryName && !context.getQueryName().toLowerCase().contains(queryName))
-          || (!"all".equalsIgnoreCase(userName) && !userName.equalsIgnoreCase(context.getSubmittedUser()))
+          || (filterByUser && !userName.equalsIgnoreCase(context.getSubmittedUser()))
           || (!(fromDate <= querySubmitTime && querySubmitTime <= toDate))) {
           itr.remove();
         }
       }
 
+      boolean includePersisted = status == null || status == CANCELED || status == SUCCESSFUL || status == FAILED;
+      if (limit > 0 || StringUtils.isNotBlank(cursor)) {
+        return getQueriesPage(all, includePersisted, state, filterByUser ? userName : null, queryName, fromDate, toDate,
+          limit, cursor);
+      }
+
       // Unless user wants to get queries in 'non finished' state, get finished queries from DB as well
-      if (status == null || status == CANCELED || status == SUCCESSFUL || status == FAILED) {
+      if (includePersisted) {
         if ("all".equalsIgnoreCase(userName)) {
           userName = null;
         }
@@ -1982,6 +2390,88 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
     }
   }
 
+  /**
+   * Get a page of queries ordered by submission time and handle, from the matching in-memory queries and the matching
+   * queries in the DB. The page starts after the query whose handle is passed as cursor.
+   *
+   * @param inMemory         handles of matching in-memory queries
+   * @param includePersisted whether to include finished queries from the DB
+   * @param state            the state
+   * @param userName         the user name, null for all users
+   * @param queryName        the query name
+   * @param fromDate         the from date
+   * @param toDate           the to date
+   * @param limit            maximum number of handles in the page, non positive for no limit
+   * @param cursor           handle of the last query of previous page, blank for the first page
+   * @return the handles in the page
+   * @throws LensException the lens exception
+   */
+  private List<QueryHandle> getQueriesPage(List<QueryHandle> inMemory, boolean includePersisted, String state,
+    String userName, String queryName, long fromDate, long toDate, int limit, String cursor) throws LensException {
+    Long afterTime = null;
+    String afterHandle = null;
+    if (StringUtils.isNotBlank(cursor)) {
+      afterHandle = cursor.trim();
+      afterTime = getSubmissionTime(afterHandle);
+      if (afterTime == null) {
+        throw new BadRequestException("Invalid cursor " + cursor + ", no query found with the handle");
+      }
+    }
+    if (limit <= 0) {
+      limit = Integer.MAX_VALUE;
+    }
+
+    TreeMap<String, QueryHandle> page = new TreeMap<String, QueryHandle>();
+    for (QueryHandle handle : inMemory) {
+      QueryContext ctx = allQueries.get(handle);
+      if (ctx != null) {
+        addToPage(page, ctx.getSubmissionTime(), handle.toString(), afterTime, afterHandle, limit);
+      }
+    }
+    if (includePersisted) {
+      for (FinishedLensQuery query : lensServerDao.findFinishedQueries(state, userName, queryName, fromDate, toDate,
+        limit, afterTime, afterHandle)) {
+        addToPage(page, query.getSubmissionTime(), query.getHandle(), afterTime, afterHandle, limit);
+      }
+    }
+    return new ArrayList<QueryHandle>(page.values());
+  }
+
+  /**
+   * Add the query to the page if it is after the cursor, keeping only first queries up to the limit.
+   */
+  private static void addToPage(TreeMap<String, QueryHandle> page, long submissionTime, String handle, Long afterTime,
+    String afterHandle, int limit) {
+    if (afterTime != null && (submissionTime < afterTime
+      || (submissionTime == afterTime && handle.compareTo(afterHandle) <= 0))) {
+      return;
+    }
+    // zero padded submission time followed by handle, to sort the page on both
+    page.put(String.format("%020d:%s", submissionTime, handle), QueryHandle.fromString(handle));
+    if (page.size() > limit) {
+      page.pollLastEntry();
+    }
+  }
+
+  /**
+   * Get submission time of the query, looking up in-memory queries first and then the DB.
+   *
+   * @param handle the query handle
+   * @return the submission time, null if the query is not found
+   */
+  private Long getSubmissionTime(String handle) {
+    try {
+      QueryContext ctx = allQueries.get(QueryHandle.fromString(handle));
+      if (ctx != null) {
+        return ctx.getSubmissionTime();
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    FinishedLensQuery query = lensServerDao.getQuery(handle);
+    return query == null ? null : query.getSubmissionTime();
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -2227,6 +2717,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
 
       // populate the query queues
       for (QueryContext ctx : allQueries.values()) {
+        allQueriesIndex.add(ctx);
         switch (ctx.getStatus().getStatus()) {
         case NEW:
         case QUEUED:
@@ -2243,6 +2734,7 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
           break;
         case CLOSED:
           allQueries.remove(ctx.getQueryHandle());
+          allQueriesIndex.remove(ctx);
         }
       }
       log.info("Recovered " + allQueries.size() + " queries");
@@ -2348,6 +2840,26 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
         return Response.ok(stream).header("content-disposition", "attachment; filename = " + resultPath.getName())
           .type(MediaType.APPLICATION_OCTET_STREAM).build();
       }
+    } else if (result instanceof InMemoryResultSet
+      && ctx.getConf().getBoolean(LensConfConstants.QUERY_INMEMORY_HTTP_RESULT_STREAMING_ENABLED,
+      LensConfConstants.DEFAULT_INMEMORY_HTTP_RESULT_STREAMING_ENABLED)) {
+      InMemoryResultStreamer.Format format;
+      String formatName = ctx.getConf().get(LensConfConstants.QUERY_INMEMORY_HTTP_RESULT_FORMAT,
+        LensConfConstants.DEFAULT_INMEMORY_HTTP_RESULT_FORMAT);
+      try {
+        format = InMemoryResultStreamer.Format.valueOf(formatName.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestException("Invalid format " + formatName + " for http result, possible values are "
+          + Arrays.toString(InMemoryResultStreamer.Format.values()), e);
+      }
+      InMemoryResultStreamer stream = new InMemoryResultStreamer((InMemoryResultSet) result, format,
+        ctx.getConf().get(LensConfConstants.QUERY_OUTPUT_CHARSET_ENCODING,
+          LensConfConstants.DEFAULT_OUTPUT_CHARSET_ENCODING),
+        ctx.getConf().getInt(LensConfConstants.QUERY_INMEMORY_HTTP_RESULT_FLUSH_ROWS,
+          LensConfConstants.DEFAULT_INMEMORY_HTTP_RESULT_FLUSH_ROWS));
+      return Response.ok(stream)
+        .header("content-disposition", "attachment; filename = " + queryHandle + stream.getFileExtension())
+        .type(MediaType.APPLICATION_OCTET_STREAM).build();
     } else {
       String entity = "";
       if (result instanceof InMemoryResultSet || result instanceof PersistentResultSet) {
@@ -2389,7 +2901,11 @@ public class QueryExecutionServiceImpl extends LensService implements QueryExecu
 
   @Override
   public long getQueuedQueriesCount() {
-    return queuedQueries.size();
+    long count = queuedQueries.size();
+    for (PriorityBlockingQueue<QueryContext> waiting : driverWaitingQueries.values()) {
+      count += waiting.size();
+    }
+    return count;
   }
 
   @Override
@@ -147,6 +147,9 @@ public class QueryServiceResource {
    *                  returns queries of the current user.
    * @param fromDate  from date to search queries in a time range, the range is inclusive(submitTime &gt;= fromDate)
    * @param toDate    to date to search queries in a time range, the range is inclusive(toDate &gt;= submitTime)
+   * @param limit     maximum number of queries to return. By default, all queries are returned. When set, queries are
+   *                  ordered by submission time.
+   * @param cursor    handle of the last query returned by the previous call, to get the next page of queries
    * @return List of {@link QueryHandle} objects
    */
   @GET
@@ -155,13 +158,14 @@ public class QueryServiceResource {
   public List<QueryHandle> getAllQueries(@QueryParam("sessionid") LensSessionHandle sessionid,
     @DefaultValue("") @QueryParam("state") String state, @DefaultValue("") @QueryParam("queryName") String queryName,
     @DefaultValue("") @QueryParam("user") String user, @DefaultValue("-1") @QueryParam("fromDate") long fromDate,
-    @DefaultValue("-1") @QueryParam("toDate") long toDate) {
+    @DefaultValue("-1") @QueryParam("toDate") long toDate, @DefaultValue("-1") @QueryParam("limit") int limit,
+    @DefaultValue("") @QueryParam("cursor") String cursor) {
     checkSessionId(sessionid);
     try {
       if (toDate == -1L) {
         toDate = Long.MAX_VALUE;
       }
-      return queryServer.getAllQueries(sessionid, state, user, queryName, fromDate, toDate);
+      return queryServer.getAllQueries(sessionid, state, user, queryName, fromDate, toDate, limit, cursor);
     } catch (LensException e) {
       throw new WebApplicationException(e);
     }
@@ -274,7 +278,8 @@ public class QueryServiceResource {
     List<QueryHandle> handles = null;
     boolean failed = false;
     try {
-      handles = getAllQueries(sessionid, state, queryName, user, fromDate, toDate == -1L ? Long.MAX_VALUE : toDate);
+      handles = getAllQueries(sessionid, state, queryName, user, fromDate, toDate == -1L ? Long.MAX_VALUE : toDate,
+        -1, "");
       for (QueryHandle handle : handles) {
         if (cancelQuery(sessionid, handle)) {
           numCancelled++;
@@ -700,8 +705,9 @@ public class QueryServiceResource {
    * @param sessionid   The user session handle
    * @param queryHandle The query handle
    * @param startIndex  start index of the result
-   * @param fetchSize   fetch size
-   * @return {@link QueryResult}
+   * @param fetchSize   fetch size, all the remaining rows are fetched if not passed
+   * @return {@link QueryResult}. For in memory results, the rows of the requested page and whether more rows are
+   * available
    */
   @GET
   @Path("queries/{queryHandle}/resultset")
@@ -22,8 +22,9 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.core.Application;
 
@@ -141,6 +142,65 @@ public class TestLensDAO extends LensJerseyTest {
     Assert.assertEquals(daoTestQueryHandles.get(0).getHandleId().toString(), finishedHandle);
   }
 
+  /**
+   * Test batched and asynchronous inserts of finished queries.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBatchInsert() throws Exception {
+    QueryExecutionServiceImpl service = (QueryExecutionServiceImpl) LensServices.get().getService("query");
+
+    List<FinishedLensQuery> batch = new ArrayList<FinishedLensQuery>();
+    for (int i = 0; i < 3; i++) {
+      QueryContext queryContext = service.createContext("SELECT ID FROM testTable", "foo@localhost", new LensConf(),
+        new Configuration());
+      queryContext.setQueryName("daoBatchTestQuery");
+      FinishedLensQuery finishedLensQuery = new FinishedLensQuery(queryContext);
+      finishedLensQuery.setStatus(QueryStatus.Status.SUCCESSFUL.name());
+      batch.add(finishedLensQuery);
+    }
+    service.lensServerDao.insertFinishedQueries(batch);
+    for (FinishedLensQuery query : batch) {
+      Assert.assertEquals(service.lensServerDao.getQuery(query.getHandle()).getHandle(), query.getHandle());
+    }
+
+    // batch with an already inserted query should fail as a whole
+    QueryContext queryContext = service.createContext("SELECT ID FROM testTable", "foo@localhost", new LensConf(),
+      new Configuration());
+    FinishedLensQuery newQuery = new FinishedLensQuery(queryContext);
+    newQuery.setStatus(QueryStatus.Status.FAILED.name());
+    try {
+      service.lensServerDao.insertFinishedQueries(Arrays.asList(newQuery, batch.get(0)));
+      Assert.fail("Batch insert should fail for already existing handle");
+    } catch (SQLException e) {
+      // expected
+    }
+    Assert.assertNull(service.lensServerDao.getQuery(newQuery.getHandle()));
+
+    // async insert falls back to inserting one by one
+    final CountDownLatch latch = new CountDownLatch(2);
+    final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+    LensServerDAO.FinishedQueryInsertCallback callback = new LensServerDAO.FinishedQueryInsertCallback() {
+      @Override
+      public void onSuccess(FinishedLensQuery query) {
+        saved.add(query.getHandle());
+        latch.countDown();
+      }
+
+      @Override
+      public void onFailure(FinishedLensQuery query, Exception e) {
+        latch.countDown();
+      }
+    };
+    service.lensServerDao.insertFinishedQueryAsync(newQuery, callback);
+    service.lensServerDao.insertFinishedQueryAsync(batch.get(0), callback);
+    Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+    Assert.assertEquals(new HashSet<String>(saved), new HashSet<String>(Arrays.asList(newQuery.getHandle(),
+      batch.get(0).getHandle())));
+    Assert.assertNotNull(service.lensServerDao.getQuery(newQuery.getHandle()));
+  }
+
   /*
    * (non-Javadoc)
    *
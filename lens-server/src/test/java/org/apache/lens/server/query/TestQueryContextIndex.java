@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.api.query.QueryStatus;
+import org.apache.lens.api.query.QueryStatus.Status;
+import org.apache.lens.server.api.query.QueryContext;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit-test")
+public class TestQueryContextIndex {
+
+  private QueryContext mockContext(String user, long submissionTime, Status status) {
+    QueryContext ctx = mock(QueryContext.class);
+    QueryHandle handle = new QueryHandle(UUID.randomUUID());
+    when(ctx.getQueryHandle()).thenReturn(handle);
+    when(ctx.getSubmittedUser()).thenReturn(user);
+    when(ctx.getSubmissionTime()).thenReturn(submissionTime);
+    setStatus(ctx, status);
+    return ctx;
+  }
+
+  private void setStatus(QueryContext ctx, Status status) {
+    when(ctx.getStatus()).thenReturn(new QueryStatus(0.0, status, null, false, null, null, null));
+  }
+
+  private void assertCandidates(QueryContextIndex index, Status status, String user, long from, long to,
+    QueryContext... expected) {
+    HashSet<QueryHandle> expectedHandles = new HashSet<QueryHandle>();
+    for (QueryContext ctx : expected) {
+      expectedHandles.add(ctx.getQueryHandle());
+    }
+    Assert.assertEquals(new HashSet<QueryHandle>(index.findCandidates(status, user, from, to)), expectedHandles);
+  }
+
+  public void testFindCandidates() {
+    QueryContextIndex index = new QueryContextIndex();
+    QueryContext q1 = mockContext("foo", 10, Status.QUEUED);
+    QueryContext q2 = mockContext("Foo", 20, Status.RUNNING);
+    QueryContext q3 = mockContext("bar", 20, Status.RUNNING);
+    QueryContext q4 = mockContext("bar", 30, Status.SUCCESSFUL);
+    for (QueryContext ctx : Arrays.asList(q1, q2, q3, q4)) {
+      index.add(ctx);
+    }
+
+    assertCandidates(index, null, "foo", 0, Long.MAX_VALUE, q1, q2);
+    assertCandidates(index, Status.RUNNING, null, 0, Long.MAX_VALUE, q2, q3);
+    assertCandidates(index, Status.SUCCESSFUL, "foo", 0, Long.MAX_VALUE);
+    assertCandidates(index, null, null, 15, 20, q2, q3);
+    assertCandidates(index, null, null, 0, 5);
+
+    // status transitions move queries across the status index
+    setStatus(q2, Status.SUCCESSFUL);
+    index.updateStatus(q2);
+    assertCandidates(index, Status.RUNNING, null, 0, Long.MAX_VALUE, q3);
+    assertCandidates(index, Status.SUCCESSFUL, null, 0, Long.MAX_VALUE, q2, q4);
+
+    // removed queries are not returned, nor re-indexed on status change
+    index.remove(q4);
+    setStatus(q4, Status.CLOSED);
+    index.updateStatus(q4);
+    assertCandidates(index, Status.SUCCESSFUL, null, 0, Long.MAX_VALUE, q2);
+    assertCandidates(index, Status.CLOSED, null, 0, Long.MAX_VALUE);
+    assertCandidates(index, null, "bar", 0, Long.MAX_VALUE, q3);
+    assertCandidates(index, null, null, 30, 30);
+  }
+}
@@ -52,6 +52,7 @@ import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.metrics.MetricsService;
 import org.apache.lens.server.api.query.AbstractQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
+import org.apache.lens.server.api.query.QueryExecutionService;
 import org.apache.lens.server.api.session.SessionService;
 import org.apache.lens.server.common.ErrorResponseExpectedData;
 import org.apache.lens.server.common.TestDataUtils;
@@ -307,6 +308,23 @@ public class TestQueryService extends LensJerseyTest {
     Assert.assertTrue(allQueries.size() >= 1);
     Assert.assertTrue(allQueries.contains(handle));
 
+    // pages of all queries, walked with the last handle of each page as cursor
+    Set<QueryHandle> pagedQueries = new LinkedHashSet<QueryHandle>();
+    String cursor = "";
+    List<QueryHandle> page;
+    do {
+      page = target.queryParam("sessionid", lensSessionId).queryParam("limit", 2).queryParam("cursor", cursor)
+        .request().get(new GenericType<List<QueryHandle>>() {});
+      Assert.assertTrue(page.size() <= 2);
+      for (QueryHandle pagedHandle : page) {
+        Assert.assertTrue(pagedQueries.add(pagedHandle), "Query repeated across pages " + pagedHandle);
+      }
+      if (!page.isEmpty()) {
+        cursor = page.get(page.size() - 1).toString();
+      }
+    } while (!page.isEmpty());
+    Assert.assertTrue(pagedQueries.contains(handle));
+
     // Get query
     // Invocation.Builder builderjson = target.path(handle.toString()).request(MediaType.APPLICATION_JSON);
     // String responseJSON = builderjson.get(String.class);
@@ -707,6 +725,13 @@ public class TestQueryService extends LensJerseyTest {
     assertTrue(ctx.getDriverFinishTime() > 0);
     assertTrue(ctx.getFinishTime() > 0);
     Assert.assertEquals(ctx.getStatus().getStatus(), QueryStatus.Status.SUCCESSFUL);
+    // launch latencies are recorded separately
+    MetricRegistry reg = LensMetricsRegistry.getStaticRegistry();
+    for (String histogram : new String[]{MetricsService.QUERY_QUEUE_WAIT_MILLIS,
+      MetricsService.QUERY_REWRITE_MILLIS, MetricsService.QUERY_LAUNCH_MILLIS}) {
+      assertTrue(reg.getHistograms().get(MetricRegistry.name(QueryExecutionService.class, histogram)).getCount() > 0,
+        histogram);
+    }
 
     validatePersistedResult(handle, target(), lensSessionId, new String[][]{{"ID", "INT"}, {"IDSTR", "STRING"}}, true);
 
@@ -988,7 +1013,33 @@ public class TestQueryService extends LensJerseyTest {
       .queryParam("sessionid", lensSessionId).request().get(InMemoryQueryResult.class);
     validateInmemoryResult(resultset);
 
-    validNotFoundForHttpResult(target(), lensSessionId, handle);
+    validateStreamedInMemoryResult(target(), lensSessionId, handle);
+  }
+
+  /**
+   * Validate in memory result streamed through http end point.
+   *
+   * @param parent        the parent
+   * @param lensSessionId the lens session id
+   * @param handle        the handle
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  static void validateStreamedInMemoryResult(WebTarget parent, LensSessionHandle lensSessionId, QueryHandle handle)
+    throws IOException {
+    Response response = parent.path("queryapi/queries/" + handle.toString() + "/httpresultset")
+      .queryParam("sessionid", lensSessionId).request().get();
+    Assert.assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    Assert.assertTrue(response.getHeaderString("content-disposition").contains(handle.toString() + ".csv"));
+
+    InputStream in = (InputStream) response.getEntity();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    IOUtils.copyBytes(in, bos, new Configuration());
+    bos.close();
+    in.close();
+
+    // first line is the header
+    List<String> lines = Arrays.asList(new String(bos.toByteArray()).split("\n", -1));
+    Assert.assertEquals(lines.subList(1, lines.size()), Arrays.asList("1,one", ",two", "3,", ",", "5,", ""));
   }
 
   /**